@@ -56,8 +56,10 @@ import com.google.common.io.Closer;
 import org.apache.jackrabbit.oak.api.ContentRepository;
 import org.apache.jackrabbit.oak.api.ContentSession;
 import org.apache.jackrabbit.oak.api.Root;
+import org.apache.jackrabbit.oak.api.jmx.CacheStatsMBean;
 import org.apache.jackrabbit.oak.api.jmx.QueryEngineSettingsMBean;
 import org.apache.jackrabbit.oak.api.jmx.RepositoryManagementMBean;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.core.ContentRepositoryImpl;
 import org.apache.jackrabbit.oak.management.RepositoryManager;
 import org.apache.jackrabbit.oak.plugins.commit.ConflictHook;
@@ -584,6 +586,9 @@ public class Oak {
 
         regs.add(registerMBean(whiteboard, QueryEngineSettingsMBean.class,
                 queryEngineSettings, QueryEngineSettingsMBean.TYPE, "settings"));
+        CacheStats planCacheStats = queryEngineSettings.getQueryPlanCache().getStats();
+        regs.add(registerMBean(whiteboard, CacheStatsMBean.class,
+                planCacheStats, CacheStatsMBean.TYPE, planCacheStats.getName()));
 
         // FIXME: OAK-810 move to proper workspace initialization
         // initialize default workspace
@@ -74,6 +74,28 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
     
     private static final Logger LOG = LoggerFactory.getLogger(CacheLIRS.class);
 
+    /**
+     * Listener for items that are evicted from the cache. The listener is
+     * called while the affected cache segment is locked, so it must not
+     * access the cache and should return quickly.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public interface EvictionCallback<K, V> {
+
+        /**
+         * An entry was evicted from the cache because the maximum memory
+         * was reached. It is not called for entries that are explicitly
+         * removed or replaced.
+         *
+         * @param key the key
+         * @param value the value that was evicted
+         */
+        void evicted(K key, V value);
+
+    }
+
     /**
      * The maximum memory this cache should use.
      */
@@ -94,6 +116,8 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
     private final Weigher<K, V> weigher;
     
     private final CacheLoader<K, V> loader;
+
+    private final EvictionCallback<K, V> evictionCallback;
     
     /**
      * A concurrent hash map of keys where loading is in progress. Key: the
@@ -112,7 +136,7 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
      * @param maxEntries the maximum number of entries
      */
     public CacheLIRS(int maxEntries) {
-        this(null, maxEntries, 1, 16, maxEntries / 100, null);
+        this(null, maxEntries, 1, 16, maxEntries / 100, null, null);
     }
 
     /**
@@ -123,11 +147,15 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
      * @param segmentCount the number of cache segments (must be a power of 2)
      * @param stackMoveDistance how many other item are to be moved to the top
      *        of the stack before the current item is moved
+     * @param loader the cache loader, or null
+     * @param evictionCallback the listener for evicted entries, or null
      */
     @SuppressWarnings("unchecked")
     CacheLIRS(Weigher<K, V> weigher, long maxMemory, int averageMemory, 
-            int segmentCount, int stackMoveDistance, final CacheLoader<K, V> loader) {
+            int segmentCount, int stackMoveDistance, final CacheLoader<K, V> loader,
+            EvictionCallback<K, V> evictionCallback) {
         this.weigher = weigher;
+        this.evictionCallback = evictionCallback;
         setMaxMemory(maxMemory);
         setAverageMemory(averageMemory);
         if (Integer.bitCount(segmentCount) != 1) {
@@ -1135,6 +1163,9 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
                 usedMemory -= e.memory;
                 evictionCount++;
                 removeFromQueue(e);
+                if (cache.evictionCallback != null) {
+                    cache.evictionCallback.evicted(e.key, e.value);
+                }
                 e.value = null;
                 e.memory = 0;
                 addToQueue(queue2, e);
@@ -1405,6 +1436,7 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
         private int averageWeight = 100;
         private int segmentCount = 16;
         private int stackMoveDistance = 16;
+        private EvictionCallback<?, ?> evictionCallback;
 
         public Builder recordStats() {
             return this;
@@ -1449,6 +1481,11 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
             return this;
         }
 
+        public <K, V> Builder evictionCallback(EvictionCallback<K, V> evictionCallback) {
+            this.evictionCallback = evictionCallback;
+            return this;
+        }
+
         public <K, V> CacheLIRS<K, V> build() {
             return build(null);
         }
@@ -1457,8 +1494,10 @@ public class CacheLIRS<K, V> implements LoadingCache<K, V> {
                 CacheLoader<K, V> cacheLoader) {
             @SuppressWarnings("unchecked")
             Weigher<K, V> w = (Weigher<K, V>) weigher;
+            @SuppressWarnings("unchecked")
+            EvictionCallback<K, V> cb = (EvictionCallback<K, V>) evictionCallback;
             return new CacheLIRS<K, V>(w, maxWeight, averageWeight, 
-                    segmentCount, stackMoveDistance, cacheLoader);
+                    segmentCount, stackMoveDistance, cacheLoader, cb);
         }
 
     }
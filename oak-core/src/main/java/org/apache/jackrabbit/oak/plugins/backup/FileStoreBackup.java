@@ -18,16 +18,42 @@
  */
 package org.apache.jackrabbit.oak.plugins.backup;
 
+import static com.google.common.base.Predicates.notNull;
+import static com.google.common.collect.Iterables.any;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Lists.reverse;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentId.isDataSegmentId;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableMap;
 import org.apache.jackrabbit.oak.plugins.segment.Compactor;
+import org.apache.jackrabbit.oak.plugins.segment.RecordId;
+import org.apache.jackrabbit.oak.plugins.segment.Segment;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeBuilder;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
@@ -43,20 +69,25 @@ public class FileStoreBackup {
 
     static int MAX_FILE_SIZE = 256;
 
+    /**
+     * Number of threads reading the segments to copy in parallel
+     * in {@link #backupSegments(NodeStore, File)}.
+     */
+    static int COPY_THREADS = Integer.getInteger("oak.backup.copyThreads", 4);
+
     public static void backup(NodeStore store, File destination)
             throws IOException {
         long s = System.currentTimeMillis();
 
         // 1. create a new checkpoint with the current state
-        String checkpoint = store.checkpoint(DEFAULT_LIFETIME, ImmutableMap.of(
-                "creator", FileStoreBackup.class.getSimpleName(),
-                "thread", Thread.currentThread().getName()));
-        NodeState current = store.retrieve(checkpoint);
-        if (current == null) {
-            // unable to retrieve the checkpoint; use root state instead
-            current = store.getRoot();
-        }
+        String checkpoint = checkpoint(store);
+        compact(store, destination, checkpoint, retrieve(store, checkpoint));
+
+        log.debug("Backup finished in {} ms.", System.currentTimeMillis() - s);
+    }
 
+    private static void compact(NodeStore store, File destination,
+            String checkpoint, NodeState current) throws IOException {
         // 2. init filestore
         FileStore backup = new FileStore(destination, MAX_FILE_SIZE, false);
         try {
@@ -81,14 +112,266 @@ public class FileStoreBackup {
             SegmentNodeState after = compactor.compact(before, current);
 
             // 4. commit the backup
-            SegmentNodeBuilder builder = state.builder();
-            builder.setProperty("checkpoint", checkpoint);
-            builder.setChildNode("root", after);
-            backup.setHead(state, builder.getNodeState());
+            commit(backup, state, checkpoint, after);
+        } finally {
+            backup.close();
+        }
+    }
+
+    /**
+     * Backs up the given store by copying the segments reachable from the
+     * current state that are not yet present in the backup byte-for-byte,
+     * instead of rewriting the changed records like
+     * {@link #backup(NodeStore, File)} does. The time taken is thus
+     * proportional to the amount of new data. The segment references are
+     * looked up in the graphs of the tar files of the source store, only
+     * the data segments not covered by a graph are read to find them.
+     * <p>
+     * Falls back to {@link #backup(NodeStore, File)} if the store is not
+     * backed by a {@link FileStore}.
+     */
+    public static void backupSegments(NodeStore store, File destination)
+            throws IOException {
+        long s = System.currentTimeMillis();
+
+        // 1. create a new checkpoint with the current state
+        String checkpoint = checkpoint(store);
+        NodeState current = retrieve(store, checkpoint);
+        if (!(current instanceof SegmentNodeState)) {
+            log.debug("Not a segment store, falling back to compaction");
+            compact(store, destination, checkpoint, current);
+            return;
+        }
+        RecordId root = ((SegmentNodeState) current).getRecordId();
+        SegmentStore segmentStore = root.getSegmentId().getTracker().getStore();
+        if (!(segmentStore instanceof FileStore)) {
+            log.debug("Not a file store, falling back to compaction");
+            compact(store, destination, checkpoint, current);
+            return;
+        }
+        FileStore source = (FileStore) segmentStore;
+        // the checkpoint may still be in the buffer of the segment writer
+        source.flush();
+
+        // 2. init filestore
+        FileStore backup = FileStore.newFileStore(destination)
+                .withMaxFileSize(MAX_FILE_SIZE).withMemoryMapping(false).create();
+        try {
+            // 3. copy the segments missing in the backup
+            List<UUID> missing = getMissingSegments(source, backup, root.asUUID());
+            copySegments(source, backup, missing);
+
+            // 4. commit the backup, which now contains all segments of the
+            // current state, so the record can be referenced directly
+            SegmentNodeState after = new SegmentNodeState(
+                    RecordId.fromString(backup.getTracker(), root.toString()));
+            commit(backup, backup.getHead(), checkpoint, after);
+            log.debug("Copied {} segments", missing.size());
         } finally {
             backup.close();
         }
 
         log.debug("Backup finished in {} ms.", System.currentTimeMillis() - s);
     }
+
+    private static String checkpoint(NodeStore store) {
+        return store.checkpoint(DEFAULT_LIFETIME, ImmutableMap.of(
+                "creator", FileStoreBackup.class.getSimpleName(),
+                "thread", Thread.currentThread().getName()));
+    }
+
+    private static NodeState retrieve(NodeStore store, String checkpoint) {
+        NodeState current = store.retrieve(checkpoint);
+        if (current == null) {
+            // unable to retrieve the checkpoint; use root state instead
+            current = store.getRoot();
+        }
+        return current;
+    }
+
+    private static void commit(FileStore backup, SegmentNodeState state,
+            String checkpoint, SegmentNodeState after) {
+        SegmentNodeBuilder builder = state.builder();
+        builder.setProperty("checkpoint", checkpoint);
+        builder.setChildNode("root", after);
+        backup.setHead(state, builder.getNodeState());
+    }
+
+    /**
+     * Collects the segments reachable from the given root segment, which
+     * are missing in the backup. A segment present in the backup was copied
+     * along with all the segments it references, so the traversal stops
+     * there. The graphs of the tar files are loaded one at a time, in the
+     * order of the tar reader index, so that only the graph of a single tar
+     * file is kept in memory. The returned list is ordered like the segments
+     * in the source store: from the oldest to the newest tar file, followed
+     * by the segments that are not in a tar file yet.
+     */
+    static List<UUID> getMissingSegments(FileStore source, FileStore backup,
+            UUID root) throws IOException {
+        Map<String, Set<UUID>> index = source.getTarReaderIndex();
+        Set<UUID> missing = newHashSet();
+        Set<UUID> visited = newHashSet();
+        Set<UUID> pending = newHashSet();
+        if (visit(source, backup, visited, missing, root)) {
+            pending.add(root);
+        }
+
+        while (!pending.isEmpty()) {
+            for (Entry<String, Set<UUID>> tar : index.entrySet()) {
+                Set<UUID> ids = tar.getValue();
+                Deque<UUID> todo = new ArrayDeque<UUID>();
+                for (UUID id : pending) {
+                    if (ids.contains(id)) {
+                        todo.push(id);
+                    }
+                }
+                if (todo.isEmpty()) {
+                    continue;
+                }
+                pending.removeAll(todo);
+
+                Map<UUID, List<UUID>> graph = getTarGraph(source, tar.getKey());
+                while (!todo.isEmpty()) {
+                    for (UUID ref : getReferences(source, graph, todo.pop())) {
+                        if (visit(source, backup, visited, missing, ref)) {
+                            if (ids.contains(ref)) {
+                                todo.push(ref);
+                            } else {
+                                pending.add(ref);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // the segments left are either not in a tar file, such as the
+            // ones of the current tar writer, or in a tar file that was
+            // already processed in this round
+            for (UUID id : newArrayList(pending)) {
+                if (!contains(index, id)) {
+                    pending.remove(id);
+                    for (UUID ref : getReferences(source, null, id)) {
+                        if (visit(source, backup, visited, missing, ref)) {
+                            pending.add(ref);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<UUID> ordered = newArrayList();
+        for (Set<UUID> ids : reverse(newArrayList(index.values()))) {
+            for (UUID id : ids) {
+                if (missing.remove(id)) {
+                    ordered.add(id);
+                }
+            }
+        }
+        ordered.addAll(missing);
+        return ordered;
+    }
+
+    private static boolean visit(FileStore source, FileStore backup,
+            Set<UUID> visited, Set<UUID> missing, UUID id) {
+        if (visited.add(id) && !contains(backup, source, id)) {
+            missing.add(id);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean contains(Map<String, Set<UUID>> index, UUID id) {
+        for (Set<UUID> ids : index.values()) {
+            if (ids.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the graph of the given tar file, mapping every data segment to
+     * the segments it references, or {@code null} if the file has no graph.
+     */
+    private static Map<UUID, List<UUID>> getTarGraph(FileStore source,
+            String file) throws IOException {
+        Map<UUID, List<UUID>> graph = source.getTarGraph(new File(file).getName());
+        if (!any(graph.values(), notNull())) {
+            return null;
+        }
+        for (Entry<UUID, List<UUID>> e : graph.entrySet()) {
+            if (e.getValue() == null) {
+                e.setValue(Collections.<UUID>emptyList());
+            }
+        }
+        return graph;
+    }
+
+    private static List<UUID> getReferences(FileStore source,
+            Map<UUID, List<UUID>> graph, UUID id) {
+        if (!isDataSegmentId(id.getLeastSignificantBits())) {
+            return Collections.emptyList();
+        }
+        List<UUID> refs = graph != null ? graph.get(id) : null;
+        if (refs == null) {
+            // not covered by a tar graph, read the references directly
+            refs = newArrayList();
+            for (SegmentId ref : source.readSegment(getSegmentId(source, id))
+                    .getReferencedIds()) {
+                refs.add(ref.asUUID());
+            }
+        }
+        return refs;
+    }
+
+    private static boolean contains(FileStore backup, FileStore source, UUID id) {
+        // the backup reports all ids of its own tracker as contained, so
+        // the lookup uses an id of the source to check the tar files
+        return backup.containsSegment(getSegmentId(source, id));
+    }
+
+    private static SegmentId getSegmentId(FileStore store, UUID id) {
+        return store.getTracker().getSegmentId(
+                id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Copies the given segments in the given order. The segments are read
+     * in parallel, while they are written sequentially to keep the order.
+     */
+    private static void copySegments(final FileStore source, FileStore backup,
+            List<UUID> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(COPY_THREADS, ids.size()));
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+            Iterator<UUID> it = ids.iterator();
+            for (UUID id : ids) {
+                // keep a bounded number of segments in flight
+                while (it.hasNext() && pending.size() < 2 * threads) {
+                    final UUID next = it.next();
+                    pending.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            Segment segment = source.readSegment(getSegmentId(source, next));
+                            ByteArrayOutputStream out =
+                                    new ByteArrayOutputStream(segment.size());
+                            segment.writeTo(out);
+                            return out.toByteArray();
+                        }
+                    }));
+                }
+                byte[] data = getUninterruptibly(pending.remove());
+                backup.writeSegment(getSegmentId(backup, id), data, 0, data.length);
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to copy segment", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
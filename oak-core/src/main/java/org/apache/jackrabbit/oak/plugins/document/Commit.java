@@ -22,6 +22,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.CheckForNull;
@@ -29,6 +30,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.jackrabbit.oak.commons.json.JsopStream;
 import org.apache.jackrabbit.oak.commons.json.JsopWriter;
@@ -74,6 +76,9 @@ public class Commit {
     /** Set of all nodes which have binary properties. **/
     private HashSet<String> nodesWithBinaries = Sets.newHashSet();
 
+    /** The _modCount of updated documents after this commit, by id. **/
+    private HashMap<String, Long> modCounts = Maps.newHashMap();
+
     /**
      * Create a new Commit.
      *  
@@ -139,6 +144,29 @@ public class Commit {
         return modifiedNodes;
     }
 
+    /**
+     * Returns the {@link Document#MOD_COUNT} of the documents updated by this
+     * commit, as it was right after the update. Only contains documents with
+     * content changes, because the background write does not update the
+     * _lastRev of those documents. Documents created by this commit are not
+     * included.
+     *
+     * @return the _modCount after the update, by path.
+     */
+    @Nonnull
+    Map<String, Long> getModCounts() {
+        Map<String, Long> result = Maps.newHashMap();
+        for (Map.Entry<String, UpdateOp> entry : operations.entrySet()) {
+            String path = entry.getKey();
+            UpdateOp op = entry.getValue();
+            Long modCount = modCounts.get(op.getId());
+            if (modCount != null && hasContentChanges(op) && !denotesRoot(path)) {
+                result.put(path, modCount);
+            }
+        }
+        return result;
+    }
+
     void addNodeDiff(DocumentNodeState n) {
         diff.tag('+').key(n.getPath());
         diff.object();
@@ -365,8 +393,8 @@ public class Commit {
                 // again when the _revisions entry is set at the end
                 NodeDocument.setCommitRoot(op, revision, commitRootDepth);
                 opLog.add(op);
-                createOrUpdateNode(store, op);
             }
+            createOrUpdateNodes(store, changedNodes);
             // finally write the commit root, unless it was already written
             // with added nodes (the commit root might be written twice,
             // first to check if there was a conflict, and only then to commit
@@ -396,6 +424,7 @@ public class Commit {
                         throw new DocumentStoreException(msg);
                     } else {
                         success = true;
+                        trackModCount(commit, before);
                         // if we get here the commit was successful and
                         // the commit revision is set on the commitRoot
                         // document for this commit.
@@ -468,10 +497,52 @@ public class Commit {
      */
     private void createOrUpdateNode(DocumentStore store, UpdateOp op) {
         NodeDocument doc = store.createOrUpdate(NODES, op);
+        trackModCount(op, doc);
         checkConflicts(op, doc);
         checkSplitCandidate(doc);
     }
 
+    /**
+     * Try to create or update the nodes with a single call to the store. If
+     * there was a conflict, this method throws an exception, even though the
+     * changes are still applied.
+     *
+     * @param store the store
+     * @param ops the operations
+     */
+    private void createOrUpdateNodes(DocumentStore store, List<UpdateOp> ops) {
+        if (ops.isEmpty()) {
+            return;
+        }
+        List<NodeDocument> docs = store.createOrUpdate(NODES, ops);
+        for (int i = 0; i < ops.size(); i++) {
+            trackModCount(ops.get(i), docs.get(i));
+            checkConflicts(ops.get(i), docs.get(i));
+            checkSplitCandidate(docs.get(i));
+        }
+    }
+
+    /**
+     * Remembers the _modCount of a document after it was updated with the
+     * given operation. The document store increments the _modCount by one
+     * with each update.
+     *
+     * @param op the update operation.
+     * @param before the document before the update or {@code null} if the
+     *               document was created.
+     */
+    private void trackModCount(@Nonnull UpdateOp op,
+                               @Nullable NodeDocument before) {
+        if (before == null || before.getModCount() == null) {
+            return;
+        }
+        long modCount = before.getModCount().longValue() + 1;
+        Long previous = modCounts.get(op.getId());
+        if (previous == null || previous < modCount) {
+            modCounts.put(op.getId(), modCount);
+        }
+    }
+
     private void checkSplitCandidate(@Nullable NodeDocument doc) {
         if (doc != null && doc.getMemory() > SPLIT_CANDIDATE_THRESHOLD) {
             nodeStore.addSplitCandidate(doc.getId());
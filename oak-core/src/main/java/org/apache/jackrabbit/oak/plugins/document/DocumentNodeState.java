@@ -37,6 +37,7 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.commons.json.JsopWriter;
 import org.apache.jackrabbit.oak.json.JsonSerializer;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.BinaryFormat;
 import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeBuilder;
@@ -583,6 +584,33 @@ public class DocumentNodeState extends AbstractNodeState implements CacheValue {
         return state;
     }
 
+    public void writeTo(BinaryFormat.Writer out) {
+        out.writeString(path);
+        out.writeRevision(rev);
+        out.writeNullableRevision(lastRevision);
+        out.writeBoolean(hasChildren);
+        out.writeVarInt(properties.size());
+        for (String k : properties.keySet()) {
+            out.writeString(k);
+            out.writeString(getPropertyAsString(k));
+        }
+    }
+
+    public static DocumentNodeState readFrom(DocumentNodeStore store, BinaryFormat.Reader in) {
+        String path = in.readString();
+        Revision rev = in.readRevision();
+        Revision lastRev = in.readNullableRevision();
+        boolean hasChildren = in.readBoolean();
+        DocumentNodeState state = new DocumentNodeState(store, path, rev, hasChildren);
+        state.setLastRevision(lastRev);
+        int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            String k = in.readString();
+            state.setProperty(k, in.readString());
+        }
+        return state;
+    }
+
     /**
      * A list of children for a node.
      */
@@ -659,6 +687,18 @@ public class DocumentNodeState extends AbstractNodeState implements CacheValue {
             }
             return children;            
         }
+
+        public void writeTo(BinaryFormat.Writer out) {
+            out.writeBoolean(hasMore);
+            out.writeNames(children);
+        }
+
+        public static Children readFrom(BinaryFormat.Reader in) {
+            Children children = new Children();
+            children.hasMore = in.readBoolean();
+            in.readNames(children.children);
+            return children;
+        }
         
     }
 
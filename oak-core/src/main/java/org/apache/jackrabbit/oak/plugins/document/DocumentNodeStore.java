@@ -69,9 +69,12 @@ import javax.management.NotCompliantMBeanException;
 import com.google.common.base.Function;
 import com.google.common.base.Predicates;
 import com.google.common.cache.Cache;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
@@ -132,6 +135,13 @@ public final class DocumentNodeStore
      */
     static final int NUM_CHILDREN_CACHE_LIMIT = Integer.getInteger("oak.documentMK.childrenCacheLimit", 16 * 1024);
 
+    /**
+     * The maximum number of child nodes for which missing node states are
+     * loaded with a single range query while iterating over the child nodes.
+     * Zero disables the prefetch.
+     */
+    static final int CHILD_PREFETCH_SIZE = Integer.getInteger("oak.documentMK.childPrefetchSize", 1600);
+
     /**
      * When trying to access revisions that are older than this many
      * milliseconds, a warning is logged. The default is one minute.
@@ -665,7 +675,7 @@ public final class DocumentNodeStore
                         // apply changes to cache based on before revision
                         c.applyToCache(before, false);
                         // track modified paths
-                        changes.modified(c.getModifiedPaths());
+                        changes.modified(c.getModifiedPaths(), c.getModCounts());
                         // update head revision
                         setHeadRevision(c.getRevision());
                         dispatcher.contentChanged(getRoot(), info);
@@ -836,6 +846,44 @@ public final class DocumentNodeStore
         }
     }
 
+    /**
+     * Get the node for the given document and revision. Unlike
+     * {@link #getNode(String, Revision)} this method does not read the
+     * document from the store when the node state is not cached, but computes
+     * it from the given document, which was e.g. returned by a child query.
+     *
+     * @param doc the document of the node.
+     * @param rev the read revision.
+     * @return the node or <code>null</code> if the node does not exist at the
+     *          given revision.
+     */
+    @CheckForNull
+    private DocumentNodeState getNode(@Nonnull final NodeDocument doc,
+                                      @Nonnull final Revision rev) {
+        final String path = doc.getPath();
+        checkRevisionAge(checkNotNull(rev), path);
+        try {
+            PathRev key = new PathRev(path, rev);
+            DocumentNodeState node = nodeCache.get(key, new Callable<DocumentNodeState>() {
+                @Override
+                public DocumentNodeState call() throws Exception {
+                    Revision lastRevision = getPendingModifications().get(path);
+                    DocumentNodeState n = doc.getNodeAtRevision(
+                            DocumentNodeStore.this, rev, lastRevision);
+                    if (n == null) {
+                        n = missing;
+                    }
+                    return n;
+                }
+            });
+            return node == missing || node.equals(missing) ? null : node;
+        } catch (UncheckedExecutionException e) {
+            throw DocumentStoreException.convert(e.getCause());
+        } catch (ExecutionException e) {
+            throw DocumentStoreException.convert(e.getCause());
+        }
+    }
+
     DocumentNodeState.Children getChildren(@Nonnull final DocumentNodeState parent,
                               @Nullable final String name,
                               final int limit)
@@ -907,7 +955,7 @@ public final class DocumentNodeStore
                 // potential next round of readChildDocs()
                 name = PathUtils.getName(p);
                 // filter out deleted children
-                DocumentNodeState child = getNode(p, rev);
+                DocumentNodeState child = getNode(doc, rev);
                 if (child == null) {
                     continue;
                 }
@@ -1047,17 +1095,109 @@ public final class DocumentNodeStore
         }
 
         final Revision readRevision = parent.getLastRevision();
-        return transform(getChildren(parent, name, limit).children, new Function<String, DocumentNodeState>() {
+        final List<String> names = getChildren(parent, name, limit).children;
+        return new Iterable<DocumentNodeState>() {
             @Override
-            public DocumentNodeState apply(String input) {
-                String p = concat(parent.getPath(), input);
-                DocumentNodeState result = getNode(p, readRevision);
-                if (result == null) {
-                    throw new DocumentStoreException("DocumentNodeState is null for revision " + readRevision + " of " + p + " (aborting getChildNodes())");
+            public Iterator<DocumentNodeState> iterator() {
+                return new AbstractIterator<DocumentNodeState>() {
+                    private int index;
+                    private int prefetched;
+
+                    @Override
+                    protected DocumentNodeState computeNext() {
+                        if (index >= names.size()) {
+                            return endOfData();
+                        }
+                        if (index >= prefetched && CHILD_PREFETCH_SIZE > 0) {
+                            prefetched = Math.min(names.size(), index + CHILD_PREFETCH_SIZE);
+                            prefetchChildren(parent.getPath(), name, names,
+                                    index, prefetched, readRevision);
+                        }
+                        String p = concat(parent.getPath(), names.get(index++));
+                        DocumentNodeState result = getNode(p, readRevision);
+                        if (result == null) {
+                            throw new DocumentStoreException("DocumentNodeState is null for revision " + readRevision + " of " + p + " (aborting getChildNodes())");
+                        }
+                        return result;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Loads the node states of child nodes, which are not in the node cache,
+     * with a single range query and puts them into the cache. This avoids a
+     * lookup per child node when the child node names are cached, but the
+     * child node states are not. The range is bounded by the sibling names
+     * of the first and last missing child node, which means it may also
+     * return documents of deleted nodes. Child nodes not returned by the
+     * query are read individually later.
+     *
+     * @param path the path of the parent node.
+     * @param name the name of the lower bound child node (exclusive) passed
+     *             to {@link #getChildren(DocumentNodeState, String, int)}
+     *             or {@code null}.
+     * @param names the ascending sorted child node names.
+     * @param from the index of the first child node to prefetch.
+     * @param to the index of the last child node to prefetch (exclusive).
+     * @param readRevision the read revision of the child nodes.
+     */
+    private void prefetchChildren(@Nonnull String path,
+                                  @Nullable String name,
+                                  @Nonnull List<String> names,
+                                  int from, int to,
+                                  @Nonnull Revision readRevision) {
+        Set<String> missingPaths = Sets.newHashSet();
+        int first = -1;
+        int last = -1;
+        for (int i = from; i < to; i++) {
+            String p = concat(path, names.get(i));
+            if (nodeCache.getIfPresent(new PathRev(p, readRevision)) == null) {
+                missingPaths.add(p);
+                if (first == -1) {
+                    first = i;
                 }
-                return result;
+                last = i;
             }
-        });
+        }
+        if (missingPaths.size() < 2) {
+            // nothing to gain compared to a single lookup
+            return;
+        }
+        final long start = PERFLOG.start();
+        String fromKey;
+        if (first > 0) {
+            fromKey = Utils.getIdFromPath(concat(path, names.get(first - 1)));
+        } else if (name != null) {
+            fromKey = Utils.getIdFromPath(concat(path, name));
+        } else {
+            fromKey = Utils.getKeyLowerLimit(path);
+        }
+        String toKey;
+        if (last + 1 < names.size()) {
+            toKey = Utils.getIdFromPath(concat(path, names.get(last + 1)));
+        } else {
+            toKey = Utils.getKeyUpperLimit(path);
+        }
+        if (fromKey.compareTo(toKey) >= 0) {
+            return;
+        }
+        // leave some room for documents of deleted nodes
+        int queryLimit = 2 * (last - first + 1);
+        int numLoaded = 0;
+        for (NodeDocument doc : store.query(Collection.NODES, fromKey, toKey, queryLimit)) {
+            String p = doc.getPath();
+            if (!missingPaths.contains(p)) {
+                continue;
+            }
+            Revision lastRevision = getPendingModifications().get(p);
+            DocumentNodeState n = doc.getNodeAtRevision(this, readRevision, lastRevision);
+            nodeCache.put(new PathRev(p, readRevision), n != null ? n : missing);
+            numLoaded++;
+        }
+        PERFLOG.end(start, 1, "prefetchChildren: path={}, missing={}, loaded={}",
+                path, missingPaths.size(), numLoaded);
     }
 
     @CheckForNull
@@ -1762,6 +1902,7 @@ public final class DocumentNodeStore
         Revision otherSeen = Revision.newRevision(0);
 
         StringSort externalSort = JournalEntry.newSorter();
+        StringSort modCountSort = JournalEntry.newSorter();
         
         Map<Revision, Revision> externalChanges = Maps.newHashMap();
         for (Map.Entry<Integer, Revision> e : lastRevMap.entrySet()) {
@@ -1787,7 +1928,7 @@ public final class DocumentNodeStore
                 if (last != null && externalSort != null) {
                     // add changes for this particular clusterId to the externalSort
                     try {
-                        fillExternalChanges(externalSort, last, r, store);
+                        fillExternalChanges(externalSort, modCountSort, last, r, store);
                     } catch (IOException e1) {
                         LOG.error("backgroundRead: Exception while reading external changes from journal: "+e1, e1);
                         externalSort = null;
@@ -1808,7 +1949,11 @@ public final class DocumentNodeStore
             } else {
                 try {
                     externalSort.sort();
-                    stats.cacheStats = store.invalidateCache(pathToId(externalSort));
+                    modCountSort.sort();
+                    // invalidate documents with a _modCount in the journal
+                    // locally and only check the others with the store
+                    stats.cacheStats = store.invalidateCache(pathToId(
+                            invalidateCache(externalSort, modCountSort, stats)));
                     // OAK-3002: only invalidate affected items (using journal)
                     long origSize = docChildrenCache.size();
                     if (origSize == 0) {
@@ -1877,12 +2022,95 @@ public final class DocumentNodeStore
         }
         revisionComparator.purge(revisionPurgeMillis());
         stats.purge = clock.getTime() - time;
+        try {
+            modCountSort.close();
+        } catch (IOException e) {
+            LOG.warn("backgroundRead: failed to close modCountSort", e);
+        }
 
         return stats;
     }
 
+    /**
+     * Invalidates the cached documents for externally changed paths, for
+     * which the journal recorded the _modCount of all changes. A cached
+     * document is kept if it has the most recent of these _modCounts and
+     * invalidated otherwise, without reading from the document store.
+     * Paths without (or with only some) recorded _modCounts are returned
+     * instead, because the changes may come from an older cluster node,
+     * a branch or an update of the _lastRev in the background.
+     *
+     * @param paths the sorted changed paths, once per journal entry.
+     * @param modCounts the sorted _modCount entries from the journal.
+     * @param stats the stats of the background read.
+     * @return the changed paths, for which the journal does not have the
+     *         _modCount. Documents are invalidated while iterating.
+     */
+    private Iterable<String> invalidateCache(final StringSort paths,
+                                             final StringSort modCounts,
+                                             final BackgroundReadStats stats) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                final PeekingIterator<String> pathIt;
+                final PeekingIterator<String> modCountIt;
+                try {
+                    pathIt = Iterators.peekingIterator(paths.getIds());
+                    modCountIt = Iterators.peekingIterator(modCounts.getIds());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return new AbstractIterator<String>() {
+                    @Override
+                    protected String computeNext() {
+                        while (pathIt.hasNext()) {
+                            String path = pathIt.next();
+                            int numChanges = 1;
+                            while (pathIt.hasNext() && pathIt.peek().equals(path)) {
+                                pathIt.next();
+                                numChanges++;
+                            }
+                            int numModCounts = 0;
+                            long modCount = -1;
+                            while (modCountIt.hasNext()) {
+                                String entry = modCountIt.peek();
+                                int c = JournalEntry.getModCountPath(entry).compareTo(path);
+                                if (c > 0) {
+                                    break;
+                                }
+                                modCountIt.next();
+                                if (c == 0) {
+                                    numModCounts++;
+                                    modCount = Math.max(modCount, JournalEntry.getModCount(entry));
+                                }
+                            }
+                            if (numModCounts != numChanges) {
+                                return path;
+                            }
+                            String id = Utils.getIdFromPath(path);
+                            NodeDocument doc = store.getIfCached(Collection.NODES, id);
+                            if (doc == null) {
+                                // not cached
+                                continue;
+                            } else if (doc.getModCount() != null
+                                    && doc.getModCount().longValue() == modCount) {
+                                stats.cacheEntriesKept++;
+                            } else {
+                                store.invalidateCache(Collection.NODES, id);
+                                stats.cacheEntriesInvalidated++;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
     private static class BackgroundReadStats {
         CacheInvalidationStats cacheStats;
+        long cacheEntriesKept;
+        long cacheEntriesInvalidated;
         long readHead;
         long cacheInvalidationTime;
         long populateDiffCache;
@@ -1898,6 +2126,8 @@ public final class DocumentNodeStore
             }
             return  "ReadStats{" +
                     "cacheStats:" + cacheStatsMsg +
+                    ", journal kept:" + cacheEntriesKept +
+                    ", journal invalidated:" + cacheEntriesInvalidated +
                     ", head:" + readHead +
                     ", cache:" + cacheInvalidationTime +
                     ", diff: " + populateDiffCache +
@@ -2638,4 +2868,9 @@ public final class DocumentNodeStore
     public void setPersistentCache(PersistentCache persistentCache) {
         this.persistentCache = persistentCache;
     }
+
+    @CheckForNull
+    public PersistentCache getPersistentCache() {
+        return persistentCache;
+    }
 }
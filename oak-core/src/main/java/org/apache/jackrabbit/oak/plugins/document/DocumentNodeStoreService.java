@@ -65,6 +65,8 @@ import org.apache.jackrabbit.oak.plugins.blob.BlobGCMBean;
 import org.apache.jackrabbit.oak.plugins.blob.BlobGarbageCollector;
 import org.apache.jackrabbit.oak.plugins.blob.SharedDataStore;
 import org.apache.jackrabbit.oak.plugins.blob.datastore.SharedDataStoreUtils;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCache;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.PersistentCacheStatsMBean;
 import org.apache.jackrabbit.oak.plugins.document.util.MongoConnection;
 import org.apache.jackrabbit.oak.plugins.identifier.ClusterRepositoryInfo;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
@@ -281,6 +283,23 @@ public class DocumentNodeStoreService {
     )
     public static final String PROP_VER_GC_MAX_AGE = "versionGcMaxAgeInSecs";
 
+    private static final int DEFAULT_VER_GC_THREADS = 0;
+    @Property (intValue = DEFAULT_VER_GC_THREADS,
+            label = "Version GC Threads",
+            description = "Number of threads used by the Version Garbage Collector to check whether " +
+                    "documents are deleted, while they are scanned and removed concurrently. With 0 " +
+                    "(the default) the deleted documents are collected and sorted before they are removed."
+    )
+    public static final String PROP_VER_GC_THREADS = "versionGcThreads";
+
+    private static final int DEFAULT_VER_GC_MAX_REMOVE_RATE = 0;
+    @Property (intValue = DEFAULT_VER_GC_MAX_REMOVE_RATE,
+            label = "Version GC Max Remove Rate",
+            description = "Maximum number of documents per second removed by the Version Garbage " +
+                    "Collector, to limit the load on the document store. 0 (the default) means no limit."
+    )
+    public static final String PROP_VER_GC_MAX_REMOVE_RATE = "versionGcMaxRemoveRate";
+
     public static final String PROP_REV_RECOVERY_INTERVAL = "lastRevRecoveryJobIntervalInSecs";
 
     /**
@@ -557,6 +576,17 @@ public class DocumentNodeStoreService {
             );
         }
 
+        PersistentCache persistentCache = store.getPersistentCache();
+        if (persistentCache != null) {
+            registrations.add(
+                    registerMBean(whiteboard,
+                            PersistentCacheStatsMBean.class,
+                            persistentCache.getStats(),
+                            PersistentCacheStatsMBean.TYPE,
+                            "Document node store persistent cache")
+            );
+        }
+
         registrations.add(
                 registerMBean(whiteboard,
                         CheckpointMBean.class,
@@ -575,6 +605,9 @@ public class DocumentNodeStoreService {
 
         final long versionGcMaxAgeInSecs = toLong(prop(PROP_VER_GC_MAX_AGE), DEFAULT_VER_GC_MAX_AGE);
         final long blobGcMaxAgeInSecs = toLong(prop(PROP_BLOB_GC_MAX_AGE), DEFAULT_BLOB_GC_MAX_AGE);
+        VersionGarbageCollector versionGC = store.getVersionGarbageCollector();
+        versionGC.setThreads(toInteger(prop(PROP_VER_GC_THREADS), DEFAULT_VER_GC_THREADS));
+        versionGC.setMaxRemoveRate(toInteger(prop(PROP_VER_GC_MAX_REMOVE_RATE), DEFAULT_VER_GC_MAX_REMOVE_RATE));
 
         if (store.getBlobStore() instanceof GarbageCollectableBlobStore) {
             BlobGarbageCollector gc = new BlobGarbageCollector() {
@@ -211,6 +211,26 @@ public interface DocumentStore {
     @CheckForNull
     <T extends Document> T createOrUpdate(Collection<T> collection, UpdateOp update);
 
+    /**
+     * Create or update a list of documents. This has the same effect as
+     * calling {@link #createOrUpdate(Collection, UpdateOp)} for each of the
+     * update operations, but allows an implementation to send the updates
+     * to the backend in batches. The returned documents are immutable.
+     * <p>
+     * Updates for different documents may be applied in any sequence, while
+     * updates for the same document are applied in list order. If this method
+     * fails with an exception, then only some of the updates may have been
+     * applied.
+     *
+     * @param <T> the document type
+     * @param collection the collection
+     * @param updateOps the update operations
+     * @return the old documents in the order of the update operations, with
+     *          <code>null</code> entries for documents that didn't exist before.
+     */
+    @Nonnull
+    <T extends Document> List<T> createOrUpdate(Collection<T> collection, List<UpdateOp> updateOps);
+
     /**
      * Performs a conditional update (e.g. using
      * {@link UpdateOp.Condition.Type#EXISTS} and only updates the
@@ -26,6 +26,7 @@ import java.util.Set;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
@@ -65,6 +66,21 @@ public final class JournalEntry extends Document {
 
     private static final String BRANCH_COMMITS = "_bc";
 
+    /**
+     * The {@link Document#MOD_COUNT} of changed documents after the change,
+     * by path. Only contains paths for which all changes in this entry
+     * recorded the _modCount.
+     */
+    private static final String MOD_COUNTS = "_mc";
+
+    /**
+     * Separates the path from the _modCount in the entries added by
+     * {@link #addTo(StringSort, StringSort)}. The character sorts before
+     * all characters allowed in a path, which means the entries are in the
+     * same order as their paths.
+     */
+    private static final char MOD_COUNT_SEPARATOR = '\t';
+
     private static final int READ_CHUNK_SIZE = 100;
 
     /**
@@ -76,6 +92,8 @@ public final class JournalEntry extends Document {
 
     private volatile TreeNode changes = null;
 
+    private volatile Map<String, Long> modCounts = null;
+
     JournalEntry(DocumentStore store) {
         this.store = store;
     }
@@ -180,6 +198,31 @@ public final class JournalEntry extends Document {
                                     @Nonnull Revision to,
                                     @Nonnull DocumentStore store)
             throws IOException {
+        fillExternalChanges(sorter, null, from, to, store);
+    }
+
+    /**
+     * Reads all external changes between the two given revisions (with the same
+     * clusterId) from the journal and appends the paths therein to the provided
+     * sorter. The _modCount recorded for changed documents is appended to the
+     * second sorter, in the format described in
+     * {@link #addTo(StringSort, StringSort)}.
+     *
+     * @param sorter the StringSort to which all externally changed paths
+     *               between the provided revisions will be added
+     * @param modCountSorter the StringSort to which the recorded _modCount
+     *               of changed documents will be added, or {@code null}.
+     * @param from   the lower bound of the revision range (exclusive).
+     * @param to     the upper bound of the revision range (inclusive).
+     * @param store  the document store to query.
+     * @throws IOException
+     */
+    static void fillExternalChanges(@Nonnull StringSort sorter,
+                                    @Nullable StringSort modCountSorter,
+                                    @Nonnull Revision from,
+                                    @Nonnull Revision to,
+                                    @Nonnull DocumentStore store)
+            throws IOException {
         checkArgument(checkNotNull(from).getClusterId() == checkNotNull(to).getClusterId());
 
         // to is inclusive, but DocumentStore.query() toKey is exclusive
@@ -205,7 +248,7 @@ public final class JournalEntry extends Document {
             List<JournalEntry> partialResult = store.query(JOURNAL, fromId, toId, READ_CHUNK_SIZE);
 
             for (JournalEntry d : partialResult) {
-                d.addTo(sorter);
+                d.addTo(sorter, modCountSorter);
             }
             if (partialResult.size() < READ_CHUNK_SIZE) {
                 break;
@@ -223,10 +266,7 @@ public final class JournalEntry extends Document {
     }
 
     void modified(String path) {
-        TreeNode node = getChanges();
-        for (String name : PathUtils.elements(path)) {
-            node = node.getOrCreate(name);
-        }
+        modified(path, null);
     }
 
     void modified(Iterable<String> paths) {
@@ -235,6 +275,44 @@ public final class JournalEntry extends Document {
         }
     }
 
+    /**
+     * Records changes of the given paths together with the _modCount of the
+     * changed documents, where known.
+     *
+     * @param paths the changed paths.
+     * @param modCounts the _modCount after the change, by path. Paths
+     *                  without a _modCount are recorded as changed only.
+     */
+    void modified(Iterable<String> paths, Map<String, Long> modCounts) {
+        for (String p : paths) {
+            modified(p, modCounts.get(p));
+        }
+    }
+
+    /**
+     * Records a change of the given path. The _modCount is only kept if all
+     * changes of the path in this entry are recorded with a _modCount, in
+     * which case the highest value wins.
+     *
+     * @param path the changed path.
+     * @param modCount the _modCount of the document after the change, or
+     *                 {@code null} if unknown.
+     */
+    private void modified(String path, @Nullable Long modCount) {
+        Map<String, Long> counts = getModCounts();
+        boolean changed = getNode(path) != null;
+        Long previous = counts.get(path);
+        TreeNode node = getChanges();
+        for (String name : PathUtils.elements(path)) {
+            node = node.getOrCreate(name);
+        }
+        if (modCount == null || (changed && previous == null)) {
+            counts.remove(path);
+        } else if (previous == null || previous < modCount) {
+            counts.put(path, modCount);
+        }
+    }
+
     void branchCommit(@Nonnull Iterable<Revision> revisions) {
         String branchCommits = (String) get(BRANCH_COMMITS);
         if (branchCommits == null) {
@@ -266,10 +344,37 @@ public final class JournalEntry extends Document {
         if (bc != null) {
             op.set(BRANCH_COMMITS, bc);
         }
+        Map<String, Long> counts = getModCounts();
+        if (!counts.isEmpty()) {
+            JsopBuilder builder = new JsopBuilder();
+            builder.object();
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                builder.key(entry.getKey()).value(entry.getValue());
+            }
+            builder.endObject();
+            op.set(MOD_COUNTS, builder.toString());
+        }
         return op;
     }
 
     void addTo(final StringSort sort) throws IOException {
+        addTo(sort, null);
+    }
+
+    /**
+     * Adds the changed paths of this entry and its branch commits to the
+     * given sort. A path is added once per entry. If a sort for the
+     * _modCounts is given, an entry {@code <path>\t<modCount>} is added to
+     * it for each path with a recorded _modCount. A change is therefore
+     * fully described by _modCounts if a path is contained as often in the
+     * second sort as in the first.
+     *
+     * @param sort the sort for the changed paths.
+     * @param modCountSort the sort for the _modCounts, or {@code null}.
+     * @throws IOException if adding to a sort fails.
+     */
+    void addTo(final StringSort sort, @Nullable StringSort modCountSort)
+            throws IOException {
         TreeNode n = getChanges();
         TraversingVisitor v = new TraversingVisitor() {
 
@@ -279,11 +384,31 @@ public final class JournalEntry extends Document {
             }
         };
         n.accept(v, "/");
+        addModCountsTo(modCountSort);
         for (JournalEntry e : getBranchCommits()) {
             e.getChanges().accept(v, "/");
+            e.addModCountsTo(modCountSort);
         }
     }
 
+    /**
+     * @param entry an entry added by {@link #addTo(StringSort, StringSort)}
+     *              to the _modCount sort.
+     * @return the path of the entry.
+     */
+    static String getModCountPath(String entry) {
+        return entry.substring(0, entry.lastIndexOf(MOD_COUNT_SEPARATOR));
+    }
+
+    /**
+     * @param entry an entry added by {@link #addTo(StringSort, StringSort)}
+     *              to the _modCount sort.
+     * @return the _modCount of the entry.
+     */
+    static long getModCount(String entry) {
+        return Long.parseLong(entry.substring(entry.lastIndexOf(MOD_COUNT_SEPARATOR) + 1));
+    }
+
     /**
      * Returns the branch commits that are related to this journal entry.
      *
@@ -344,6 +469,37 @@ public final class JournalEntry extends Document {
         return s;
     }
 
+    private void addModCountsTo(@Nullable StringSort sort) throws IOException {
+        if (sort == null) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : getModCounts().entrySet()) {
+            sort.add(entry.getKey() + MOD_COUNT_SEPARATOR + entry.getValue());
+        }
+    }
+
+    @Nonnull
+    private Map<String, Long> getModCounts() {
+        if (modCounts == null) {
+            Map<String, Long> counts = Maps.newHashMap();
+            String mc = (String) get(MOD_COUNTS);
+            if (mc != null) {
+                JsopTokenizer reader = new JsopTokenizer(mc);
+                reader.read('{');
+                if (!reader.matches('}')) {
+                    do {
+                        String path = reader.readString();
+                        reader.read(':');
+                        counts.put(path, Long.parseLong(reader.read(JsopReader.NUMBER)));
+                    } while (reader.matches(','));
+                    reader.read('}');
+                }
+            }
+            modCounts = counts;
+        }
+        return modCounts;
+    }
+
     @CheckForNull
     private TreeNode getNode(String path) {
         TreeNode node = getChanges();
@@ -30,6 +30,7 @@ import org.apache.jackrabbit.oak.cache.CacheValue;
 import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
 import org.apache.jackrabbit.oak.commons.json.JsopReader;
 import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.BinaryFormat;
 import org.apache.jackrabbit.oak.plugins.document.util.RevisionsKey;
 import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
 
@@ -150,6 +151,24 @@ public class LocalDiffCache implements DiffCache {
             return builder.toString();
         }
 
+        public void writeTo(BinaryFormat.Writer out) {
+            out.writeVarInt(changes.size());
+            for (Map.Entry<String, String> entry : changes.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeString(entry.getValue());
+            }
+        }
+
+        public static Diff readFrom(BinaryFormat.Reader in) {
+            Map<String, String> map = Maps.newHashMap();
+            int size = in.readVarInt();
+            for (int i = 0; i < size; i++) {
+                String k = in.readString();
+                map.put(k, in.readString());
+            }
+            return new Diff(map, 0);
+        }
+
         public Map<String, String> getChanges() {
             return Collections.unmodifiableMap(changes);
         }
@@ -45,6 +45,7 @@ import org.apache.jackrabbit.oak.commons.json.JsopReader;
 import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
 import org.apache.jackrabbit.oak.commons.json.JsopWriter;
 import org.apache.jackrabbit.oak.plugins.document.memory.MemoryDocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.persistentCache.BinaryFormat;
 import org.apache.jackrabbit.oak.plugins.document.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -1769,6 +1770,82 @@ public final class NodeDocument extends Document implements CachedNodeDocument{
         throw new IllegalArgumentException(json.readRawValue());
     }
     
+    /**
+     * Value types of the binary format.
+     */
+    private static final int BINARY_NULL = 0;
+    private static final int BINARY_TRUE = 1;
+    private static final int BINARY_FALSE = 2;
+    private static final int BINARY_NUMBER = 3;
+    private static final int BINARY_STRING = 4;
+    private static final int BINARY_MAP = 5;
+
+    public void writeTo(BinaryFormat.Writer out) {
+        out.writeVarInt(data.size());
+        for (Entry<String, Object> e : data.entrySet()) {
+            out.writeString(e.getKey());
+            writeValue(out, e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(BinaryFormat.Writer out, Object value) {
+        if (value == null) {
+            out.writeVarInt(BINARY_NULL);
+        } else if (value instanceof Boolean) {
+            out.writeVarInt((Boolean) value ? BINARY_TRUE : BINARY_FALSE);
+        } else if (value instanceof Long || value instanceof Integer) {
+            out.writeVarInt(BINARY_NUMBER);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Map) {
+            Map<Revision, Object> map = (Map<Revision, Object>) value;
+            out.writeVarInt(BINARY_MAP);
+            out.writeVarInt(map.size());
+            for (Entry<Revision, Object> e : map.entrySet()) {
+                out.writeRevision(e.getKey());
+                writeValue(out, e.getValue());
+            }
+        } else {
+            out.writeVarInt(BINARY_STRING);
+            out.writeString(value.toString());
+        }
+    }
+
+    public static NodeDocument readFrom(DocumentStore store, BinaryFormat.Reader in) {
+        NodeDocument doc = new NodeDocument(store);
+        int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            String k = in.readString();
+            doc.put(k, readValue(in));
+        }
+        return doc;
+    }
+
+    private static Object readValue(BinaryFormat.Reader in) {
+        int type = in.readVarInt();
+        switch (type) {
+        case BINARY_NULL:
+            return null;
+        case BINARY_TRUE:
+            return true;
+        case BINARY_FALSE:
+            return false;
+        case BINARY_NUMBER:
+            return in.readLong();
+        case BINARY_STRING:
+            return in.readString();
+        case BINARY_MAP:
+            TreeMap<Revision, Object> map = new TreeMap<Revision, Object>(StableRevisionComparator.REVERSE);
+            int size = in.readVarInt();
+            for (int i = 0; i < size; i++) {
+                Revision r = in.readRevision();
+                map.put(r, readValue(in));
+            }
+            return map;
+        }
+        throw new IllegalArgumentException("Unknown value type: " + type);
+    }
+
     /**
      * The list of children for a node. The list might be complete or not, in
      * which case it only represents a block of children.
@@ -1851,6 +1928,18 @@ public final class NodeDocument extends Document implements CachedNodeDocument{
             }
             return children;            
         }
+
+        public void writeTo(BinaryFormat.Writer out) {
+            out.writeBoolean(isComplete);
+            out.writeNames(childNames);
+        }
+
+        public static Children readFrom(BinaryFormat.Reader in) {
+            Children children = new Children();
+            children.isComplete = in.readBoolean();
+            in.readNames(children.childNames);
+            return children;
+        }
         
     }
 
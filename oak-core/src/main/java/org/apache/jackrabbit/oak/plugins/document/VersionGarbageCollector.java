@@ -21,21 +21,35 @@ package org.apache.jackrabbit.oak.plugins.document;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.jackrabbit.oak.commons.sort.StringSort;
 import org.apache.jackrabbit.oak.plugins.document.UpdateOp.Condition;
@@ -46,6 +60,7 @@ import org.slf4j.LoggerFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.StandardSystemProperty.LINE_SEPARATOR;
+import static com.google.common.base.Throwables.propagate;
 import static com.google.common.collect.ImmutableList.copyOf;
 import static com.google.common.collect.Iterators.partition;
 import static java.util.Collections.singletonMap;
@@ -59,11 +74,23 @@ public class VersionGarbageCollector {
     //Kept less than MongoDocumentStore.IN_CLAUSE_BATCH_SIZE to avoid re-partitioning
     private static final int DELETE_BATCH_SIZE = 450;
     private static final int PROGRESS_BATCH_SIZE = 10000;
+    /**
+     * The maximum number of candidate documents queued for the check stage
+     * of the parallel garbage collection.
+     */
+    private static final int CANDIDATE_QUEUE_SIZE = 1000;
+    /**
+     * The maximum number of delete batches queued for the remove stage
+     * of the parallel garbage collection.
+     */
+    private static final int BATCH_QUEUE_SIZE = 16;
     private static final Key KEY_MODIFIED = new Key(MODIFIED_IN_SECS, null);
     private final DocumentNodeStore nodeStore;
     private final DocumentStore ds;
     private final VersionGCSupport versionStore;
     private int overflowToDiskThreshold = 100000;
+    private int threads = 0;
+    private int maxRemoveRate = 0;
 
     private static final Logger log = LoggerFactory.getLogger(VersionGarbageCollector.class);
 
@@ -101,7 +128,13 @@ public class VersionGarbageCollector {
             return stats;
         }
 
-        collectDeletedDocuments(stats, headRevision, oldestRevTimeStamp);
+        RateLimiter rateLimiter = maxRemoveRate > 0 ? RateLimiter.create(maxRemoveRate) : null;
+        if (threads > 0) {
+            new ParallelDeletedDocsGC(headRevision, rateLimiter, stats)
+                    .collect(oldestRevTimeStamp);
+        } else {
+            collectDeletedDocuments(stats, headRevision, oldestRevTimeStamp, rateLimiter);
+        }
         collectSplitDocuments(stats, oldestRevTimeStamp);
 
         sw.stop();
@@ -113,16 +146,43 @@ public class VersionGarbageCollector {
         this.overflowToDiskThreshold = overflowToDiskThreshold;
     }
 
+    /**
+     * Sets the number of threads used to check whether candidate documents
+     * are actually deleted. With a value greater than zero, the deleted
+     * documents are collected in a pipeline: the candidates are scanned by
+     * the calling thread, checked by the given number of threads and removed
+     * in batches by a separate thread, while the scan is still running.
+     * With zero (the default), all candidates are collected and sorted
+     * before any document is removed.
+     *
+     * @param threads the number of threads, or zero to collect sequentially
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(0, threads);
+    }
+
+    /**
+     * Limits the rate at which documents for deleted nodes and their
+     * previous documents are removed from the document store.
+     *
+     * @param maxRemoveRate the maximum number of documents removed per
+     *                      second, or zero for no limit (the default)
+     */
+    public void setMaxRemoveRate(int maxRemoveRate) {
+        this.maxRemoveRate = Math.max(0, maxRemoveRate);
+    }
+
     private void collectSplitDocuments(VersionGCStats stats, long oldestRevTimeStamp) {
         versionStore.deleteSplitDocuments(GC_TYPES, oldestRevTimeStamp, stats);
     }
 
     private void collectDeletedDocuments(VersionGCStats stats,
                                          Revision headRevision,
-                                         long oldestRevTimeStamp)
+                                         long oldestRevTimeStamp,
+                                         @Nullable RateLimiter rateLimiter)
             throws IOException {
         int docsTraversed = 0;
-        DeletedDocsGC gc = new DeletedDocsGC(headRevision);
+        DeletedDocsGC gc = new DeletedDocsGC(headRevision, rateLimiter);
         try {
             stats.collectDeletedDocs.start();
             Iterable<NodeDocument> itr = versionStore.getPossiblyDeletedDocs(oldestRevTimeStamp);
@@ -143,6 +203,8 @@ public class VersionGarbageCollector {
                 Utils.closeIfCloseable(itr);
             }
             stats.collectDeletedDocs.stop();
+            stats.possiblyDeletedDocCount += docsTraversed;
+            stats.confirmedDeletedDocCount += gc.getNumDocuments();
 
             if (gc.getNumDocuments() == 0){
                 return;
@@ -164,9 +226,13 @@ public class VersionGarbageCollector {
         int deletedDocGCCount;
         int splitDocGCCount;
         int intermediateSplitDocGCCount;
+        int possiblyDeletedDocCount;
+        long confirmedDeletedDocCount;
+        int recreatedDocCount;
         final Stopwatch collectDeletedDocs = Stopwatch.createUnstarted();
+        final Stopwatch checkDeletedDocs = Stopwatch.createUnstarted();
         final Stopwatch deleteDeletedDocs = Stopwatch.createUnstarted();
-
+        final Stopwatch rateLimitWait = Stopwatch.createUnstarted();
 
         @Override
         public String toString() {
@@ -175,10 +241,43 @@ public class VersionGarbageCollector {
                     ", deletedDocGCCount=" + deletedDocGCCount +
                     ", splitDocGCCount=" + splitDocGCCount +
                     ", intermediateSplitDocGCCount=" + intermediateSplitDocGCCount +
+                    ", possiblyDeletedDocCount=" + possiblyDeletedDocCount +
+                    ", confirmedDeletedDocCount=" + confirmedDeletedDocCount +
+                    ", recreatedDocCount=" + recreatedDocCount +
                     ", timeToCollectDeletedDocs=" + collectDeletedDocs +
+                    ", timeToCheckDeletedDocs=" + checkDeletedDocs +
                     ", timeTakenToDeleteDocs=" + deleteDeletedDocs +
+                    ", timeWaitedForRateLimit=" + rateLimitWait +
+                    ", collectRate=" + rate(possiblyDeletedDocCount, collectDeletedDocs) +
+                    ", checkRate=" + rate(possiblyDeletedDocCount, checkDeletedDocs) +
+                    ", deleteRate=" + rate(deletedDocGCCount, deleteDeletedDocs) +
                     '}';
         }
+
+        /**
+         * @return the number of documents processed per second by a stage,
+         *         formatted for the log.
+         */
+        private static String rate(long count, Stopwatch stage) {
+            long millis = stage.elapsed(TimeUnit.MILLISECONDS);
+            if (millis == 0) {
+                return "n/a";
+            }
+            return String.format("%1.1f docs/s", count * 1000.0 / millis);
+        }
+    }
+
+    private static void acquire(@Nullable RateLimiter rateLimiter,
+                                int permits,
+                                VersionGCStats stats) {
+        if (rateLimiter != null && permits > 0) {
+            stats.rateLimitWait.start();
+            try {
+                rateLimiter.acquire(permits);
+            } finally {
+                stats.rateLimitWait.stop();
+            }
+        }
     }
 
     /**
@@ -187,13 +286,16 @@ public class VersionGarbageCollector {
     private class DeletedDocsGC implements Closeable {
 
         private final Revision headRevision;
+        private final RateLimiter rateLimiter;
         private final StringSort docIdsToDelete = newStringSort();
         private final StringSort prevDocIdsToDelete = newStringSort();
         private final Set<String> exclude = Sets.newHashSet();
         private boolean sorted = false;
 
-        public DeletedDocsGC(@Nonnull Revision headRevision) {
+        public DeletedDocsGC(@Nonnull Revision headRevision,
+                             @Nullable RateLimiter rateLimiter) {
             this.headRevision = checkNotNull(headRevision);
+            this.rateLimiter = rateLimiter;
         }
 
         /**
@@ -237,9 +339,9 @@ public class VersionGarbageCollector {
          * @param stats to track the number of removed documents.
          */
         void removeDocuments(VersionGCStats stats) throws IOException {
-            stats.deletedDocGCCount += removeDeletedDocuments();
+            stats.deletedDocGCCount += removeDeletedDocuments(stats);
             // FIXME: this is incorrect because that method also removes intermediate docs
-            stats.splitDocGCCount += removeDeletedPreviousDocuments();
+            stats.splitDocGCCount += removeDeletedPreviousDocuments(stats);
         }
 
         public void close() {
@@ -291,7 +393,7 @@ public class VersionGarbageCollector {
             });
         }
 
-        private int removeDeletedDocuments() throws IOException {
+        private int removeDeletedDocuments(VersionGCStats stats) throws IOException {
             Iterator<String> docIdsToDelete = getDocIdsToDelete();
             log.info("Proceeding to delete [{}] documents", getNumDocuments());
 
@@ -319,6 +421,7 @@ public class VersionGarbageCollector {
                     log.debug(sb.toString());
                 }
 
+                acquire(rateLimiter, deletionBatch.size(), stats);
                 int nRemoved = ds.remove(NODES, deletionBatch);
 
                 if (nRemoved < deletionBatch.size()) {
@@ -331,6 +434,7 @@ public class VersionGarbageCollector {
                         }
                     }
                     recreatedCount += (deletionBatch.size() - nRemoved);
+                    stats.recreatedDocCount += (deletionBatch.size() - nRemoved);
                 }
 
                 deletedCount += nRemoved;
@@ -346,7 +450,7 @@ public class VersionGarbageCollector {
             return deletedCount;
         }
 
-        private int removeDeletedPreviousDocuments() throws IOException {
+        private int removeDeletedPreviousDocuments(VersionGCStats stats) throws IOException {
             log.info("Proceeding to delete [{}] previous documents", getNumPreviousDocuments());
 
             int deletedCount = 0;
@@ -363,6 +467,7 @@ public class VersionGarbageCollector {
                     log.debug(sb.toString());
                 }
 
+                acquire(rateLimiter, deletionBatch.size(), stats);
                 ds.remove(NODES, deletionBatch);
 
                 log.debug("Deleted [{}] previous documents so far", deletedCount);
@@ -386,6 +491,279 @@ public class VersionGarbageCollector {
         }
     }
 
+    /**
+     * Collects and removes documents for deleted nodes in a pipeline of
+     * three stages, which run concurrently and are connected by bounded
+     * queues: the calling thread scans the candidates, a number of threads
+     * check whether the candidates are actually deleted and resolve their
+     * previous documents, and a single thread removes the deleted documents
+     * and their previous documents in batches. Unlike {@link DeletedDocsGC},
+     * the documents are only sorted within a batch and removal starts while
+     * the candidates are still being scanned. Descendants of a removed
+     * document which were not removed yet remain deleted and are collected
+     * by a later run.
+     */
+    private class ParallelDeletedDocsGC {
+
+        private final Revision headRevision;
+        private final RateLimiter rateLimiter;
+        private final VersionGCStats stats;
+        private final BlockingQueue<NodeDocument> candidates =
+                new ArrayBlockingQueue<NodeDocument>(CANDIDATE_QUEUE_SIZE);
+        private final BlockingQueue<List<DeletedDoc>> batches =
+                new ArrayBlockingQueue<List<DeletedDoc>>(BATCH_QUEUE_SIZE);
+        private final List<DeletedDoc> endOfBatches = Collections.emptyList();
+        private final AtomicInteger confirmed = new AtomicInteger();
+        private final List<Future<Void>> workers = Lists.newArrayList();
+
+        ParallelDeletedDocsGC(@Nonnull Revision headRevision,
+                              @Nullable RateLimiter rateLimiter,
+                              @Nonnull VersionGCStats stats) {
+            this.headRevision = checkNotNull(headRevision);
+            this.rateLimiter = rateLimiter;
+            this.stats = checkNotNull(stats);
+        }
+
+        void collect(long oldestRevTimeStamp) throws IOException {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    threads + 1, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r, "oak-version-gc-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            try {
+                stats.collectDeletedDocs.start();
+                stats.checkDeletedDocs.start();
+                stats.deleteDeletedDocs.start();
+                List<Future<Void>> checkers = Lists.newArrayList();
+                for (int i = 0; i < threads; i++) {
+                    checkers.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            check();
+                            return null;
+                        }
+                    }));
+                }
+                Future<Void> remover = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        remove();
+                        return null;
+                    }
+                });
+                workers.addAll(checkers);
+                workers.add(remover);
+
+                int docsTraversed = 0;
+                Iterable<NodeDocument> itr = versionStore.getPossiblyDeletedDocs(oldestRevTimeStamp);
+                try {
+                    for (NodeDocument doc : itr) {
+                        docsTraversed++;
+                        if (docsTraversed % PROGRESS_BATCH_SIZE == 0){
+                            log.info("Iterated through {} documents so far. {} found to be deleted",
+                                    docsTraversed, confirmed.get());
+                        }
+                        put(candidates, doc);
+                    }
+                } finally {
+                    Utils.closeIfCloseable(itr);
+                }
+                stats.collectDeletedDocs.stop();
+                stats.possiblyDeletedDocCount += docsTraversed;
+
+                for (int i = 0; i < threads; i++) {
+                    put(candidates, NodeDocument.NULL);
+                }
+                for (Future<Void> checker : checkers) {
+                    await(checker);
+                }
+                stats.checkDeletedDocs.stop();
+                stats.confirmedDeletedDocCount += confirmed.get();
+
+                put(batches, endOfBatches);
+                await(remover);
+                stats.deleteDeletedDocs.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while collecting deleted documents", e);
+            } finally {
+                executor.shutdownNow();
+                if (confirmed.get() > 0) {
+                    nodeStore.invalidateDocChildrenCache();
+                }
+            }
+        }
+
+        //------------------------------< internal >----------------------------
+
+        /**
+         * The check stage: takes candidates until the end marker and passes
+         * the documents of deleted nodes in batches to the remove stage.
+         */
+        private void check() throws InterruptedException {
+            List<DeletedDoc> batch = Lists.newArrayList();
+            for (NodeDocument doc = candidates.take();
+                 doc != NodeDocument.NULL; doc = candidates.take()) {
+                // same check as in DeletedDocsGC.possiblyDeleted()
+                if (doc.getNodeAtRevision(nodeStore, headRevision, null) == null) {
+                    List<String> prevIds = Lists.newArrayList();
+                    for (NodeDocument prevDoc : copyOf(doc.getAllPreviousDocs())) {
+                        prevIds.add(prevDoc.getId());
+                    }
+                    Long modified = doc.getModified();
+                    batch.add(new DeletedDoc(doc.getId(),
+                            modified != null ? modified : -1, prevIds));
+                    confirmed.incrementAndGet();
+                    if (batch.size() >= DELETE_BATCH_SIZE) {
+                        batches.put(batch);
+                        batch = Lists.newArrayList();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.put(batch);
+            }
+        }
+
+        /**
+         * The remove stage: removes the documents of deleted nodes, which
+         * were not modified since they were checked, and then their
+         * previous documents.
+         */
+        private void remove() throws InterruptedException {
+            int deletedCount = 0;
+            int prevDeletedCount = 0;
+            int recreatedCount = 0;
+            int lastLoggedCount = 0;
+            for (List<DeletedDoc> batch = batches.take();
+                 batch != endOfBatches; batch = batches.take()) {
+                // remove children before their parents within a batch
+                Collections.sort(batch);
+                Map<String, Map<Key, Condition>> deletionBatch = Maps.newLinkedHashMap();
+                for (DeletedDoc doc : batch) {
+                    deletionBatch.put(doc.id, singletonMap(KEY_MODIFIED,
+                            newEqualsCondition(doc.modified)));
+                }
+
+                if (log.isDebugEnabled()) {
+                    StringBuilder sb = new StringBuilder("Performing batch deletion of documents with following ids. \n");
+                    Joiner.on(LINE_SEPARATOR.value()).appendTo(sb, deletionBatch.keySet());
+                    log.debug(sb.toString());
+                }
+
+                acquire(rateLimiter, deletionBatch.size(), stats);
+                int nRemoved = ds.remove(NODES, deletionBatch);
+
+                List<String> prevIds = Lists.newArrayList();
+                for (DeletedDoc doc : batch) {
+                    // the previous documents of a node re-created while
+                    // GC was running are still in use
+                    if (nRemoved == deletionBatch.size()
+                            || ds.find(NODES, doc.id) == null) {
+                        prevIds.addAll(doc.prevIds);
+                    }
+                }
+                recreatedCount += deletionBatch.size() - nRemoved;
+                deletedCount += nRemoved;
+
+                for (List<String> ids : Lists.partition(prevIds, DELETE_BATCH_SIZE)) {
+                    acquire(rateLimiter, ids.size(), stats);
+                    ds.remove(NODES, ids);
+                    prevDeletedCount += ids.size();
+                }
+                log.debug("Deleted [{}] documents and [{}] previous documents so far",
+                        deletedCount, prevDeletedCount);
+
+                if (deletedCount + recreatedCount - lastLoggedCount >= PROGRESS_BATCH_SIZE){
+                    lastLoggedCount = deletedCount + recreatedCount;
+                    log.info("Deleted {} documents and {} previous documents so far",
+                            deletedCount, prevDeletedCount);
+                }
+            }
+            stats.deletedDocGCCount += deletedCount;
+            // FIXME: this is incorrect because this also includes intermediate docs
+            stats.splitDocGCCount += prevDeletedCount;
+            stats.recreatedDocCount += recreatedCount;
+        }
+
+        /**
+         * Puts an element into a queue of the pipeline and fails if one of
+         * the stages failed in the meantime.
+         */
+        private <T> void put(BlockingQueue<T> queue, T element)
+                throws IOException, InterruptedException {
+            while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+                checkWorkers();
+            }
+        }
+
+        /**
+         * Waits for a stage to complete and fails if one of the stages
+         * failed in the meantime.
+         */
+        private void await(Future<Void> worker)
+                throws IOException, InterruptedException {
+            while (true) {
+                checkWorkers();
+                try {
+                    worker.get(100, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // check again
+                } catch (ExecutionException e) {
+                    throw failure(e);
+                }
+            }
+        }
+
+        private void checkWorkers() throws IOException, InterruptedException {
+            for (Future<Void> worker : workers) {
+                if (worker.isDone()) {
+                    try {
+                        worker.get();
+                    } catch (ExecutionException e) {
+                        throw failure(e);
+                    }
+                }
+            }
+        }
+
+        private IOException failure(ExecutionException e) throws IOException {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw propagate(cause);
+        }
+    }
+
+    /**
+     * A document of a deleted node, as passed from the check stage to the
+     * remove stage of the {@link ParallelDeletedDocsGC}.
+     */
+    private static final class DeletedDoc implements Comparable<DeletedDoc> {
+
+        final String id;
+        final long modified;
+        final List<String> prevIds;
+
+        DeletedDoc(String id, long modified, List<String> prevIds) {
+            this.id = id;
+            this.modified = modified;
+            this.prevIds = prevIds;
+        }
+
+        @Override
+        public int compareTo(@Nonnull DeletedDoc other) {
+            return NodeDocumentIdComparator.INSTANCE.compare(id, other.id);
+        }
+    }
+
     @Nonnull
     private StringSort newStringSort() {
         return new StringSort(overflowToDiskThreshold,
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
@@ -81,8 +82,12 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Striped;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -844,6 +849,143 @@ public class MongoDocumentStore implements DocumentStore {
         return doc;
     }
 
+    /**
+     * Creates or updates the documents with a single unordered bulk write.
+     * Each write is conditional on the modCount of the known previous
+     * document and uses the upsert flag. A write with an outdated modCount
+     * therefore fails with a duplicate key error, and only the updates that
+     * fail this way are applied again one by one with
+     * {@link #createOrUpdate(Collection, UpdateOp)}. The same is done for
+     * all but the first update of a document, and for all updates of a
+     * document whose first update has conditions.
+     */
+    @Nonnull
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection,
+                                                       List<UpdateOp> updateOps)
+            throws DocumentStoreException {
+        log("createOrUpdate", updateOps);
+        List<T> oldDocs = new ArrayList<T>(Collections.<T>nCopies(updateOps.size(), null));
+        boolean[] applied = new boolean[updateOps.size()];
+        bulkUpdate(collection, updateOps, oldDocs, applied);
+        for (int i = 0; i < updateOps.size(); i++) {
+            if (!applied[i]) {
+                oldDocs.set(i, createOrUpdate(collection, updateOps.get(i)));
+            }
+        }
+        log("createOrUpdate returns ", oldDocs);
+        return oldDocs;
+    }
+
+    private <T extends Document> void bulkUpdate(Collection<T> collection,
+                                                 List<UpdateOp> updateOps,
+                                                 List<T> oldDocs,
+                                                 boolean[] applied) {
+        // index of the first update for each document, unless it has
+        // conditions. The remaining updates of a document are applied
+        // afterwards, in order
+        Map<String, Integer> indexes = Maps.newLinkedHashMap();
+        Set<String> seen = Sets.newHashSet();
+        for (int i = 0; i < updateOps.size(); i++) {
+            UpdateOp op = updateOps.get(i);
+            if (seen.add(op.getId()) && op.getConditions().isEmpty()) {
+                indexes.put(op.getId(), i);
+            }
+        }
+        if (indexes.size() < 2) {
+            return;
+        }
+
+        Map<String, T> docs = findDocuments(collection, indexes.keySet());
+        DBCollection dbCollection = getDBCollection(collection);
+        BulkWriteOperation bulk = dbCollection.initializeUnorderedBulkOperation();
+        List<Integer> bulkIndexes = new ArrayList<Integer>(indexes.size());
+        List<UpdateOp> bulkOps = new ArrayList<UpdateOp>(indexes.size());
+        for (Entry<String, Integer> entry : indexes.entrySet()) {
+            // make sure we don't modify the original updateOp
+            UpdateOp op = updateOps.get(entry.getValue()).copy();
+            T oldDoc = docs.get(entry.getKey());
+            QueryBuilder query = getByKeyQuery(entry.getKey());
+            if (oldDoc == null) {
+                query.and(Document.MOD_COUNT).exists(false);
+            } else {
+                query.and(Document.MOD_COUNT).is(oldDoc.getModCount());
+            }
+            bulk.find(query.get()).upsert().updateOne(createUpdate(op));
+            bulkIndexes.add(entry.getValue());
+            bulkOps.add(op);
+        }
+
+        Set<Integer> failed = Sets.newHashSet();
+        final long start = PERFLOG.start();
+        try {
+            bulk.execute();
+        } catch (BulkWriteException e) {
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
+            }
+        } catch (MongoException e) {
+            throw DocumentStoreException.convert(e);
+        } finally {
+            PERFLOG.end(start, 1, "createOrUpdate bulk [{}]", bulkOps.size());
+        }
+
+        for (int j = 0; j < bulkOps.size(); j++) {
+            if (failed.contains(j)) {
+                continue;
+            }
+            UpdateOp op = bulkOps.get(j);
+            T oldDoc = docs.get(op.getId());
+            TreeLock lock = acquire(op.getId(), collection);
+            try {
+                applyToCache(collection, oldDoc, op);
+            } finally {
+                lock.unlock();
+            }
+            int index = bulkIndexes.get(j);
+            oldDocs.set(index, oldDoc);
+            applied[index] = true;
+        }
+    }
+
+    /**
+     * Returns the current documents with the given keys, either from the
+     * cache or from the primary. Documents that don't exist are not
+     * contained in the returned map.
+     */
+    @Nonnull
+    private <T extends Document> Map<String, T> findDocuments(Collection<T> collection,
+                                                              Set<String> keys) {
+        Map<String, T> docs = Maps.newHashMap();
+        List<String> uncached = new ArrayList<String>();
+        for (String key : keys) {
+            T doc = getIfCached(collection, key);
+            if (doc == null) {
+                uncached.add(key);
+            } else if (doc != NodeDocument.NULL) {
+                docs.put(key, doc);
+            }
+        }
+        DBCollection dbCollection = getDBCollection(collection);
+        for (List<String> chunk : Lists.partition(uncached, IN_CLAUSE_BATCH_SIZE)) {
+            QueryBuilder query = QueryBuilder.start(Document.ID).in(chunk);
+            DBCursor cursor = dbCollection.find(query.get())
+                    .setReadPreference(ReadPreference.primary());
+            try {
+                for (DBObject obj : cursor) {
+                    T doc = convertFromDBObject(collection, obj);
+                    if (doc != null) {
+                        doc.seal();
+                        docs.put(doc.getId(), doc);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return docs;
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update)
             throws DocumentStoreException {
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A queue of writes to the persistent cache, which are applied in batches by
+ * a background thread. The queue is bounded: a place in the queue must be
+ * reserved before a write is added. If the queue is full, the
+ * {@link NodeCache} drops new entries, and applies removals directly, as
+ * otherwise the persistent cache could return outdated values.
+ */
+class AsyncWriteQueue implements Runnable {
+
+    /**
+     * The maximum number of writes applied in one batch.
+     */
+    static final int BATCH_SIZE = 256;
+
+    private final BlockingQueue<WriteAction> queue =
+            new LinkedBlockingQueue<WriteAction>();
+
+    private final int maxSize;
+
+    /**
+     * The free places in the queue, including the writes of the batch that
+     * is currently being applied.
+     */
+    private final Semaphore capacity;
+
+    private final Thread thread;
+
+    private volatile boolean stopped;
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong flushTimeNanos = new AtomicLong();
+
+    private volatile long maxFlushTimeNanos;
+
+    AsyncWriteQueue(int maxSize) {
+        this.maxSize = maxSize;
+        this.capacity = new Semaphore(maxSize);
+        thread = new Thread(this, "PersistentCache write queue");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reserves a place in the queue for a write.
+     *
+     * @return {@code false} if the queue is full or closed
+     */
+    boolean reserve() {
+        return !stopped && capacity.tryAcquire();
+    }
+
+    /**
+     * Adds a write to the queue, for which a place was reserved with
+     * {@link #reserve()}.
+     *
+     * @param cache the cache to write to
+     * @param key the key
+     * @param write the write, passed back to
+     *          {@link NodeCache#flush(Object, Object)}
+     */
+    void add(NodeCache<?, ?> cache, Object key, Object write) {
+        queue.add(new WriteAction(cache, key, write));
+    }
+
+    /**
+     * Removes all queued writes to the given cache.
+     *
+     * @param cache the cache
+     */
+    void remove(NodeCache<?, ?> cache) {
+        int removed = 0;
+        Iterator<WriteAction> it = queue.iterator();
+        while (it.hasNext()) {
+            if (it.next().cache == cache) {
+                it.remove();
+                removed++;
+            }
+        }
+        capacity.release(removed);
+    }
+
+    /**
+     * Counts a write that was dropped because the queue was full.
+     */
+    void dropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a write that was applied directly because the queue was full.
+     */
+    void written() {
+        writeCount.incrementAndGet();
+    }
+
+    /**
+     * Stops the background thread after all queued writes are applied.
+     */
+    void close() {
+        stopped = true;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<WriteAction> batch = new ArrayList<WriteAction>(BATCH_SIZE);
+        while (true) {
+            WriteAction action;
+            try {
+                action = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                action = null;
+            }
+            if (action == null) {
+                if (stopped) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(action);
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            long start = System.nanoTime();
+            for (WriteAction a : batch) {
+                try {
+                    a.write();
+                } catch (Exception e) {
+                    PersistentCache.LOG.warn("Could not write to the persistent cache", e);
+                }
+            }
+            long time = System.nanoTime() - start;
+            writeCount.addAndGet(batch.size());
+            capacity.release(batch.size());
+            flushCount.incrementAndGet();
+            flushTimeNanos.addAndGet(time);
+            if (time > maxFlushTimeNanos) {
+                maxFlushTimeNanos = time;
+            }
+            batch.clear();
+        }
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    int getMaxQueueSize() {
+        return maxSize;
+    }
+
+    long getWriteCount() {
+        return writeCount.get();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    long getFlushCount() {
+        return flushCount.get();
+    }
+
+    long getAverageFlushTimeMicros() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(flushTimeNanos.get() / count);
+    }
+
+    long getMaxFlushTimeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushTimeNanos);
+    }
+
+    private static class WriteAction {
+
+        private final NodeCache<?, ?> cache;
+        private final Object key;
+        private final Object write;
+
+        WriteAction(NodeCache<?, ?> cache, Object key, Object write) {
+            this.cache = cache;
+            this.key = key;
+            this.write = write;
+        }
+
+        void write() {
+            cache.flush(key, write);
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.plugins.document.Revision;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+
+/**
+ * The binary format of values in the persistent cache.
+ * <p>
+ * A binary value starts with the bytes {@code 0x80 0x00}, followed by the
+ * version of the format as a varint. The string format starts with the
+ * length of the string as a varint, and a varint is never written as
+ * {@code 0x80 0x00}. Values in both formats can therefore be read from the
+ * same map, which allows to keep using a cache that was written with the
+ * string format.
+ * <p>
+ * Numbers are written as varints. A string is written only once per value;
+ * repeated occurrences refer to the index of the string in a dictionary,
+ * which starts with a fixed list of common names. The timestamp of a
+ * revision is written as the difference to the timestamp of the revision
+ * written before.
+ */
+public final class BinaryFormat {
+
+    /**
+     * The current version of the binary format. The list of
+     * {@link #COMMON_STRINGS} is part of the format and must only be changed
+     * together with the version.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte MARKER_0 = (byte) 0x80;
+
+    private static final byte MARKER_1 = 0;
+
+    private static final String[] COMMON_STRINGS = {
+            "_id", "_modified", "_modCount", "_deleted", "_deletedOnce",
+            "_revisions", "_commitRoot", "_lastRev", "_children", "_bin",
+            "_prev", "_stalePrev", "_collisions", "_sdType", "_sdMaxRevTime",
+            "_path", "c", "true", "false", "/",
+            "jcr:primaryType", "jcr:mixinTypes", "jcr:uuid", ":childOrder",
+            "jcr:created", "jcr:createdBy", "jcr:lastModified",
+            "jcr:lastModifiedBy", "jcr:data", "jcr:mimeType",
+            "jcr:content", "rep:policy", "oak:index",
+            "\"nam:nt:unstructured\"", "\"nam:oak:Unstructured\"",
+            "\"nam:nt:folder\"", "\"nam:nt:file\"", "\"nam:nt:resource\"",
+            "\"nam:oak:Resource\"", "\"nam:rep:ACL\"", "\"nam:rep:GrantACE\"",
+            "\"nam:oak:QueryIndexDefinition\""
+    };
+
+    private static final Map<String, Integer> COMMON_INDEXES;
+
+    static {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        for (int i = 0; i < COMMON_STRINGS.length; i++) {
+            indexes.put(COMMON_STRINGS[i], i);
+        }
+        COMMON_INDEXES = indexes;
+    }
+
+    private BinaryFormat() {
+    }
+
+    /**
+     * Writes the header of a binary value.
+     *
+     * @param buff the target buffer
+     */
+    static void writeHeader(WriteBuffer buff) {
+        buff.put(MARKER_0).put(MARKER_1).putVarInt(VERSION);
+    }
+
+    /**
+     * Reads the header of a binary value, if the value at the current
+     * position of the buffer is in the binary format. Otherwise the buffer
+     * is not changed.
+     *
+     * @param buff the source buffer
+     * @return whether the value is in the binary format
+     * @throws IllegalArgumentException if the value was written with an
+     *          unknown version of the format
+     */
+    static boolean readHeader(ByteBuffer buff) {
+        int pos = buff.position();
+        if (buff.limit() - pos < 2
+                || buff.get(pos) != MARKER_0 || buff.get(pos + 1) != MARKER_1) {
+            return false;
+        }
+        buff.position(pos + 2);
+        int version = DataUtils.readVarInt(buff);
+        if (version != VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported version of the persistent cache format: " + version);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a single value in the binary format.
+     */
+    public static final class Writer {
+
+        private final WriteBuffer buff;
+
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        private long lastTimestamp;
+
+        Writer(WriteBuffer buff) {
+            this.buff = buff;
+        }
+
+        public Writer writeBoolean(boolean value) {
+            buff.put((byte) (value ? 1 : 0));
+            return this;
+        }
+
+        /**
+         * @param value a non-negative number
+         */
+        public Writer writeVarInt(int value) {
+            buff.putVarInt(value);
+            return this;
+        }
+
+        public Writer writeLong(long value) {
+            buff.putVarLong((value << 1) ^ (value >> 63));
+            return this;
+        }
+
+        public Writer writeString(@Nonnull String value) {
+            Integer index = COMMON_INDEXES.get(value);
+            if (index == null) {
+                index = dictionary.get(value);
+                if (index != null) {
+                    index += COMMON_STRINGS.length;
+                }
+            }
+            if (index != null) {
+                buff.putVarInt(index + 1);
+            } else {
+                dictionary.put(value, dictionary.size());
+                buff.putVarInt(0);
+                writeStringData(value);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a list of names. Each name is written as the length of the
+         * prefix it has in common with the previous name, followed by the
+         * rest of the name. This works best for sorted lists.
+         */
+        public Writer writeNames(@Nonnull List<String> names) {
+            buff.putVarInt(names.size());
+            String last = "";
+            for (String name : names) {
+                int prefix = 0;
+                int max = Math.min(last.length(), name.length());
+                while (prefix < max && last.charAt(prefix) == name.charAt(prefix)) {
+                    prefix++;
+                }
+                buff.putVarInt(prefix);
+                writeStringData(name.substring(prefix));
+                last = name;
+            }
+            return this;
+        }
+
+        public Writer writeRevision(@Nonnull Revision revision) {
+            writeLong(revision.getTimestamp() - lastTimestamp);
+            lastTimestamp = revision.getTimestamp();
+            buff.putVarInt(revision.getCounter());
+            buff.putVarInt((revision.getClusterId() << 1) | (revision.isBranch() ? 1 : 0));
+            return this;
+        }
+
+        public Writer writeNullableRevision(@CheckForNull Revision revision) {
+            writeBoolean(revision != null);
+            if (revision != null) {
+                writeRevision(revision);
+            }
+            return this;
+        }
+
+        private void writeStringData(String value) {
+            int len = value.length();
+            buff.putVarInt(len).putStringData(value, len);
+        }
+    }
+
+    /**
+     * Reads a single value in the binary format.
+     */
+    public static final class Reader {
+
+        private final ByteBuffer buff;
+
+        private final List<String> dictionary = new ArrayList<String>();
+
+        private long lastTimestamp;
+
+        Reader(ByteBuffer buff) {
+            this.buff = buff;
+        }
+
+        public boolean readBoolean() {
+            return buff.get() != 0;
+        }
+
+        public int readVarInt() {
+            return DataUtils.readVarInt(buff);
+        }
+
+        public long readLong() {
+            long x = DataUtils.readVarLong(buff);
+            return (x >>> 1) ^ -(x & 1);
+        }
+
+        @Nonnull
+        public String readString() {
+            int index = DataUtils.readVarInt(buff);
+            if (index == 0) {
+                String value = readStringData();
+                dictionary.add(value);
+                return value;
+            }
+            index--;
+            if (index < COMMON_STRINGS.length) {
+                return COMMON_STRINGS[index];
+            }
+            return dictionary.get(index - COMMON_STRINGS.length);
+        }
+
+        @Nonnull
+        public List<String> readNames(@Nonnull List<String> names) {
+            int size = DataUtils.readVarInt(buff);
+            String last = "";
+            for (int i = 0; i < size; i++) {
+                int prefix = DataUtils.readVarInt(buff);
+                String name = last.substring(0, prefix) + readStringData();
+                names.add(name);
+                last = name;
+            }
+            return names;
+        }
+
+        @Nonnull
+        public Revision readRevision() {
+            long timestamp = lastTimestamp + readLong();
+            lastTimestamp = timestamp;
+            int counter = DataUtils.readVarInt(buff);
+            int x = DataUtils.readVarInt(buff);
+            return new Revision(timestamp, counter, x >>> 1, (x & 1) != 0);
+        }
+
+        @CheckForNull
+        public Revision readNullableRevision() {
+            return readBoolean() ? readRevision() : null;
+        }
+
+        private String readStringData() {
+            int len = DataUtils.readVarInt(buff);
+            return DataUtils.readString(buff, len);
+        }
+    }
+
+}
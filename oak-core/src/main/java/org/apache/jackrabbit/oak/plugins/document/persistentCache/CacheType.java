@@ -51,6 +51,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) DocumentNodeState.fromString(store, value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            ((DocumentNodeState) value).writeTo(out);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) DocumentNodeState.readFrom(store, in);
+        }
     },
     
     CHILDREN {
@@ -77,6 +87,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) DocumentNodeState.Children.fromString(value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            ((DocumentNodeState.Children) value).writeTo(out);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) DocumentNodeState.Children.readFrom(in);
+        }
     }, 
     
     DIFF {
@@ -103,6 +123,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) StringValue.fromString(value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            out.writeString(((StringValue) value).asString());
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) new StringValue(in.readString());
+        }
     },
 
     DOC_CHILDREN {
@@ -129,6 +159,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) NodeDocument.Children.fromString(value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            ((NodeDocument.Children) value).writeTo(out);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) NodeDocument.Children.readFrom(in);
+        }
     }, 
     
     DOCUMENT {
@@ -155,6 +195,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) NodeDocument.fromString(docStore, value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            ((NodeDocument) value).writeTo(out);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) NodeDocument.readFrom(docStore, in);
+        }
     },
 
     LOCAL_DIFF {
@@ -181,6 +231,16 @@ public enum CacheType {
                 DocumentNodeStore store, DocumentStore docStore, String value) {
             return (V) LocalDiffCache.Diff.fromString(value);
         }
+        @Override
+        public <V> void valueToBinary(BinaryFormat.Writer out, V value) {
+            ((LocalDiffCache.Diff) value).writeTo(out);
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public <V> V valueFromBinary(
+                DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in) {
+            return (V) LocalDiffCache.Diff.readFrom(in);
+        }
     };
 
     public abstract <K> String keyToString(K key);
@@ -189,6 +249,9 @@ public enum CacheType {
     public abstract <V> String valueToString(V value);
     public abstract <V> V valueFromString(
             DocumentNodeStore store, DocumentStore docStore, String value);
+    public abstract <V> void valueToBinary(BinaryFormat.Writer out, V value);
+    public abstract <V> V valueFromBinary(
+            DocumentNodeStore store, DocumentStore docStore, BinaryFormat.Reader in);
 
 }
 
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
@@ -34,13 +35,28 @@ import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 
 class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
-    
+
     private final PersistentCache cache;
     private final Cache<K, V> memCache;
     private final MultiGenerationMap<K, V> map;
     private final CacheType type;
     private final DocumentNodeStore docNodeStore;
     private final DocumentStore docStore;
+    private final AsyncWriteQueue writeQueue;
+
+    /**
+     * The latest write of each key that is queued but not yet applied.
+     * Queued writes that are superseded by a later write of the same key
+     * are skipped.
+     */
+    private final ConcurrentMap<K, Write<V>> pending =
+            new ConcurrentHashMap<K, Write<V>>();
+
+    /**
+     * Held while checking and applying a queued write, so that it can't
+     * be applied after {@link #invalidateAll()} cleared the map.
+     */
+    private final Object flushLock = new Object();
     
     NodeCache(
             PersistentCache cache,
@@ -52,6 +68,7 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
         this.type = type;
         this.docNodeStore = docNodeStore;
         this.docStore = docStore;
+        this.writeQueue = cache.getWriteQueue();
         PersistentCache.LOG.info("wrapping map " + this.type);
         map = new MultiGenerationMap<K, V>();
     }
@@ -59,7 +76,8 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     @Override
     public void addGeneration(int generation, boolean readOnly) {
         DataType keyType = new KeyDataType(type);
-        DataType valueType = new ValueDataType(docNodeStore, docStore, type);
+        DataType valueType = new ValueDataType(docNodeStore, docStore, type,
+                cache.isBinaryFormat());
         MVMap.Builder<K, V> b = new MVMap.Builder<K, V>().
                 keyType(keyType).valueType(valueType);
         String mapName = type.name();
@@ -76,12 +94,59 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     }
     
     private V readIfPresent(K key) {
-        cache.switchGenerationIfNeeded();
+        if (writeQueue == null) {
+            cache.switchGenerationIfNeeded();
+        } else {
+            Write<V> w = pending.get(key);
+            if (w != null) {
+                return w.value;
+            }
+        }
         V v = map.get(key);
         return v;
     }
     
     public void write(K key, V value) {
+        if (writeQueue == null) {
+            writeNow(key, value);
+        } else if (value != null) {
+            if (!writeQueue.reserve()) {
+                // dropped because the queue is full, without touching a
+                // queued write of the same key, which could be a removal
+                writeQueue.dropped();
+                return;
+            }
+            Write<V> w = new Write<V>(value);
+            pending.put(key, w);
+            writeQueue.add(this, key, w);
+        } else {
+            Write<V> w = new Write<V>(null);
+            pending.put(key, w);
+            if (writeQueue.reserve()) {
+                writeQueue.add(this, key, w);
+            } else {
+                // removals are never dropped, but the queue is full
+                flush(key, w);
+                writeQueue.written();
+            }
+        }
+    }
+
+    /**
+     * Applies a queued write, unless it was superseded by a later write of
+     * the same key or the map was cleared since.
+     */
+    @SuppressWarnings("unchecked")
+    void flush(Object key, Object write) {
+        synchronized (flushLock) {
+            if (pending.get(key) == write) {
+                writeNow((K) key, ((Write<V>) write).value);
+            }
+        }
+        pending.remove(key, write);
+    }
+
+    private void writeNow(K key, V value) {
         cache.switchGenerationIfNeeded();
         if (value == null) {
             map.remove(key);
@@ -150,7 +215,13 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
     @Override
     public void invalidateAll() {
         memCache.invalidateAll();
-        map.clear();
+        synchronized (flushLock) {
+            map.clear();
+            pending.clear();
+        }
+        if (writeQueue != null) {
+            writeQueue.remove(this);
+        }
     }
 
     @Override
@@ -173,4 +244,20 @@ class NodeCache<K, V> implements Cache<K, V>, GenerationCache {
         memCache.cleanUp();
     }
 
+    /**
+     * A queued write.
+     */
+    private static class Write<V> {
+
+        /**
+         * The value, or {@code null} for a removal.
+         */
+        final V value;
+
+        Write(V value) {
+            this.value = value;
+        }
+
+    }
+
 }
\ No newline at end of file
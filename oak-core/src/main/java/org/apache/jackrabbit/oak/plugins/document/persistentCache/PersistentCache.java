@@ -22,6 +22,9 @@ import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
 import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
@@ -54,6 +57,11 @@ public class PersistentCache {
     private boolean cacheDocChildren;
     private boolean compactOnClose;
     private boolean compress = true;
+    private boolean binaryFormat = true;
+    private boolean asyncWrite = true;
+    private int asyncQueueSize = 1024;
+    private AsyncWriteQueue writeQueue;
+    private final PersistentCacheStats stats = new PersistentCacheStats(this);
     private ArrayList<GenerationCache> caches = 
             new ArrayList<GenerationCache>();
     
@@ -96,6 +104,12 @@ public class PersistentCache {
                 compactOnClose = true;
             } else if (p.equals("-compress")) {
                 compress = false;
+            } else if (p.equals("-binaryFormat")) {
+                binaryFormat = false;
+            } else if (p.equals("-async")) {
+                asyncWrite = false;
+            } else if (p.startsWith("asyncQueue=")) {
+                asyncQueueSize = Integer.parseInt(p.split("=")[1]);
             } else if (p.endsWith("time")) {
                 dir += "-" + System.currentTimeMillis() + "-" + COUNTER.getAndIncrement();
             } else if (p.startsWith("size=")) {
@@ -111,6 +125,9 @@ public class PersistentCache {
             }
         }
         this.directory = dir;
+        if (asyncWrite) {
+            writeQueue = new AsyncWriteQueue(asyncQueueSize);
+        }
         if (dir.length() == 0) {
             readGeneration = -1;
             writeGeneration = 0;
@@ -289,6 +306,9 @@ public class PersistentCache {
     }
     
     public void close() {
+        if (writeQueue != null) {
+            writeQueue.close();
+        }
         if (writeStore != null) {
             writeStore.closeStore();
         }
@@ -407,7 +427,31 @@ public class PersistentCache {
     public long getMaxBinaryEntrySize() {
         return maxBinaryEntry;
     }
+
+    /**
+     * Whether values are written in the {@link BinaryFormat}. Values written
+     * in the string format can still be read when this is enabled.
+     *
+     * @return true unless the option "-binaryFormat" is used
+     */
+    public boolean isBinaryFormat() {
+        return binaryFormat;
+    }
     
+    /**
+     * @return the queue for asynchronous writes, or {@code null} if writes
+     *          are applied synchronously
+     */
+    @CheckForNull
+    AsyncWriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    @Nonnull
+    public PersistentCacheStatsMBean getStats() {
+        return stats;
+    }
+
     public int getOpenCount() {
         return writeStore.getOpenCount();
     }
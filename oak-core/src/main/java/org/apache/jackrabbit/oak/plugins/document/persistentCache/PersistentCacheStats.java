@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+
+class PersistentCacheStats extends AnnotatedStandardMBean
+        implements PersistentCacheStatsMBean {
+
+    private final PersistentCache cache;
+
+    PersistentCacheStats(PersistentCache cache) {
+        super(PersistentCacheStatsMBean.class);
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean isAsyncWrite() {
+        return cache.getWriteQueue() != null;
+    }
+
+    @Override
+    public int getQueueSize() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getQueueSize();
+    }
+
+    @Override
+    public int getMaxQueueSize() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getMaxQueueSize();
+    }
+
+    @Override
+    public long getWriteCount() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getWriteCount();
+    }
+
+    @Override
+    public long getDroppedWriteCount() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getDroppedCount();
+    }
+
+    @Override
+    public long getFlushCount() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getFlushCount();
+    }
+
+    @Override
+    public long getAverageFlushTime() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getAverageFlushTimeMicros();
+    }
+
+    @Override
+    public long getMaxFlushTime() {
+        AsyncWriteQueue queue = cache.getWriteQueue();
+        return queue == null ? 0 : queue.getMaxFlushTimeMicros();
+    }
+
+    @Override
+    public int getExceptionCount() {
+        return cache.getExceptionCount();
+    }
+
+}
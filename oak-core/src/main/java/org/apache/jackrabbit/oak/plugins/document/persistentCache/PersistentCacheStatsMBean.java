@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import org.apache.jackrabbit.oak.commons.jmx.Description;
+
+/**
+ * Statistics of the persistent cache and its asynchronous write queue.
+ */
+public interface PersistentCacheStatsMBean {
+
+    String TYPE = "PersistentCacheStats";
+
+    @Description("Whether writes are applied asynchronously")
+    boolean isAsyncWrite();
+
+    @Description("Number of writes waiting in the queue")
+    int getQueueSize();
+
+    @Description("Maximum number of writes in the queue before new entries are dropped")
+    int getMaxQueueSize();
+
+    @Description("Number of writes applied from the queue")
+    long getWriteCount();
+
+    @Description("Number of writes dropped because the queue was full")
+    long getDroppedWriteCount();
+
+    @Description("Number of batches written from the queue")
+    long getFlushCount();
+
+    @Description("Average time to write a batch, in microseconds")
+    long getAverageFlushTime();
+
+    @Description("Maximum time to write a batch, in microseconds")
+    long getMaxFlushTime();
+
+    @Description("Number of exceptions while accessing the cache files")
+    int getExceptionCount();
+
+}
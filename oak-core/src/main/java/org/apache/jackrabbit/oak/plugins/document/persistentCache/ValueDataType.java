@@ -30,13 +30,25 @@ public class ValueDataType implements DataType {
     private final DocumentNodeStore docNodeStore;
     private final DocumentStore docStore;
     private final CacheType type;
+    private final boolean binary;
     
     public ValueDataType(
             DocumentNodeStore docNodeStore,
             DocumentStore docStore, CacheType type) {
+        this(docNodeStore, docStore, type, true);
+    }
+
+    /**
+     * @param binary whether to write values in the {@link BinaryFormat};
+     *          values in both formats are read in any case
+     */
+    public ValueDataType(
+            DocumentNodeStore docNodeStore,
+            DocumentStore docStore, CacheType type, boolean binary) {
         this.docNodeStore = docNodeStore;
         this.docStore = docStore;
         this.type = type;
+        this.binary = binary;
     }
 
     @Override
@@ -51,12 +63,21 @@ public class ValueDataType implements DataType {
 
     @Override
     public void write(WriteBuffer buff, Object obj) {
+        if (binary) {
+            BinaryFormat.writeHeader(buff);
+            type.valueToBinary(new BinaryFormat.Writer(buff), obj);
+            return;
+        }
         String s = type.valueToString(obj);
         StringDataType.INSTANCE.write(buff, s);
     }
 
     @Override
     public Object read(ByteBuffer buff) {
+        if (BinaryFormat.readHeader(buff)) {
+            return type.valueFromBinary(docNodeStore, docStore,
+                    new BinaryFormat.Reader(buff));
+        }
         String s = StringDataType.INSTANCE.read(buff);
         return type.valueFromString(docNodeStore, docStore, s);
     }
@@ -270,6 +270,11 @@ public class RDBDocumentStore implements DocumentStore {
         return internalCreateOrUpdate(collection, update, true, false);
     }
 
+    @Override
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection, List<UpdateOp> updateOps) {
+        return internalCreateOrUpdate(collection, updateOps);
+    }
+
     @Override
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update) {
         return internalCreateOrUpdate(collection, update, false, true);
@@ -1145,6 +1150,123 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * The first update of each existing document is written in batches of
+     * up to {@link #CHUNKSIZE} full rewrites per transaction, guarded by the
+     * modcount of the previous document, unless it has conditions. Updates
+     * that do not qualify or fail because of a concurrent change are applied
+     * one by one.
+     */
+    @Nonnull
+    private <T extends Document> List<T> internalCreateOrUpdate(Collection<T> collection, List<UpdateOp> updateOps) {
+        List<T> result = new ArrayList<T>(Collections.<T>nCopies(updateOps.size(), null));
+        boolean[] applied = new boolean[updateOps.size()];
+
+        // first update of each document, unless it has conditions; the
+        // remaining updates of a document are applied afterwards, in order
+        Set<String> seen = new HashSet<String>();
+        List<Integer> candidates = new ArrayList<Integer>();
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < updateOps.size(); i++) {
+            UpdateOp update = updateOps.get(i);
+            if (seen.add(update.getId()) && update.getConditions().isEmpty()) {
+                candidates.add(i);
+                ids.add(update.getId());
+            }
+        }
+
+        // of these, the ones of existing documents
+        List<Integer> indexes = new ArrayList<Integer>();
+        List<T> oldDocs = new ArrayList<T>();
+        if (candidates.size() > 1) {
+            Map<String, T> docs = readDocumentsCached(collection, ids);
+            for (int i : candidates) {
+                T oldDoc = docs.get(updateOps.get(i).getId());
+                if (oldDoc != null) {
+                    indexes.add(i);
+                    oldDocs.add(oldDoc);
+                }
+            }
+        }
+        if (indexes.size() > 1) {
+            for (int start = 0; start < indexes.size(); start += CHUNKSIZE) {
+                int end = Math.min(start + CHUNKSIZE, indexes.size());
+                List<Integer> chunk = indexes.subList(start, end);
+                boolean[] success = internalBatchUpdate(collection, updateOps, chunk, oldDocs.subList(start, end));
+                for (int j = 0; j < chunk.size(); j++) {
+                    if (success[j]) {
+                        result.set(chunk.get(j), oldDocs.get(start + j));
+                        applied[chunk.get(j)] = true;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < updateOps.size(); i++) {
+            if (!applied[i]) {
+                result.set(i, internalCreateOrUpdate(collection, updateOps.get(i), true, false));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return for each update whether it was applied; none of them is
+     *         applied when the batch failed as a whole
+     */
+    @Nonnull
+    private <T extends Document> boolean[] internalBatchUpdate(Collection<T> collection, List<UpdateOp> updateOps,
+            List<Integer> indexes, List<T> oldDocs) {
+        List<T> docs = new ArrayList<T>(indexes.size());
+        List<Long> modifieds = new ArrayList<Long>(indexes.size());
+        List<Long> oldmodcounts = new ArrayList<Long>(indexes.size());
+        for (int j = 0; j < indexes.size(); j++) {
+            // make sure we don't modify the original updateOp
+            UpdateOp update = updateOps.get(indexes.get(j)).copy();
+            T oldDoc = oldDocs.get(j);
+            docs.add(applyChanges(collection, oldDoc, update, false));
+            modifieds.add(getModifiedFromOperation(update.getChanges().get(MODIFIEDKEY)));
+            oldmodcounts.add(modcountOf(oldDoc));
+        }
+
+        boolean[] success = new boolean[indexes.size()];
+        Connection connection = null;
+        String tableName = getTable(collection);
+        try {
+            connection = this.ch.getRWConnection();
+            int[] results = dbBatchUpdate(connection, tableName, docs, modifieds, oldmodcounts);
+            for (int j = 0; j < results.length; j++) {
+                if (results[j] == Statement.SUCCESS_NO_INFO) {
+                    // can't tell which updates were applied
+                    this.ch.rollbackConnection(connection);
+                    return new boolean[indexes.size()];
+                }
+                success[j] = results[j] == 1;
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            LOG.debug("batch update of " + docs.size() + " documents in " + tableName + " failed", ex);
+            this.ch.rollbackConnection(connection);
+            return new boolean[indexes.size()];
+        } finally {
+            this.ch.closeConnection(connection);
+        }
+
+        if (collection == Collection.NODES) {
+            for (int j = 0; j < docs.size(); j++) {
+                if (success[j]) {
+                    Lock l = getAndLock(docs.get(j).getId());
+                    try {
+                        applyToCache((NodeDocument) oldDocs.get(j), (NodeDocument) docs.get(j));
+                    } finally {
+                        l.unlock();
+                    }
+                }
+            }
+        }
+        return success;
+    }
+
     /**
      * @return previous version of document or <code>null</code>
      */
@@ -1332,6 +1454,47 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    /**
+     * @return the existing documents with the given ids, taken from the cache
+     *         if present and otherwise read with one query per
+     *         {@link #CHUNKSIZE} ids
+     */
+    @Nonnull
+    private <T extends Document> Map<String, T> readDocumentsCached(Collection<T> collection, List<String> ids) {
+        Map<String, T> docs = new HashMap<String, T>();
+        List<String> uncached = new ArrayList<String>();
+        for (String id : ids) {
+            NodeDocument doc = null;
+            if (collection == Collection.NODES) {
+                doc = nodesCache.getIfPresent(new StringValue(id));
+            }
+            if (doc == null || doc.getLastCheckTime() == 0) {
+                uncached.add(id);
+            } else if (doc != NodeDocument.NULL) {
+                docs.put(id, RDBDocumentStore.<T>castAsT(doc));
+            }
+        }
+
+        String tableName = getTable(collection);
+        for (List<String> chunk : Lists.partition(uncached, CHUNKSIZE)) {
+            Connection connection = null;
+            try {
+                long now = System.currentTimeMillis();
+                connection = this.ch.getROConnection();
+                List<RDBRow> rows = dbRead(connection, tableName, chunk);
+                connection.commit();
+                for (RDBRow row : rows) {
+                    docs.put(row.getId(), runThroughCache(collection, row, now));
+                }
+            } catch (Exception ex) {
+                throw new DocumentStoreException(ex);
+            } finally {
+                this.ch.closeConnection(connection);
+            }
+        }
+        return docs;
+    }
+
     @CheckForNull
     private <T extends Document> T readDocumentUncached(Collection<T> collection, String id, NodeDocument cachedDoc) {
         Connection connection = null;
@@ -1642,6 +1805,43 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    @Nonnull
+    private List<RDBRow> dbRead(Connection connection, String tableName, List<String> ids) throws SQLException {
+        StringBuilder t = new StringBuilder();
+        t.append("select ID, MODIFIED, MODCOUNT, CMODCOUNT, HASBINARY, DELETEDONCE, DATA, BDATA from " + tableName);
+        t.append(" where ID in (");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i != 0) {
+                t.append(',');
+            }
+            t.append('?');
+        }
+        t.append(")");
+        PreparedStatement stmt = connection.prepareStatement(t.toString());
+        List<RDBRow> result = new ArrayList<RDBRow>(ids.size());
+        try {
+            int si = 1;
+            for (String id : ids) {
+                setIdInStatement(stmt, si++, id);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String id = getIdFromRS(rs, 1);
+                long modified = rs.getLong(2);
+                long modcount = rs.getLong(3);
+                long cmodcount = rs.getLong(4);
+                long hasBinary = rs.getLong(5);
+                long deletedOnce = rs.getLong(6);
+                String data = rs.getString(7);
+                byte[] bdata = rs.getBytes(8);
+                result.add(new RDBRow(id, hasBinary == 1, deletedOnce == 1, modified, modcount, cmodcount, data, bdata));
+            }
+        } finally {
+            stmt.close();
+        }
+        return result;
+    }
+
     private List<RDBRow> dbQuery(Connection connection, String tableName, String minId, String maxId, String indexedProperty,
             long startValue, int limit) throws SQLException {
         long start = System.currentTimeMillis();
@@ -1745,28 +1945,7 @@ public class RDBDocumentStore implements DocumentStore {
         }
         PreparedStatement stmt = connection.prepareStatement(t);
         try {
-            int si = 1;
-            stmt.setObject(si++, modified, Types.BIGINT);
-            stmt.setObject(si++, hasBinary ? 1 : 0, Types.SMALLINT);
-            stmt.setObject(si++, deletedOnce ? 1 : 0, Types.SMALLINT);
-            stmt.setObject(si++, modcount, Types.BIGINT);
-            stmt.setObject(si++, cmodcount == null ? Long.valueOf(0) : cmodcount, Types.BIGINT);
-            stmt.setObject(si++, data.length(), Types.BIGINT);
-
-            if (data.length() < this.dataLimitInOctets / CHAR2OCTETRATIO) {
-                stmt.setString(si++, data);
-                stmt.setBinaryStream(si++, null, 0);
-            } else {
-                stmt.setString(si++, "\"blob\"");
-                byte[] bytes = asBytes(data);
-                stmt.setBytes(si++, bytes);
-            }
-
-            setIdInStatement(stmt, si++, id);
-
-            if (oldmodcount != null) {
-                stmt.setObject(si++, oldmodcount, Types.BIGINT);
-            }
+            setUpdateParameters(stmt, id, modified, hasBinary, deletedOnce, modcount, cmodcount, oldmodcount, data);
             int result = stmt.executeUpdate();
             if (result != 1) {
                 LOG.debug("DB update failed for " + tableName + "/" + id + " with oldmodcount=" + oldmodcount);
@@ -1777,6 +1956,63 @@ public class RDBDocumentStore implements DocumentStore {
         }
     }
 
+    private <T extends Document> int[] dbBatchUpdate(Connection connection, String tableName, List<T> documents,
+            List<Long> modifieds, List<Long> oldmodcounts) throws SQLException {
+        String t = "update "
+                + tableName
+                + " set MODIFIED = ?, HASBINARY = ?, DELETEDONCE = ?, MODCOUNT = ?, CMODCOUNT = ?, DSIZE = ?, DATA = ?, BDATA = ? where ID = ? and MODCOUNT = ?";
+        PreparedStatement stmt = connection.prepareStatement(t);
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                T document = documents.get(i);
+                Number flagB = (Number) document.get(NodeDocument.HAS_BINARY_FLAG);
+                Boolean hasBinary = flagB != null && flagB.intValue() == NodeDocument.HAS_BINARY_VAL;
+                Boolean flagD = (Boolean) document.get(NodeDocument.DELETED_ONCE);
+                Boolean deletedOnce = flagD != null && flagD.booleanValue();
+                setUpdateParameters(stmt, document.getId(), modifieds.get(i), hasBinary, deletedOnce,
+                        (Long) document.get(MODCOUNT), (Long) document.get(COLLISIONSMODCOUNT), oldmodcounts.get(i),
+                        SR.asString(document));
+                stmt.addBatch();
+            }
+            int[] results = stmt.executeBatch();
+            for (int i = 0; i < documents.size(); i++) {
+                if (results[i] != 1 && results[i] != Statement.SUCCESS_NO_INFO) {
+                    LOG.debug("DB batch update failed for " + tableName + "/" + documents.get(i).getId() + " with oldmodcount="
+                            + oldmodcounts.get(i));
+                }
+            }
+            return results;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, String id, Long modified, Boolean hasBinary, Boolean deletedOnce,
+            Long modcount, Long cmodcount, Long oldmodcount, String data) throws SQLException {
+        int si = 1;
+        stmt.setObject(si++, modified, Types.BIGINT);
+        stmt.setObject(si++, hasBinary ? 1 : 0, Types.SMALLINT);
+        stmt.setObject(si++, deletedOnce ? 1 : 0, Types.SMALLINT);
+        stmt.setObject(si++, modcount, Types.BIGINT);
+        stmt.setObject(si++, cmodcount == null ? Long.valueOf(0) : cmodcount, Types.BIGINT);
+        stmt.setObject(si++, data.length(), Types.BIGINT);
+
+        if (data.length() < this.dataLimitInOctets / CHAR2OCTETRATIO) {
+            stmt.setString(si++, data);
+            stmt.setBinaryStream(si++, null, 0);
+        } else {
+            stmt.setString(si++, "\"blob\"");
+            byte[] bytes = asBytes(data);
+            stmt.setBytes(si++, bytes);
+        }
+
+        setIdInStatement(stmt, si++, id);
+
+        if (oldmodcount != null) {
+            stmt.setObject(si++, oldmodcount, Types.BIGINT);
+        }
+    }
+
     private boolean dbAppendingUpdate(Connection connection, String tableName, String id, Long modified,
             boolean setModifiedConditionally, Boolean hasBinary, Boolean deletedOnce, Long modcount, Long cmodcount,
             Long oldmodcount, String appendData) throws SQLException {
@@ -96,6 +96,12 @@ public class SynchronizingDocumentStoreWrapper implements DocumentStore {
         return store.createOrUpdate(collection, update);
     }
 
+    @Override
+    public synchronized <T extends Document> List<T> createOrUpdate(final Collection<T> collection,
+            final List<UpdateOp> updateOps) {
+        return store.createOrUpdate(collection, updateOps);
+    }
+
     @Override
     public synchronized <T extends Document> T findAndUpdate(final Collection<T> collection, final UpdateOp update) {
         return store.findAndUpdate(collection, update);
@@ -255,6 +255,26 @@ public class TimingDocumentStoreWrapper implements DocumentStore {
         }
     }
 
+    @Override
+    @Nonnull
+    public <T extends Document> List<T> createOrUpdate(Collection<T> collection, List<UpdateOp> updateOps) {
+        try {
+            long start = now();
+            List<T> result = base.createOrUpdate(collection, updateOps);
+            int resultSize = 0;
+            for (T doc : result) {
+                resultSize += size(doc);
+            }
+            updateAndLogTimes("createOrUpdate", start, 0, resultSize);
+            if (logCommonCall()) {
+                logCommonCall(start, "createOrUpdate " + collection + " " + updateOps.size());
+            }
+            return result;
+        } catch (Exception e) {
+            throw convert(e);
+        }
+    }
+
     @Override
     @CheckForNull
     public <T extends Document> T findAndUpdate(Collection<T> collection, UpdateOp update) {
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * An in-memory copy of an index definition that is reindexed in a separate
+ * thread. Unlike a plain {@link MemoryNodeBuilder}, binaries are created by
+ * the builder of the index definition, so that they are written to the
+ * underlying store instead of being kept in memory. As node builders are not
+ * thread-safe, binaries are created one at a time for all copies sharing the
+ * same lock.
+ */
+class DetachedNodeBuilder extends MemoryNodeBuilder {
+
+    private final NodeBuilder blobs;
+
+    private final Object lock;
+
+    /**
+     * @param base the state of the index definition
+     * @param blobs the builder of the index definition, used to create binaries
+     * @param lock the lock held while creating binaries
+     */
+    DetachedNodeBuilder(NodeState base, NodeBuilder blobs, Object lock) {
+        super(base);
+        this.blobs = blobs;
+        this.lock = lock;
+    }
+
+    private DetachedNodeBuilder(DetachedNodeBuilder parent, String name) {
+        super(parent, name);
+        this.blobs = parent.blobs;
+        this.lock = parent.lock;
+    }
+
+    @Override
+    protected DetachedNodeBuilder createChildBuilder(String name) {
+        return new DetachedNodeBuilder(this, name);
+    }
+
+    @Override
+    public Blob createBlob(InputStream stream) throws IOException {
+        synchronized (lock) {
+            return blobs.createBlob(stream);
+        }
+    }
+
+}
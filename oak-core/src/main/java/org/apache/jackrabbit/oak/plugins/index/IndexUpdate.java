@@ -16,9 +16,11 @@
  */
 package org.apache.jackrabbit.oak.plugins.index;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Lists.newArrayListWithCapacity;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static org.apache.jackrabbit.oak.api.Type.BOOLEAN;
 import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.ASYNC_PROPERTY_NAME;
@@ -28,6 +30,7 @@ import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.REINDEX_ASY
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.REINDEX_COUNT;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.REINDEX_PROPERTY_NAME;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.TYPE_PROPERTY_NAME;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.MISSING_NODE;
 import static org.apache.jackrabbit.oak.spi.commit.CompositeEditor.compose;
 import static org.apache.jackrabbit.oak.spi.commit.EditorDiff.process;
@@ -39,11 +42,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -53,6 +62,7 @@ import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
 import org.apache.jackrabbit.oak.spi.commit.ProgressNotificationEditor;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
@@ -65,6 +75,15 @@ public class IndexUpdate implements Editor {
 
     private static final Logger log = LoggerFactory.getLogger(IndexUpdate.class);
 
+    /**
+     * The number of threads used to reindex indexes at the same time, and
+     * the partitions of a {@link PartitionedIndexEditor}. With the default
+     * of 1, all indexes are reindexed in a single traversal of the
+     * repository.
+     */
+    static final int PARALLEL_REINDEX =
+            Integer.getInteger("oak.indexUpdate.parallelReindex", 1);
+
     private final IndexUpdateRootState rootState;
 
     private final NodeBuilder builder;
@@ -88,6 +107,12 @@ public class IndexUpdate implements Editor {
      */
     private final Map<String, Editor> reindex = new HashMap<String, Editor>();
 
+    /**
+     * Detached copies of the definitions of the indexes that are reindexed
+     * in parallel, keyed by the definition they need to be copied back to.
+     */
+    private final Map<NodeBuilder, NodeBuilder> detached = Maps.newLinkedHashMap();
+
     private MissingIndexProviderStrategy missingProvider = new MissingIndexProviderStrategy();
 
     public IndexUpdate(
@@ -119,18 +144,169 @@ public class IndexUpdate implements Editor {
             rootState.reindexedIndexes.addAll(reindex.keySet());
         }
 
-        // no-op when reindex is empty
-        CommitFailedException exception = process(
-                wrap(wrapProgress(compose(reindex.values()), "Reindexing")), MISSING_NODE, after);
-        if (exception != null) {
-            throw exception;
+        if (rootState.parallelReindex > 1 && !detached.isEmpty()) {
+            reindexInParallel(after);
+        } else {
+            // no-op when reindex is empty
+            CommitFailedException exception = process(
+                    wrap(wrapProgress(compose(reindex.values()), "Reindexing")), MISSING_NODE, after);
+            if (exception != null) {
+                throw exception;
+            }
         }
+        for (Map.Entry<NodeBuilder, NodeBuilder> entry : detached.entrySet()) {
+            copy(entry.getValue().getNodeState(), entry.getKey());
+        }
+        detached.clear();
 
         for (Editor editor : editors) {
             editor.enter(before, after);
         }
     }
 
+    /**
+     * Reindex using up to {@link IndexUpdateRootState#parallelReindex}
+     * threads. Each index is reindexed in a separate traversal of the
+     * repository, and a {@link PartitionedIndexEditor} in a separate
+     * traversal per child node of the root node. The editors write to
+     * detached copies of their index definitions, as node builders are not
+     * thread-safe.
+     */
+    private void reindexInParallel(final NodeState after) throws CommitFailedException {
+        List<String> names = newArrayList();
+        for (String name : after.getChildNodeNames()) {
+            if (!NodeStateUtils.isHidden(name)) {
+                names.add(name);
+            }
+        }
+        List<ReindexTask> tasks = newArrayList();
+        List<ReindexTask> merges = newArrayList();
+        for (Map.Entry<String, Editor> entry : reindex.entrySet()) {
+            String indexPath = entry.getKey();
+            Editor editor = entry.getValue();
+            Editor partition = null;
+            if (editor instanceof PartitionedIndexEditor && names.size() > 1) {
+                partition = ((PartitionedIndexEditor) editor).newPartition();
+            }
+            if (partition == null) {
+                tasks.add(new ReindexTask("Reindexing " + indexPath, editor, after));
+                continue;
+            }
+            for (String name : names) {
+                if (partition == null) {
+                    partition = checkNotNull(((PartitionedIndexEditor) editor).newPartition());
+                }
+                NodeBuilder subtree = EMPTY_NODE.builder();
+                subtree.setChildNode(name, after.getChildNode(name));
+                tasks.add(new ReindexTask("Reindexing " + indexPath + " in /" + name,
+                        partition, subtree.getNodeState()));
+                partition = null;
+            }
+            NodeBuilder properties = EMPTY_NODE.builder();
+            for (PropertyState property : after.getProperties()) {
+                properties.setProperty(property);
+            }
+            merges.add(new ReindexTask("Reindexing " + indexPath,
+                    editor, properties.getNodeState()));
+        }
+
+        int threads = Math.min(rootState.parallelReindex, tasks.size());
+        log.info("Reindexing {} indexes in {} traversals using {} threads",
+                reindex.size(), tasks.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = newArrayList();
+            for (ReindexTask task : tasks) {
+                results.add(executor.submit(task));
+            }
+            for (Future<?> result : results) {
+                try {
+                    getUninterruptibly(result);
+                } catch (ExecutionException e) {
+                    rootState.abort(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // the first failure, and not the reindexing it aborted elsewhere
+        Throwable failure = rootState.failure.get();
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, CommitFailedException.class);
+            throw new IllegalStateException("Reindexing failed", failure);
+        }
+
+        for (ReindexTask merge : merges) {
+            CommitFailedException exception = merge.reindex();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Reindexes the given state with an editor, recording the failure in
+     * the root state so that the other reindexing threads stop.
+     */
+    private class ReindexTask implements Runnable {
+
+        private final String message;
+
+        private final Editor editor;
+
+        private final NodeState state;
+
+        ReindexTask(String message, Editor editor, NodeState state) {
+            this.message = message;
+            this.editor = editor;
+            this.state = state;
+        }
+
+        CommitFailedException reindex() {
+            return process(wrap(wrapProgress(editor, message)), MISSING_NODE, state);
+        }
+
+        @Override
+        public void run() {
+            try {
+                CommitFailedException exception = reindex();
+                if (exception != null) {
+                    rootState.abort(exception);
+                }
+            } catch (RuntimeException e) {
+                rootState.abort(e);
+                throw e;
+            } catch (Error e) {
+                rootState.abort(e);
+                throw e;
+            }
+        }
+
+    }
+
+    /**
+     * Copy the properties and child nodes of a detached index definition
+     * back to the definition.
+     */
+    private static void copy(NodeState source, NodeBuilder target) {
+        for (String name : newArrayList(target.getChildNodeNames())) {
+            if (!source.hasChildNode(name)) {
+                target.getChildNode(name).remove();
+            }
+        }
+        for (ChildNodeEntry entry : source.getChildNodeEntries()) {
+            target.setChildNode(entry.getName(), entry.getNodeState());
+        }
+        for (PropertyState property : newArrayList(target.getProperties())) {
+            if (!source.hasProperty(property.getName())) {
+                target.removeProperty(property.getName());
+            }
+        }
+        for (PropertyState property : source.getProperties()) {
+            target.setProperty(property);
+        }
+    }
+
     public boolean isReindexingPerformed(){
         return !getReindexStats().isEmpty();
     }
@@ -167,26 +343,39 @@ public class IndexUpdate implements Editor {
                 }
                 boolean shouldReindex = shouldReindex(definition,
                         before, name);
-                Editor editor = rootState.provider.getIndexEditor(type, definition, rootState.root,
+                boolean switchToAsync = shouldReindex
+                        && definition.getBoolean(REINDEX_ASYNC_PROPERTY_NAME)
+                        && definition.getString(ASYNC_PROPERTY_NAME) == null;
+                NodeBuilder target = definition;
+                if (shouldReindex && !switchToAsync && rootState.parallelReindex > 1) {
+                    // the index is updated in a separate thread, which
+                    // needs its own builder; binaries are still written
+                    // to the store, so that they are not kept in memory
+                    target = new DetachedNodeBuilder(
+                            definition.getNodeState(), definition, rootState);
+                }
+                Editor editor = rootState.provider.getIndexEditor(type, target, rootState.root,
                         rootState.newCallback(getIndexPath(getPath(), name), shouldReindex));
                 if (editor == null) {
                     missingProvider.onMissingIndex(type, definition);
                 } else if (shouldReindex) {
-                    if (definition.getBoolean(REINDEX_ASYNC_PROPERTY_NAME)
-                            && definition.getString(ASYNC_PROPERTY_NAME) == null) {
+                    if (switchToAsync) {
                         // switch index to an async update mode
                         definition.setProperty(ASYNC_PROPERTY_NAME,
                                 ASYNC_REINDEX_VALUE);
                     } else {
-                        definition.setProperty(REINDEX_PROPERTY_NAME, false);
-                        incrementReIndexCount(definition);
+                        target.setProperty(REINDEX_PROPERTY_NAME, false);
+                        incrementReIndexCount(target);
                         // as we don't know the index content node name
                         // beforehand, we'll remove all child nodes
-                        for (String rm : definition.getChildNodeNames()) {
+                        for (String rm : target.getChildNodeNames()) {
                             if (NodeStateUtils.isHidden(rm)) {
-                                definition.getChildNode(rm).remove();
+                                target.getChildNode(rm).remove();
                             }
                         }
+                        if (target != definition) {
+                            detached.put(definition, target);
+                        }
                         reindex.put(concat(getPath(), INDEX_DEFINITIONS_NAME, name), editor);
                     }
                 } else {
@@ -324,6 +513,16 @@ public class IndexUpdate implements Editor {
         }
     }
 
+    /**
+     * Reindex indexes, and the partitions of a {@link PartitionedIndexEditor},
+     * in parallel, using up to the given number of threads.
+     */
+    public IndexUpdate withParallelReindex(int threads) {
+        checkArgument(parent == null, "Only supported for the root updater");
+        rootState.parallelReindex = threads;
+        return this;
+    }
+
     public IndexUpdate withMissingProviderStrategy(
             MissingIndexProviderStrategy missingProvider) {
         this.missingProvider = missingProvider;
@@ -340,6 +539,12 @@ public class IndexUpdate implements Editor {
         final IndexUpdateCallback updateCallback;
         final Set<String> reindexedIndexes = Sets.newHashSet();
         final Map<String, CountingCallback> callbacks = Maps.newHashMap();
+        int parallelReindex = PARALLEL_REINDEX;
+        /**
+         * The first failure when reindexing in parallel, which stops the
+         * reindexing in the other threads.
+         */
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
         private IndexUpdateRootState(IndexEditorProvider provider, String async, NodeState root,
                                      IndexUpdateCallback updateCallback) {
@@ -349,6 +554,10 @@ public class IndexUpdate implements Editor {
             this.updateCallback = checkNotNull(updateCallback);
         }
 
+        void abort(Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+
         public IndexUpdateCallback newCallback(String indexPath, boolean reindex) {
             CountingCallback cb = new CountingCallback(indexPath, reindex);
             callbacks.put(cb.indexName, cb);
@@ -406,12 +615,19 @@ public class IndexUpdate implements Editor {
 
             @Override
             public void indexUpdate() throws CommitFailedException {
-                count++;
-                if (count % 10000 == 0){
-                    log.info("{} => Indexed {} nodes in {} ...", indexName, count, watch);
-                    watch.reset().start();
+                if (failure.get() != null) {
+                    throw new CommitFailedException(
+                            CommitFailedException.OAK, 1, "Reindexing of " + indexName + " aborted");
+                }
+                // also called concurrently when reindexing in parallel
+                synchronized (IndexUpdateRootState.this) {
+                    count++;
+                    if (count % 10000 == 0){
+                        log.info("{} => Indexed {} nodes in {} ...", indexName, count, watch);
+                        watch.reset().start();
+                    }
+                    updateCallback.indexUpdate();
                 }
-                updateCallback.indexUpdate();
             }
 
             @Override
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.index;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+
+/**
+ * An {@link IndexEditor} that can reindex the content in several partitions
+ * at the same time, each in a separate thread.
+ * <p>
+ * A partition editor is used on the root node like this editor, but only
+ * sees some of the child nodes of the root node, and does not index the root
+ * node itself. Once all partitions are reindexed, this editor is used on the
+ * root node without its child nodes: it indexes the root node and merges the
+ * partitions into the index when it leaves it.
+ */
+public interface PartitionedIndexEditor extends IndexEditor {
+
+    /**
+     * Creates an editor for reindexing a partition of the content. Called
+     * on the root editor, in the thread that uses it, before it enters the
+     * root node.
+     *
+     * @return the partition editor, or {@code null} if this index can not
+     *         be partitioned
+     */
+    @CheckForNull
+    Editor newPartition() throws CommitFailedException;
+
+}
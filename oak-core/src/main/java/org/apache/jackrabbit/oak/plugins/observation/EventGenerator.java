@@ -31,6 +31,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -53,6 +54,10 @@ import org.slf4j.LoggerFactory;
  *     generator.generate();
  * }
  * </pre>
+ * <p>
+ * Instead of comparing node states, the generator can also replay a
+ * {@link RecordedDiff}, so that the content diff of a commit is only
+ * computed once for all event handlers.
  */
 public class EventGenerator {
 
@@ -88,11 +93,22 @@ public class EventGenerator {
     public EventGenerator(
             @Nonnull NodeState before, @Nonnull NodeState after,
             @Nonnull EventHandler handler) {
-        continuations.addFirst(new Continuation(handler, before, after, 0));
+        continuations.addFirst(new Continuation(handler, before, after, null, 0));
     }
 
     public void addHandler(NodeState before, NodeState after, EventHandler handler) {
-        continuations.addFirst(new Continuation(handler, before, after, 0));
+        continuations.addFirst(new Continuation(handler, before, after, null, 0));
+    }
+
+    /**
+     * Add the changes of a recorded diff to process.
+     *
+     * @param diff the recorded diff
+     * @param handler the handler of the changes
+     */
+    public void addHandler(@Nonnull RecordedDiff diff, @Nonnull EventHandler handler) {
+        continuations.addFirst(new Continuation(
+                handler, diff.getBefore(), diff.getAfter(), diff, 0));
     }
 
     /**
@@ -137,6 +153,13 @@ public class EventGenerator {
          */
         private final NodeState after;
 
+        /**
+         * The recorded diff of the before and after states, or {@code null}
+         * if the states are compared.
+         */
+        @CheckForNull
+        private final RecordedDiff diff;
+
         /**
          * Number of initial changes to skip.
          */
@@ -149,10 +172,11 @@ public class EventGenerator {
 
         private Continuation(
                 EventHandler handler, NodeState before, NodeState after,
-                int skip) {
+                RecordedDiff diff, int skip) {
             this.handler = handler;
             this.before = before;
             this.after = after;
+            this.diff = diff;
             this.skip = skip;
         }
 
@@ -169,7 +193,10 @@ public class EventGenerator {
                 // the MAX_CHANGES_PER_CONTINUATION limit before
                 handler.enter(before, after);
             }
-            if (after.compareAgainstBaseState(before, this)) {
+            boolean complete = diff != null
+                    ? diff.compare(this)
+                    : after.compareAgainstBaseState(before, this);
+            if (complete) {
                 // Only call leave if this continuation exists normally and not
                 // as a result of hitting the MAX_CHANGES_PER_CONTINUATION limit
                 handler.leave(before, after);
@@ -316,7 +343,8 @@ public class EventGenerator {
                 String name, NodeState before, NodeState after) {
             EventHandler h = handler.getChildHandler(name, before, after);
             if (h != null) {
-                continuations.addFirst(new Continuation(h, before, after, 0));
+                RecordedDiff d = diff != null ? diff.getChild(name) : null;
+                continuations.addFirst(new Continuation(h, before, after, d, 0));
             }
         }
 
@@ -340,7 +368,7 @@ public class EventGenerator {
             if (counter > skip // must have processed at least one event
                     && continuations.size() >= MAX_QUEUED_CONTINUATIONS) {
                 continuations.add(new Continuation(
-                        handler, this.before, this.after, counter));
+                        handler, this.before, this.after, diff, counter));
                 return true;
             } else {
                 return false;
@@ -356,7 +384,7 @@ public class EventGenerator {
         private boolean afterEvent() {
             if (counter >= skip + MAX_CHANGES_PER_CONTINUATION) {
                 continuations.addFirst(
-                        new Continuation(handler, before, after, counter));
+                        new Continuation(handler, before, after, diff, counter));
                 return false;
             } else {
                 return true;
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.observation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.MISSING_NODE;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateDiff;
+
+/**
+ * The content diff between two node states, which is computed once and can
+ * then be replayed any number of times, for example for each observation
+ * listener of a commit. The changes of a node are only computed when they
+ * are first needed, so that subtrees no one is interested in (such as
+ * hidden nodes) are never compared.
+ * <p>
+ * The estimated memory used by the recorded changes is available using
+ * {@link #getEstimatedMemory()}; it grows as more changes are computed.
+ * <p>
+ * Instances are thread-safe.
+ */
+public class RecordedDiff {
+
+    /**
+     * The estimated memory of a diff that was not computed yet, including
+     * the (shared) references to the node states.
+     */
+    private static final int DIFF_MEMORY = 64;
+
+    /**
+     * The estimated memory of a recorded change, without the name.
+     */
+    private static final int CHANGE_MEMORY = 48;
+
+    private final NodeState before;
+
+    private final NodeState after;
+
+    /**
+     * The estimated memory of this diff and all child diffs, which is shared
+     * with the child diffs.
+     */
+    private final AtomicLong memory;
+
+    /**
+     * The changes of this node in the order reported by the diff, or
+     * {@code null} if not yet computed.
+     */
+    private List<Change> changes;
+
+    /**
+     * The diffs of the added, deleted and changed child nodes.
+     */
+    private Map<String, RecordedDiff> children;
+
+    public RecordedDiff(@Nonnull NodeState before, @Nonnull NodeState after) {
+        this(before, after, new AtomicLong());
+    }
+
+    private RecordedDiff(NodeState before, NodeState after, AtomicLong memory) {
+        this.before = checkNotNull(before);
+        this.after = checkNotNull(after);
+        this.memory = memory;
+        memory.addAndGet(DIFF_MEMORY);
+    }
+
+    @Nonnull
+    public NodeState getBefore() {
+        return before;
+    }
+
+    @Nonnull
+    public NodeState getAfter() {
+        return after;
+    }
+
+    /**
+     * Get the estimated memory used by this diff, including the changes of
+     * the child diffs that were computed so far.
+     *
+     * @return the estimated memory in bytes
+     */
+    public long getEstimatedMemory() {
+        return memory.get();
+    }
+
+    /**
+     * Report the recorded changes to the given diff handler, in the same
+     * way as {@link NodeState#compareAgainstBaseState(NodeState, NodeStateDiff)}.
+     *
+     * @param diff the diff handler
+     * @return {@code true} if the full list of changes was reported,
+     *         {@code false} if the diff handler aborted
+     */
+    public boolean compare(@Nonnull NodeStateDiff diff) {
+        for (Change change : getChanges()) {
+            if (!change.report(diff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the diff of the given child node.
+     *
+     * @param name the name of the child node
+     * @return the diff, or {@code null} if the child node was not changed
+     */
+    @CheckForNull
+    public RecordedDiff getChild(@Nonnull String name) {
+        getChanges();
+        synchronized (this) {
+            return children.get(name);
+        }
+    }
+
+    private synchronized List<Change> getChanges() {
+        if (changes == null) {
+            Recorder recorder = new Recorder(memory);
+            after.compareAgainstBaseState(before, recorder);
+            children = recorder.children;
+            changes = recorder.changes;
+        }
+        return changes;
+    }
+
+    private abstract static class Change {
+
+        abstract boolean report(NodeStateDiff diff);
+
+    }
+
+    private static class Recorder implements NodeStateDiff {
+
+        private final List<Change> changes = newArrayList();
+
+        private final Map<String, RecordedDiff> children = newHashMap();
+
+        private final AtomicLong memory;
+
+        Recorder(AtomicLong memory) {
+            this.memory = memory;
+        }
+
+        private void record(String name, Change change) {
+            changes.add(change);
+            memory.addAndGet(CHANGE_MEMORY + 2 * name.length());
+        }
+
+        private void recordChild(String name, NodeState before, NodeState after) {
+            children.put(name, new RecordedDiff(before, after, memory));
+        }
+
+        @Override
+        public boolean propertyAdded(final PropertyState after) {
+            record(after.getName(), new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.propertyAdded(after);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean propertyChanged(
+                final PropertyState before, final PropertyState after) {
+            record(after.getName(), new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.propertyChanged(before, after);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean propertyDeleted(final PropertyState before) {
+            record(before.getName(), new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.propertyDeleted(before);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean childNodeAdded(final String name, final NodeState after) {
+            recordChild(name, MISSING_NODE, after);
+            record(name, new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.childNodeAdded(name, after);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(
+                final String name, final NodeState before, final NodeState after) {
+            recordChild(name, before, after);
+            record(name, new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.childNodeChanged(name, before, after);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean childNodeDeleted(final String name, final NodeState before) {
+            recordChild(name, before, MISSING_NODE);
+            record(name, new Change() {
+                @Override
+                boolean report(NodeStateDiff diff) {
+                    return diff.childNodeDeleted(name, before);
+                }
+            });
+            return true;
+        }
+
+    }
+
+}
@@ -16,17 +16,27 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
-import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
 import static com.google.common.collect.Maps.newHashMap;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.api.Type.BINARIES;
 import static org.apache.jackrabbit.oak.api.Type.BINARY;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -37,15 +47,26 @@ import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.memory.MultiBinaryPropertyState;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
 import org.apache.jackrabbit.oak.spi.state.ApplyDiff;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
 
 /**
  * Tool for compacting segments.
+ * <p>
+ * With more than one thread, the subtrees found at {@link #SPLIT_DEPTH} are
+ * first compacted independently of each other on a thread pool. Each of these
+ * tasks uses its own {@link SegmentWriter} and records its results in a
+ * private map, which is merged into the {@link PartialCompactionMap} once
+ * all tasks are done. Large binaries are de-duplicated across all tasks. The subsequent serial pass over the tree then finds
+ * the compacted subtrees in the compaction map and only needs to rewrite
+ * the nodes above them.
  */
 public class Compactor {
 
@@ -60,6 +81,11 @@ public class Compactor {
                 r.getSegmentId().getLeastSignificantBits(), r.getOffset() };
     }
 
+    /**
+     * Depth of the subtrees that are compacted in parallel.
+     */
+    static final int SPLIT_DEPTH = 2;
+
     private final SegmentWriter writer;
 
     private final PartialCompactionMap map;
@@ -67,9 +93,17 @@ public class Compactor {
     /**
      * Map from {@link #getBlobKey(Blob) blob keys} to matching compacted
      * blob record identifiers. Used to de-duplicate copies of the same
-     * binary values.
+     * binary values. Shared with the forked compactors, so that binaries
+     * are also de-duplicated across subtrees compacted in parallel.
      */
-    private final Map<String, List<RecordId>> binaries = newHashMap();
+    private final Map<String, List<RecordId>> binaries;
+
+    /**
+     * Locks for the keys in {@link #binaries}. The list of a key is only
+     * accessed while holding the lock of the key, which makes concurrent
+     * forks clone each binary only once.
+     */
+    private final Striped<Lock> binaryLocks;
 
     /**
      * If the compactor should copy large binaries as streams or just copy the
@@ -77,11 +111,39 @@ public class Compactor {
      */
     private final boolean cloneBinaries;
 
+    /**
+     * Number of threads used to compact subtrees in parallel, 1 for serial
+     * compaction.
+     */
+    private final int threads;
+
+    /**
+     * Results of a compactor forked for a single subtree, or {@code null}
+     * if this compactor records its results directly in {@link #map}. Forked
+     * compactors only read from the shared {@link #map}, which is not
+     * modified until all forks are done.
+     */
+    private final Map<RecordId, RecordId> forked;
+
     public Compactor(SegmentWriter writer) {
         this(writer, null, false);
     }
 
     public Compactor(SegmentWriter writer, SegmentWriter mapWriter, boolean cloneBinaries) {
+        this(writer, mapWriter, cloneBinaries, 1);
+    }
+
+    /**
+     * @param writer  writer for the compacted records
+     * @param mapWriter  writer for a persisted compaction map, or {@code null}
+     *                   to keep the compaction map in memory
+     * @param cloneBinaries  whether to clone large binaries
+     * @param threads  number of threads for compacting independent subtrees
+     *                 in parallel, 1 for serial compaction
+     */
+    public Compactor(SegmentWriter writer, SegmentWriter mapWriter,
+            boolean cloneBinaries, int threads) {
+        checkArgument(threads > 0, "threads must be positive");
         this.writer = writer;
         if (mapWriter != null) {
             this.map = new PersistedCompactionMap(mapWriter);
@@ -89,6 +151,20 @@ public class Compactor {
             this.map = new InMemoryCompactionMap(writer.getTracker());
         }
         this.cloneBinaries = cloneBinaries;
+        this.threads = threads;
+        this.forked = null;
+        this.binaries = newConcurrentMap();
+        this.binaryLocks = Striped.lock(threads > 1 ? 4 * threads : 1);
+    }
+
+    private Compactor(SegmentWriter writer, Compactor parent) {
+        this.writer = writer;
+        this.map = parent.map;
+        this.cloneBinaries = parent.cloneBinaries;
+        this.binaries = parent.binaries;
+        this.binaryLocks = parent.binaryLocks;
+        this.threads = 1;
+        this.forked = newHashMap();
     }
 
     protected SegmentNodeBuilder process(NodeState before, NodeState after) {
@@ -99,11 +175,107 @@ public class Compactor {
     }
 
     public SegmentNodeState compact(NodeState before, NodeState after) {
+        if (threads > 1) {
+            compactSubtrees(before, after);
+        }
         SegmentNodeState compacted = process(before, after).getNodeState();
         writer.flush();
         return compacted;
     }
 
+    /**
+     * Compact the changed subtrees at {@link #SPLIT_DEPTH} in parallel and
+     * add the results to the compaction map. Subtrees that fail to compact
+     * are left to the serial pass.
+     */
+    private void compactSubtrees(NodeState before, NodeState after) {
+        List<NodeState[]> subtrees = newArrayList();
+        after.compareAgainstBaseState(before, new SubtreeCollector(subtrees, SPLIT_DEPTH));
+        if (subtrees.size() < 2) {
+            return;
+        }
+
+        Stopwatch watch = Stopwatch.createStarted();
+        final SegmentTracker tracker = writer.getTracker();
+        ExecutorService executor = newFixedThreadPool(Math.min(threads, subtrees.size()));
+        List<Compactor> forks = newArrayList();
+        try {
+            List<Future<Compactor>> futures = newArrayList();
+            for (final NodeState[] subtree : subtrees) {
+                futures.add(executor.submit(new Callable<Compactor>() {
+                    @Override
+                    public Compactor call() {
+                        SegmentWriter forkWriter = new SegmentWriter(
+                                tracker.getStore(), tracker, writer.getVersion());
+                        Compactor fork = new Compactor(forkWriter, Compactor.this);
+                        try {
+                            fork.compactSubtree(subtree[0], (SegmentNodeState) subtree[1]);
+                        } finally {
+                            // binaries cloned by this fork may be shared with
+                            // other forks, even if this fork fails
+                            forkWriter.flush();
+                        }
+                        return fork;
+                    }
+                }));
+            }
+            for (Future<Compactor> future : futures) {
+                try {
+                    forks.add(future.get());
+                } catch (ExecutionException e) {
+                    log.warn("Failed to compact a subtree in parallel, " +
+                            "falling back to serial compaction", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while compacting subtrees in parallel, " +
+                    "falling back to serial compaction");
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Only modify the shared map once no fork is reading from it any more
+        for (Compactor fork : forks) {
+            merge(fork);
+        }
+        log.debug("Compacted {} subtrees using {} threads in {}",
+                forks.size(), threads, watch);
+    }
+
+    private void compactSubtree(NodeState before, SegmentNodeState after) {
+        SegmentNodeState compacted = process(before, after).getNodeState();
+        putCompacted(after.getRecordId(), compacted.getRecordId());
+    }
+
+    private void merge(Compactor fork) {
+        for (Entry<RecordId, RecordId> entry : fork.forked.entrySet()) {
+            // the same record may have been compacted by more than one fork
+            if (map.get(entry.getKey()) == null) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private RecordId getCompacted(RecordId before) {
+        if (forked != null) {
+            RecordId after = forked.get(before);
+            if (after != null) {
+                return after;
+            }
+        }
+        return map.get(before);
+    }
+
+    private void putCompacted(RecordId before, RecordId after) {
+        if (forked != null) {
+            forked.put(before, after);
+        } else {
+            map.put(before, after);
+        }
+    }
+
     public PartialCompactionMap getCompactionMap() {
         map.compress();
         return map;
@@ -160,7 +332,7 @@ public class Compactor {
             RecordId id = null;
             if (after instanceof SegmentNodeState) {
                 id = ((SegmentNodeState) after).getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
                     builder.setChildNode(name, new SegmentNodeState(compactedId));
                     return true;
@@ -175,7 +347,7 @@ public class Compactor {
                 SegmentNodeState state = writer.writeNode(child.getNodeState());
                 builder.setChildNode(name, state);
                 if (id != null) {
-                    map.put(id, state.getRecordId());
+                    putCompacted(id, state.getRecordId());
                 }
             }
 
@@ -192,7 +364,7 @@ public class Compactor {
             RecordId id = null;
             if (after instanceof SegmentNodeState) {
                 id = ((SegmentNodeState) after).getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
                     builder.setChildNode(name, new SegmentNodeState(compactedId));
                     return true;
@@ -207,7 +379,7 @@ public class Compactor {
                 RecordId compactedId = writer.writeNode(child.getNodeState())
                         .getRecordId();
                 if (id != null) {
-                    map.put(id, compactedId);
+                    putCompacted(id, compactedId);
                 }
             }
 
@@ -247,7 +419,7 @@ public class Compactor {
             try {
                 // else check if we've already cloned this specific record
                 RecordId id = sb.getRecordId();
-                RecordId compactedId = map.get(id);
+                RecordId compactedId = getCompacted(id);
                 if (compactedId != null) {
                     return new SegmentBlob(compactedId);
                 }
@@ -255,30 +427,36 @@ public class Compactor {
                 // if the blob is inlined or external, just clone it
                 if (sb.isExternal() || sb.length() < Segment.MEDIUM_LIMIT) {
                     SegmentBlob clone = sb.clone(writer, cloneBinaries);
-                    map.put(id, clone.getRecordId());
+                    putCompacted(id, clone.getRecordId());
                     return clone;
                 }
 
                 // alternatively look if the exact same binary has been cloned
                 String key = getBlobKey(blob);
-                List<RecordId> ids = binaries.get(key);
-                if (ids != null) {
-                    for (RecordId duplicateId : ids) {
-                        if (new SegmentBlob(duplicateId).equals(sb)) {
-                            map.put(id, duplicateId);
-                            return new SegmentBlob(duplicateId);
+                Lock lock = binaryLocks.get(key);
+                lock.lock();
+                try {
+                    List<RecordId> ids = binaries.get(key);
+                    if (ids != null) {
+                        for (RecordId duplicateId : ids) {
+                            if (new SegmentBlob(duplicateId).equals(sb)) {
+                                putCompacted(id, duplicateId);
+                                return new SegmentBlob(duplicateId);
+                            }
                         }
                     }
-                }
 
-                // if not, clone the blob and keep track of the result
-                sb = sb.clone(writer, cloneBinaries);
-                map.put(id, sb.getRecordId());
-                if (ids == null) {
-                    ids = newArrayList();
-                    binaries.put(key, ids);
+                    // if not, clone the blob and keep track of the result
+                    sb = sb.clone(writer, cloneBinaries);
+                    putCompacted(id, sb.getRecordId());
+                    if (ids == null) {
+                        ids = newArrayList();
+                        binaries.put(key, ids);
+                    }
+                    ids.add(sb.getRecordId());
+                } finally {
+                    lock.unlock();
                 }
-                ids.add(sb.getRecordId());
 
                 return sb;
             } catch (IOException e) {
@@ -291,6 +469,44 @@ public class Compactor {
         return blob;
     }
 
+    /**
+     * Collects the pairs of before and after states of the subtrees that
+     * were added or changed at a given depth.
+     */
+    private static class SubtreeCollector extends DefaultNodeStateDiff {
+
+        private final List<NodeState[]> subtrees;
+
+        private final int depth;
+
+        SubtreeCollector(List<NodeState[]> subtrees, int depth) {
+            this.subtrees = subtrees;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean childNodeAdded(String name, NodeState after) {
+            collect(EMPTY_NODE, after);
+            return true;
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            collect(before, after);
+            return true;
+        }
+
+        private void collect(NodeState before, NodeState after) {
+            if (depth > 1) {
+                after.compareAgainstBaseState(
+                        before, new SubtreeCollector(subtrees, depth - 1));
+            } else if (after instanceof SegmentNodeState) {
+                subtrees.add(new NodeState[] { before, after });
+            }
+        }
+
+    }
+
     private static String getBlobKey(Blob blob) throws IOException {
         InputStream stream = blob.getNewStream();
         try {
@@ -132,8 +132,6 @@ public class Segment {
      */
     private final ConcurrentMap<Integer, Template> templates = newConcurrentMap();
 
-    private volatile long accessed = 0;
-
     /**
      * Decode a 4 byte aligned segment offset.
      * @param offset  4 byte aligned segment offset
@@ -184,15 +182,6 @@ public class Segment {
         this.version = SegmentVersion.fromByte(buffer[3]);
     }
 
-    void access() {
-        accessed++;
-    }
-
-    boolean accessed() {
-        accessed >>>= 1;
-        return accessed != 0;
-    }
-
     SegmentVersion getSegmentVersion() {
         return version;
     }
@@ -278,6 +267,15 @@ public class Segment {
         return data.remaining();
     }
 
+    /**
+     * Estimated heap memory used by this segment. Data kept in direct or
+     * memory mapped buffers is not included, see {@link #getOffHeapSize()}.
+     * For data segments, the heap used by the cached strings and templates
+     * is estimated to be the size of the segment, also for segments whose
+     * data is kept off-heap.
+     *
+     * @return  estimated heap memory in bytes
+     */
     public long getCacheSize() {
         int size = 1024;
         if (!data.isDirect()) {
@@ -289,6 +287,14 @@ public class Segment {
         return size;
     }
 
+    /**
+     * @return  size in bytes of the segment data kept outside of the Java
+     *          heap, in direct or memory mapped buffers
+     */
+    public long getOffHeapSize() {
+        return data.isDirect() ? size() : 0;
+    }
+
     /**
      * Writes this segment to the given output stream.
      *
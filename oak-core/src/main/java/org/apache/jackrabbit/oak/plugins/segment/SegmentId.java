@@ -108,8 +108,9 @@ public class SegmentId implements Comparable<SegmentId> {
                     segment = tracker.getSegment(this);
                 }
             }
+        } else {
+            tracker.segmentAccessed(this);
         }
-        segment.access();
         return segment;
     }
 
@@ -117,6 +118,22 @@ public class SegmentId implements Comparable<SegmentId> {
         this.segment = segment;
     }
 
+    /**
+     * Drops the reference to the given segment, unless this identifier
+     * already refers to another instance of the segment. This method does
+     * not synchronize on this instance, as it is called while holding the
+     * segment cache lock, which is in turn acquired by threads loading a
+     * segment. Losing a race with a concurrent load only causes
+     * the segment to be loaded again.
+     *
+     * @param segment  the segment that is evicted from memory
+     */
+    void unloadSegment(Segment segment) {
+        if (this.segment == segment) {
+            this.segment = null;
+        }
+    }
+
     public SegmentTracker getTracker() {
         return tracker;
     }
@@ -24,8 +24,11 @@ import static org.apache.jackrabbit.oak.commons.PropertiesUtil.toLong;
 import static org.apache.jackrabbit.oak.osgi.OsgiUtil.fallbackLookup;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.CLEANUP_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.CLONE_BINARIES_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.COMPACTION_THREADS_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.FORCE_AFTER_FAIL_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.FULL_COMPACTION_INTERVAL_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.GAIN_THRESHOLD_DEFAULT;
+import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.INCREMENTAL_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.MEMORY_THRESHOLD_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.PAUSE_DEFAULT;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.PERSIST_COMPACTION_MAP_DEFAULT;
@@ -51,7 +54,9 @@ import org.apache.felix.scr.annotations.PropertyOption;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.jackrabbit.oak.api.jmx.CacheStatsMBean;
 import org.apache.jackrabbit.oak.api.jmx.CheckpointMBean;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.osgi.ObserverTracker;
 import org.apache.jackrabbit.oak.osgi.OsgiWhiteboard;
 import org.apache.jackrabbit.oak.plugins.blob.BlobGC;
@@ -69,6 +74,7 @@ import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore.Builder;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStoreGCMonitor;
 import org.apache.jackrabbit.oak.plugins.segment.file.GCMonitorMBean;
+import org.apache.jackrabbit.oak.plugins.segment.file.SegmentLookupStatsMBean;
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.blob.GarbageCollectableBlobStore;
 import org.apache.jackrabbit.oak.spi.commit.Observable;
@@ -133,6 +139,24 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     )
     public static final String CACHE = "cache";
 
+    @Property(
+            intValue = 1,
+            label = "Concurrent writers",
+            description = "Number of segment writers with independent segment buffers. " +
+                    "Values larger than 1 allow concurrent threads to write without " +
+                    "blocking each other"
+    )
+    public static final String WRITERS = "tarmk.writers";
+
+    @Property(
+            intValue = 0,
+            label = "Off-heap cache size (MB)",
+            description = "Maximum size of the segment data kept outside of the Java heap. " +
+                    "If larger than 0, segments are read into direct memory and the " +
+                    "segment cache is bounded by both its heap and this off-heap size"
+    )
+    public static final String OFF_HEAP_CACHE = "tarmk.offHeapCache";
+
     @Property(
             boolValue = CLONE_BINARIES_DEFAULT,
             label = "Clone Binaries",
@@ -192,6 +216,31 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     )
     public static final String COMPACTION_RETRY_COUNT = "compaction.retryCount";
 
+    @Property(
+            intValue = COMPACTION_THREADS_DEFAULT,
+            label = "Compaction Threads",
+            description = "Number of threads used to compact independent subtrees in " +
+                    "parallel. A value of 1 means serial compaction"
+    )
+    public static final String COMPACTION_THREADS = "compaction.threads";
+
+    @Property(
+            boolValue = INCREMENTAL_DEFAULT,
+            label = "Incremental Compaction",
+            description = "When enabled compaction only compacts the changes since the " +
+                    "previous compaction instead of the full repository"
+    )
+    public static final String COMPACTION_INCREMENTAL = "compaction.incremental";
+
+    @Property(
+            intValue = FULL_COMPACTION_INTERVAL_DEFAULT,
+            label = "Full Compaction Interval",
+            description = "Number of consecutive incremental compactions after which the " +
+                    "next compaction compacts the full repository to reclaim the space " +
+                    "of previously compacted content. A value of 0 disables full compactions"
+    )
+    public static final String COMPACTION_FULL_INTERVAL = "compaction.fullInterval";
+
     @Property(
             boolValue = FORCE_AFTER_FAIL_DEFAULT,
             label = "Force Compaction",
@@ -257,6 +306,9 @@ public class SegmentNodeStoreService extends ProxyNodeStore
     private Registration blobGCRegistration;
     private Registration compactionStrategyRegistration;
     private Registration fsgcMonitorMBean;
+    private Registration segmentCacheMBean;
+    private Registration offHeapCacheMBean;
+    private Registration lookupStatsMBean;
     private WhiteboardExecutor executor;
     private boolean customBlobStore;
 
@@ -337,6 +389,11 @@ public class SegmentNodeStoreService extends ProxyNodeStore
             cache = System.getProperty(CACHE);
         }
 
+        int writers = toInteger(fallbackLookup(context, WRITERS),
+                Integer.getInteger(WRITERS, 1));
+        int offHeapCache = toInteger(fallbackLookup(context, OFF_HEAP_CACHE),
+                Integer.getInteger(OFF_HEAP_CACHE, 0));
+
         boolean pauseCompaction = toBoolean(fallbackLookup(context, PAUSE_COMPACTION),
                 PAUSE_DEFAULT);
         boolean cloneBinaries = toBoolean(
@@ -346,6 +403,12 @@ public class SegmentNodeStoreService extends ProxyNodeStore
                 TIMESTAMP_DEFAULT);
         int retryCount = toInteger(fallbackLookup(context, COMPACTION_RETRY_COUNT),
                 RETRY_COUNT_DEFAULT);
+        int compactionThreads = toInteger(fallbackLookup(context, COMPACTION_THREADS),
+                COMPACTION_THREADS_DEFAULT);
+        boolean incremental = toBoolean(fallbackLookup(context, COMPACTION_INCREMENTAL),
+                INCREMENTAL_DEFAULT);
+        int fullCompactionInterval = toInteger(fallbackLookup(context, COMPACTION_FULL_INTERVAL),
+                FULL_COMPACTION_INTERVAL_DEFAULT);
         boolean forceCommit = toBoolean(fallbackLookup(context, COMPACTION_FORCE_AFTER_FAIL),
                 FORCE_AFTER_FAIL_DEFAULT);
         final int lockWaitTime = toInteger(fallbackLookup(context, COMPACTION_LOCK_WAIT_TIME),
@@ -378,6 +441,8 @@ public class SegmentNodeStoreService extends ProxyNodeStore
                 .withCacheSize(Integer.parseInt(cache))
                 .withMaxFileSize(Integer.parseInt(size))
                 .withMemoryMapping("64".equals(mode))
+                .withConcurrentWriters(writers)
+                .withOffHeapCacheSize(offHeapCache)
                 .withGCMonitor(gcMonitor);
         if (customBlobStore) {
             log.info("Initializing SegmentNodeStore with BlobStore [{}]", blobStore);
@@ -394,6 +459,9 @@ public class SegmentNodeStoreService extends ProxyNodeStore
 
         CompactionStrategy compactionStrategy = nodeStoreBuilder
                 .getCompactionStrategy();
+        compactionStrategy.setCompactionThreads(compactionThreads);
+        compactionStrategy.setIncremental(incremental);
+        compactionStrategy.setFullCompactionInterval(fullCompactionInterval);
         store.setCompactionStrategy(compactionStrategy);
 
         FileStoreGCMonitor fsgcMonitor = new FileStoreGCMonitor(Clock.SIMPLE);
@@ -455,6 +523,29 @@ public class SegmentNodeStoreService extends ProxyNodeStore
                 CompactionStrategyMBean.TYPE,
                 "Segment node store compaction strategy settings");
 
+        CacheStats segmentCacheStats = store.getTracker().getSegmentCacheStats();
+        segmentCacheMBean = registerMBean(whiteboard,
+                CacheStatsMBean.class,
+                segmentCacheStats,
+                CacheStatsMBean.TYPE,
+                segmentCacheStats.getName());
+        if (store.getTracker().isOffHeap()) {
+            CacheStats offHeapCacheStats = store.getTracker().getOffHeapCacheStats();
+            offHeapCacheMBean = registerMBean(whiteboard,
+                    CacheStatsMBean.class,
+                    offHeapCacheStats,
+                    CacheStatsMBean.TYPE,
+                    offHeapCacheStats.getName());
+        }
+        SegmentLookupStatsMBean lookupStats = store.getLookupStats();
+        if (lookupStats != null) {
+            lookupStatsMBean = registerMBean(whiteboard,
+                    SegmentLookupStatsMBean.class,
+                    lookupStats,
+                    SegmentLookupStatsMBean.TYPE,
+                    "Segment node store tar lookup statistics");
+        }
+
         log.info("SegmentNodeStore initialized");
         return true;
     }
@@ -518,6 +609,18 @@ public class SegmentNodeStoreService extends ProxyNodeStore
             fsgcMonitorMBean.unregister();
             fsgcMonitorMBean = null;
         }
+        if (segmentCacheMBean != null) {
+            segmentCacheMBean.unregister();
+            segmentCacheMBean = null;
+        }
+        if (offHeapCacheMBean != null) {
+            offHeapCacheMBean.unregister();
+            offHeapCacheMBean = null;
+        }
+        if (lookupStatsMBean != null) {
+            lookupStatsMBean.unregister();
+            lookupStatsMBean = null;
+        }
         if (executor != null) {
             executor.stop();
             executor = null;
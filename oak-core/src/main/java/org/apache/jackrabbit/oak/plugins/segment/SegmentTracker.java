@@ -16,18 +16,29 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
-import static com.google.common.collect.Lists.newLinkedList;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
 import static com.google.common.collect.Queues.newArrayDeque;
 import static com.google.common.collect.Sets.newHashSet;
 
 import java.security.SecureRandom;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.jackrabbit.oak.cache.CacheLIRS;
+import org.apache.jackrabbit.oak.cache.CacheLIRS.EvictionCallback;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.plugins.blob.ReferenceCollector;
 import org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy;
 import org.slf4j.Logger;
@@ -57,7 +68,29 @@ public class SegmentTracker {
 
     private static final int MB = 1024 * 1024;
 
-    private static final int DEFAULT_MEMORY_CACHE_SIZE = 256;
+    public static final int DEFAULT_MEMORY_CACHE_SIZE = 256;
+
+    /**
+     * Estimated average weight of a cached segment, used to size the
+     * internal hash tables of the segment cache.
+     */
+    private static final int AVERAGE_SEGMENT_WEIGHT = 64 * 1024;
+
+    private static final Weigher<SegmentId, Segment> SEGMENT_WEIGHER =
+            new Weigher<SegmentId, Segment>() {
+                @Override
+                public int weigh(SegmentId id, Segment segment) {
+                    return (int) segment.getCacheSize();
+                }
+            };
+
+    private static final Weigher<SegmentId, Segment> OFF_HEAP_WEIGHER =
+            new Weigher<SegmentId, Segment>() {
+                @Override
+                public int weigh(SegmentId id, Segment segment) {
+                    return (int) segment.getOffHeapSize();
+                }
+            };
 
     /**
      * The random number source for generating new segment identifiers.
@@ -66,7 +99,14 @@ public class SegmentTracker {
 
     private final SegmentStore store;
 
-    private final SegmentWriter writer;
+    /**
+     * The segment writers. Each writer has its own segment buffer and
+     * monitor, so threads using different writers don't block each other.
+     * Records written by one writer can reference records in the not yet
+     * flushed segment of another writer, which is why all writers are
+     * flushed together in {@link #flushWriters()}.
+     */
+    private final SegmentWriter[] writers;
 
     /**
      * Serialized map that contains the link between old record
@@ -88,23 +128,96 @@ public class SegmentTracker {
      */
     private final SegmentIdTable[] tables = new SegmentIdTable[32];
 
-    private final LinkedList<Segment> segments = newLinkedList();
+    /**
+     * Cache of recently accessed segments. The LIRS replacement policy keeps
+     * frequently used segments in memory even when a large number of
+     * segments is accessed only once, as is the case for compaction or a
+     * full traversal. Evicted segments are unloaded from their segment id.
+     */
+    private final CacheLIRS<SegmentId, Segment> segmentCache;
+
+    private final CacheStats segmentCacheStats;
+
+    /**
+     * Maximum size of the segment data kept in direct or memory mapped
+     * buffers by the segment cache, or 0 if the off-heap size is unbounded
+     * (and segments are only read into direct memory if memory mapped).
+     */
+    private final long offHeapCacheSize;
 
-    private long currentSize;
+    /**
+     * The cached segments with off-heap data, in the order in which they
+     * were added to the segment cache. The segment cache itself is weighed
+     * by the heap size of the segments only, so the off-heap budget is
+     * enforced separately by evicting the oldest of these segments.
+     */
+    private final Map<SegmentId, Segment> offHeapSegments = newLinkedHashMap();
+
+    /**
+     * The off-heap size of the segments in {@link #offHeapSegments}.
+     * Guarded by the monitor of {@code offHeapSegments}.
+     */
+    private long offHeapWeight;
 
+    private final CacheStats offHeapCacheStats;
+
+    /**
+     * Create a new tracker.
+     *
+     * @param store  the segment store
+     * @param cacheSizeMB  size of the segment cache in MB
+     * @param version  version of the segment storage format
+     * @param writerCount  number of concurrent segment writers (1 or larger)
+     * @param offHeapCacheSizeMB  size in MB of the off-heap segment data
+     *                            in the segment cache, 0 for unbounded
+     */
     public SegmentTracker(SegmentStore store, int cacheSizeMB,
-            SegmentVersion version) {
+            SegmentVersion version, int writerCount, int offHeapCacheSizeMB) {
+        checkArgument(writerCount > 0, "writerCount must be positive");
+        checkArgument(offHeapCacheSizeMB >= 0, "offHeapCacheSizeMB must not be negative");
         for (int i = 0; i < tables.length; i++) {
             tables[i] = new SegmentIdTable(this);
         }
 
         this.store = store;
-        this.writer = new SegmentWriter(store, this, version);
-        this.cacheSize = cacheSizeMB * MB;
+        this.writers = new SegmentWriter[writerCount];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new SegmentWriter(store, this, version);
+        }
+        this.cacheSize = cacheSizeMB * (long) MB;
+        this.offHeapCacheSize = offHeapCacheSizeMB * (long) MB;
+        this.segmentCache = CacheLIRS.newBuilder()
+                .weigher(SEGMENT_WEIGHER)
+                .maximumWeight(cacheSize)
+                .averageWeight(AVERAGE_SEGMENT_WEIGHT)
+                .evictionCallback(new EvictionCallback<SegmentId, Segment>() {
+                    @Override
+                    public void evicted(SegmentId id, Segment segment) {
+                        id.unloadSegment(segment);
+                        offHeapRemoved(id, segment);
+                        log.debug("Removed segment {} from tracker cache", id);
+                    }
+                })
+                .build();
+        this.segmentCacheStats = new CacheStats(
+                segmentCache, "Segment Tracker Cache", SEGMENT_WEIGHER, cacheSize);
+        this.offHeapCacheStats = new CacheStats(
+                segmentCache, "Segment Tracker Off-Heap Cache", OFF_HEAP_WEIGHER,
+                offHeapCacheSize);
         this.compactionMap = new AtomicReference<CompactionMap>(
                 CompactionMap.EMPTY);
     }
 
+    public SegmentTracker(SegmentStore store, int cacheSizeMB,
+            SegmentVersion version, int writerCount) {
+        this(store, cacheSizeMB, version, writerCount, 0);
+    }
+
+    public SegmentTracker(SegmentStore store, int cacheSizeMB,
+            SegmentVersion version) {
+        this(store, cacheSizeMB, version, 1);
+    }
+
     public SegmentTracker(SegmentStore store, SegmentVersion version) {
         this(store, DEFAULT_MEMORY_CACHE_SIZE, version);
     }
@@ -113,8 +226,48 @@ public class SegmentTracker {
         this(store, DEFAULT_MEMORY_CACHE_SIZE, SegmentVersion.V_11);
     }
 
+    /**
+     * Returns the segment writer for the current thread. If this tracker
+     * has more than one writer, concurrent threads are spread across the
+     * writers. Callers that need a consistent state across all writers,
+     * like flushing before persisting a new head, must use
+     * {@link #flushWriters()} instead of flushing the returned writer.
+     *
+     * @return  a segment writer
+     */
     public SegmentWriter getWriter() {
-        return writer;
+        if (writers.length == 1) {
+            return writers[0];
+        }
+        long id = Thread.currentThread().getId();
+        return writers[(int) (id % writers.length)];
+    }
+
+    /**
+     * @return  the number of concurrent segment writers of this tracker
+     */
+    public int getWriterCount() {
+        return writers.length;
+    }
+
+    /**
+     * Flush all segment writers of this tracker. Once this method returns,
+     * all records written before it was called are stored in the segment
+     * store, including records in other segments they reference.
+     */
+    public void flushWriters() {
+        for (SegmentWriter writer : writers) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Drop the record caches of all segment writers of this tracker.
+     */
+    public void dropWriterCaches() {
+        for (SegmentWriter writer : writers) {
+            writer.dropCache();
+        }
     }
 
     public SegmentStore getStore() {
@@ -124,59 +277,180 @@ public class SegmentTracker {
     /**
      * Clear the segment cache
      */
-    public synchronized void clearCache() {
-        segments.clear();
-        currentSize = 0;
+    public void clearCache() {
+        segmentCache.invalidateAll();
+        synchronized (offHeapSegments) {
+            offHeapSegments.clear();
+            offHeapWeight = 0;
+        }
+    }
+
+    /**
+     * @return  the statistics of the segment cache
+     */
+    @Nonnull
+    public CacheStats getSegmentCacheStats() {
+        return segmentCacheStats;
+    }
+
+    /**
+     * Statistics of the segment data kept outside of the Java heap by the
+     * segment cache. The estimated weight reported by the returned instance
+     * is the resident off-heap size of the cached segments.
+     *
+     * @return  the statistics of the off-heap part of the segment cache
+     */
+    @Nonnull
+    public CacheStats getOffHeapCacheStats() {
+        return offHeapCacheStats;
+    }
+
+    /**
+     * @return  {@code true} if the segment data should be kept in direct
+     *          memory, with an explicit off-heap size limit
+     */
+    public boolean isOffHeap() {
+        return offHeapCacheSize > 0;
     }
 
-    Segment getSegment(SegmentId id) {
+    /**
+     * Load the segment with the given id into the segment cache. Called
+     * by {@link SegmentId#getSegment()} while holding the lock of the id.
+     *
+     * @param id  segment id
+     * @return  the segment
+     * @throws SegmentNotFoundException  if the segment does not exist
+     */
+    Segment getSegment(final SegmentId id) {
         try {
-            Segment segment = store.readSegment(id);
-            setSegment(id, segment);
+            final Segment[] loaded = new Segment[1];
+            Segment segment = segmentCache.get(id, new Callable<Segment>() {
+                @Override
+                public Segment call() {
+                    Segment segment = store.readSegment(id);
+                    // done before the segment is added to the cache, so that
+                    // an eviction can not be overwritten by this assignment
+                    id.setSegment(segment);
+                    log.debug("Added segment {} to tracker cache ({} bytes)",
+                            id, segment.getCacheSize());
+                    loaded[0] = segment;
+                    return segment;
+                }
+            });
+            if (loaded[0] != null) {
+                offHeapAdded(id, loaded[0]);
+            }
             return segment;
-        } catch (SegmentNotFoundException snfe) {
-            long delta = System.currentTimeMillis() - id.getCreationTime();
-            log.error("Segment not found: {}. Creation date delta is {} ms.",
-                    id, delta, snfe);
-            throw snfe;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SegmentNotFoundException) {
+                long delta = System.currentTimeMillis() - id.getCreationTime();
+                log.error("Segment not found: {}. Creation date delta is {} ms.",
+                        id, delta, cause);
+                throw (SegmentNotFoundException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new UncheckedExecutionException(cause);
+            }
         }
     }
 
+    /**
+     * Record an access to the given segment, which is already loaded, so
+     * that the cache can keep frequently used segments in memory.
+     *
+     * @param id  segment id
+     */
+    void segmentAccessed(SegmentId id) {
+        // a single lookup, which moves the entry up in the cache; segments
+        // that are not in the cache, like the one currently being written,
+        // are not tracked
+        segmentCache.getIfPresent(id);
+    }
+
     void setSegment(SegmentId id, Segment segment) {
-        // done before synchronization to allow concurrent segment access
-        // while we update the cache below
         id.setSegment(segment);
+        segmentCache.put(id, segment);
+        offHeapAdded(id, segment);
+        log.debug("Added segment {} to tracker cache ({} bytes)",
+                id, segment.getCacheSize());
+    }
 
-        synchronized (this) {
-            long size = segment.getCacheSize();
-
-            segments.addFirst(segment);
-            currentSize += size;
-
-            log.debug("Added segment {} to tracker cache ({} bytes)",
-                    id, size);
+    /**
+     * Account for the off-heap data of a segment that was added to the
+     * segment cache, and evict the oldest segments with off-heap data
+     * from the cache while the off-heap budget is exceeded.
+     *
+     * @param id  segment id
+     * @param segment  the segment that was added to the cache
+     */
+    private void offHeapAdded(SegmentId id, Segment segment) {
+        long size = segment.getOffHeapSize();
+        if (offHeapCacheSize == 0 || size == 0) {
+            return;
+        }
 
-            // TODO possibly this cache could be improved
-            while (currentSize > cacheSize && segments.size() > 1) {
-                Segment last = segments.removeLast();
-                SegmentId lastId = last.getSegmentId();
-                if (last.accessed()) {
-                    segments.addFirst(last);
-                    log.debug("Segment {} was recently used, keeping in cache",
-                            lastId);
-                } else {
-                    long lastSize = last.getCacheSize();
+        List<Map.Entry<SegmentId, Segment>> evicted = newArrayList();
+        synchronized (offHeapSegments) {
+            Segment previous = offHeapSegments.put(id, segment);
+            if (previous != null) {
+                offHeapWeight -= previous.getOffHeapSize();
+            }
+            offHeapWeight += size;
+
+            Iterator<Map.Entry<SegmentId, Segment>> iterator =
+                    offHeapSegments.entrySet().iterator();
+            while (offHeapWeight > offHeapCacheSize && iterator.hasNext()) {
+                Map.Entry<SegmentId, Segment> entry = iterator.next();
+                iterator.remove();
+                offHeapWeight -= entry.getValue().getOffHeapSize();
+                evicted.add(entry);
+            }
+        }
 
-                    lastId.setSegment(null);
-                    currentSize -= lastSize;
+        // done outside of the synchronized block, as the eviction callback
+        // of the segment cache in turn synchronizes on offHeapSegments
+        for (Map.Entry<SegmentId, Segment> entry : evicted) {
+            SegmentId evictedId = entry.getKey();
+            Segment evictedSegment = entry.getValue();
+            if (segmentCache.peek(evictedId) == evictedSegment) {
+                segmentCache.invalidate(evictedId);
+            }
+            evictedId.unloadSegment(evictedSegment);
+            log.debug("Removed segment {} from tracker cache (off-heap)", evictedId);
+        }
+    }
 
-                    log.debug("Removed segment {} from tracker cache ({} bytes)",
-                            lastId, lastSize);
-                }
+    /**
+     * Called by the segment cache for evicted segments, while holding a
+     * lock of the cache.
+     *
+     * @param id  segment id
+     * @param segment  the segment that was evicted
+     */
+    private void offHeapRemoved(SegmentId id, Segment segment) {
+        if (offHeapCacheSize == 0 || segment.getOffHeapSize() == 0) {
+            return;
+        }
+        synchronized (offHeapSegments) {
+            if (offHeapSegments.get(id) == segment) {
+                offHeapSegments.remove(id);
+                offHeapWeight -= segment.getOffHeapSize();
             }
         }
     }
 
+    /**
+     * @return  the off-heap size of the segment data kept in the segment
+     *          cache, as accounted for the off-heap budget
+     */
+    long getOffHeapWeight() {
+        synchronized (offHeapSegments) {
+            return offHeapWeight;
+        }
+    }
+
     public void setCompactionMap(PartialCompactionMap map) {
         compactionMap.set(compactionMap.get().cons(map));
     }
@@ -213,7 +487,7 @@ public class SegmentTracker {
     public void collectBlobReferences(ReferenceCollector collector) {
         Set<SegmentId> processed = newHashSet();
         Queue<SegmentId> queue = newArrayDeque(getReferencedSegmentIds());
-        writer.flush(); // force the current segment to have root record info
+        flushWriters(); // force the current segments to have root record info
         while (!queue.isEmpty()) {
             SegmentId id = queue.remove();
             if (id.isDataSegmentId() && processed.add(id)) {
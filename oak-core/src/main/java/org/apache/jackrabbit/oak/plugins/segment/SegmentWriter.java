@@ -228,7 +228,11 @@ public class SegmentWriter {
 
             // Keep this segment in memory as it's likely to be accessed soon
             ByteBuffer data;
-            if (buffer.length - length > 4096) {
+            if (tracker.isOffHeap()) {
+                data = ByteBuffer.allocateDirect(length);
+                data.put(buffer, buffer.length - length, length);
+                data.rewind();
+            } else if (buffer.length - length > 4096) {
                 data = ByteBuffer.allocate(length);
                 data.put(buffer, buffer.length - length, length);
                 data.rewind();
@@ -1155,4 +1159,8 @@ public class SegmentWriter {
         return tracker;
     }
 
+    SegmentVersion getVersion() {
+        return version;
+    }
+
 }
@@ -88,6 +88,21 @@ public abstract class CompactionStrategy {
      */
     public static final boolean FORCE_AFTER_FAIL_DEFAULT = true;
 
+    /**
+     * Default value for {@link #getCompactionThreads()}
+     */
+    public static final int COMPACTION_THREADS_DEFAULT = 1;
+
+    /**
+     * Default value for {@link #isIncremental()}
+     */
+    public static final boolean INCREMENTAL_DEFAULT = false;
+
+    /**
+     * Default value for {@link #getFullCompactionInterval()}
+     */
+    public static final int FULL_COMPACTION_INTERVAL_DEFAULT = 10;
+
     /**
      * No compaction at all
      */
@@ -122,6 +137,12 @@ public abstract class CompactionStrategy {
 
     private boolean forceAfterFail = FORCE_AFTER_FAIL_DEFAULT;
 
+    private int compactionThreads = COMPACTION_THREADS_DEFAULT;
+
+    private boolean incremental = INCREMENTAL_DEFAULT;
+
+    private int fullCompactionInterval = FULL_COMPACTION_INTERVAL_DEFAULT;
+
     private long compactionStart = currentTimeMillis();
 
     /**
@@ -196,6 +217,9 @@ public abstract class CompactionStrategy {
                 ", persistedCompactionMap=" + persistedCompactionMap +
                 ", retryCount=" + retryCount +
                 ", forceAfterFail=" + forceAfterFail +
+                ", compactionThreads=" + compactionThreads +
+                ", incremental=" + incremental +
+                ", fullCompactionInterval=" + fullCompactionInterval +
                 ", compactionStart=" + compactionStart +
                 '}';
     }
@@ -258,6 +282,71 @@ public abstract class CompactionStrategy {
         this.retryCount = retryCount;
     }
 
+    /**
+     * Get the number of threads used to compact independent subtrees
+     * in parallel. A value of 1 means serial compaction.
+     * @return  number of compaction threads
+     */
+    public int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Set the number of threads used to compact independent subtrees
+     * in parallel. A value of 1 means serial compaction.
+     * @param compactionThreads  number of threads, 1 or larger
+     */
+    public void setCompactionThreads(int compactionThreads) {
+        checkArgument(compactionThreads > 0, "compactionThreads must be positive");
+        this.compactionThreads = compactionThreads;
+    }
+
+    /**
+     * Get whether compaction only compacts the changes since the head state
+     * written by the previous compaction, instead of the full head state.
+     * Incremental compaction takes time proportional to the changes since
+     * the previous compaction, but does not reclaim the space of records that
+     * became garbage within the previously compacted segments. Every
+     * {@link #getFullCompactionInterval()} incremental compactions, a full
+     * compaction is run instead to reclaim that space.
+     * @return  {@code true} if compaction is incremental
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set whether compaction only compacts the changes since the head state
+     * written by the previous compaction.
+     * @param incremental
+     * @see #isIncremental()
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Get the number of consecutive incremental compactions after which the
+     * next compaction compacts the full head state. A value of 0 means
+     * compaction stays incremental. Only used if compaction is incremental.
+     * @return  full compaction interval
+     * @see #isIncremental()
+     */
+    public int getFullCompactionInterval() {
+        return fullCompactionInterval;
+    }
+
+    /**
+     * Set the number of consecutive incremental compactions after which the
+     * next compaction compacts the full head state.
+     * @param fullCompactionInterval  number of incremental compactions, 0 or larger
+     * @see #getFullCompactionInterval()
+     */
+    public void setFullCompactionInterval(int fullCompactionInterval) {
+        checkArgument(fullCompactionInterval >= 0, "fullCompactionInterval must not be negative");
+        this.fullCompactionInterval = fullCompactionInterval;
+    }
+
     /**
      * Get the compaction gain estimate threshold beyond which compaction should
      * run
@@ -19,10 +19,12 @@ package org.apache.jackrabbit.oak.plugins.segment.file;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A wrapper around either memory mapped files or random access files, to allow
@@ -32,6 +34,12 @@ abstract class FileAccess {
 
     abstract boolean isMemoryMapped();
 
+    /**
+     * @return {@code true} if the buffers returned by {@link #read(int, int)}
+     *         are kept outside of the Java heap
+     */
+    abstract boolean isOffHeap();
+
     abstract int length() throws IOException;
 
     abstract ByteBuffer read(int position, int length) throws IOException;
@@ -56,6 +64,11 @@ abstract class FileAccess {
             return true;
         }
 
+        @Override
+        boolean isOffHeap() {
+            return true;
+        }
+
         @Override
         public int length() {
             return buffer.remaining();
@@ -77,13 +90,22 @@ abstract class FileAccess {
     
     /**
      * The implementation that uses random access file (reads are synchronized).
+     * Depending on the {@code offHeap} flag, the data is read into heap or
+     * direct byte buffers.
      */    
     static class Random extends FileAccess {
 
         private final RandomAccessFile file;
 
+        private final boolean offHeap;
+
         Random(RandomAccessFile file) {
+            this(file, false);
+        }
+
+        Random(RandomAccessFile file, boolean offHeap) {
             this.file = file;
+            this.offHeap = offHeap;
         }
 
         @Override
@@ -91,6 +113,11 @@ abstract class FileAccess {
             return false;
         }
 
+        @Override
+        boolean isOffHeap() {
+            return offHeap;
+        }
+
         @Override
         public int length() throws IOException {
             long length = file.length();
@@ -101,10 +128,22 @@ abstract class FileAccess {
         @Override
         public synchronized ByteBuffer read(int position, int length)
                 throws IOException {
-            ByteBuffer entry = ByteBuffer.allocate(length);
-            file.seek(position);
-            file.readFully(entry.array());
-            return entry;
+            if (offHeap) {
+                ByteBuffer entry = ByteBuffer.allocateDirect(length);
+                FileChannel channel = file.getChannel();
+                while (entry.hasRemaining()) {
+                    if (channel.read(entry, position + entry.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                entry.flip();
+                return entry;
+            } else {
+                ByteBuffer entry = ByteBuffer.allocate(length);
+                file.seek(position);
+                file.readFully(entry.array());
+                return entry;
+            }
         }
 
         @Override
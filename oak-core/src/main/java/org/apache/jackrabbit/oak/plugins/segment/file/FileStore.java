@@ -30,6 +30,7 @@ import static java.util.Collections.singletonMap;
 import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
 import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
 import static org.apache.jackrabbit.oak.plugins.segment.CompactionMap.sum;
+import static org.apache.jackrabbit.oak.plugins.segment.SegmentTracker.DEFAULT_MEMORY_CACHE_SIZE;
 import static org.apache.jackrabbit.oak.plugins.segment.compaction.CompactionStrategy.NO_COMPACTION;
 
 import java.io.File;
@@ -38,8 +39,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -51,9 +52,11 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.plugins.blob.BlobStoreBlob;
@@ -97,6 +100,13 @@ public class FileStore implements SegmentStore {
 
     private static final String LOCK_FILE_NAME = "repo.lock";
 
+    /**
+     * Name of the file recording the head written by the last compaction,
+     * which serves as base for incremental compaction. Same format as the
+     * journal, but only the latest head is kept.
+     */
+    private static final String COMPACTION_FILE_NAME = "compaction.log";
+
     static final boolean MEMORY_MAPPING_DEFAULT =
             "64".equals(System.getProperty("sun.arch.data.model", "32"));
 
@@ -110,8 +120,28 @@ public class FileStore implements SegmentStore {
 
     private final boolean memoryMapping;
 
+    /**
+     * Whether segments that are not memory mapped are read into direct
+     * buffers outside of the Java heap.
+     */
+    private final boolean offHeap;
+
     private volatile List<TarReader> readers;
 
+    /**
+     * Lookup table from segment identifiers to the {@link #readers} that
+     * contain them. Always updated together with the list of readers,
+     * while holding the lock of this instance.
+     */
+    private volatile TarLookupTable lookup;
+
+    /**
+     * Statistics of the segment lookups, or {@code null} unless enabled
+     * with the {@code oak.segment.lookupStats} system property.
+     */
+    private final TarLookupTable.Stats lookupStats =
+            Boolean.getBoolean("oak.segment.lookupStats") ? new TarLookupTable.Stats() : null;
+
     private int writeNumber;
 
     private File writeFile;
@@ -166,6 +196,21 @@ public class FileStore implements SegmentStore {
      */
     private final SegmentVersion version = SegmentVersion.V_11;
 
+    /**
+     * The head state written by the last successful compaction, or
+     * {@code null} if not known or if compaction is not incremental.
+     * Incremental compaction only compacts the changes between this state
+     * and the current head. Holding on to this state also keeps its segments
+     * from being removed by cleanup.
+     */
+    private volatile SegmentNodeState compactedBase;
+
+    /**
+     * Number of incremental compactions since the last full compaction
+     * of this instance.
+     */
+    private int incrementalCompactions;
+
     /**
      * {@code GCMonitor} monitoring this instance's gc progress
      */
@@ -191,6 +236,8 @@ public class FileStore implements SegmentStore {
         private int maxFileSize = 256;
         private int cacheSize;   // 0 -> DEFAULT_MEMORY_CACHE_SIZE
         private boolean memoryMapping;
+        private int writerCount = 1;
+        private int offHeapCacheSize;   // 0 -> segments on the heap
         private final LoggingGCMonitor gcMonitor = new LoggingGCMonitor();
 
         private Builder(File directory) {
@@ -262,6 +309,36 @@ public class FileStore implements SegmentStore {
             return this;
         }
 
+        /**
+         * Number of concurrent segment writers. Each writer has its own
+         * segment buffer, so that concurrent commits and bulk imports
+         * don't serialize on a single writer.
+         * @param writerCount  number of writers, 1 or larger
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withConcurrentWriters(int writerCount) {
+            checkArgument(writerCount > 0, "writerCount must be positive");
+            this.writerCount = writerCount;
+            return this;
+        }
+
+        /**
+         * Keep segment data outside of the Java heap, with the given maximum
+         * size in MB. Segments that are not memory mapped are then read into
+         * direct buffers, and the segment cache is bounded by both its heap
+         * size and this off-heap size. Use {@code 0} to keep segments on the
+         * heap (the default).
+         * @param offHeapCacheSize  off-heap cache size in MB, 0 to disable
+         * @return this instance
+         */
+        @Nonnull
+        public Builder withOffHeapCacheSize(int offHeapCacheSize) {
+            checkArgument(offHeapCacheSize >= 0, "offHeapCacheSize must not be negative");
+            this.offHeapCacheSize = offHeapCacheSize;
+            return this;
+        }
+
         /**
          * {@link GCMonitor} for monitoring this files store's gc process.
          * @param gcMonitor
@@ -283,6 +360,8 @@ public class FileStore implements SegmentStore {
          * <li>max file size: 256MB</li>
          * <li>cache size: 256MB</li>
          * <li>memory mapping: on for 64 bit JVMs off otherwise</li>
+         * <li>concurrent writers: 1</li>
+         * <li>off-heap cache: off</li>
          * <li>whiteboard: none. No {@link GCMonitor} tracking</li>
          * </ul>
          *
@@ -292,14 +371,15 @@ public class FileStore implements SegmentStore {
         @Nonnull
         public FileStore create() throws IOException {
             return new FileStore(
-                    blobStore, directory, root, maxFileSize, cacheSize, memoryMapping, gcMonitor);
+                    blobStore, directory, root, maxFileSize, cacheSize, memoryMapping,
+                    writerCount, offHeapCacheSize, gcMonitor);
         }
     }
 
     @Deprecated
     public FileStore(BlobStore blobStore, File directory, int maxFileSizeMB, boolean memoryMapping)
             throws IOException {
-        this(blobStore, directory, EMPTY_NODE, maxFileSizeMB, 0, memoryMapping, GCMonitor.EMPTY);
+        this(blobStore, directory, EMPTY_NODE, maxFileSizeMB, 0, memoryMapping, 1, 0, GCMonitor.EMPTY);
     }
 
     @Deprecated
@@ -317,37 +397,42 @@ public class FileStore implements SegmentStore {
     @Deprecated
     public FileStore(File directory, int maxFileSizeMB, int cacheSizeMB,
             boolean memoryMapping) throws IOException {
-        this(null, directory, EMPTY_NODE, maxFileSizeMB, cacheSizeMB, memoryMapping, GCMonitor.EMPTY);
+        this(null, directory, EMPTY_NODE, maxFileSizeMB, cacheSizeMB, memoryMapping, 1, 0, GCMonitor.EMPTY);
     }
 
     @Deprecated
     FileStore(File directory, NodeState initial, int maxFileSize) throws IOException {
-        this(null, directory, initial, maxFileSize, -1, MEMORY_MAPPING_DEFAULT, GCMonitor.EMPTY);
+        this(null, directory, initial, maxFileSize, -1, MEMORY_MAPPING_DEFAULT, 1, 0, GCMonitor.EMPTY);
     }
 
     @Deprecated
     public FileStore(
             BlobStore blobStore, final File directory, NodeState initial, int maxFileSizeMB,
             int cacheSizeMB, boolean memoryMapping) throws IOException {
-        this(blobStore, directory, initial, maxFileSizeMB, cacheSizeMB, memoryMapping, GCMonitor.EMPTY);
+        this(blobStore, directory, initial, maxFileSizeMB, cacheSizeMB, memoryMapping, 1, 0, GCMonitor.EMPTY);
     }
 
     private FileStore(
             BlobStore blobStore, final File directory, NodeState initial, int maxFileSizeMB,
-            int cacheSizeMB, boolean memoryMapping, GCMonitor gcMonitor)
+            int cacheSizeMB, boolean memoryMapping, int writerCount,
+            int offHeapCacheSizeMB, GCMonitor gcMonitor)
             throws IOException {
         checkNotNull(directory).mkdirs();
         if (cacheSizeMB < 0) {
-            this.tracker = new SegmentTracker(this, 0, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, 0, getVersion(), writerCount, offHeapCacheSizeMB);
         } else if (cacheSizeMB > 0) {
-            this.tracker = new SegmentTracker(this, cacheSizeMB, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, cacheSizeMB, getVersion(), writerCount, offHeapCacheSizeMB);
         } else {
-            this.tracker = new SegmentTracker(this, getVersion());
+            this.tracker = new SegmentTracker(
+                    this, DEFAULT_MEMORY_CACHE_SIZE, getVersion(), writerCount, offHeapCacheSizeMB);
         }
         this.blobStore = blobStore;
         this.directory = directory;
         this.maxFileSize = maxFileSizeMB * MB;
         this.memoryMapping = memoryMapping;
+        this.offHeap = offHeapCacheSizeMB > 0;
         this.gcMonitor = gcMonitor;
 
         journalFile = new RandomAccessFile(new File(directory, JOURNAL_FILE_NAME), "rw");
@@ -358,8 +443,9 @@ public class FileStore implements SegmentStore {
         Integer[] indices = map.keySet().toArray(new Integer[map.size()]);
         Arrays.sort(indices);
         for (int i = indices.length - 1; i >= 0; i--) {
-            readers.add(TarReader.open(map.get(indices[i]), memoryMapping));
+            readers.add(TarReader.open(map.get(indices[i]), memoryMapping, offHeap));
         }
+        this.lookup = TarLookupTable.build(readers, lookupStats);
 
         if (indices.length > 0) {
             this.writeNumber = indices[indices.length - 1] + 1;
@@ -426,7 +512,8 @@ public class FileStore implements SegmentStore {
                     }
                 });
 
-        log.info("TarMK opened: {} (mmap={})", directory, memoryMapping);
+        log.info("TarMK opened: {} (mmap={}, writers={}, offHeap={})",
+                directory, memoryMapping, writerCount, offHeapCacheSizeMB);
     }
 
     public boolean maybeCompact(boolean cleanup) {
@@ -599,7 +686,7 @@ public class FileStore implements SegmentStore {
             if (cleanup || !after.equals(before)) {
                 // needs to happen outside the synchronization block below to
                 // avoid a deadlock with another thread flushing the writer
-                tracker.getWriter().flush();
+                tracker.flushWriters();
 
                 // needs to happen outside the synchronization block below to
                 // prevent the flush from stopping concurrent reads and writes
@@ -661,6 +748,18 @@ public class FileStore implements SegmentStore {
         }
         writer.collectReferences(ids);
 
+        // with concurrent writers a segment can reference a segment of
+        // another writer that was flushed after it, which the reverse
+        // walk in TarReader.cleanup() would miss. So the reachable segments
+        // are marked until nothing is added before anything is removed.
+        boolean marked = true;
+        while (marked) {
+            marked = false;
+            for (TarReader reader : readers) {
+                marked |= reader.mark(ids);
+            }
+        }
+
         CompactionMap cm = tracker.getCompactionMap();
         List<TarReader> list = newArrayListWithCapacity(readers.size());
         Set<UUID> cleanedIds = newHashSet();
@@ -678,6 +777,7 @@ public class FileStore implements SegmentStore {
             }
         }
         readers = list;
+        lookup = TarLookupTable.build(list, lookupStats);
         cm.remove(cleanedIds);
         long finalSize = size();
         gcMonitor.cleaned(initialSize - finalSize, finalSize);
@@ -704,7 +804,8 @@ public class FileStore implements SegmentStore {
         SegmentWriter mapWriter = compactionStrategy.getPersistCompactionMap()
             ? new SegmentWriter(this, tracker, getVersion())
             : null;
-        final Compactor compactor = new Compactor(writer, mapWriter, compactionStrategy.cloneBinaries());
+        final Compactor compactor = new Compactor(writer, mapWriter,
+                compactionStrategy.cloneBinaries(), compactionStrategy.getCompactionThreads());
         SegmentNodeState before = getHead();
         long existing = before.getChildNode(SegmentNodeStore.CHECKPOINTS)
                 .getChildNodeCount(Long.MAX_VALUE);
@@ -714,7 +815,39 @@ public class FileStore implements SegmentStore {
                     existing);
         }
 
-        SegmentNodeState after = compactor.compact(EMPTY_NODE, before);
+        SegmentNodeState after = null;
+        SegmentNodeState base = null;
+        int interval = compactionStrategy.getFullCompactionInterval();
+        if (compactionStrategy.isIncremental()
+                && (interval == 0 || incrementalCompactions < interval)) {
+            try {
+                base = getCompactedBase();
+            } catch (IOException e) {
+                gcMonitor.error("Error while reading the compacted revision", e);
+            }
+        }
+        if (base != null) {
+            gcMonitor.info("TarMK compaction compacting changes since {}", base.getRecordId());
+            try {
+                after = compactor.compact(base, before);
+            } catch (SegmentNotFoundException e) {
+                // Parts of the base that are not reachable from the head
+                // might have been removed by cleanup before the base was
+                // held on to. Records reused from the base are reachable from
+                // the head, so they are always available.
+                gcMonitor.warn("TarMK compaction failed to access the compacted " +
+                        "revision {}, falling back to full compaction", base.getRecordId());
+            }
+        }
+        if (after == null) {
+            if (compactionStrategy.isIncremental()) {
+                gcMonitor.info("TarMK compaction compacting the full head state");
+            }
+            after = compactor.compact(EMPTY_NODE, before);
+            incrementalCompactions = 0;
+        } else {
+            incrementalCompactions++;
+        }
 
         Callable<Boolean> setHead = new SetHead(before, after, compactor);
         try {
@@ -805,10 +938,11 @@ public class FileStore implements SegmentStore {
                 flush();
 
                 writer.close();
-                tracker.getWriter().dropCache();
+                tracker.dropWriterCaches();
 
                 List<TarReader> list = readers;
                 readers = newArrayList();
+                lookup = TarLookupTable.build(readers, lookupStats);
                 for (TarReader reader : list) {
                     reader.close();
                 }
@@ -824,6 +958,9 @@ public class FileStore implements SegmentStore {
 
         System.gc(); // for any memory-mappings that are no longer used
 
+        if (lookupStats != null) {
+            log.info("TarMK segment lookup statistics: {}", lookupStats);
+        }
         log.info("TarMK closed: {}", directory);
     }
 
@@ -839,10 +976,8 @@ public class FileStore implements SegmentStore {
     }
 
     private boolean containsSegment(long msb, long lsb) {
-        for (TarReader reader : readers) {
-            if (reader.containsEntry(msb, lsb)) {
-                return true;
-            }
+        if (lookup.get(msb, lsb) != null) {
+            return true;
         }
 
         synchronized (this) {
@@ -853,13 +988,7 @@ public class FileStore implements SegmentStore {
 
         // the writer might have switched to a new file,
         // so we need to re-check the readers
-        for (TarReader reader : readers) {
-            if (reader.containsEntry(msb, lsb)) {
-                return true;
-            }
-        }
-
-        return false;
+        return lookup.get(msb, lsb) != null;
     }
 
     @Override
@@ -867,22 +996,9 @@ public class FileStore implements SegmentStore {
         long msb = id.getMostSignificantBits();
         long lsb = id.getLeastSignificantBits();
 
-        for (TarReader reader : readers) {
-            try {
-                if (reader.isClosed()) {
-                    // Cleanup might already have closed the file.
-                    // The segment should be available from another file.
-                    log.info("Skipping closed tar file {}", reader);
-                    continue;
-                }
-
-                ByteBuffer buffer = reader.readEntry(msb, lsb);
-                if (buffer != null) {
-                    return new Segment(tracker, id, buffer);
-                }
-            } catch (IOException e) {
-                log.warn("Failed to read from tar file " + reader, e);
-            }
+        Segment segment = readSegmentFromReaders(id);
+        if (segment != null) {
+            return segment;
         }
 
         synchronized (this) {
@@ -896,27 +1012,87 @@ public class FileStore implements SegmentStore {
             }
         }
 
-        // the writer might have switched to a new file,
-        // so we need to re-check the readers
+        // the writer might have switched to a new file, or cleanup
+        // might have replaced the tar files, so we need to re-check
+        // the readers
+        segment = readSegmentFromReaders(id);
+        if (segment != null) {
+            return segment;
+        }
+
+        throw new SegmentNotFoundException(id);
+    }
+
+    /**
+     * Read the given segment from the tar file found in the lookup table.
+     * Should that file fail to return the segment, because it failed to
+     * read or because cleanup closed it, fall back to the other tar files,
+     * which might contain the segment as well.
+     *
+     * @param id  the segment id
+     * @return  the segment, or {@code null} if not found in any tar file
+     */
+    private Segment readSegmentFromReaders(SegmentId id) {
+        TarReader found = lookup.get(
+                id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (found == null) {
+            return null;
+        }
+
+        Segment segment = readSegment(id, found);
+        if (segment != null) {
+            return segment;
+        }
+
         for (TarReader reader : readers) {
-            try {
-                if (reader.isClosed()) {
-                    // Cleanup might already have closed the file.
-                    // The segment should be available from another file.
-                    log.info("Skipping closed tar file {}", reader);
-                    continue;
+            if (reader != found) {
+                segment = readSegment(id, reader);
+                if (segment != null) {
+                    return segment;
                 }
+            }
+        }
+        return null;
+    }
 
-                ByteBuffer buffer = reader.readEntry(msb, lsb);
-                if (buffer != null) {
-                    return new Segment(tracker, id, buffer);
-                }
-            } catch (IOException e) {
-                log.warn("Failed to read from tar file " + reader, e);
+    /**
+     * Read the given segment from the given tar file.
+     *
+     * @param id  the segment id
+     * @param reader  the tar file containing the segment, or {@code null}
+     * @return  the segment, or {@code null} if the reader was {@code null},
+     *          closed or failed to read the segment
+     */
+    private Segment readSegment(SegmentId id, TarReader reader) {
+        if (reader == null) {
+            return null;
+        }
+        if (reader.isClosed()) {
+            // Cleanup might already have closed the file.
+            // The segment should be available from another file.
+            log.info("Skipping closed tar file {}", reader);
+            return null;
+        }
+        try {
+            ByteBuffer buffer = reader.readEntry(
+                    id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (buffer != null) {
+                return new Segment(tracker, id, buffer);
             }
+        } catch (IOException e) {
+            log.warn("Failed to read from tar file " + reader, e);
         }
+        return null;
+    }
 
-        throw new SegmentNotFoundException(id);
+    /**
+     * @return statistics of the lookups of segments in the tar files,
+     *         or {@code null} if not enabled with the
+     *         {@code oak.segment.lookupStats} system property
+     */
+    @CheckForNull
+    public SegmentLookupStatsMBean getLookupStats() {
+        return lookupStats;
     }
 
     @Override
@@ -939,11 +1115,13 @@ public class FileStore implements SegmentStore {
         if (writer.isDirty()) {
             writer.close();
 
+            TarReader reader = TarReader.open(writeFile, memoryMapping, offHeap);
             List<TarReader> list =
                     newArrayListWithCapacity(1 + readers.size());
-            list.add(TarReader.open(writeFile, memoryMapping));
+            list.add(reader);
             list.addAll(readers);
             readers = list;
+            lookup = lookup.with(reader);
 
             writeNumber++;
             writeFile = new File(
@@ -975,14 +1153,99 @@ public class FileStore implements SegmentStore {
         compactionThread.trigger();
     }
 
+    /**
+     * Returns the segment identifiers of the immutable tar files of this
+     * store, keyed by the path of the tar file. The tar files are iterated
+     * from the newest to the oldest one, the identifiers of each file in the
+     * order in which the segments were written.
+     *
+     * @return the tar file index
+     */
     public Map<String, Set<UUID>> getTarReaderIndex() {
-        Map<String, Set<UUID>> index = new HashMap<String, Set<UUID>>();
+        Map<String, Set<UUID>> index = new LinkedHashMap<String, Set<UUID>>();
         for (TarReader reader : readers) {
             index.put(reader.getFile().getAbsolutePath(), reader.getUUIDs());
         }
         return index;
     }
 
+    /**
+     * Returns the identifiers of the segments of the immutable tar files that
+     * are reachable from the head state, from the oldest to the newest tar
+     * file, and the identifiers of each file in the order in which the
+     * segments were written. Segments that are only referenced from garbage
+     * are left out.
+     * <p>
+     * Callers must not assume that segments follow the segments they
+     * reference: a segment written by one segment writer can reference a
+     * segment flushed later by another writer.
+     *
+     * @return the reachable segment identifiers
+     */
+    public List<UUID> getReachableSegmentIds() throws IOException {
+        while (true) {
+            List<TarReader> list;
+            Set<UUID> ids = newHashSet();
+            synchronized (this) {
+                list = readers;
+                SegmentId id = head.get().getSegmentId();
+                ids.add(new UUID(
+                        id.getMostSignificantBits(),
+                        id.getLeastSignificantBits()));
+                // replaces the segments of the current tar file by the
+                // segments they reference
+                writer.collectReferences(ids);
+            }
+
+            // the tar files are read without holding the lock, so cleanup
+            // might close some of them in the meantime. Start over with the
+            // current tar files in that case.
+            try {
+                List<UUID> reachable = getReachableSegmentIds(list, ids);
+                if (reachable != null && list == readers) {
+                    return reachable;
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    // a concurrent cleanup replaces the readers when done
+                    if (list == readers) {
+                        throw e;
+                    }
+                }
+            }
+            log.debug("Tar files changed while collecting the reachable segments, retrying");
+        }
+    }
+
+    /**
+     * @return the reachable segment identifiers of the given tar files, or
+     *         {@code null} if one of them was closed
+     */
+    @CheckForNull
+    private static List<UUID> getReachableSegmentIds(
+            List<TarReader> list, Set<UUID> ids) throws IOException {
+        boolean marked = true;
+        while (marked) {
+            marked = false;
+            for (TarReader reader : list) {
+                if (reader.isClosed()) {
+                    return null;
+                }
+                marked |= reader.mark(ids);
+            }
+        }
+
+        List<UUID> reachable = newArrayList();
+        for (TarReader reader : Lists.reverse(list)) {
+            for (UUID uuid : reader.getUUIDs()) {
+                if (ids.contains(uuid)) {
+                    reachable.add(uuid);
+                }
+            }
+        }
+        return reachable;
+    }
+
     public Map<UUID, List<UUID>> getTarGraph(String fileName) throws IOException {
         for (TarReader reader : readers) {
             if (fileName.equals(reader.getFile().getName())) {
@@ -1088,12 +1351,13 @@ public class FileStore implements SegmentStore {
             // might result in mixed segments. See OAK-2192.
             if (setHead(before, after)) {
                 tracker.setCompactionMap(compactor.getCompactionMap());
+                setCompactedBase(after);
 
                 // Drop the SegmentWriter caches and flush any existing state
                 // in an attempt to prevent new references to old pre-compacted
                 // content. TODO: There should be a cleaner way to do this. (implement GCMonitor!?)
-                tracker.getWriter().dropCache();
-                tracker.getWriter().flush();
+                tracker.dropWriterCaches();
+                tracker.flushWriters();
 
                 CompactionMap cm = tracker.getCompactionMap();
                 gcMonitor.compacted(cm.getSegmentCounts(), cm.getRecordCounts(), cm.getEstimatedWeights());
@@ -1109,6 +1373,64 @@ public class FileStore implements SegmentStore {
         return version;
     }
 
+    /**
+     * @return  the head state written by the last successful compaction,
+     *          or {@code null} if not known
+     */
+    @CheckForNull
+    public SegmentNodeState getCompactedBase() throws IOException {
+        SegmentNodeState base = compactedBase;
+        if (base == null) {
+            base = readCompactedBase();
+            if (compactionStrategy.isIncremental()) {
+                compactedBase = base;
+            }
+        }
+        return base;
+    }
+
+    @CheckForNull
+    private SegmentNodeState readCompactedBase() throws IOException {
+        File file = new File(directory, COMPACTION_FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        JournalReader reader = new JournalReader(file);
+        try {
+            Iterator<String> bases = reader.iterator();
+            if (bases.hasNext()) {
+                RecordId base = RecordId.fromString(tracker, bases.next());
+                SegmentId segmentId = base.getSegmentId();
+                if (containsSegment(
+                        segmentId.getMostSignificantBits(),
+                        segmentId.getLeastSignificantBits())) {
+                    return new SegmentNodeState(base);
+                }
+                log.warn("Unable to access compacted revision {}", base);
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void setCompactedBase(SegmentNodeState base) throws IOException {
+        // only hold on to the base if needed, as doing so prevents its
+        // segments from being cleaned up
+        compactedBase = compactionStrategy.isIncremental() ? base : null;
+        RandomAccessFile file = new RandomAccessFile(
+                new File(directory, COMPACTION_FILE_NAME), "rw");
+        try {
+            // only the latest head is needed, so the file doesn't grow. If
+            // the base is lost in a crash, the next compaction is a full one
+            file.setLength(0);
+            file.writeBytes(base.getRecordId().toString10() + " root\n");
+            file.getChannel().force(false);
+        } finally {
+            file.close();
+        }
+    }
+
     private static class LoggingGCMonitor implements GCMonitor {
         public GCMonitor delegatee = GCMonitor.EMPTY;
 
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+/**
+ * MBean for monitoring the lookups of segments in the tar files of the
+ * {@link FileStore}. Only available if enabled with the
+ * {@code oak.segment.lookupStats} system property.
+ */
+public interface SegmentLookupStatsMBean {
+    String TYPE = "SegmentLookupStats";
+
+    /**
+     * @return  number of lookups that found a matching tar file
+     */
+    long getHitCount();
+
+    /**
+     * @return  number of lookups that found no matching tar file
+     */
+    long getMissCount();
+
+    /**
+     * @return  total number of slots inspected by all lookups
+     */
+    long getProbeCount();
+
+    /**
+     * @return  the longest probe sequence seen by a single lookup
+     */
+    long getMaxProbeLength();
+
+    /**
+     * @return  number of times the lookup table was rebuilt from scratch
+     */
+    long getRebuildCount();
+}
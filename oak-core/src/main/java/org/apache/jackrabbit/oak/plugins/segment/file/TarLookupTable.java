@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.jackrabbit.oak.commons.jmx.AnnotatedStandardMBean;
+
+/**
+ * Immutable hash table mapping segment identifiers to the {@link TarReader}
+ * that contains the segment. It replaces the linear scan over all tar
+ * readers on a segment cache miss by a single hash lookup.
+ * <p>
+ * This is a hash table that uses open addressing with linear probing on
+ * primitive arrays, to keep the memory overhead per segment at 16 bytes
+ * plus one reference. The size of the table is always a power of two, and
+ * the table is indexed by the random bits of the segment identifier, which
+ * guarantees uniform distribution of entries.
+ * <p>
+ * Instances are never modified once published. The {@link FileStore}
+ * replaces its table whenever its list of readers changes: incrementally
+ * in {@link #with(TarReader)} when a new tar file is added, and from scratch
+ * in {@link #build(List, Stats)} after cleanup.
+ */
+class TarLookupTable {
+
+    /**
+     * Lookup statistics, shared by all generations of the table of a store.
+     * Collecting them costs a few atomic updates per lookup, so they are
+     * only collected if enabled.
+     */
+    static class Stats extends AnnotatedStandardMBean
+            implements SegmentLookupStatsMBean {
+
+        private final AtomicLong hitCount = new AtomicLong();
+
+        private final AtomicLong missCount = new AtomicLong();
+
+        private final AtomicLong probeCount = new AtomicLong();
+
+        private final AtomicLong maxProbeLength = new AtomicLong();
+
+        private final AtomicLong rebuildCount = new AtomicLong();
+
+        Stats() {
+            super(SegmentLookupStatsMBean.class);
+        }
+
+        @Override
+        public long getHitCount() {
+            return hitCount.get();
+        }
+
+        @Override
+        public long getMissCount() {
+            return missCount.get();
+        }
+
+        @Override
+        public long getProbeCount() {
+            return probeCount.get();
+        }
+
+        @Override
+        public long getMaxProbeLength() {
+            return maxProbeLength.get();
+        }
+
+        @Override
+        public long getRebuildCount() {
+            return rebuildCount.get();
+        }
+
+        private void probed(int length) {
+            probeCount.addAndGet(length);
+            long max = maxProbeLength.get();
+            while (length > max && !maxProbeLength.compareAndSet(max, length)) {
+                max = maxProbeLength.get();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + ", misses=" + missCount
+                    + ", probes=" + probeCount
+                    + ", maxProbeLength=" + maxProbeLength
+                    + ", rebuilds=" + rebuildCount;
+        }
+    }
+
+    private static final int MIN_SIZE = 1024;
+
+    /**
+     * Statistics to update on lookups, or {@code null} if disabled.
+     */
+    @CheckForNull
+    private final Stats stats;
+
+    private final long[] msbs;
+
+    private final long[] lsbs;
+
+    private final TarReader[] readers;
+
+    /**
+     * The number of used entries. Only modified while the table is being
+     * populated, before it is published.
+     */
+    private int count;
+
+    private TarLookupTable(@Nullable Stats stats, int size) {
+        this(stats, new long[size], new long[size], new TarReader[size], 0);
+    }
+
+    private TarLookupTable(
+            @Nullable Stats stats, long[] msbs, long[] lsbs, TarReader[] readers, int count) {
+        this.stats = stats;
+        this.msbs = msbs;
+        this.lsbs = lsbs;
+        this.readers = readers;
+        this.count = count;
+    }
+
+    /**
+     * Create a new table for the given readers. If a segment is contained
+     * in more than one tar file, the reader that comes first in the list
+     * wins, which is consistent with the order in which the
+     * {@link FileStore} scans its readers.
+     *
+     * @param readers  the readers, newest first
+     * @param stats    statistics to update on lookups, or {@code null}
+     * @return  a new table
+     */
+    static TarLookupTable build(List<TarReader> readers, @Nullable Stats stats) {
+        int entries = 0;
+        for (TarReader reader : readers) {
+            entries += reader.count();
+        }
+        if (stats != null) {
+            stats.rebuildCount.incrementAndGet();
+        }
+        TarLookupTable table = new TarLookupTable(stats, sizeFor(entries));
+        for (TarReader reader : readers) {
+            table.addAll(reader, false);
+        }
+        return table;
+    }
+
+    /**
+     * Create a new table that contains all entries of this table plus
+     * those of the given reader, which takes precedence over all readers
+     * already in this table.
+     *
+     * @param reader  the newly added reader
+     * @return  a new table
+     */
+    TarLookupTable with(TarReader reader) {
+        int entries = count + reader.count();
+        TarLookupTable table;
+        if (sizeFor(entries) > msbs.length) {
+            table = new TarLookupTable(stats, sizeFor(entries));
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i] != null) {
+                    table.put(msbs[i], lsbs[i], readers[i], false);
+                }
+            }
+        } else {
+            table = new TarLookupTable(
+                    stats, msbs.clone(), lsbs.clone(), readers.clone(), count);
+        }
+        table.addAll(reader, true);
+        return table;
+    }
+
+    /**
+     * Find the tar file containing the given segment.
+     *
+     * @param msb the most significant bits of the segment id
+     * @param lsb the least significant bits of the segment id
+     * @return  the reader, or {@code null} if not found
+     */
+    TarReader get(long msb, long lsb) {
+        int index = getIndex(lsb);
+        int length = 1;
+        TarReader reader = readers[index];
+        while (reader != null) {
+            if (msbs[index] == msb && lsbs[index] == lsb) {
+                if (stats != null) {
+                    stats.probed(length);
+                    stats.hitCount.incrementAndGet();
+                }
+                return reader;
+            }
+            index = (index + 1) & (readers.length - 1);
+            reader = readers[index];
+            length++;
+        }
+        if (stats != null) {
+            stats.probed(length);
+            stats.missCount.incrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of segments in this table
+     */
+    int size() {
+        return count;
+    }
+
+    @CheckForNull
+    Stats getStats() {
+        return stats;
+    }
+
+    //-----------------------------------------------------------< private >--
+
+    private void addAll(final TarReader reader, final boolean replace) {
+        reader.accept(new TarEntryVisitor() {
+            @Override
+            public void visit(long msb, long lsb, File file, int offset, int size) {
+                put(msb, lsb, reader, replace);
+            }
+        });
+    }
+
+    private void put(long msb, long lsb, TarReader reader, boolean replace) {
+        int index = getIndex(lsb);
+        while (readers[index] != null) {
+            if (msbs[index] == msb && lsbs[index] == lsb) {
+                if (replace) {
+                    readers[index] = reader;
+                }
+                return;
+            }
+            index = (index + 1) & (readers.length - 1);
+        }
+        msbs[index] = msb;
+        lsbs[index] = lsb;
+        readers[index] = reader;
+        count++;
+    }
+
+    private int getIndex(long lsb) {
+        return ((int) lsb) & (readers.length - 1);
+    }
+
+    /**
+     * Table size for the given number of entries, keeping the table
+     * at most half full to keep the probe sequences short.
+     */
+    private static int sizeFor(int entries) {
+        int size = MIN_SIZE;
+        while (size < 2 * entries) {
+            size *= 2;
+        }
+        return size;
+    }
+
+}
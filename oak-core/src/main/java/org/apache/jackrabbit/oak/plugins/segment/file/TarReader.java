@@ -23,7 +23,7 @@ import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Maps.newLinkedHashMap;
 import static com.google.common.collect.Maps.newTreeMap;
 import static com.google.common.collect.Sets.newHashSet;
-import static com.google.common.collect.Sets.newHashSetWithExpectedSize;
+import static com.google.common.collect.Sets.newLinkedHashSet;
 import static java.util.Collections.singletonList;
 import static org.apache.jackrabbit.oak.plugins.segment.Segment.REF_COUNT_OFFSET;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentId.isDataSegmentId;
@@ -76,8 +76,13 @@ class TarReader {
     }
 
     static TarReader open(File file, boolean memoryMapping) throws IOException {
+        return open(file, memoryMapping, false);
+    }
+
+    static TarReader open(File file, boolean memoryMapping, boolean offHeap)
+            throws IOException {
         TarReader reader = openFirstFileWithValidIndex(
-                singletonList(file), memoryMapping);
+                singletonList(file), memoryMapping, offHeap);
         if (reader != null) {
             return reader;
         } else {
@@ -97,18 +102,20 @@ class TarReader {
      *
      * @param files
      * @param memoryMapping
+     * @param offHeap  whether to read segments into direct memory when
+     *                 the file is not memory mapped
      * @return
      * @throws IOException
      */
-    static TarReader open(Map<Character, File> files, boolean memoryMapping)
-            throws IOException {
+    static TarReader open(Map<Character, File> files, boolean memoryMapping,
+            boolean offHeap) throws IOException {
         SortedMap<Character, File> sorted = newTreeMap();
         sorted.putAll(files);
 
         List<File> list = newArrayList(sorted.values());
         Collections.reverse(list);
 
-        TarReader reader = openFirstFileWithValidIndex(list, memoryMapping);
+        TarReader reader = openFirstFileWithValidIndex(list, memoryMapping, offHeap);
         if (reader != null) {
             return reader;
         }
@@ -146,7 +153,7 @@ class TarReader {
         }
         writer.close();
 
-        reader = openFirstFileWithValidIndex(singletonList(file), memoryMapping);
+        reader = openFirstFileWithValidIndex(singletonList(file), memoryMapping, offHeap);
         if (reader != null) {
             return reader;
         } else {
@@ -183,7 +190,8 @@ class TarReader {
     }
 
     private static TarReader openFirstFileWithValidIndex(
-            List<File> files, boolean memoryMapping) throws IOException {
+            List<File> files, boolean memoryMapping, boolean offHeap)
+            throws IOException {
         for (File file : files) {
             String name = file.getName();
             try {
@@ -227,7 +235,7 @@ class TarReader {
                             }
                         }
 
-                        FileAccess random = new FileAccess.Random(access);
+                        FileAccess random = new FileAccess.Random(access, offHeap);
                         // prevent the finally block from closing the file
                         // as the returned TarReader will take care of that
                         access = null;
@@ -471,14 +479,14 @@ class TarReader {
         }
     }
 
+    /**
+     * Returns the identifiers of the segments in this file, in the order
+     * in which the segments were written.
+     */
     Set<UUID> getUUIDs() {
-        Set<UUID> uuids = newHashSetWithExpectedSize(index.remaining() / 24);
-        int position = index.position();
-        while (position < index.limit()) {
-            uuids.add(new UUID(
-                    index.getLong(position),
-                    index.getLong(position + 8)));
-            position += 24;
+        Set<UUID> uuids = newLinkedHashSet();
+        for (TarEntry entry : getEntries()) {
+            uuids.add(new UUID(entry.msb(), entry.lsb()));
         }
         return uuids;
     }
@@ -561,6 +569,73 @@ class TarReader {
         return -1;
     }
 
+    /**
+     * Returns the entries of this file, in the order in which the segments
+     * were written.
+     */
+    private TarEntry[] getEntries() {
+        TarEntry[] sorted = new TarEntry[index.remaining() / 24];
+        int position = index.position();
+        for (int i = 0; position < index.limit(); i++) {
+            sorted[i]  = new TarEntry(
+                    index.getLong(position),
+                    index.getLong(position + 8),
+                    index.getInt(position + 16),
+                    index.getInt(position + 20));
+            position += 24;
+        }
+        Arrays.sort(sorted, TarEntry.OFFSET_ORDER);
+        return sorted;
+    }
+
+    /**
+     * Adds the segments referenced from the reachable data segments in this
+     * file to the given set of reachable segments. Unlike
+     * {@link #cleanup(Set, CompactionMap, Set)}, this does not assume that
+     * segments only reference segments written before them.
+     *
+     * @param reachableIds the reachable segment ids (input and output)
+     * @return {@code true} if segments were added to the set
+     */
+    synchronized boolean mark(Set<UUID> reachableIds) throws IOException {
+        Map<UUID, List<UUID>> graph = getGraph();
+        int before = reachableIds.size();
+        TarEntry[] sorted = getEntries();
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            TarEntry entry = sorted[i];
+            UUID id = new UUID(entry.msb(), entry.lsb());
+            if (isDataSegmentId(entry.lsb()) && reachableIds.contains(id)) {
+                collectReferences(entry, id, graph, reachableIds);
+            }
+        }
+        return reachableIds.size() != before;
+    }
+
+    private void collectReferences(
+            TarEntry entry, UUID id, Map<UUID, List<UUID>> graph,
+            Set<UUID> referencedIds) throws IOException {
+        if (graph != null) {
+            List<UUID> refids = graph.get(id);
+            if (refids != null) {
+                referencedIds.addAll(refids);
+            }
+        } else {
+            // a pre-compiled graph is not available, so read the
+            // references directly from this segment
+            ByteBuffer segment = access.read(
+                    entry.offset(),
+                    Math.min(entry.size(), 16 * 256));
+            int pos = segment.position();
+            int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
+            int refend = pos + 16 * (refcount + 1);
+            for (int refpos = pos + 16; refpos < refend; refpos += 16) {
+                referencedIds.add(new UUID(
+                        segment.getLong(refpos),
+                        segment.getLong(refpos + 8)));
+            }
+        }
+    }
+
     /**
      * Garbage collects segments in this file. First it collects the set of
      * segments that are referenced / reachable, then (if more than 25% is
@@ -580,18 +655,7 @@ class TarReader {
             throws IOException {
         Set<UUID> cleaned = newHashSet();
         Map<UUID, List<UUID>> graph = getGraph();
-
-        TarEntry[] sorted = new TarEntry[index.remaining() / 24];
-        int position = index.position();
-        for (int i = 0; position < index.limit(); i++) {
-            sorted[i]  = new TarEntry(
-                    index.getLong(position),
-                    index.getLong(position + 8),
-                    index.getInt(position + 16),
-                    index.getInt(position + 20));
-            position += 24;
-        }
-        Arrays.sort(sorted, TarEntry.OFFSET_ORDER);
+        TarEntry[] sorted = getEntries();
 
         int size = 0;
         int count = 0;
@@ -607,26 +671,7 @@ class TarReader {
                 count += 1;
                 if (isDataSegmentId(entry.lsb())) {
                     // this is a referenced data segment, so follow the graph
-                    if (graph != null) {
-                        List<UUID> refids = graph.get(id);
-                        if (refids != null) {
-                            referencedIds.addAll(refids);
-                        }
-                    } else {
-                        // a pre-compiled graph is not available, so read the
-                        // references directly from this segment
-                        ByteBuffer segment = access.read(
-                                entry.offset(),
-                                Math.min(entry.size(), 16 * 256));
-                        int pos = segment.position();
-                        int refcount = segment.get(pos + REF_COUNT_OFFSET) & 0xff;
-                        int refend = pos + 16 * (refcount + 1);
-                        for (int refpos = pos + 16; refpos < refend; refpos += 16) {
-                            referencedIds.add(new UUID(
-                                    segment.getLong(refpos),
-                                    segment.getLong(refpos + 8)));
-                        }
-                    }
+                    collectReferences(entry, id, graph, referencedIds);
                 }
             }
         }
@@ -670,7 +715,7 @@ class TarReader {
         writer.close();
 
         TarReader reader = openFirstFileWithValidIndex(
-                singletonList(newFile), access.isMemoryMapped());
+                singletonList(newFile), access.isMemoryMapped(), access.isOffHeap());
         if (reader != null) {
             logCleanedSegments(cleaned);
             removed.addAll(cleaned);
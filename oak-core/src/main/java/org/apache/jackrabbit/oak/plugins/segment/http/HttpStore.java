@@ -17,18 +17,34 @@
 package org.apache.jackrabbit.oak.plugins.segment.http;
 
 import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.UUID;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.plugins.segment.RecordId;
@@ -40,22 +56,136 @@ import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 import org.apache.jackrabbit.oak.spi.blob.BlobStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class HttpStore implements SegmentStore {
 
+    private static final Logger log = LoggerFactory.getLogger(HttpStore.class);
+
+    /**
+     * Maximum number of referenced segments fetched in a single batch request
+     * after reading a data segment.
+     */
+    private static final int PREFETCH_SIZE = 64;
+
+    /**
+     * Default maximum size of the local segment cache, in bytes.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 256 * 1024 * 1024;
+
     private final SegmentTracker tracker = new SegmentTracker(this);
 
     private final URL base;
 
+    /**
+     * Directory of the local segment cache, or {@code null} if segments are
+     * not cached on disk.
+     */
+    private final File cache;
+
+    /**
+     * Maximum size of the local segment cache, in bytes. The least recently
+     * used segments are evicted when the cache grows beyond this size.
+     */
+    private final long cacheSize;
+
+    /**
+     * Sizes of the segments in the local segment cache by segment id, from
+     * the least to the most recently used segment.
+     */
+    private final LinkedHashMap<String, Long> cached =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * Total size of the segments in the local segment cache. Guarded by
+     * {@link #cached}.
+     */
+    private long cachedSize;
+
+    /**
+     * Whether the server supports batch requests. Disabled when the server
+     * does not know the batch endpoint, e.g. when talking to an older server.
+     */
+    private volatile boolean batch = true;
+
     /**
      * @param base
      *            make sure the url ends with a slash "/", otherwise the
      *            requests will end up as absolute instead of relative
      */
     public HttpStore(URL base) {
+        this(base, null);
+    }
+
+    /**
+     * @param base
+     *            make sure the url ends with a slash "/", otherwise the
+     *            requests will end up as absolute instead of relative
+     * @param cache
+     *            directory for caching segments on disk across restarts, or
+     *            {@code null} to disable the cache. Segments are immutable,
+     *            so cached segments never need to be revalidated. Segments
+     *            referenced by a data segment read from the server are
+     *            prefetched into the cache in a single batch request.
+     */
+    public HttpStore(URL base, @Nullable File cache) {
+        this(base, cache, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param base
+     *            make sure the url ends with a slash "/", otherwise the
+     *            requests will end up as absolute instead of relative
+     * @param cache
+     *            directory for caching segments on disk across restarts, or
+     *            {@code null} to disable the cache
+     * @param cacheSize
+     *            maximum size of the cache in bytes, the least recently used
+     *            segments are removed from the cache beyond this size
+     */
+    public HttpStore(URL base, @Nullable File cache, long cacheSize) {
         this.base = base;
+        this.cache = cache;
+        this.cacheSize = cacheSize;
+        if (cache != null) {
+            if (!cache.isDirectory() && !cache.mkdirs()) {
+                throw new IllegalArgumentException(
+                        "Unable to create segment cache directory " + cache);
+            }
+            loadCache();
+        }
+    }
+
+    /**
+     * Registers the segments already in the cache directory, ordered by
+     * the time they were cached, and removes temporary files left over by
+     * an earlier process.
+     */
+    private void loadCache() {
+        File[] files = cache.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                if (!file.delete()) {
+                    log.debug("Unable to remove temporary file {}", file);
+                }
+            } else if (file.isFile()) {
+                cacheAdded(file.getName(), file.length());
+            }
+        }
     }
 
     @Override
@@ -115,14 +245,19 @@ public class HttpStore implements SegmentStore {
     @Override
     public Segment readSegment(SegmentId id) {
         try {
-            URLConnection connection = get(id.toString());
-            InputStream stream = connection.getInputStream();
-            try {
-                byte[] data = ByteStreams.toByteArray(stream);
+            byte[] data = readCached(id);
+            if (data != null) {
                 return new Segment(tracker, id, ByteBuffer.wrap(data));
-            } finally {
-                stream.close();
             }
+
+            data = read(get(id.toString()));
+            // failing to cache the segment does not affect this read
+            writeCached(id.toString(), data);
+            Segment segment = new Segment(tracker, id, ByteBuffer.wrap(data));
+            if (cache != null && batch && id.isDataSegmentId()) {
+                prefetch(segment.getReferencedIds());
+            }
+            return segment;
         } catch (MalformedURLException e) {
             throw new SegmentNotFoundException(id, e);
         } catch (IOException e) {
@@ -130,6 +265,171 @@ public class HttpStore implements SegmentStore {
         }
     }
 
+    /**
+     * Fetches the given data segments that are not yet cached with a single
+     * batch request and puts them into the cache.
+     */
+    private void prefetch(List<SegmentId> ids) {
+        StringBuilder query = new StringBuilder("segments");
+        int count = 0;
+        for (SegmentId id : ids) {
+            if (count < PREFETCH_SIZE && id.isDataSegmentId()
+                    && !isCached(id.toString())) {
+                query.append(count++ == 0 ? '?' : '&').append("id=").append(id);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+
+        URLConnection connection = null;
+        try {
+            connection = get(query.toString());
+            DataInputStream stream = new DataInputStream(
+                    new ByteArrayInputStream(read(connection)));
+            while (stream.available() > 0) {
+                UUID uuid = new UUID(stream.readLong(), stream.readLong());
+                byte[] data = new byte[stream.readInt()];
+                stream.readFully(data);
+                writeCached(uuid.toString(), data);
+            }
+        } catch (IOException e) {
+            // segments are still read one by one
+            if (isUnsupported(connection)) {
+                log.debug("Batch requests not supported, disabling prefetching", e);
+                batch = false;
+            } else {
+                log.debug("Batch request failed", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given connection failed because the server does
+     * not support the request.
+     */
+    private static boolean isUnsupported(@Nullable URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            try {
+                int code = ((HttpURLConnection) connection).getResponseCode();
+                return code == HTTP_NOT_FOUND || code == HTTP_BAD_METHOD;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the full response of the given connection. Error responses are
+     * consumed as well, so that the underlying connection can be reused for
+     * subsequent requests.
+     */
+    private static byte[] read(URLConnection connection) throws IOException {
+        try {
+            InputStream stream = connection.getInputStream();
+            try {
+                return ByteStreams.toByteArray(stream);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            if (connection instanceof HttpURLConnection) {
+                InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                if (error != null) {
+                    try {
+                        ByteStreams.toByteArray(error);
+                    } finally {
+                        error.close();
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    private File getCacheFile(String id) {
+        return new File(cache, id);
+    }
+
+    private boolean isCached(String id) {
+        synchronized (cached) {
+            return cached.containsKey(id);
+        }
+    }
+
+    @CheckForNull
+    private byte[] readCached(SegmentId id) throws IOException {
+        if (cache == null) {
+            return null;
+        }
+        String name = id.toString();
+        synchronized (cached) {
+            // also marks the segment as recently used
+            if (cached.get(name) == null) {
+                return null;
+            }
+        }
+        try {
+            return Files.toByteArray(getCacheFile(name));
+        } catch (FileNotFoundException e) {
+            // evicted concurrently
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given segment to the cache. Errors are logged, as the
+     * segment can still be read from the server.
+     */
+    private void writeCached(String id, byte[] data) {
+        if (cache == null) {
+            return;
+        }
+        // write to a temporary file first, so that concurrent readers
+        // never see a partially written segment
+        File file = getCacheFile(id);
+        try {
+            File tmp = File.createTempFile(id, ".tmp", cache);
+            Files.write(data, tmp);
+            if (!tmp.renameTo(file) && !tmp.delete()) {
+                tmp.deleteOnExit();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache segment " + id, e);
+            return;
+        }
+        if (file.isFile()) {
+            cacheAdded(id, data.length);
+        }
+    }
+
+    /**
+     * Registers a segment written to the cache, and removes the least
+     * recently used segments if the cache grows too big.
+     */
+    private void cacheAdded(String id, long size) {
+        List<String> evicted = newArrayList();
+        synchronized (cached) {
+            Long previous = cached.put(id, size);
+            cachedSize += size - (previous != null ? previous : 0);
+            Iterator<Entry<String, Long>> iterator =
+                    cached.entrySet().iterator();
+            while (cachedSize > cacheSize && iterator.hasNext()) {
+                Entry<String, Long> entry = iterator.next();
+                cachedSize -= entry.getValue();
+                evicted.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        for (String name : evicted) {
+            File file = getCacheFile(name);
+            if (!file.delete() && file.exists()) {
+                log.debug("Unable to remove cached segment {}", file);
+            }
+        }
+    }
+
     @Override
     public void writeSegment(
             SegmentId id, byte[] bytes, int offset, int length) {
@@ -13,19 +13,45 @@
  */
 package org.apache.jackrabbit.oak.query;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.apache.jackrabbit.oak.commons.sort.ExternalSort;
+import org.apache.jackrabbit.oak.commons.sort.StringSort;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Files;
+
 /**
  * Filtering iterators that are useful for queries with limit, offset, order by,
  * or distinct.
+ * <p>
+ * Order by and distinct need to keep entries in memory. If a serializer is
+ * available, and there are more entries than the spill threshold of the
+ * settings, entries are written to temporary files instead. The files are
+ * deleted when all entries were read, when the limit is reached, or
+ * otherwise some time after the iterator was garbage collected.
  */
 public class FilterIterators {
     
@@ -71,18 +97,41 @@ public class FilterIterators {
         }
     }
 
+    /**
+     * Get the number of entries after which sort and distinct operations
+     * write to temporary files.
+     * 
+     * @param settings the query engine settings
+     * @param serializer the serializer, or null
+     * @return the threshold, or Long.MAX_VALUE if entries are kept in memory
+     */
+    static long getSpillThreshold(QueryEngineSettings settings, Serializer<?> serializer) {
+        long threshold = settings.getSpillThreshold();
+        if (serializer == null || threshold >= settings.getLimitInMemory()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, threshold);
+    }
+
     public static <K> Iterator<K> newCombinedFilter(
             Iterator<K> it, boolean distinct, long limit, long offset, 
             Comparator<K> orderBy, QueryEngineSettings settings) {
+        return newCombinedFilter(it, distinct, limit, offset, orderBy, settings, null);
+    }
+
+    public static <K> Iterator<K> newCombinedFilter(
+            Iterator<K> it, boolean distinct, long limit, long offset, 
+            Comparator<K> orderBy, QueryEngineSettings settings,
+            @Nullable Serializer<K> serializer) {
         if (distinct) {
-            it = FilterIterators.newDistinct(it, settings);
+            it = FilterIterators.newDistinct(it, settings, serializer);
         }
         if (orderBy != null) {
             // avoid overflow (both offset and limit could be Long.MAX_VALUE)
             int max = (int) Math.min(Integer.MAX_VALUE, 
                     Math.min(Integer.MAX_VALUE, offset) + 
                     Math.min(Integer.MAX_VALUE, limit));
-            it = FilterIterators.newSort(it, orderBy, max, settings);
+            it = FilterIterators.newSort(it, orderBy, max, settings, serializer);
         }
         if (offset != 0) {
             it = FilterIterators.newOffset(it, offset);
@@ -94,7 +143,12 @@ public class FilterIterators {
     }
     
     public static <K> DistinctIterator<K> newDistinct(Iterator<K> it, QueryEngineSettings settings) {
-        return new DistinctIterator<K>(it, settings);
+        return newDistinct(it, settings, null);
+    }
+
+    public static <K> DistinctIterator<K> newDistinct(Iterator<K> it, QueryEngineSettings settings,
+            @Nullable Serializer<K> serializer) {
+        return new DistinctIterator<K>(it, settings, serializer);
     }
     
     public static <K> Iterator<K> newLimit(Iterator<K> it, long limit) {
@@ -106,43 +160,179 @@ public class FilterIterators {
     }
     
     public static <K> Iterator<K> newSort(Iterator<K> it, Comparator<K> orderBy, int max, QueryEngineSettings settings) {
-        return new SortIterator<K>(it, orderBy, max, settings);
+        return newSort(it, orderBy, max, settings, null);
+    }
+
+    public static <K> Iterator<K> newSort(Iterator<K> it, Comparator<K> orderBy, int max, 
+            QueryEngineSettings settings, @Nullable Serializer<K> serializer) {
+        return new SortIterator<K>(it, orderBy, max, settings, serializer);
+    }
+
+    /**
+     * Converts entries to and from a line of text, so that they can be written
+     * to temporary files.
+     * 
+     * @param <K> the entry type
+     */
+    public interface Serializer<K> {
+
+        /**
+         * Convert an entry to a line of text. The text starts with the data
+         * that is used to check whether entries are equal, so that entries
+         * that are equal are next to each other when the lines are sorted.
+         * 
+         * @param entry the entry
+         * @return the line (without line break), or null if the entry can not
+         *         be serialized
+         */
+        @CheckForNull
+        String write(K entry);
+
+        /**
+         * Convert a line of text back to an entry.
+         * 
+         * @param line the line
+         * @return the entry
+         */
+        K read(String line);
+
     }
 
     /**
      * An iterator that filters duplicate entries, that is, it only returns each
      * unique entry once. The internal set of unique entries is filled only when
-     * needed (on demand).
+     * needed (on demand). If the set reaches the spill threshold, the remaining
+     * entries are sorted using a temporary file, and returned after that (not
+     * in the original order).
      * 
      * @param <K> the entry type
      */
-    static class DistinctIterator<K> implements Iterator<K> {
+    static class DistinctIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final QueryEngineSettings settings;
+        private final Serializer<K> serializer;
         private final HashSet<K> distinctSet;
+        private long spillThreshold;
+        private Iterator<K> spilled;
+        private TemporaryFiles files;
         private K current;
         private boolean end;
 
-        DistinctIterator(Iterator<K> source, QueryEngineSettings settings) {
+        DistinctIterator(Iterator<K> source, QueryEngineSettings settings, Serializer<K> serializer) {
             this.source = source;
             this.settings = settings;
+            this.serializer = serializer;
             distinctSet = new HashSet<K>();
+            spillThreshold = getSpillThreshold(settings, serializer);
         }
 
         private void fetchNext() {
             if (end) {
                 return;
             }
-            while (source.hasNext()) {
-                current = source.next();
-                if (distinctSet.add(current)) {
+            if (spilled == null) {
+                while (source.hasNext()) {
+                    current = source.next();
+                    if (distinctSet.contains(current)) {
+                        continue;
+                    }
+                    if (distinctSet.size() >= spillThreshold) {
+                        spilled = spill(current);
+                        break;
+                    }
+                    distinctSet.add(current);
                     checkMemoryLimit(distinctSet.size(), settings);
                     return;
                 }
             }
+            if (spilled != null && spilled.hasNext()) {
+                current = spilled.next();
+                return;
+            }
             current = null;
             end = true;
+            close();
+        }
+
+        /**
+         * Read the remaining entries (starting with the given entry) into a
+         * sorted temporary file. Entries that can not be serialized are kept
+         * in memory.
+         * 
+         * @param first the first entry
+         * @return an iterator over the unique remaining entries
+         */
+        private Iterator<K> spill(K first) {
+            ArrayList<K> kept = new ArrayList<K>();
+            final StringSort sort = new StringSort(0, ExternalSort.defaultcomparator);
+            files = new TemporaryFiles(this);
+            files.add(sort);
+            boolean success = false;
+            try {
+                K x = first;
+                while (true) {
+                    if (!distinctSet.contains(x)) {
+                        String line = serializer.write(x);
+                        if (line == null) {
+                            distinctSet.add(x);
+                            kept.add(x);
+                            checkMemoryLimit(distinctSet.size(), settings);
+                        } else {
+                            sort.add(line);
+                        }
+                    }
+                    if (!source.hasNext()) {
+                        break;
+                    }
+                    x = source.next();
+                }
+                sort.sort();
+                LOG.debug("Distinct: {} entries written to a temporary file", sort.getSize());
+                Iterator<K> it = Iterators.concat(kept.iterator(), new AbstractIterator<K>() {
+
+                    private final Iterator<String> it = sort.getIds();
+                    private K last;
+
+                    @Override
+                    protected K computeNext() {
+                        while (it.hasNext()) {
+                            K x = serializer.read(it.next());
+                            // lines of equal entries start with the same text,
+                            // so they are next to each other
+                            if (!x.equals(last)) {
+                                last = x;
+                                return x;
+                            }
+                        }
+                        return endOfData();
+                    }
+
+                });
+                success = true;
+                return it;
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write temporary file", e);
+            } finally {
+                if (!success) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Delete the temporary files, if any. No entries are returned after
+         * that.
+         */
+        @Override
+        public void close() {
+            if (files != null) {
+                files.close();
+                files = null;
+            }
+            if (spilled != null) {
+                spilled = Iterators.emptyIterator();
+            }
         }
 
         @Override
@@ -176,34 +366,53 @@ public class FilterIterators {
     /**
      * An iterator that returns entries in sorted order. The internal list of
      * sorted entries can be limited to a given number of entries, and the
-     * entries are only read when needed (on demand).
+     * entries are only read when needed (on demand). If the list reaches the
+     * spill threshold, it is sorted and written to a temporary file, and the
+     * files are merged at the end.
      * 
      * @param <K> the entry type
      */
-    static class SortIterator<K> implements Iterator<K> {
+    static class SortIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final QueryEngineSettings settings;
+        private final Serializer<K> serializer;
         private final Comparator<K> orderBy;
+        private final ArrayList<Iterator<K>> runs = new ArrayList<Iterator<K>>();
+        private TemporaryFiles files;
         private Iterator<K> result;
         private final int max;
 
-        SortIterator(Iterator<K> source, Comparator<K> orderBy, int max, QueryEngineSettings settings) {
+        SortIterator(Iterator<K> source, Comparator<K> orderBy, int max, 
+                QueryEngineSettings settings, Serializer<K> serializer) {
             this.source = source;
             this.orderBy = orderBy;
             this.max = max;
             this.settings = settings;
+            this.serializer = serializer;
         }
         
         private void init() {
             if (result != null) {
                 return;
             }
+            boolean success = false;
+            try {
+                result = read();
+                success = true;
+            } finally {
+                if (!success) {
+                    close();
+                }
+            }
+        }
+
+        private Iterator<K> read() {
+            long spillThreshold = getSpillThreshold(settings, serializer);
             ArrayList<K> list = new ArrayList<K>();
             while (source.hasNext()) {
                 K x = source.next();
                 list.add(x);
-                checkMemoryLimit(list.size(), settings);
                 // from time to time, sort and truncate
                 // this should need less than O(n*log(3*keep)) operations,
                 // which is close to the optimum O(n*log(keep))
@@ -212,10 +421,71 @@ public class FilterIterators {
                     Collections.sort(list, orderBy);
                     keepFirst(list, max);
                 }
+                if (list.size() >= spillThreshold) {
+                    Collections.sort(list, orderBy);
+                    keepFirst(list, max);
+                    if (list.size() >= spillThreshold) {
+                        if (spill(list)) {
+                            list.clear();
+                        } else {
+                            // continue in memory
+                            spillThreshold = Long.MAX_VALUE;
+                        }
+                    }
+                }
+                checkMemoryLimit(list.size(), settings);
             }
             Collections.sort(list, orderBy);
             keepFirst(list, max);
-            result = list.iterator();
+            if (runs.isEmpty()) {
+                return list.iterator();
+            }
+            LOG.debug("Sort: merging {} temporary files", runs.size());
+            runs.add(list.iterator());
+            Iterator<K> it = Iterators.limit(Iterators.mergeSorted(runs, orderBy), max);
+            runs.clear();
+            return it;
+        }
+
+        /**
+         * Write a sorted list to a temporary file.
+         * 
+         * @param list the list
+         * @return whether the list could be written
+         */
+        private boolean spill(List<K> list) {
+            File file = null;
+            try {
+                file = File.createTempFile("oak-query-sort-", ".txt");
+                BufferedWriter writer = Files.newWriter(file, Charsets.UTF_8);
+                try {
+                    for (K x : list) {
+                        String line = serializer.write(x);
+                        if (line == null) {
+                            return false;
+                        }
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                } finally {
+                    writer.close();
+                }
+                FileIterator<K> run = new FileIterator<K>(file, serializer);
+                if (files == null) {
+                    files = new TemporaryFiles(this);
+                }
+                files.add(run);
+                runs.add(run);
+                file = null;
+                return true;
+            } catch (IOException e) {
+                LOG.warn("Could not write temporary file, sorting in memory", e);
+                return false;
+            } finally {
+                if (file != null) {
+                    file.delete();
+                }
+            }
         }
         
         /**
@@ -235,7 +505,12 @@ public class FilterIterators {
         @Override
         public boolean hasNext() {
             init();
-            return result.hasNext();
+            if (result.hasNext()) {
+                return true;
+            }
+            // the merged runs may not have been read completely
+            close();
+            return false;
         }
 
         @Override
@@ -248,16 +523,170 @@ public class FilterIterators {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        /**
+         * Delete the temporary files, if any. No entries are returned after
+         * that.
+         */
+        @Override
+        public void close() {
+            if (files != null) {
+                files.close();
+                files = null;
+                result = Iterators.emptyIterator();
+            }
+            runs.clear();
+        }
         
     }
     
+    /**
+     * An iterator over the entries of a temporary file. The file is deleted
+     * when all entries were read.
+     * 
+     * @param <K> the entry type
+     */
+    static class FileIterator<K> extends AbstractIterator<K> implements Closeable {
+
+        private final File file;
+        private final Serializer<K> serializer;
+        private BufferedReader reader;
+
+        FileIterator(File file, Serializer<K> serializer) {
+            this.file = file;
+            this.serializer = serializer;
+        }
+
+        @Override
+        protected K computeNext() {
+            try {
+                if (reader == null) {
+                    reader = Files.newReader(file, Charsets.UTF_8);
+                }
+                String line = reader.readLine();
+                if (line != null) {
+                    return serializer.read(line);
+                }
+                close();
+                return endOfData();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read temporary file " + file, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } finally {
+                file.delete();
+            }
+        }
+
+    }
+
+    /**
+     * The temporary files of a sort or distinct iterator. If the iterator is
+     * garbage collected before the files were deleted (because not all
+     * entries were read), they are deleted when the next iterator writes
+     * temporary files.
+     */
+    static class TemporaryFiles implements Closeable {
+
+        private static final ReferenceQueue<Object> ABANDONED = 
+                new ReferenceQueue<Object>();
+
+        /**
+         * The references to the iterators that have temporary files (the
+         * references themselves need to be reachable).
+         */
+        private static final Set<IteratorReference> OPEN = 
+                Collections.synchronizedSet(new HashSet<IteratorReference>());
+
+        private final ArrayList<Closeable> list = new ArrayList<Closeable>();
+        private final IteratorReference ref;
+
+        TemporaryFiles(Iterator<?> iterator) {
+            closeAbandoned();
+            ref = new IteratorReference(iterator, this);
+            OPEN.add(ref);
+        }
+
+        synchronized void add(Closeable file) {
+            list.add(file);
+        }
+
+        @Override
+        public synchronized void close() {
+            for (Closeable c : list) {
+                closeQuietly(c);
+            }
+            list.clear();
+            OPEN.remove(ref);
+        }
+
+        /**
+         * Delete the temporary files of iterators that were garbage collected.
+         */
+        static void closeAbandoned() {
+            while (true) {
+                Reference<?> r = ABANDONED.poll();
+                if (r == null) {
+                    break;
+                }
+                LOG.debug("Deleting the temporary files of an abandoned query result");
+                ((IteratorReference) r).files.close();
+            }
+        }
+
+        /**
+         * @return the number of iterators that have temporary files
+         */
+        static int getOpenCount() {
+            return OPEN.size();
+        }
+
+    }
+
+    private static class IteratorReference extends PhantomReference<Object> {
+
+        final TemporaryFiles files;
+
+        IteratorReference(Iterator<?> iterator, TemporaryFiles files) {
+            super(iterator, TemporaryFiles.ABANDONED);
+            this.files = files;
+        }
+
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            LOG.warn("Could not delete temporary files", e);
+        }
+    }
+
+    /**
+     * Close an iterator, if it has temporary files.
+     * 
+     * @param it the iterator
+     */
+    static void close(Iterator<?> it) {
+        if (it instanceof Closeable) {
+            closeQuietly((Closeable) it);
+        }
+    }
+
     /**
      * An iterator that ignores the first number of entries. Entries are only
      * read when needed (on demand).
      * 
      * @param <K> the entry type
      */
-    static class OffsetIterator<K> implements Iterator<K> {
+    static class OffsetIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final long offset;
@@ -294,6 +723,11 @@ public class FilterIterators {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            FilterIterators.close(source);
+        }
         
     }
     
@@ -303,7 +737,7 @@ public class FilterIterators {
      * 
      * @param <K> the entry type
      */
-    static class LimitIterator<K> implements Iterator<K> {
+    static class LimitIterator<K> implements Iterator<K>, Closeable {
 
         private final Iterator<K> source;
         private final long limit;
@@ -316,7 +750,12 @@ public class FilterIterators {
         
         @Override
         public boolean hasNext() {
-            return count < limit && source.hasNext();
+            if (count < limit) {
+                return source.hasNext();
+            }
+            // the remaining entries are not needed
+            close();
+            return false;
         }
 
         @Override
@@ -332,6 +771,11 @@ public class FilterIterators {
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            FilterIterators.close(source);
+        }
         
     }
 
@@ -92,13 +92,27 @@ public abstract class QueryEngineImpl implements QueryEngine {
     public List<String> getBindVariableNames(
             String statement, String language, Map<String, String> mappings)
             throws ParseException {
-        Query q = parseQuery(statement, language, getExecutionContext(), mappings);
+        Query q = parseQuery(statement, language, getExecutionContext(), mappings, null);
         return q.getBindVariableNames();
     }
 
+    /**
+     * Parse the query.
+     *
+     * @param statement the statement
+     * @param language the query language
+     * @param context the execution context
+     * @param mappings namespace prefix mappings
+     * @param planEntry the query plan cache entry, or null. If it contains
+     *            the converted SQL-2 statement of an XPath query, the
+     *            conversion is skipped; otherwise the converted statement is
+     *            stored in the entry
+     * @return the query
+     */
     private static Query parseQuery(
             String statement, String language, ExecutionContext context,
-            Map<String, String> mappings) throws ParseException {
+            Map<String, String> mappings, QueryPlanCache.Entry planEntry)
+            throws ParseException {
         
         boolean isInternal = SQL2Parser.isInternal(statement);
         if (isInternal) {
@@ -127,9 +141,15 @@ public abstract class QueryEngineImpl implements QueryEngine {
             parser.setSupportSQL1(true);
             return parser.parse(statement);
         } else if (XPATH.equals(language)) {
-            XPathToSQL2Converter converter = new XPathToSQL2Converter();
-            String sql2 = converter.convert(statement);
-            LOG.debug("XPath > SQL2: {}", sql2);
+            String sql2 = planEntry == null ? null : planEntry.getConvertedStatement();
+            if (sql2 == null) {
+                XPathToSQL2Converter converter = new XPathToSQL2Converter();
+                sql2 = converter.convert(statement);
+                LOG.debug("XPath > SQL2: {}", sql2);
+                if (planEntry != null) {
+                    planEntry.setConvertedStatement(sql2);
+                }
+            }
             try {
                 // OAK-874: No artificial XPath selector name in wildcards
                 parser.setIncludeSelectorNameInWildcardColumns(false);
@@ -166,7 +186,12 @@ public abstract class QueryEngineImpl implements QueryEngine {
         }
 
         ExecutionContext context = getExecutionContext();
-        Query q = parseQuery(statement, language, context, mappings);
+        QueryPlanCache planCache = context.getSettings().getQueryPlanCache();
+        QueryPlanCache.Entry planEntry = planCache.get(statement, language);
+        if (planEntry == null) {
+            planEntry = planCache.put(statement, language);
+        }
+        Query q = parseQuery(statement, language, context, mappings, planEntry);
         q.setExecutionContext(context);
         q.setLimit(limit);
         q.setOffset(offset);
@@ -176,6 +201,9 @@ public abstract class QueryEngineImpl implements QueryEngine {
             }
         }
         q.setTraversalEnabled(traversalEnabled);
+        if (q instanceof QueryImpl) {
+            ((QueryImpl) q).setPlanEntry(planEntry);
+        }
 
         boolean mdc = false;
         try {
@@ -34,6 +34,12 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean {
     private static final boolean DEFAULT_FULL_TEXT_COMPARISON_WITHOUT_INDEX = 
             Boolean.getBoolean("oak.queryFullTextComparisonWithoutIndex");
     
+    private static final long DEFAULT_JOIN_LOOKUP_LIMIT = 
+            Long.getLong("oak.queryJoinLookupLimit", 100000);
+    
+    private static final long DEFAULT_SPILL_THRESHOLD = 
+            Long.getLong("oak.querySpillThreshold", 100000);
+    
     private long limitInMemory = DEFAULT_QUERY_LIMIT_IN_MEMORY;
     
     private long limitReads = DEFAULT_QUERY_LIMIT_READS;
@@ -41,6 +47,12 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean {
     private boolean fullTextComparisonWithoutIndex = 
             DEFAULT_FULL_TEXT_COMPARISON_WITHOUT_INDEX;
     
+    private long joinLookupLimit = DEFAULT_JOIN_LOOKUP_LIMIT;
+    
+    private long spillThreshold = DEFAULT_SPILL_THRESHOLD;
+    
+    private volatile QueryPlanCache queryPlanCache;
+    
     /**
      * Get the limit on how many nodes a query may read at most into memory, for
      * "order by" and "distinct" queries. If this limit is exceeded, the query
@@ -93,4 +105,67 @@ public class QueryEngineSettings implements QueryEngineSettingsMBean {
         return fullTextComparisonWithoutIndex;
     }
     
+    /**
+     * Get the maximum number of rows of the right hand side of a join that
+     * are kept in memory for a hash join or a batched lookup. If there are
+     * more rows, the join is continued as a nested loop join. Hash joins and
+     * batched lookups are not used if this limit is not lower than the limit
+     * on the nodes read in memory.
+     * 
+     * @return the limit
+     */
+    public long getJoinLookupLimit() {
+        return joinLookupLimit;
+    }
+    
+    /**
+     * Change the limit.
+     * 
+     * @param joinLookupLimit the new limit
+     */
+    public void setJoinLookupLimit(long joinLookupLimit) {
+        this.joinLookupLimit = joinLookupLimit;
+    }
+    
+    /**
+     * Get the number of rows that "order by" and "distinct" queries keep in
+     * memory. If there are more rows, they are written to temporary files.
+     * Temporary files are not used if this threshold is not lower than the
+     * limit on the nodes read in memory.
+     * 
+     * @return the threshold
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+    
+    /**
+     * Change the threshold.
+     * 
+     * @param spillThreshold the new threshold
+     */
+    public void setSpillThreshold(long spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+    
+    /**
+     * Get the cache of query plans, which is shared by all queries that use
+     * these settings. The cache is created when first used.
+     * 
+     * @return the query plan cache
+     */
+    public QueryPlanCache getQueryPlanCache() {
+        QueryPlanCache cache = queryPlanCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = queryPlanCache;
+                if (cache == null) {
+                    cache = new QueryPlanCache();
+                    queryPlanCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+    
 }
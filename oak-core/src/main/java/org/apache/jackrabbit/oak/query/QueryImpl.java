@@ -16,6 +16,7 @@ package org.apache.jackrabbit.oak.query;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -136,6 +137,11 @@ public class QueryImpl implements Query {
      */
     private boolean traversalEnabled = true;
 
+    /**
+     * The query plan cache entry of this statement, or null.
+     */
+    private QueryPlanCache.Entry planEntry;
+
     private OrderingImpl[] orderings;
     private ColumnImpl[] columns;
     
@@ -479,13 +485,18 @@ public class QueryImpl implements Query {
         }
         final RowIterator rowIt = new RowIterator(context.getBaseState());
         Comparator<ResultRowImpl> orderBy;
+        FilterIterators.Serializer<ResultRowImpl> serializer;
         if (isSortedByIndex) {
             orderBy = null;
+            // rows are not written to temporary files,
+            // as that would change the order of distinct rows
+            serializer = null;
         } else {
             orderBy = ResultRowImpl.getComparator(orderings);
+            serializer = ResultRowImpl.newSerializer();
         }
         Iterator<ResultRowImpl> it =
-                FilterIterators.newCombinedFilter(rowIt, distinct, limit, offset, orderBy, settings);
+                FilterIterators.newCombinedFilter(rowIt, distinct, limit, offset, orderBy, settings, serializer);
         if (measure) {
             // return the measuring iterator delegating the readCounts to the rowIterator
             it = new MeasuringIterator(this, it) {
@@ -893,14 +904,58 @@ public class QueryImpl implements Query {
         this.traversalEnabled = traversalEnabled;
     }
 
+    /**
+     * Set the query plan cache entry of this statement. For queries with a
+     * single selector, the index chosen in a previous execution is tried
+     * first, and the chosen index is stored in the entry.
+     *
+     * @param planEntry the entry, or null
+     */
+    void setPlanEntry(QueryPlanCache.Entry planEntry) {
+        this.planEntry = planEntry;
+    }
+
     public SelectorExecutionPlan getBestSelectorExecutionPlan(FilterImpl filter) {
-        return getBestSelectorExecutionPlan(context.getBaseState(), filter,
-                context.getIndexProvider(), traversalEnabled);
+        NodeState rootState = context.getBaseState();
+        QueryIndexProvider indexProvider = context.getIndexProvider();
+        List<? extends QueryIndex> indexes = indexProvider.getQueryIndexes(rootState);
+        QueryPlanCache.Entry entry = selectors.size() == 1 ? planEntry : null;
+        long fingerprint = 0;
+        if (entry != null) {
+            fingerprint = QueryPlanCache.getFingerprint(rootState, filter.getPath());
+            QueryPlanCache.IndexChoice choice = entry.getIndexChoice(fingerprint);
+            QueryIndex cached = null;
+            if (choice != null) {
+                for (QueryIndex index : indexes) {
+                    if (choice.getIndexName().equals(index.getIndexName())) {
+                        cached = index;
+                        break;
+                    }
+                }
+            }
+            if (cached != null) {
+                // the other indexes are not asked, so only use the index
+                // as long as it did not get more expensive
+                SelectorExecutionPlan plan = getBestSelectorExecutionPlan(
+                        rootState, filter, Collections.singletonList(cached), false);
+                if (plan.getIndex() != null 
+                        && plan.getEstimatedCost() <= choice.getCost()) {
+                    return plan;
+                }
+            }
+        }
+        SelectorExecutionPlan plan = getBestSelectorExecutionPlan(
+                rootState, filter, indexes, traversalEnabled);
+        if (entry != null && plan.getIndex() != null) {
+            entry.setIndex(plan.getIndex().getIndexName(), 
+                    plan.getEstimatedCost(), fingerprint);
+        }
+        return plan;
     }
 
     private SelectorExecutionPlan getBestSelectorExecutionPlan(
             NodeState rootState, FilterImpl filter,
-            QueryIndexProvider indexProvider, boolean traversalEnabled) {
+            Iterable<? extends QueryIndex> indexes, boolean traversalEnabled) {
         QueryIndex bestIndex = null;
         if (LOG.isDebugEnabled()) {
             logDebug("cost using filter " + filter);
@@ -908,7 +963,7 @@ public class QueryImpl implements Query {
 
         double bestCost = Double.POSITIVE_INFINITY;
         IndexPlan bestPlan = null;
-        for (QueryIndex index : indexProvider.getQueryIndexes(rootState)) {
+        for (QueryIndex index : indexes) {
             double cost;
             String indexName = index.getIndexName();
             IndexPlan indexPlan = null;
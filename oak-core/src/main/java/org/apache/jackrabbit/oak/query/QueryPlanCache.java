@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.cache.CacheStats;
+import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.plugins.memory.AbstractPropertyState;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStateUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of query planning results, shared by all sessions. For each
+ * statement and language, it keeps the SQL-2 statement an XPath query was
+ * converted to, and the index that was chosen for queries with a single
+ * selector. When a cached query is executed again, only the cost of that
+ * index is calculated, as long as it is not higher than before.
+ * <p>
+ * The parsed query itself is not cached, as query objects keep the state of
+ * one execution. The chosen index is only used while the index definitions
+ * that apply to the path of the query have the same fingerprint as when it
+ * was chosen. The fingerprint covers the definitions below the
+ * {@code oak:index} node of the root and of each ancestor of the path; it
+ * does not keep a reference to the node states, so that old revisions are
+ * not held in memory. Hidden nodes and properties, which contain the index
+ * data, are ignored, so that writes to indexed content don't invalidate
+ * the entries.
+ */
+public class QueryPlanCache {
+
+    /**
+     * The maximum number of cached statements.
+     */
+    public static final int DEFAULT_SIZE =
+            Integer.getInteger("oak.queryPlanCacheSize", 1000);
+
+    private final Cache<String, Entry> cache;
+
+    private final CacheStats stats;
+
+    public QueryPlanCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public QueryPlanCache(int size) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+        stats = new CacheStats(cache, "Query plan cache", null, size);
+    }
+
+    /**
+     * Get the entry for a statement.
+     *
+     * @param statement the statement
+     * @param language the query language
+     * @return the entry, or null if there is none
+     */
+    @CheckForNull
+    Entry get(String statement, String language) {
+        return cache.getIfPresent(getKey(statement, language));
+    }
+
+    /**
+     * Add an entry for a statement.
+     *
+     * @param statement the statement
+     * @param language the query language
+     * @return the new entry
+     */
+    @Nonnull
+    Entry put(String statement, String language) {
+        Entry entry = new Entry();
+        cache.put(getKey(statement, language), entry);
+        return entry;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Nonnull
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private static String getKey(String statement, String language) {
+        return language + " " + statement;
+    }
+
+    /**
+     * Calculate the fingerprint of the index definitions that apply to the
+     * given path: the definitions below the {@code oak:index} node of the
+     * root and of each ancestor of the path, including nested
+     * {@code oak:index} nodes. Only the names and the (non-hidden)
+     * properties of the definition nodes are used, which includes the
+     * reindex count, so this is cheap compared to planning the query.
+     *
+     * @param root the root node state
+     * @param path the path of the query
+     * @return the fingerprint
+     */
+    static long getFingerprint(NodeState root, String path) {
+        long fingerprint = getFingerprint(root.getChildNode(INDEX_DEFINITIONS_NAME));
+        NodeState node = root;
+        for (String name : PathUtils.elements(path)) {
+            node = node.getChildNode(name);
+            if (!node.exists()) {
+                break;
+            }
+            fingerprint = 31 * fingerprint
+                    + getFingerprint(node.getChildNode(INDEX_DEFINITIONS_NAME));
+        }
+        return fingerprint;
+    }
+
+    private static long getFingerprint(NodeState definitions) {
+        if (!definitions.exists()) {
+            return 0;
+        }
+        // the sum does not depend on the order of the child nodes
+        // and properties
+        long fingerprint = 1;
+        for (ChildNodeEntry e : definitions.getChildNodeEntries()) {
+            String name = e.getName();
+            if (NodeStateUtils.isHidden(name)) {
+                continue;
+            }
+            long h = name.hashCode();
+            for (PropertyState p : e.getNodeState().getProperties()) {
+                if (!NodeStateUtils.isHidden(p.getName())) {
+                    h += AbstractPropertyState.toString(p).hashCode();
+                }
+            }
+            fingerprint += h * 0x9e3779b97f4a7c15L;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * The cached results for one statement.
+     */
+    static final class Entry {
+
+        private volatile String convertedStatement;
+
+        private volatile IndexChoice indexChoice;
+
+        /**
+         * @return the SQL-2 statement of an XPath query, or null
+         */
+        @CheckForNull
+        String getConvertedStatement() {
+            return convertedStatement;
+        }
+
+        void setConvertedStatement(String convertedStatement) {
+            this.convertedStatement = convertedStatement;
+        }
+
+        /**
+         * Get the chosen index, if it was chosen for index definitions with
+         * the given fingerprint.
+         *
+         * @param fingerprint the fingerprint of the current index definitions
+         * @return the chosen index, or null
+         */
+        @CheckForNull
+        IndexChoice getIndexChoice(long fingerprint) {
+            IndexChoice c = indexChoice;
+            return c != null && c.fingerprint == fingerprint ? c : null;
+        }
+
+        void setIndex(String indexName, double cost, long fingerprint) {
+            indexChoice = new IndexChoice(indexName, cost, fingerprint);
+        }
+
+    }
+
+    /**
+     * The index chosen for a statement, and its cost at that time.
+     */
+    static final class IndexChoice {
+
+        private final String indexName;
+
+        private final double cost;
+
+        private final long fingerprint;
+
+        IndexChoice(String indexName, double cost, long fingerprint) {
+            this.indexName = indexName;
+            this.cost = cost;
+            this.fingerprint = fingerprint;
+        }
+
+        @Nonnull
+        String getIndexName() {
+            return indexName;
+        }
+
+        double getCost() {
+            return cost;
+        }
+
+    }
+
+}
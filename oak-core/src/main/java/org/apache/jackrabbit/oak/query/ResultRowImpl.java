@@ -16,13 +16,23 @@
  */
 package org.apache.jackrabbit.oak.query;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+
+import javax.jcr.PropertyType;
 
 import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.ResultRow;
 import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.commons.json.JsopBuilder;
+import org.apache.jackrabbit.oak.commons.json.JsopReader;
+import org.apache.jackrabbit.oak.commons.json.JsopTokenizer;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
 import org.apache.jackrabbit.oak.query.ast.ColumnImpl;
 import org.apache.jackrabbit.oak.query.ast.OrderingImpl;
 import org.apache.jackrabbit.oak.query.fulltext.SimpleExcerptProvider;
@@ -249,4 +259,217 @@ public class ResultRowImpl implements ResultRow {
 
     }
 
+    /**
+     * Create a serializer for rows, so that sort and distinct operations can
+     * write them to temporary files. Rows with binary values are not
+     * serialized.
+     * 
+     * @return the serializer
+     */
+    static FilterIterators.Serializer<ResultRowImpl> newSerializer() {
+        return new RowSerializer();
+    }
+
+    /**
+     * Serializes rows as a JSON array. The paths and the values used to
+     * compare rows come first, followed by the other values, the order values,
+     * and the index of the query of the row.
+     */
+    private static class RowSerializer implements FilterIterators.Serializer<ResultRowImpl> {
+
+        /**
+         * The queries of the rows (for a union, the rows of both sides are
+         * combined).
+         */
+        private final List<Query> queries = new ArrayList<Query>();
+
+        @Override
+        public String write(ResultRowImpl row) {
+            JsopBuilder buff = new JsopBuilder();
+            buff.array().array();
+            for (Tree t : row.trees) {
+                buff.value(t == null ? null : t.getPath());
+            }
+            buff.endArray();
+            boolean[] distinct = row.distinctValues;
+            if (distinct == null) {
+                buff.value((String) null);
+            } else {
+                buff.array();
+                for (boolean d : distinct) {
+                    buff.value(d);
+                }
+                buff.endArray();
+            }
+            buff.array();
+            for (int i = 0; i < row.values.length; i++) {
+                if (distinct == null || distinct[i]) {
+                    if (!writeValue(buff, row.values[i])) {
+                        return null;
+                    }
+                }
+            }
+            for (int i = 0; i < row.values.length; i++) {
+                if (distinct != null && !distinct[i]) {
+                    if (!writeValue(buff, row.values[i])) {
+                        return null;
+                    }
+                }
+            }
+            buff.endArray();
+            if (row.orderValues == null) {
+                buff.value((String) null);
+            } else {
+                buff.array();
+                for (PropertyValue v : row.orderValues) {
+                    if (!writeValue(buff, v)) {
+                        return null;
+                    }
+                }
+                buff.endArray();
+            }
+            buff.value(getQueryIndex(row.query));
+            buff.endArray();
+            return buff.toString();
+        }
+
+        @Override
+        public ResultRowImpl read(String line) {
+            JsopTokenizer t = new JsopTokenizer(line);
+            t.read('[');
+            List<String> paths = readStrings(t);
+            t.read(',');
+            boolean[] distinct = null;
+            if (!t.matches(JsopReader.NULL)) {
+                t.read('[');
+                ArrayList<Boolean> list = new ArrayList<Boolean>();
+                if (!t.matches(']')) {
+                    do {
+                        boolean d = t.matches(JsopReader.TRUE);
+                        if (!d) {
+                            t.read(JsopReader.FALSE);
+                        }
+                        list.add(d);
+                    } while (t.matches(','));
+                    t.read(']');
+                }
+                distinct = new boolean[list.size()];
+                for (int i = 0; i < distinct.length; i++) {
+                    distinct[i] = list.get(i);
+                }
+            }
+            t.read(',');
+            List<PropertyValue> list = readValues(t);
+            PropertyValue[] values = new PropertyValue[list.size()];
+            int index = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (distinct == null || distinct[i]) {
+                    values[i] = list.get(index++);
+                }
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (distinct != null && !distinct[i]) {
+                    values[i] = list.get(index++);
+                }
+            }
+            t.read(',');
+            PropertyValue[] orderValues = null;
+            if (!t.matches(JsopReader.NULL)) {
+                orderValues = readValues(t).toArray(new PropertyValue[0]);
+            }
+            t.read(',');
+            Query query = queries.get(Integer.parseInt(t.read(JsopReader.NUMBER)));
+            t.read(']');
+            Tree[] trees = new Tree[paths.size()];
+            for (int i = 0; i < trees.length; i++) {
+                String path = paths.get(i);
+                trees[i] = path == null ? null : query.getTree(path);
+            }
+            return new ResultRowImpl(query, trees, values, distinct, orderValues);
+        }
+
+        private int getQueryIndex(Query query) {
+            for (int i = 0; i < queries.size(); i++) {
+                if (queries.get(i) == query) {
+                    return i;
+                }
+            }
+            queries.add(query);
+            return queries.size() - 1;
+        }
+
+        private static boolean writeValue(JsopBuilder buff, PropertyValue v) {
+            if (v == null) {
+                buff.value((String) null);
+                return true;
+            }
+            Type<?> type = v.getType();
+            if (type.tag() == PropertyType.BINARY) {
+                return false;
+            }
+            buff.array().value(type.tag());
+            if (type.isArray()) {
+                buff.array();
+                for (String s : v.getValue(Type.STRINGS)) {
+                    buff.value(s);
+                }
+                buff.endArray();
+            } else {
+                buff.value(v.getValue(Type.STRING));
+            }
+            buff.endArray();
+            return true;
+        }
+
+        private static List<String> readStrings(JsopTokenizer t) {
+            ArrayList<String> list = new ArrayList<String>();
+            t.read('[');
+            if (!t.matches(']')) {
+                do {
+                    list.add(t.matches(JsopReader.NULL) ? null : t.readString());
+                } while (t.matches(','));
+                t.read(']');
+            }
+            return list;
+        }
+
+        private static List<PropertyValue> readValues(JsopTokenizer t) {
+            ArrayList<PropertyValue> list = new ArrayList<PropertyValue>();
+            t.read('[');
+            if (!t.matches(']')) {
+                do {
+                    list.add(readValue(t));
+                } while (t.matches(','));
+                t.read(']');
+            }
+            return list;
+        }
+
+        private static PropertyValue readValue(JsopTokenizer t) {
+            if (t.matches(JsopReader.NULL)) {
+                return null;
+            }
+            t.read('[');
+            int tag = Integer.parseInt(t.read(JsopReader.NUMBER));
+            t.read(',');
+            PropertyState p;
+            if (t.matches('[')) {
+                Type<?> base = Type.fromTag(tag, false);
+                ArrayList<Object> list = new ArrayList<Object>();
+                if (!t.matches(']')) {
+                    do {
+                        list.add(PropertyStates.createProperty("", t.readString(), tag).getValue(base));
+                    } while (t.matches(','));
+                    t.read(']');
+                }
+                p = PropertyStates.createProperty("", list, Type.fromTag(tag, true));
+            } else {
+                p = PropertyStates.createProperty("", t.readString(), tag);
+            }
+            t.read(']');
+            return PropertyValues.create(p);
+        }
+
+    }
+
 }
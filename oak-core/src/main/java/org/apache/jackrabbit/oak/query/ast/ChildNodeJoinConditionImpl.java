@@ -18,6 +18,7 @@
  */
 package org.apache.jackrabbit.oak.query.ast;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.jackrabbit.oak.commons.PathUtils;
@@ -103,4 +104,33 @@ public class ChildNodeJoinConditionImpl extends JoinConditionImpl {
         return available.contains(childSelector) && available.contains(parentSelector);
     }
 
-}
\ No newline at end of file
+    @Override
+    public SelectorImpl getOtherSelector(SelectorImpl s) {
+        if (s.equals(childSelector)) {
+            return parentSelector;
+        } else if (s.equals(parentSelector)) {
+            return childSelector;
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> getJoinKeys(SelectorImpl s) {
+        Set<String> keys = new HashSet<String>();
+        if (s.equals(parentSelector)) {
+            String p = parentSelector.currentPath();
+            if (p != null) {
+                keys.add(p);
+            }
+        } else if (s.equals(childSelector)) {
+            String c = childSelector.currentPath();
+            if (c != null && !PathUtils.denotesRoot(c)) {
+                keys.add(PathUtils.getParentPath(c));
+            }
+        } else {
+            return null;
+        }
+        return keys;
+    }
+
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.jackrabbit.oak.query.ast;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.jackrabbit.oak.commons.PathUtils;
@@ -97,4 +98,35 @@ public class DescendantNodeJoinConditionImpl extends JoinConditionImpl {
         return available.contains(descendantSelector) && available.contains(ancestorSelector);
     }
 
+    @Override
+    public SelectorImpl getOtherSelector(SelectorImpl s) {
+        if (s.equals(descendantSelector)) {
+            return ancestorSelector;
+        } else if (s.equals(ancestorSelector)) {
+            return descendantSelector;
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> getJoinKeys(SelectorImpl s) {
+        Set<String> keys = new HashSet<String>();
+        if (s.equals(ancestorSelector)) {
+            String a = ancestorSelector.currentPath();
+            if (a != null) {
+                keys.add(a);
+            }
+        } else if (s.equals(descendantSelector)) {
+            // the keys of a descendant are all its ancestors
+            String d = descendantSelector.currentPath();
+            while (d != null && !PathUtils.denotesRoot(d)) {
+                d = PathUtils.getParentPath(d);
+                keys.add(d);
+            }
+        } else {
+            return null;
+        }
+        return keys;
+    }
+
 }
@@ -18,11 +18,19 @@
  */
 package org.apache.jackrabbit.oak.query.ast;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.jackrabbit.oak.api.PropertyValue;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
 import org.apache.jackrabbit.oak.query.index.FilterImpl;
 import org.apache.jackrabbit.oak.spi.query.PropertyValues;
+import org.apache.jackrabbit.util.ISO8601;
 
 /**
  * The "a.x = b.y" join condition.
@@ -158,4 +166,109 @@ public class EquiJoinConditionImpl extends JoinConditionImpl {
         return available.contains(selector1) && available.contains(selector2);
     }
 
+    @Override
+    public SelectorImpl getOtherSelector(SelectorImpl s) {
+        if (s.equals(selector1)) {
+            return selector2;
+        } else if (s.equals(selector2)) {
+            return selector1;
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> getJoinKeys(SelectorImpl s) {
+        PropertyValue p;
+        if (s.equals(selector1)) {
+            p = selector1.currentProperty(property1Name);
+        } else if (s.equals(selector2)) {
+            p = selector2.currentProperty(property2Name);
+        } else {
+            return null;
+        }
+        Set<String> keys = new HashSet<String>();
+        if (p != null) {
+            for (int i = 0; i < p.count(); i++) {
+                keys.add(getJoinKey(p.getValue(Type.STRING, i)));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the hash join key of a value. Values that match (possibly after
+     * converting them to the same type) have the same key: numbers and dates
+     * are converted to a canonical form, as their string representation may
+     * differ.
+     * 
+     * @param value the value
+     * @return the key
+     */
+    static String getJoinKey(String value) {
+        if (value.isEmpty()) {
+            return value;
+        }
+        char c = value.charAt(0);
+        if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.') {
+            try {
+                BigDecimal d = new BigDecimal(value);
+                if (d.signum() == 0) {
+                    return "0";
+                }
+                return d.stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                // not a number
+            }
+            if (value.length() >= 10 && value.charAt(4) == '-') {
+                Calendar cal = ISO8601.parse(value);
+                if (cal != null) {
+                    return Long.toString(cal.getTimeInMillis());
+                }
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public List<PropertyValue> getLookupValues(SelectorImpl s) {
+        PropertyValue p;
+        String name;
+        if (s.equals(selector1)) {
+            p = selector2.currentProperty(property2Name);
+            name = property2Name;
+        } else if (s.equals(selector2)) {
+            p = selector1.currentProperty(property1Name);
+            name = property1Name;
+        } else {
+            return null;
+        }
+        List<PropertyValue> list = new ArrayList<PropertyValue>();
+        if (p == null) {
+            return list;
+        }
+        if (!p.isArray()) {
+            list.add(p);
+            return list;
+        }
+        // each value of a multi-valued property is looked up
+        Type<?> base = p.getType().getBaseType();
+        for (int i = 0; i < p.count(); i++) {
+            list.add(PropertyValues.create(PropertyStates.createProperty(
+                    name, p.getValue(base, i), base)));
+        }
+        return list;
+    }
+
+    @Override
+    public boolean restrictLookup(FilterImpl f, List<PropertyValue> values) {
+        if (f.getSelector().equals(selector1)) {
+            f.restrictPropertyAsList(normalizePropertyName(property1Name), values);
+            return true;
+        } else if (f.getSelector().equals(selector2)) {
+            f.restrictPropertyAsList(normalizePropertyName(property2Name), values);
+            return true;
+        }
+        return false;
+    }
+
 }
@@ -13,8 +13,10 @@
  */
 package org.apache.jackrabbit.oak.query.ast;
 
+import java.util.List;
 import java.util.Set;
 
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.query.index.FilterImpl;
 
 /**
@@ -81,4 +83,53 @@ public abstract class JoinConditionImpl extends AstElement {
      */
     public abstract boolean canEvaluate(Set<SourceImpl> available);
 
+    /**
+     * Get the selector on the other side of the join condition.
+     * 
+     * @param s the selector
+     * @return the other selector, or null if the given selector is not part
+     *         of this condition, or if hash joins are not supported
+     */
+    public SelectorImpl getOtherSelector(SelectorImpl s) {
+        return null;
+    }
+
+    /**
+     * Get the hash join keys of the current row of the given selector. The
+     * current rows of the two selectors of this condition can only match if
+     * they have at least one key in common; the condition still needs to be
+     * evaluated for rows that have a common key.
+     * 
+     * @param s the selector
+     * @return the keys (empty if the row can not match), or null if hash
+     *         joins are not supported
+     */
+    public Set<String> getJoinKeys(SelectorImpl s) {
+        return null;
+    }
+
+    /**
+     * Get the values of the current row of the other selector, which are
+     * used to look up matching rows of the given selector in a batch.
+     * 
+     * @param s the selector that is looked up
+     * @return the single values (empty if the row can not match), or null if
+     *         batched lookups are not supported
+     */
+    public List<PropertyValue> getLookupValues(SelectorImpl s) {
+        return null;
+    }
+
+    /**
+     * Restrict the filter of the selector that is looked up to the rows that
+     * match one of the given values (see {@link #getLookupValues(SelectorImpl)}).
+     * 
+     * @param f the filter
+     * @param values the values
+     * @return true if batched lookups are supported
+     */
+    public boolean restrictLookup(FilterImpl f, List<PropertyValue> values) {
+        return false;
+    }
+
 }
@@ -14,20 +14,51 @@
 package org.apache.jackrabbit.oak.query.ast;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.jackrabbit.oak.api.PropertyValue;
 import org.apache.jackrabbit.oak.api.Result.SizePrecision;
+import org.apache.jackrabbit.oak.query.QueryEngineSettings;
+import org.apache.jackrabbit.oak.query.index.TraversingIndex;
 import org.apache.jackrabbit.oak.query.plan.ExecutionPlan;
 import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan;
+import org.apache.jackrabbit.oak.query.plan.JoinExecutionPlan.Strategy;
+import org.apache.jackrabbit.oak.query.plan.SelectorExecutionPlan;
 import org.apache.jackrabbit.oak.spi.query.Filter;
+import org.apache.jackrabbit.oak.spi.query.IndexRow;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex;
+import org.apache.jackrabbit.oak.spi.query.QueryIndex.IndexPlan;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A join. This object contains the left hand side source, the right hand side
  * source, the join type, and the join condition.
+ * <p>
+ * If the right hand side is a selector, the join is executed using the
+ * cheapest of the following strategies: a nested loop join (the right hand
+ * side is executed for each row of the left hand side), a hash join (the
+ * right hand side is read once, and kept in memory), or batched lookups (the
+ * right hand side is executed once for a number of rows of the left hand
+ * side, for equality joins).
  */
 public class JoinImpl extends SourceImpl {
 
+    private static final Logger LOG = LoggerFactory.getLogger(JoinImpl.class);
+
+    /**
+     * The number of rows of the left hand side that are looked up at once.
+     */
+    static final int BATCH_SIZE = 
+            Integer.getInteger("oak.queryJoinBatchSize", 100);
+
     private final JoinConditionImpl joinCondition;
     private JoinType joinType;
     private SourceImpl left;
@@ -41,6 +72,24 @@ public class JoinImpl extends SourceImpl {
     
     private JoinExecutionPlan plan;
 
+    /**
+     * The strategy of the current execution, which is changed to a nested
+     * loop join if there are too many rows to keep in memory.
+     */
+    private Strategy strategy;
+
+    /**
+     * The rows of the right hand side by join key, for a hash join or the
+     * current batch.
+     */
+    private Map<String, List<IndexRow>> lookupRows;
+
+    /**
+     * The rows of the left hand side of the current batch.
+     */
+    private List<IndexRow> leftBatch;
+    private int leftBatchIndex;
+
     public JoinImpl(SourceImpl left, SourceImpl right, JoinType joinType,
             JoinConditionImpl joinCondition) {
         this.left = left;
@@ -102,10 +151,23 @@ public class JoinImpl extends SourceImpl {
         buff.append(left.getPlan(rootState)).
             append(' ').
             append(joinType).
-            append(' ').
-            append(right.getPlan(rootState)).
-            append(" on ").
+            append(' ');
+        Strategy s = plan == null ? Strategy.NESTED_LOOP : plan.getStrategy();
+        if (s == Strategy.NESTED_LOOP) {
+            buff.append(right.getPlan(rootState));
+        } else {
+            JoinConditionImpl lookupCondition = 
+                    s == Strategy.BATCHED_LOOKUP ? joinCondition : null;
+            buff.append(((SelectorImpl) right).getLookupPlan(rootState, 
+                    plan.getLookupPlan(), lookupCondition, 1));
+        }
+        buff.append(" on ").
             append(joinCondition);
+        if (s == Strategy.HASH) {
+            buff.append(" /* hash join */");
+        } else if (s == Strategy.BATCHED_LOOKUP) {
+            buff.append(" /* batched lookup */");
+        }
         return buff.toString();
     }
 
@@ -178,10 +240,115 @@ public class JoinImpl extends SourceImpl {
         ExecutionPlan leftPlan = left.prepare();
         ExecutionPlan rightPlan = right.prepare();
         double cost = leftPlan.getEstimatedCost() + 2 * rightPlan.getEstimatedCost();
-        plan = new JoinExecutionPlan(this, leftPlan, rightPlan, cost);
+        plan = createPlan(leftPlan, rightPlan, cost);
         return plan;
     }
 
+    private JoinExecutionPlan createPlan(ExecutionPlan leftPlan,
+            ExecutionPlan rightPlan, double cost) {
+        SelectorImpl s = getLookupSelector();
+        if (s == null || getMaxLookupRows(s) < 0) {
+            return new JoinExecutionPlan(this, leftPlan, rightPlan, cost);
+        }
+        // the cost of the join strategies is only used to pick the strategy,
+        // and not to order joins, so that the join order doesn't change
+        double leftCost = leftPlan.getEstimatedCost();
+        double leftRows = estimateRowCount(leftPlan);
+        Strategy bestStrategy = Strategy.NESTED_LOOP;
+        SelectorExecutionPlan bestLookupPlan = null;
+        double bestCost = leftCost + leftRows * rightPlan.getEstimatedCost();
+        SelectorExecutionPlan hashPlan = 
+                isIndexedLookup(s, rightPlan) ? null : s.prepareLookup(null, 0);
+        if (hashPlan != null && hashPlan.getIndex() != null 
+                && hashPlan.getEstimatedCost() <= rightPlan.getEstimatedCost()
+                && estimateRowCount(hashPlan) <= getMaxLookupRows(s)) {
+            double c = leftCost + hashPlan.getEstimatedCost();
+            if (c < bestCost) {
+                bestCost = c;
+                bestStrategy = Strategy.HASH;
+                bestLookupPlan = hashPlan;
+            }
+        }
+        if (joinType == JoinType.INNER && left instanceof SelectorImpl) {
+            SelectorExecutionPlan batchPlan = s.prepareLookup(joinCondition, BATCH_SIZE);
+            if (batchPlan != null && batchPlan.getIndex() != null) {
+                double c = leftCost + Math.ceil(leftRows / BATCH_SIZE) 
+                        * batchPlan.getEstimatedCost();
+                if (c < bestCost) {
+                    bestCost = c;
+                    bestStrategy = Strategy.BATCHED_LOOKUP;
+                    bestLookupPlan = batchPlan;
+                }
+            }
+        }
+        return new JoinExecutionPlan(this, leftPlan, rightPlan, cost,
+                bestStrategy, bestLookupPlan);
+    }
+
+    /**
+     * Get the right hand side selector, if the join can be executed as a
+     * hash join or using batched lookups.
+     * 
+     * @return the selector, or null
+     */
+    private SelectorImpl getLookupSelector() {
+        if (joinType == JoinType.RIGHT_OUTER || !(right instanceof SelectorImpl)) {
+            return null;
+        }
+        SelectorImpl s = (SelectorImpl) right;
+        SelectorImpl other = joinCondition.getOtherSelector(s);
+        if (other == null || left.getSelector(other.getSelectorName()) != other) {
+            return null;
+        }
+        return s;
+    }
+
+    /**
+     * Whether the right hand side of a nested loop join is looked up using
+     * an index, or by traversing only the nodes at the path given by the
+     * join condition. In this case, the hash join is not used, as it would
+     * read all nodes without the join restriction, and the row count
+     * estimates of the left hand side are not reliable enough to tell
+     * whether that is cheaper.
+     * 
+     * @param s the right hand side selector
+     * @param rightPlan the plan of the right hand side of a nested loop join
+     * @return true if the lookups use an index or a path from the join
+     */
+    private static boolean isIndexedLookup(SelectorImpl s, ExecutionPlan rightPlan) {
+        if (!(rightPlan instanceof SelectorExecutionPlan)) {
+            return false;
+        }
+        QueryIndex index = ((SelectorExecutionPlan) rightPlan).getIndex();
+        if (index != null && !(index instanceof TraversingIndex)) {
+            return true;
+        }
+        return s.createFilter(true).hasJoinPathRestriction();
+    }
+
+    private static double estimateRowCount(ExecutionPlan p) {
+        if (p instanceof SelectorExecutionPlan) {
+            IndexPlan indexPlan = ((SelectorExecutionPlan) p).getIndexPlan();
+            if (indexPlan != null) {
+                return indexPlan.getEstimatedEntryCount();
+            }
+        }
+        return Math.max(1, p.getEstimatedCost());
+    }
+
+    /**
+     * Get the maximum number of rows of the right hand side that are kept in
+     * memory (see {@link QueryEngineSettings#getJoinLookupLimit()}).
+     * 
+     * @param s the right hand side selector
+     * @return the limit, or -1 if no rows may be kept in memory
+     */
+    private static long getMaxLookupRows(SelectorImpl s) {
+        QueryEngineSettings settings = s.getQuery().getSettings();
+        long max = settings.getJoinLookupLimit();
+        return max < settings.getLimitInMemory() ? max : -1;
+    }
+
     @Override
     public SelectorImpl getSelector(String selectorName) {
         SelectorImpl s = left.getSelector(selectorName);
@@ -196,6 +363,9 @@ public class JoinImpl extends SourceImpl {
         this.rootState = rootState;
         leftNeedExecute = true;
         end = false;
+        strategy = plan == null ? Strategy.NESTED_LOOP : plan.getStrategy();
+        lookupRows = null;
+        leftBatch = null;
     }
 
     @Override
@@ -234,7 +404,7 @@ public class JoinImpl extends SourceImpl {
         }
         while (true) {
             if (leftNeedNext) {
-                if (!left.next()) {
+                if (!nextLeft()) {
                     end = true;
                     return false;
                 }
@@ -242,7 +412,7 @@ public class JoinImpl extends SourceImpl {
                 rightNeedExecute = true;
             }
             if (rightNeedExecute) {
-                right.execute(rootState);
+                executeRight();
                 foundJoinedRow = false;
                 rightNeedExecute = false;
             }
@@ -262,6 +432,114 @@ public class JoinImpl extends SourceImpl {
         }
     }
     
+    private boolean nextLeft() {
+        if (leftBatch != null && leftBatchIndex < leftBatch.size()) {
+            ((SelectorImpl) left).setCurrentRow(leftBatch.get(leftBatchIndex++));
+            return true;
+        }
+        leftBatch = null;
+        if (strategy != Strategy.BATCHED_LOOKUP) {
+            return left.next();
+        }
+        return readLeftBatch() && nextLeft();
+    }
+
+    /**
+     * Read the next batch of rows of the left hand side, and look up the
+     * matching rows of the right hand side.
+     * 
+     * @return false if there are no more rows
+     */
+    private boolean readLeftBatch() {
+        SelectorImpl l = (SelectorImpl) left;
+        SelectorImpl r = (SelectorImpl) right;
+        List<IndexRow> rows = new ArrayList<IndexRow>(BATCH_SIZE);
+        Set<PropertyValue> values = new LinkedHashSet<PropertyValue>();
+        while (rows.size() < BATCH_SIZE && l.next()) {
+            rows.add(l.getCurrentRow());
+            values.addAll(joinCondition.getLookupValues(r));
+        }
+        if (rows.isEmpty()) {
+            return false;
+        }
+        leftBatch = rows;
+        leftBatchIndex = 0;
+        lookupRows = Collections.emptyMap();
+        if (!values.isEmpty()) {
+            r.executeLookup(rootState, plan.getLookupPlan(), joinCondition, 
+                    new ArrayList<PropertyValue>(values));
+            readLookupRows(r);
+        }
+        return true;
+    }
+
+    private void executeRight() {
+        if (strategy == Strategy.HASH && lookupRows == null) {
+            SelectorImpl r = (SelectorImpl) right;
+            r.executeLookup(rootState, plan.getLookupPlan(), null, null);
+            readLookupRows(r);
+        }
+        if (strategy == Strategy.NESTED_LOOP) {
+            right.execute(rootState);
+            return;
+        }
+        SelectorImpl r = (SelectorImpl) right;
+        Set<String> keys = joinCondition.getJoinKeys(joinCondition.getOtherSelector(r));
+        r.setRows(getLookupRows(keys));
+    }
+
+    /**
+     * Read the rows of the right hand side, and keep them by join key. If
+     * there are too many rows, the join is continued as a nested loop join.
+     * 
+     * @param r the right hand side selector
+     */
+    private void readLookupRows(SelectorImpl r) {
+        long max = getMaxLookupRows(r);
+        Map<String, List<IndexRow>> map = new HashMap<String, List<IndexRow>>();
+        long count = 0;
+        while (r.next()) {
+            if (++count > max) {
+                LOG.debug("More than {} rows for {}, using a nested loop join", max, this);
+                strategy = Strategy.NESTED_LOOP;
+                lookupRows = null;
+                return;
+            }
+            IndexRow row = r.getCurrentRow();
+            for (String k : joinCondition.getJoinKeys(r)) {
+                List<IndexRow> list = map.get(k);
+                if (list == null) {
+                    list = new ArrayList<IndexRow>(1);
+                    map.put(k, list);
+                }
+                list.add(row);
+            }
+        }
+        lookupRows = map;
+    }
+
+    private List<IndexRow> getLookupRows(Set<String> keys) {
+        if (keys.size() == 1) {
+            List<IndexRow> list = lookupRows.get(keys.iterator().next());
+            return list == null ? Collections.<IndexRow>emptyList() : list;
+        }
+        // a row may match multiple keys, but must only be returned once
+        Set<IndexRow> set = Collections.newSetFromMap(
+                new IdentityHashMap<IndexRow, Boolean>());
+        List<IndexRow> result = new ArrayList<IndexRow>();
+        for (String k : keys) {
+            List<IndexRow> list = lookupRows.get(k);
+            if (list != null) {
+                for (IndexRow row : list) {
+                    if (set.add(row)) {
+                        result.add(row);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public boolean isOuterJoinRightHandSide() {
         return left.isOuterJoinRightHandSide() || right.isOuterJoinRightHandSide();
@@ -34,6 +34,7 @@ import static org.apache.jackrabbit.oak.plugins.nodetype.NodeTypeConstants.REP_P
 import static org.apache.jackrabbit.oak.plugins.nodetype.NodeTypeConstants.REP_SUPERTYPES;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -159,6 +160,13 @@ public class SelectorImpl extends SourceImpl {
     private Cursor cursor;
     private IndexRow currentRow;
     private int scanCount;
+
+    /**
+     * Whether the join condition of this selector is not evaluated for the
+     * current cursor, because the cursor is used to build a hash join or a
+     * batched lookup.
+     */
+    private boolean ignoreJoinCondition;
     
     private Tree lastTree;
     private String lastPath;
@@ -311,36 +319,159 @@ public class SelectorImpl extends SourceImpl {
         }
     }
 
+    /**
+     * Plan the execution of this selector without its join condition, to
+     * build a hash join (all rows are read once), or for a batched lookup
+     * (the rows that match one of the given number of values are read).
+     * 
+     * @param lookupCondition the join condition for a batched lookup, or
+     *            null for a hash join
+     * @param batchSize the number of values of a batched lookup
+     * @return the plan, or null if the join condition doesn't support
+     *         batched lookups
+     */
+    public SelectorExecutionPlan prepareLookup(JoinConditionImpl lookupCondition, int batchSize) {
+        FilterImpl f = createLookupFilter(true, lookupCondition,
+                getKnownValues(batchSize));
+        if (f == null) {
+            return null;
+        }
+        return query.getBestSelectorExecutionPlan(f);
+    }
+
+    /**
+     * Execute this selector without its join condition, using a plan of
+     * {@link #prepareLookup(JoinConditionImpl, int)}.
+     * 
+     * @param rootState the root
+     * @param lookupPlan the plan
+     * @param lookupCondition the join condition for a batched lookup, or
+     *            null for a hash join
+     * @param values the values of a batched lookup
+     */
+    public void executeLookup(NodeState rootState, SelectorExecutionPlan lookupPlan,
+            JoinConditionImpl lookupCondition, List<PropertyValue> values) {
+        FilterImpl f = createLookupFilter(false, lookupCondition, values);
+        cursor = query(lookupPlan, f, rootState);
+        ignoreJoinCondition = true;
+    }
+
+    private FilterImpl createLookupFilter(boolean preparing,
+            JoinConditionImpl lookupCondition, List<PropertyValue> values) {
+        FilterImpl f = createFilter(preparing, false);
+        if (lookupCondition != null && !lookupCondition.restrictLookup(f, values)) {
+            return null;
+        }
+        return f;
+    }
+
+    private static List<PropertyValue> getKnownValues(int count) {
+        List<PropertyValue> list = new ArrayList<PropertyValue>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(PropertyValues.newString(JoinConditionImpl.KNOWN_VALUE + i));
+        }
+        return list;
+    }
+
+    /**
+     * Get the current row.
+     * 
+     * @return the row, or null
+     */
+    public IndexRow getCurrentRow() {
+        return cursor == null ? null : currentRow;
+    }
+
+    /**
+     * Change the current row to a row that was read before. The cursor is
+     * not changed, so that reading can continue afterwards.
+     * 
+     * @param row the row
+     */
+    public void setCurrentRow(IndexRow row) {
+        if (cursor == null) {
+            cursor = Cursors.newPathCursor(new ArrayList<String>(), query.getSettings());
+        }
+        currentRow = row;
+    }
+
+    /**
+     * Use the given rows (which were read before) instead of executing this
+     * selector. All conditions, including the join condition, are evaluated.
+     * 
+     * @param rows the rows
+     */
+    public void setRows(List<IndexRow> rows) {
+        final Iterator<IndexRow> it = rows.iterator();
+        cursor = new Cursors.AbstractCursor() {
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public IndexRow next() {
+                return it.next();
+            }
+
+        };
+        ignoreJoinCondition = false;
+    }
+
     @Override
     public void execute(NodeState rootState) {
-        QueryIndex index = plan.getIndex();
+        cursor = query(plan, createFilter(false), rootState);
+        ignoreJoinCondition = false;
+    }
+
+    private Cursor query(SelectorExecutionPlan p, FilterImpl f, NodeState rootState) {
+        QueryIndex index = p.getIndex();
         if (index == null) {
-            cursor = Cursors.newPathCursor(new ArrayList<String>(), query.getSettings());
-            return;
+            return Cursors.newPathCursor(new ArrayList<String>(), query.getSettings());
         }
-        IndexPlan p = plan.getIndexPlan();
-        if (p != null) {
-            p.setFilter(createFilter(false));
+        IndexPlan indexPlan = p.getIndexPlan();
+        if (indexPlan != null) {
+            indexPlan.setFilter(f);
             AdvancedQueryIndex adv = (AdvancedQueryIndex) index;
-            cursor = adv.query(p, rootState);
-        } else {
-            cursor = index.query(createFilter(false), rootState);
+            return adv.query(indexPlan, rootState);
         }
+        return index.query(f, rootState);
     }
 
     @Override
     public String getPlan(NodeState rootState) {
+        return getPlan(rootState, plan, createFilter(true));
+    }
+
+    /**
+     * Get the plan of a hash join or batched lookup of this selector.
+     * 
+     * @param rootState the root
+     * @param lookupPlan the plan
+     * @param lookupCondition the join condition for a batched lookup, or
+     *            null for a hash join
+     * @param batchSize the number of values of a batched lookup
+     * @return the plan
+     */
+    public String getLookupPlan(NodeState rootState, SelectorExecutionPlan lookupPlan,
+            JoinConditionImpl lookupCondition, int batchSize) {
+        return getPlan(rootState, lookupPlan, 
+                createLookupFilter(true, lookupCondition, getKnownValues(batchSize)));
+    }
+
+    private String getPlan(NodeState rootState, SelectorExecutionPlan p, FilterImpl f) {
         StringBuilder buff = new StringBuilder();
         buff.append(toString());
         buff.append(" /* ");
-        QueryIndex index = getIndex();
+        QueryIndex index = p == null ? null : p.getIndex();
         if (index != null) {
             if (index instanceof AdvancedQueryIndex) {
                 AdvancedQueryIndex adv = (AdvancedQueryIndex) index;
-                IndexPlan p = plan.getIndexPlan();
-                buff.append(adv.getPlanDescription(p, rootState));
+                IndexPlan indexPlan = p.getIndexPlan();
+                buff.append(adv.getPlanDescription(indexPlan, rootState));
             } else {
-                buff.append(index.getPlan(createFilter(true), rootState));
+                buff.append(index.getPlan(f, rootState));
             }
         } else {
             buff.append("no-index");
@@ -360,9 +491,13 @@ public class SelectorImpl extends SourceImpl {
      */
     @Override
     public FilterImpl createFilter(boolean preparing) {
+        return createFilter(preparing, true);
+    }
+
+    private FilterImpl createFilter(boolean preparing, boolean withJoinCondition) {
         FilterImpl f = new FilterImpl(this, query.getStatement(), query.getSettings());
         f.setPreparing(preparing);
-        if (joinCondition != null) {
+        if (joinCondition != null && withJoinCondition) {
             joinCondition.restrict(f);
         }
         // rep:excerpt handling: create a (fake) restriction
@@ -449,7 +584,7 @@ public class SelectorImpl extends SourceImpl {
                 return false;
             }
         }
-        if (joinCondition != null && !joinCondition.evaluate()) {
+        if (joinCondition != null && !ignoreJoinCondition && !joinCondition.evaluate()) {
             return false;
         }
         return true;
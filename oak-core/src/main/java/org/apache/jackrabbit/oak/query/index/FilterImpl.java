@@ -180,6 +180,16 @@ public class FilterImpl implements Filter {
         return pathRestriction;
     }
     
+    /**
+     * Whether the path is restricted by a join condition, to a path that is
+     * only known when the query is executed (at prepare time).
+     *
+     * @return true if there is such a restriction
+     */
+    public boolean hasJoinPathRestriction() {
+        return pathPlan != null;
+    }
+
     @Override
     public String getPathPlan() {
         StringBuilder buff = new StringBuilder();
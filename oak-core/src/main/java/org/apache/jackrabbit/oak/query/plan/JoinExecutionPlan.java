@@ -24,15 +24,47 @@ import org.apache.jackrabbit.oak.query.ast.JoinImpl;
  */
 public class JoinExecutionPlan implements ExecutionPlan {
 
+    /**
+     * How the rows of the right hand side are read.
+     */
+    public enum Strategy {
+
+        /**
+         * The right hand side is executed for each row of the left hand side.
+         */
+        NESTED_LOOP,
+
+        /**
+         * The right hand side is read once, and kept in a hash table.
+         */
+        HASH,
+
+        /**
+         * The right hand side is executed once for a batch of rows of the
+         * left hand side, with a condition of type "in(...)".
+         */
+        BATCHED_LOOKUP
+
+    }
+
     private final JoinImpl join;
     private final ExecutionPlan leftPlan, rightPlan;
     private final double estimatedCost;
+    private final Strategy strategy;
+    private final SelectorExecutionPlan lookupPlan;
     
     public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan, double estimatedCost) {
+        this(join, leftPlan, rightPlan, estimatedCost, Strategy.NESTED_LOOP, null);
+    }
+
+    public JoinExecutionPlan(JoinImpl join, ExecutionPlan leftPlan, ExecutionPlan rightPlan,
+            double estimatedCost, Strategy strategy, SelectorExecutionPlan lookupPlan) {
         this.join = join;
         this.leftPlan = leftPlan;
         this.rightPlan = rightPlan;
         this.estimatedCost = estimatedCost;
+        this.strategy = strategy;
+        this.lookupPlan = lookupPlan;
     }
     
     @Override
@@ -52,4 +84,17 @@ public class JoinExecutionPlan implements ExecutionPlan {
         return rightPlan;
     }
 
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Get the plan of the right hand side for a hash join or batched lookup.
+     * 
+     * @return the plan, or null for a nested loop join
+     */
+    public SelectorExecutionPlan getLookupPlan() {
+        return lookupPlan;
+    }
+
 }
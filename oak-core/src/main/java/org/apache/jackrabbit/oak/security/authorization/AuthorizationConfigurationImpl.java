@@ -43,6 +43,7 @@ import org.apache.jackrabbit.oak.security.authorization.permission.PermissionHoo
 import org.apache.jackrabbit.oak.security.authorization.permission.PermissionProviderImpl;
 import org.apache.jackrabbit.oak.security.authorization.permission.PermissionStoreValidatorProvider;
 import org.apache.jackrabbit.oak.security.authorization.permission.PermissionValidatorProvider;
+import org.apache.jackrabbit.oak.security.authorization.permission.SharedPermissionEntryCache;
 import org.apache.jackrabbit.oak.security.authorization.restriction.RestrictionProviderImpl;
 import org.apache.jackrabbit.oak.spi.commit.CommitHook;
 import org.apache.jackrabbit.oak.spi.commit.MoveTracker;
@@ -97,12 +98,22 @@ import org.apache.jackrabbit.oak.spi.xml.ProtectedItemImporter;
                 label = "Administrative Principals",
                 description = "Allows to specify principals that should be granted full permissions on the complete repository content.",
                 cardinality = 10),
+        @Property(name = SharedPermissionEntryCache.CACHE_SIZE_PARAM,
+                label = "Permission Entry Cache Size",
+                description = "Maximum number of access controlled paths of the permission entries shared by all sessions (summed over all principals).",
+                longValue = SharedPermissionEntryCache.DEFAULT_CACHE_SIZE),
         @Property(name = CompositeConfiguration.PARAM_RANKING,
                 label = "Ranking",
                 description = "Ranking of this configuration in a setup with multiple authorization configurations.",
                 intValue = 100)
 })
 public class AuthorizationConfigurationImpl extends ConfigurationBase implements AuthorizationConfiguration {
+
+    /**
+     * Permission entries shared by the permission providers of all sessions.
+     */
+    private SharedPermissionEntryCache permissionEntryCache;
+
     public AuthorizationConfigurationImpl() {
         super();
     }
@@ -142,7 +153,7 @@ public class AuthorizationConfigurationImpl extends ConfigurationBase implements
     public List<? extends CommitHook> getCommitHooks(@Nonnull String workspaceName) {
         return ImmutableList.of(
                 new VersionablePathHook(workspaceName),
-                new PermissionHook(workspaceName, getRestrictionProvider()));
+                new PermissionHook(workspaceName, getRestrictionProvider(), getPermissionEntryCache()));
     }
 
     @Nonnull
@@ -182,6 +193,18 @@ public class AuthorizationConfigurationImpl extends ConfigurationBase implements
     @Override
     public PermissionProvider getPermissionProvider(@Nonnull Root root, @Nonnull String workspaceName, @Nonnull Set<Principal> principals) {
         Context ctx = getSecurityProvider().getConfiguration(AuthorizationConfiguration.class).getContext();
-        return new PermissionProviderImpl(root, workspaceName, principals, getRestrictionProvider(), getParameters(), ctx);
+        return new PermissionProviderImpl(root, workspaceName, principals, getRestrictionProvider(), getParameters(), ctx, getPermissionEntryCache());
+    }
+
+    //------------------------------------------------------------< private >---
+    @Nonnull
+    private synchronized SharedPermissionEntryCache getPermissionEntryCache() {
+        if (permissionEntryCache == null) {
+            long size = getParameters().getConfigValue(
+                    SharedPermissionEntryCache.CACHE_SIZE_PARAM,
+                    SharedPermissionEntryCache.DEFAULT_CACHE_SIZE);
+            permissionEntryCache = new SharedPermissionEntryCache(size);
+        }
+        return permissionEntryCache;
     }
 }
@@ -88,7 +88,8 @@ final class CompiledPermissionImpl implements CompiledPermissions, PermissionCon
                                    @Nonnull Root root, @Nonnull String workspaceName,
                                    @Nonnull RestrictionProvider restrictionProvider,
                                    @Nonnull ConfigurationParameters options,
-                                   @Nonnull Context ctx) {
+                                   @Nonnull Context ctx,
+                                   @Nullable SharedPermissionEntryCache sharedCache) {
         this.root = root;
         this.workspaceName = workspaceName;
 
@@ -109,7 +110,7 @@ final class CompiledPermissionImpl implements CompiledPermissions, PermissionCon
             }
         }
 
-        PermissionEntryCache cache = new PermissionEntryCache();
+        PermissionEntryCache cache = new PermissionEntryCache(sharedCache);
         userStore = new PermissionEntryProviderImpl(store, cache, userNames, options);
         groupStore = new PermissionEntryProviderImpl(store, cache, groupNames, options);
 
@@ -120,12 +121,13 @@ final class CompiledPermissionImpl implements CompiledPermissions, PermissionCon
                                       @Nonnull Set<Principal> principals,
                                       @Nonnull RestrictionProvider restrictionProvider,
                                       @Nonnull ConfigurationParameters options,
-                                      @Nonnull Context ctx) {
+                                      @Nonnull Context ctx,
+                                      @Nullable SharedPermissionEntryCache sharedCache) {
         Tree permissionsTree = PermissionUtil.getPermissionsRoot(root, workspaceName);
         if (!permissionsTree.exists() || principals.isEmpty()) {
             return NoPermissions.getInstance();
         } else {
-            return new CompiledPermissionImpl(principals, root, workspaceName, restrictionProvider, options, ctx);
+            return new CompiledPermissionImpl(principals, root, workspaceName, restrictionProvider, options, ctx, sharedCache);
         }
     }
 
@@ -23,12 +23,18 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 
 /**
  * {@code PermissionEntryCache} caches the permission entries of principals.
  * The cache is held locally for each session and contains a version of the principal permission
- * entries of the session that read them last.
+ * entries of the session that read them last. Fully loaded principal permission entries are
+ * obtained from and published to the {@link SharedPermissionEntryCache} if one is given,
+ * which shares them with all other sessions reading the same revision.
  *
  * TODO:
  * - report cache usage metrics
@@ -41,18 +47,23 @@ public class PermissionEntryCache {
 
     private final Map<String, PrincipalPermissionEntries> entries = new HashMap<String, PrincipalPermissionEntries>();
 
+    private final SharedPermissionEntryCache sharedCache;
+
+    public PermissionEntryCache() {
+        this(null);
+    }
+
+    public PermissionEntryCache(@Nullable SharedPermissionEntryCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
     @Nonnull
     public PrincipalPermissionEntries getEntries(@Nonnull PermissionStore store,
                                                  @Nonnull String principalName) {
         PrincipalPermissionEntries ppe = entries.get(principalName);
-        if (ppe == null) {
-            ppe = store.load(principalName);
+        if (ppe == null || !ppe.isFullyLoaded()) {
+            ppe = loadEntries(store, principalName);
             entries.put(principalName, ppe);
-        } else {
-            if (!ppe.isFullyLoaded()) {
-                ppe = store.load(principalName);
-                entries.put(principalName, ppe);
-            }
         }
         return ppe;
     }
@@ -79,9 +90,16 @@ public class PermissionEntryCache {
                      @Nonnull String path) {
         PrincipalPermissionEntries ppe = entries.get(principalName);
         if (ppe == null) {
-            ppe = new PrincipalPermissionEntries(principalName);
+            ppe = getSharedEntries(store, principalName);
+            if (ppe == null) {
+                ppe = new PrincipalPermissionEntries(principalName);
+            }
             entries.put(principalName, ppe);
         }
+        if (ppe.isFullyLoaded()) {
+            ret.addAll(ppe.getEntries(path));
+            return;
+        }
         Collection<PermissionEntry> pes = ppe.getEntries().get(path);
         if (pes == null) {
             pes = store.load(null, principalName, path);
@@ -108,4 +126,31 @@ public class PermissionEntryCache {
     public void flush(@Nonnull Set<String> principalNames) {
         entries.keySet().removeAll(principalNames);
     }
-}
\ No newline at end of file
+
+    @Nonnull
+    private PrincipalPermissionEntries loadEntries(@Nonnull PermissionStore store,
+                                                   @Nonnull String principalName) {
+        if (sharedCache == null) {
+            return store.load(principalName);
+        }
+        NodeState principalRoot = store.getPrincipalRootState(principalName);
+        if (principalRoot == null) {
+            return store.load(principalName);
+        }
+        PrincipalPermissionEntries ppe = sharedCache.get(principalName, principalRoot);
+        if (ppe == null) {
+            ppe = sharedCache.put(principalRoot, store.load(principalName));
+        }
+        return ppe;
+    }
+
+    @CheckForNull
+    private PrincipalPermissionEntries getSharedEntries(@Nonnull PermissionStore store,
+                                                        @Nonnull String principalName) {
+        if (sharedCache == null) {
+            return null;
+        }
+        NodeState principalRoot = store.getPrincipalRootState(principalName);
+        return principalRoot == null ? null : sharedCache.get(principalName, principalRoot);
+    }
+}
@@ -17,8 +17,11 @@
 package org.apache.jackrabbit.oak.security.authorization.permission;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.plugins.nodetype.TypePredicate;
@@ -75,9 +78,17 @@ public class PermissionHook implements PostValidationHook, AccessControlConstant
     private Map<String, PermissionStoreEditor> modified = new HashMap<String, PermissionStoreEditor>();
     private Map<String, PermissionStoreEditor> deleted = new HashMap<String, PermissionStoreEditor>();
 
+    private final SharedPermissionEntryCache sharedCache;
+
     public PermissionHook(String workspaceName, RestrictionProvider restrictionProvider) {
+        this(workspaceName, restrictionProvider, null);
+    }
+
+    public PermissionHook(String workspaceName, RestrictionProvider restrictionProvider,
+                          @Nullable SharedPermissionEntryCache sharedCache) {
         this.workspaceName = workspaceName;
         this.restrictionProvider = restrictionProvider;
+        this.sharedCache = sharedCache;
     }
 
     @Nonnull
@@ -106,11 +117,18 @@ public class PermissionHook implements PostValidationHook, AccessControlConstant
     }
 
     private void apply() {
+        Set<String> principalNames = new HashSet<String>();
         for (Map.Entry<String, PermissionStoreEditor> entry : deleted.entrySet()) {
             entry.getValue().removePermissionEntries();
+            principalNames.addAll(entry.getValue().entries.keySet());
         }
         for (Map.Entry<String, PermissionStoreEditor> entry : modified.entrySet()) {
             entry.getValue().updatePermissionEntries();
+            principalNames.addAll(entry.getValue().entries.keySet());
+        }
+        if (sharedCache != null && !principalNames.isEmpty()) {
+            // entries are revision aware, but release the stale ones early
+            sharedCache.invalidate(principalNames);
         }
         modified.clear();
         deleted.clear();
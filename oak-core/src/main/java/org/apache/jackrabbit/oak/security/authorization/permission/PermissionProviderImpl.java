@@ -57,6 +57,15 @@ public class PermissionProviderImpl implements PermissionProvider, AccessControl
                                   @Nonnull RestrictionProvider restrictionProvider,
                                   @Nonnull ConfigurationParameters options,
                                   @Nonnull Context ctx) {
+        this(root, workspaceName, principals, restrictionProvider, options, ctx, null);
+    }
+
+    public PermissionProviderImpl(@Nonnull Root root, @Nonnull String workspaceName,
+                                  @Nonnull Set<Principal> principals,
+                                  @Nonnull RestrictionProvider restrictionProvider,
+                                  @Nonnull ConfigurationParameters options,
+                                  @Nonnull Context ctx,
+                                  @Nullable SharedPermissionEntryCache sharedCache) {
         this.root = root;
         this.workspaceName = workspaceName;
         this.ctx = ctx;
@@ -66,7 +75,7 @@ public class PermissionProviderImpl implements PermissionProvider, AccessControl
         if (PermissionUtil.isAdminOrSystem(principals, options)) {
             compiledPermissions = AllPermissions.getInstance();
         } else {
-            compiledPermissions = CompiledPermissionImpl.create(immutableRoot, workspaceName, principals, restrictionProvider, options, ctx);
+            compiledPermissions = CompiledPermissionImpl.create(immutableRoot, workspaceName, principals, restrictionProvider, options, ctx, sharedCache);
         }
     }
 
@@ -23,6 +23,8 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
 /**
  * The permission store is used to store and provide access control permissions for principals. It is responsible to
  * load and store the permissions in an optimal form in the repository and must not cache them.
@@ -51,4 +53,16 @@ public interface PermissionStore {
 
     long getNumEntries(@Nonnull String principalName, long max);
 
+    /**
+     * Returns the state of the node holding the permission entries of the
+     * given principal. The state identifies the revision of the entries and
+     * allows to share them between readers of the same revision.
+     *
+     * @param principalName name of the principal
+     * @return the state of the principal root or {@code null} if no entries
+     *          exist for the principal or the store is unable to provide it.
+     */
+    @CheckForNull
+    NodeState getPrincipalRootState(@Nonnull String principalName);
+
 }
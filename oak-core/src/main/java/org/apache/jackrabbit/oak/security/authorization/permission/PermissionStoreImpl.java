@@ -29,11 +29,13 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Root;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.tree.impl.AbstractTree;
 import org.apache.jackrabbit.oak.spi.security.authorization.permission.PermissionConstants;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionProvider;
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeBits;
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeBitsProvider;
 import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.util.TreeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -127,6 +129,16 @@ public class PermissionStoreImpl implements PermissionStore, PermissionConstants
         return tree == null ? 0 : tree.getChildrenCount(max);
     }
 
+    @Override
+    @CheckForNull
+    public NodeState getPrincipalRootState(@Nonnull String principalName) {
+        Tree tree = getPrincipalRoot(principalName);
+        if (tree instanceof AbstractTree) {
+            return ((AbstractTree) tree).getNodeState();
+        }
+        return null;
+    }
+
     @Override
     @Nonnull
     public PrincipalPermissionEntries load(@Nonnull String principalName) {
@@ -22,6 +22,9 @@ import java.util.HashMap;
 import java.util.Map;
 import javax.annotation.Nonnull;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
 /**
  * {@code PermissionEntries} holds the permission entries of one principal
  */
@@ -46,6 +49,14 @@ public class PrincipalPermissionEntries {
         this.name = name;
     }
 
+    private PrincipalPermissionEntries(@Nonnull String name,
+                                       @Nonnull Map<String, Collection<PermissionEntry>> entries,
+                                       boolean fullyLoaded) {
+        this.name = name;
+        this.entries = entries;
+        this.fullyLoaded = fullyLoaded;
+    }
+
     @Nonnull
     public String getName() {
         return name;
@@ -70,4 +81,18 @@ public class PrincipalPermissionEntries {
         return entries;
     }
 
-}
\ No newline at end of file
+    /**
+     * Creates an immutable and compact copy of these permission entries,
+     * which can be shared among sessions.
+     *
+     * @return an immutable copy.
+     */
+    @Nonnull
+    PrincipalPermissionEntries immutableCopy() {
+        ImmutableMap.Builder<String, Collection<PermissionEntry>> builder = ImmutableMap.builder();
+        for (Map.Entry<String, Collection<PermissionEntry>> e : entries.entrySet()) {
+            builder.put(e.getKey(), ImmutableSortedSet.copyOf(e.getValue()));
+        }
+        return new PrincipalPermissionEntries(name, builder.build(), fullyLoaded);
+    }
+}
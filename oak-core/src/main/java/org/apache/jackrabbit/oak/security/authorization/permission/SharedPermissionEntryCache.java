@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.security.authorization.permission;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.util.Text;
+
+/**
+ * {@code SharedPermissionEntryCache} is a repository wide cache of the fully
+ * loaded permission entries of principals. It is shared by all sessions and
+ * backs the session local {@link PermissionEntryCache}s.
+ * <p>
+ * The cache is revision aware: every cached entry remembers the state of the
+ * principal root in the permission store it was loaded from and is only
+ * returned to a reader that sees the very same state. Sessions reading from
+ * different revisions therefore never see entries of another revision. The
+ * {@link PermissionHook} additionally invalidates the entries of the
+ * principals modified by a commit to release stale entries early.
+ * <p>
+ * The entries are held in immutable form and are shared by all sessions
+ * that read the principal at the same revision.
+ */
+public class SharedPermissionEntryCache {
+
+    /**
+     * Name of the configuration parameter for the maximum number of access
+     * controlled paths held in the cache (summed over all principals).
+     */
+    public static final String CACHE_SIZE_PARAM = "permissionEntryCacheSize";
+
+    public static final long DEFAULT_CACHE_SIZE = 10000;
+
+    private final Cache<String, CacheEntry> entries;
+
+    public SharedPermissionEntryCache() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public SharedPermissionEntryCache(long maxSize) {
+        entries = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher(new Weigher<String, CacheEntry>() {
+                    @Override
+                    public int weigh(@Nonnull String key, @Nonnull CacheEntry value) {
+                        return 1 + value.entries.getEntries().size();
+                    }
+                }).build();
+    }
+
+    /**
+     * Returns the cached permission entries of the given principal if they
+     * were loaded from the given principal root state.
+     *
+     * @param principalName the name of the principal.
+     * @param principalRoot the principal root state as seen by the reader.
+     * @return the cached entries or {@code null} if there are none for the
+     *          given state.
+     */
+    @CheckForNull
+    public PrincipalPermissionEntries get(@Nonnull String principalName,
+                                          @Nonnull NodeState principalRoot) {
+        CacheEntry entry = entries.getIfPresent(getKey(principalName));
+        if (entry != null && entry.principalRoot.equals(principalRoot)) {
+            return entry.entries;
+        }
+        return null;
+    }
+
+    /**
+     * Puts the fully loaded permission entries of a principal into the cache.
+     *
+     * @param principalRoot the principal root state the entries were loaded from.
+     * @param ppe the permission entries.
+     * @return an immutable copy of the permission entries, which is held in
+     *          the cache.
+     */
+    @Nonnull
+    public PrincipalPermissionEntries put(@Nonnull NodeState principalRoot,
+                                          @Nonnull PrincipalPermissionEntries ppe) {
+        PrincipalPermissionEntries copy = ppe.immutableCopy();
+        entries.put(getKey(ppe.getName()), new CacheEntry(principalRoot, copy));
+        return copy;
+    }
+
+    /**
+     * Invalidates the entries of the principals with the given principal root
+     * names in the permission store.
+     *
+     * @param principalRootNames the escaped names of the principals as used
+     *                           for the principal roots in the permission store.
+     */
+    public void invalidate(@Nonnull Iterable<String> principalRootNames) {
+        entries.invalidateAll(principalRootNames);
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    private static String getKey(String principalName) {
+        return Text.escapeIllegalJcrChars(principalName);
+    }
+
+    private static final class CacheEntry {
+
+        private final NodeState principalRoot;
+
+        private final PrincipalPermissionEntries entries;
+
+        CacheEntry(NodeState principalRoot, PrincipalPermissionEntries entries) {
+            this.principalRoot = principalRoot;
+            this.entries = entries;
+        }
+    }
+}
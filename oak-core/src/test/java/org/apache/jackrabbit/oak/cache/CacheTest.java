@@ -27,6 +27,7 @@ import static org.junit.Assert.fail;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.concurrent.Callable;
@@ -573,7 +574,7 @@ public class CacheTest {
     }
 
     private static <K, V> CacheLIRS<K, V> createCache(int maxSize, int averageSize) {
-        return new CacheLIRS<K, V>(null, maxSize, averageSize, 1, 0, null);
+        return new CacheLIRS<K, V>(null, maxSize, averageSize, 1, 0, null, null);
     }
     
     @Test
@@ -681,4 +682,34 @@ public class CacheTest {
         cache.refresh(-1);
     }
     
+    @Test
+    public void testEvictionCallback() {
+        final Map<Integer, String> evicted = new HashMap<Integer, String>();
+        CacheLIRS<Integer, String> cache = new CacheLIRS.Builder().
+                maximumWeight(10).
+                segmentCount(1).
+                evictionCallback(new CacheLIRS.EvictionCallback<Integer, String>() {
+
+                    @Override
+                    public void evicted(Integer key, String value) {
+                        assertNull(evicted.put(key, value));
+                    }
+
+                }).
+                build();
+        for (int i = 0; i < 20; i++) {
+            cache.put(i, "v" + i, 1);
+        }
+        assertEquals(20, cache.size() + evicted.size());
+        for (Entry<Integer, String> e : evicted.entrySet()) {
+            assertFalse(cache.containsKey(e.getKey()));
+            assertEquals("v" + e.getKey(), e.getValue());
+        }
+
+        // explicit removal is not reported
+        evicted.clear();
+        cache.invalidate(19);
+        assertTrue(evicted.isEmpty());
+    }
+
 }
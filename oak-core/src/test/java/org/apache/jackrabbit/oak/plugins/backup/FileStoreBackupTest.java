@@ -28,6 +28,7 @@ import org.apache.jackrabbit.oak.Oak;
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
@@ -40,6 +41,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.apache.jackrabbit.oak.plugins.backup.FileStoreBackup.getMissingSegments;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -100,6 +102,75 @@ public class FileStoreBackupTest {
         source.close();
     }
 
+    @Test
+    public void testBackupSegments() throws Exception {
+        FileStore source = FileStore.newFileStore(src).withMaxFileSize(8).withMemoryMapping(false).create();
+
+        NodeStore store = new SegmentNodeStore(source);
+        init(store);
+
+        // initial content
+        FileStoreBackup.backupSegments(store, destination);
+        compare(store, destination);
+
+        // incremental backup only copies the new segments
+        addTestContent(store);
+        int missing = countMissingSegments(source, store, destination);
+        assertTrue(missing > 0);
+        assertTrue(missing < 5);
+        File empty = new File(destination.getParentFile(), destination.getName() + "-empty");
+        try {
+            assertTrue(countMissingSegments(source, store, empty) > missing);
+        } finally {
+            deleteQuietly(empty);
+        }
+
+        FileStoreBackup.backupSegments(store, destination);
+        compare(store, destination);
+
+        FileStoreRestore.restore(destination, store);
+        compare(store, destination);
+
+        source.close();
+    }
+
+    @Test
+    public void testBackupSegmentsAfterCompaction() throws Exception {
+        FileStore source = FileStore.newFileStore(src).withMaxFileSize(8).withMemoryMapping(false).create();
+
+        NodeStore store = new SegmentNodeStore(source);
+        init(store);
+
+        FileStoreBackup.backup(store, destination);
+        addTestContent(store);
+        FileStoreBackup.backupSegments(store, destination);
+        compare(store, destination);
+
+        source.close();
+    }
+
+    @Test
+    public void testBackupSegmentsOfMultipleTarFiles() throws Exception {
+        FileStore source = FileStore.newFileStore(src).withMaxFileSize(1).withMemoryMapping(false).create();
+
+        NodeStore store = new SegmentNodeStore(source);
+        init(store);
+        for (int i = 0; i < 4; i++) {
+            NodeBuilder builder = store.getRoot().builder();
+            builder.child("test-backup").setProperty("blob" + i,
+                    store.createBlob(new ByteArrayInputStream(new byte[600000])));
+            store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            source.flush();
+        }
+        assertTrue(source.getTarReaderIndex().size() > 1);
+
+        FileStoreBackup.backupSegments(store, destination);
+        compare(store, destination);
+        assertEquals(0, countMissingSegments(source, store, destination));
+
+        source.close();
+    }
+
     private static void addTestContent(NodeStore store)
             throws CommitFailedException {
         NodeBuilder builder = store.getRoot().builder();
@@ -108,6 +179,18 @@ public class FileStoreBackupTest {
         store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
     }
 
+    private static int countMissingSegments(FileStore source, NodeStore store,
+            File destination) throws IOException {
+        source.flush();
+        FileStore backup = FileStore.newFileStore(destination).withMaxFileSize(8).withMemoryMapping(false).create();
+        try {
+            SegmentNodeState root = (SegmentNodeState) store.getRoot();
+            return getMissingSegments(source, backup, root.getRecordId().asUUID()).size();
+        } finally {
+            backup.close();
+        }
+    }
+
     private static void compare(NodeStore store, File destination)
             throws IOException {
         FileStore backup = new FileStore(destination, 8, false);
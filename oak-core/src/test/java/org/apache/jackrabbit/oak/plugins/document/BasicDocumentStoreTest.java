@@ -300,6 +300,96 @@ public class BasicDocumentStoreTest extends AbstractDocumentStoreTest {
         assertEquals("bar", d.get("foo").toString());
     }
 
+    @Test
+    public void testCreateOrUpdateMultiple() {
+        String id = this.getClass().getName() + ".testCreateOrUpdateMultiple";
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            ids.add(id + "-" + i);
+        }
+        super.ds.remove(Collection.NODES, ids);
+        removeMe.addAll(ids);
+
+        // create the first two
+        List<UpdateOp> ops = new ArrayList<UpdateOp>();
+        for (int i = 0; i < 2; i++) {
+            UpdateOp up = new UpdateOp(ids.get(i), true);
+            up.set("_id", ids.get(i));
+            up.set("foo", "bar" + i);
+            ops.add(up);
+        }
+        List<NodeDocument> result = super.ds.createOrUpdate(Collection.NODES, ops);
+        assertEquals(2, result.size());
+        assertNull(result.get(0));
+        assertNull(result.get(1));
+
+        // update existing ones, create a new one and update one twice
+        ops = new ArrayList<UpdateOp>();
+        for (int i = 0; i < 3; i++) {
+            UpdateOp up = new UpdateOp(ids.get(i), true);
+            up.set("_id", ids.get(i));
+            up.set("foo", "baz" + i);
+            ops.add(up);
+        }
+        UpdateOp up = new UpdateOp(ids.get(0), false);
+        up.set("foo", "qux");
+        ops.add(up);
+        result = super.ds.createOrUpdate(Collection.NODES, ops);
+        assertEquals(4, result.size());
+        assertEquals("bar0", result.get(0).get("foo"));
+        assertEquals("bar1", result.get(1).get("foo"));
+        assertNull(result.get(2));
+        assertEquals("baz0", result.get(3).get("foo"));
+
+        super.ds.invalidateCache();
+        assertEquals("qux", super.ds.find(Collection.NODES, ids.get(0)).get("foo"));
+        assertEquals("baz1", super.ds.find(Collection.NODES, ids.get(1)).get("foo"));
+        assertEquals("baz2", super.ds.find(Collection.NODES, ids.get(2)).get("foo"));
+    }
+
+    @Test
+    public void testCreateOrUpdateMultipleConditionalFirst() {
+        String id = this.getClass().getName() + ".testCreateOrUpdateMultipleConditionalFirst";
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 2; i++) {
+            ids.add(id + "-" + i);
+        }
+        super.ds.remove(Collection.NODES, ids);
+        removeMe.addAll(ids);
+
+        List<UpdateOp> ops = new ArrayList<UpdateOp>();
+        for (int i = 0; i < 2; i++) {
+            UpdateOp up = new UpdateOp(ids.get(i), true);
+            up.set("_id", ids.get(i));
+            up.set("foo", "bar" + i);
+            ops.add(up);
+        }
+        super.ds.createOrUpdate(Collection.NODES, ops);
+
+        // a conditional update followed by an unconditional update of the
+        // same document must be applied in this order
+        ops = new ArrayList<UpdateOp>();
+        UpdateOp up = new UpdateOp(ids.get(0), false);
+        up.equals("foo", null, "bar0");
+        up.set("foo", "baz0");
+        ops.add(up);
+        up = new UpdateOp(ids.get(1), false);
+        up.set("foo", "baz1");
+        ops.add(up);
+        up = new UpdateOp(ids.get(0), false);
+        up.set("foo", "qux");
+        ops.add(up);
+        List<NodeDocument> result = super.ds.createOrUpdate(Collection.NODES, ops);
+        assertEquals(3, result.size());
+        assertEquals("bar0", result.get(0).get("foo"));
+        assertEquals("bar1", result.get(1).get("foo"));
+        assertEquals("baz0", result.get(2).get("foo"));
+
+        super.ds.invalidateCache();
+        assertEquals("qux", super.ds.find(Collection.NODES, ids.get(0)).get("foo"));
+        assertEquals("baz1", super.ds.find(Collection.NODES, ids.get(1)).get("foo"));
+    }
+
     @Test
     public void testUpdateModified() {
         String id = this.getClass().getName() + ".testUpdateModified";
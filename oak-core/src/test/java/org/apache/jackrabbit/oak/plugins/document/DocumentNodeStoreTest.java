@@ -1889,6 +1889,43 @@ public class DocumentNodeStoreTest {
         }
     }
 
+    @Test
+    public void prefetchChildren() throws Exception {
+        CountingDocumentStore store = new CountingDocumentStore(new MemoryDocumentStore());
+        DocumentNodeStore ns = new DocumentMK.Builder()
+                .setDocumentStore(store).setAsyncDelay(0).getNodeStore();
+        int numChildren = 1000;
+        NodeBuilder builder = ns.getRoot().builder();
+        NodeBuilder test = builder.child("test");
+        for (int i = 0; i < numChildren; i++) {
+            test.child("node-" + i);
+        }
+        merge(ns, builder);
+
+        // read child names into the cache
+        DocumentNodeState parent = asDocumentNodeState(ns.getRoot().getChildNode("test"));
+        assertEquals(numChildren, Iterables.size(parent.getChildNodeNames()));
+
+        // child names are cached, but not the child node states
+        Revision readRevision = parent.getLastRevision();
+        for (int i = 0; i < numChildren; i++) {
+            ns.invalidateNodeCache("/test/node-" + i, readRevision);
+        }
+
+        store.resetCounters();
+        int count = 0;
+        for (ChildNodeEntry entry : parent.getChildNodeEntries()) {
+            assertTrue(entry.getNodeState().exists());
+            count++;
+        }
+        assertEquals(numChildren, count);
+        assertTrue("too many find calls: " + store.getNumFindCalls(NODES),
+                store.getNumFindCalls(NODES) < 10);
+        assertTrue("too many query calls: " + store.getNumQueryCalls(NODES),
+                store.getNumQueryCalls(NODES) < 10);
+        ns.dispose();
+    }
+
     private static DocumentNodeState asDocumentNodeState(NodeState state) {
         if (!(state instanceof DocumentNodeState)) {
             throw new IllegalArgumentException("Not a DocumentNodeState");
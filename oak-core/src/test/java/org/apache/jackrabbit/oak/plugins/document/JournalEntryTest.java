@@ -18,11 +18,16 @@ package org.apache.jackrabbit.oak.plugins.document;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import org.apache.jackrabbit.oak.commons.PathUtils;
@@ -92,6 +97,40 @@ public class JournalEntryTest {
         sort.close();
     }
 
+    @Test
+    public void modCounts() throws Exception {
+        DocumentStore store = new MemoryDocumentStore();
+        JournalEntry entry = JOURNAL.newDocument(store);
+        entry.modified(ImmutableList.of("/", "/a", "/a/b", "/c"),
+                ImmutableMap.of("/a", 3L, "/a/b", 7L, "/c", 2L));
+        // later change with a higher _modCount
+        entry.modified(ImmutableList.of("/", "/a", "/a/b"),
+                ImmutableMap.of("/a", 4L, "/a/b", 8L));
+        // later change without _modCount
+        entry.modified(ImmutableList.of("/", "/c"),
+                Collections.<String, Long>emptyMap());
+        // a path without _modCount in the first change stays unknown
+        entry.modified(ImmutableList.of("/"), ImmutableMap.of("/", 1L));
+        Revision r1 = new Revision(1, 0, 1);
+        Revision r2 = new Revision(2, 0, 1);
+        assertTrue(store.create(JOURNAL,
+                Collections.singletonList(entry.asUpdateOp(r2))));
+
+        StringSort sort = JournalEntry.newSorter();
+        StringSort modCountSort = JournalEntry.newSorter();
+        JournalEntry.fillExternalChanges(sort, modCountSort, r1, r2, store);
+        assertEquals(4, sort.getSize());
+        modCountSort.sort();
+        Map<String, Long> modCounts = Maps.newHashMap();
+        for (Iterator<String> it = modCountSort.getIds(); it.hasNext(); ) {
+            String e = it.next();
+            modCounts.put(JournalEntry.getModCountPath(e), JournalEntry.getModCount(e));
+        }
+        assertEquals(ImmutableMap.of("/a", 4L, "/a/b", 8L), modCounts);
+        sort.close();
+        modCountSort.close();
+    }
+
     @Test
     public void getRevisionTimestamp() throws Exception {
         DocumentStore store = new MemoryDocumentStore();
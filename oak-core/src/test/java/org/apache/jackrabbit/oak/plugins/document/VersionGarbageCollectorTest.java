@@ -481,6 +481,53 @@ public class VersionGarbageCollectorTest {
         assertEquals(2, stats.splitDocGCCount);
     }
 
+    @Test
+    public void gcDeletedDocumentsInParallel() throws Exception {
+        Revision.setClock(clock);
+        DocumentStore ds = store.getDocumentStore();
+
+        createTestNode("foo");
+        NodeDocument foo = ds.find(NODES, Utils.getIdFromPath("/foo"));
+        List<String> prevIds = Lists.newArrayList();
+        for (NodeDocument prev : ImmutableList.copyOf(foo.getAllPreviousDocs())) {
+            prevIds.add(prev.getId());
+        }
+        assertFalse(prevIds.isEmpty());
+
+        int numChildren = 1000;
+        NodeBuilder builder = store.getRoot().builder();
+        for (int i = 0; i < numChildren; i++) {
+            builder.child("x").child("c-" + i).child("d");
+        }
+        merge(store, builder);
+
+        builder = store.getRoot().builder();
+        builder.getChildNode("foo").remove();
+        builder.getChildNode("x").remove();
+        merge(store, builder);
+        store.runBackgroundOperations();
+
+        clock.waitUntil(clock.getTime() + HOURS.toMillis(1));
+
+        gc.setThreads(2);
+        gc.setMaxRemoveRate(100000);
+        VersionGCStats stats = gc.gc(30, MINUTES);
+        int numDeleted = 2 * numChildren + 2;
+        assertEquals(numDeleted, stats.possiblyDeletedDocCount);
+        assertEquals(numDeleted, stats.confirmedDeletedDocCount);
+        assertEquals(numDeleted, stats.deletedDocGCCount);
+        assertEquals(prevIds.size(), stats.splitDocGCCount);
+        assertEquals(0, stats.recreatedDocCount);
+
+        assertNull(ds.find(NODES, Utils.getIdFromPath("/foo")));
+        assertNull(ds.find(NODES, Utils.getIdFromPath("/x")));
+        assertNull(ds.find(NODES, Utils.getIdFromPath("/x/c-1/d")));
+        for (String id : prevIds) {
+            assertNull(ds.find(NODES, id));
+        }
+        assertFalse(store.getRoot().hasChildNode("x"));
+    }
+
     private void createTestNode(String name) throws CommitFailedException {
         DocumentStore ds = store.getDocumentStore();
         NodeBuilder builder = store.getRoot().builder();
@@ -20,6 +20,7 @@ package org.apache.jackrabbit.oak.plugins.document.persistentCache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -116,6 +117,179 @@ public class CacheTest {
         }
     }
     
+    @Test
+    public void asyncWrite() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(1).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 100; i++) {
+                map.put(new PathRev("/" + i, new Revision(0, 0, 1)), new StringValue("v" + i));
+            }
+            // values are visible while the writes are still queued
+            for (int i = 0; i < 100; i++) {
+                PathRev k = new PathRev("/" + i, new Revision(0, 0, 1));
+                assertEquals(new StringValue("v" + i), map.getIfPresent(k));
+            }
+            map.invalidate(new PathRev("/0", new Revision(0, 0, 1)));
+            assertNull(map.getIfPresent(new PathRev("/0", new Revision(0, 0, 1))));
+        } finally {
+            pCache.close();
+        }
+        PersistentCacheStatsMBean stats = pCache.getStats();
+        assertTrue(stats.isAsyncWrite());
+        assertEquals(0, stats.getQueueSize());
+        assertEquals(101, stats.getWriteCount());
+        assertEquals(0, stats.getDroppedWriteCount());
+
+        // the queued writes were applied before closing
+        pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(1).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            assertNull(map.getIfPresent(new PathRev("/0", new Revision(0, 0, 1))));
+            for (int i = 1; i < 100; i++) {
+                PathRev k = new PathRev("/" + i, new Revision(0, 0, 1));
+                assertEquals(new StringValue("v" + i), map.getIfPresent(k));
+            }
+        } finally {
+            pCache.close();
+        }
+    }
+
+    @Test
+    public void asyncWriteDropsWhenFull() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest,asyncQueue=0");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            PathRev k = new PathRev("/", new Revision(0, 0, 1));
+            map.put(k, new StringValue("v"));
+            // still in the in-memory cache
+            assertEquals(new StringValue("v"), map.getIfPresent(k));
+            // removals are never dropped
+            map.invalidate(k);
+        } finally {
+            pCache.close();
+        }
+        assertEquals(1, pCache.getStats().getDroppedWriteCount());
+        assertEquals(1, pCache.getStats().getWriteCount());
+    }
+
+    @Test
+    public void asyncWriteDroppedPutKeepsRemoval() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PathRev k = new PathRev("/", new Revision(0, 0, 1));
+        PersistentCache pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            map.put(k, new StringValue("v1"));
+        } finally {
+            pCache.close();
+        }
+
+        pCache = new PersistentCache("target/cacheTest,asyncQueue=0");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            map.invalidate(k);
+            // dropped, as the queue is full
+            map.put(k, new StringValue("v2"));
+            cache.invalidateAll();
+            // the dropped put must not expose the removed value
+            assertNull(map.getIfPresent(k));
+        } finally {
+            pCache.close();
+        }
+        assertEquals(1, pCache.getStats().getDroppedWriteCount());
+    }
+
+    @Test
+    public void asyncWriteInvalidateAll() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 1000; i++) {
+                map.put(new PathRev("/" + i, new Revision(0, 0, 1)), new StringValue("v" + i));
+            }
+            map.invalidateAll();
+            for (int i = 0; i < 1000; i++) {
+                assertNull(map.getIfPresent(new PathRev("/" + i, new Revision(0, 0, 1))));
+            }
+        } finally {
+            pCache.close();
+        }
+
+        // writes queued before invalidateAll were not applied
+        pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 1000; i++) {
+                assertNull(map.getIfPresent(new PathRev("/" + i, new Revision(0, 0, 1))));
+            }
+        } finally {
+            pCache.close();
+        }
+    }
+
+    @Test
+    public void asyncWriteRemovalsAreBounded() throws Exception {
+        FileUtils.deleteDirectory(new File("target/cacheTest"));
+        PersistentCache pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 100; i++) {
+                map.put(new PathRev("/" + i, new Revision(0, 0, 1)), new StringValue("v" + i));
+            }
+        } finally {
+            pCache.close();
+        }
+
+        pCache = new PersistentCache("target/cacheTest,asyncQueue=2");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 100; i++) {
+                map.invalidate(new PathRev("/" + i, new Revision(0, 0, 1)));
+                assertTrue(pCache.getStats().getQueueSize() <= 2);
+            }
+            for (int i = 0; i < 100; i++) {
+                assertNull(map.getIfPresent(new PathRev("/" + i, new Revision(0, 0, 1))));
+            }
+        } finally {
+            pCache.close();
+        }
+        assertEquals(100, pCache.getStats().getWriteCount());
+
+        pCache = new PersistentCache("target/cacheTest");
+        try {
+            CacheLIRS<PathRev, StringValue> cache = new CacheLIRS.Builder().
+                    maximumSize(10).build();
+            Cache<PathRev, StringValue> map = pCache.wrap(null, null, cache, CacheType.DIFF);
+            for (int i = 0; i < 100; i++) {
+                assertNull(map.getIfPresent(new PathRev("/" + i, new Revision(0, 0, 1))));
+            }
+        } finally {
+            pCache.close();
+        }
+    }
+
     @Test
     public void interrupt() throws Exception {
         FileUtils.deleteDirectory(new File("target/cacheTest"));
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.document.persistentCache;
+
+import static org.apache.jackrabbit.oak.plugins.document.Collection.NODES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeState;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
+import org.apache.jackrabbit.oak.plugins.document.DocumentStore;
+import org.apache.jackrabbit.oak.plugins.document.LocalDiffCache;
+import org.apache.jackrabbit.oak.plugins.document.NodeDocument;
+import org.apache.jackrabbit.oak.plugins.document.util.StringValue;
+import org.apache.jackrabbit.oak.plugins.document.util.Utils;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.h2.mvstore.WriteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ValueDataTypeTest {
+
+    private DocumentNodeStore ns;
+
+    private DocumentStore store;
+
+    @Before
+    public void before() throws Exception {
+        ns = new DocumentMK.Builder().getNodeStore();
+        store = ns.getDocumentStore();
+        NodeBuilder builder = ns.getRoot().builder();
+        for (int i = 0; i < 10; i++) {
+            NodeBuilder child = builder.child("child-" + i);
+            child.setProperty("jcr:primaryType", "nt:unstructured");
+            child.setProperty("value", i);
+            child.setProperty("text", "text-" + i);
+        }
+        ns.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        builder = ns.getRoot().builder();
+        builder.child("child-0").setProperty("value", -1L);
+        builder.child("child-1").remove();
+        ns.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+    }
+
+    @After
+    public void after() {
+        ns.dispose();
+    }
+
+    @Test
+    public void nodeState() {
+        DocumentNodeState state = (DocumentNodeState) ns.getRoot().getChildNode("child-0");
+        DocumentNodeState read = roundTrip(CacheType.NODE, state, true);
+        assertEquals(state.asString(), read.asString());
+    }
+
+    @Test
+    public void nodeChildren() {
+        DocumentNodeState.Children children = new DocumentNodeState.Children();
+        DocumentNodeState.Children read = roundTrip(CacheType.CHILDREN, children, true);
+        assertEquals(children.asString(), read.asString());
+        children = DocumentNodeState.Children.fromString(
+                "\"hasMore\":true,\"children\":[\"a\",\"abc\",\"abd\",\"b\"]");
+        read = roundTrip(CacheType.CHILDREN, children, true);
+        assertEquals(children.asString(), read.asString());
+    }
+
+    @Test
+    public void document() {
+        for (String path : new String[] {"/", "/child-0", "/child-1"}) {
+            NodeDocument doc = store.find(NODES, Utils.getIdFromPath(path));
+            assertNotNull(doc);
+            NodeDocument read = roundTrip(CacheType.DOCUMENT, doc, true);
+            assertEquals(doc.keySet(), read.keySet());
+            for (String key : doc.keySet()) {
+                assertEquals(doc.get(key), read.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void documentChildren() {
+        NodeDocument.Children children = NodeDocument.Children.fromString(
+                "\"isComplete\":true,\"children\":[\"x\",\"x1\",\"y\"]");
+        NodeDocument.Children read = roundTrip(CacheType.DOC_CHILDREN, children, true);
+        assertEquals(children.asString(), read.asString());
+    }
+
+    @Test
+    public void diff() {
+        StringValue diff = new StringValue("^\"child-0\":{}-\"child-1\"");
+        StringValue read = roundTrip(CacheType.DIFF, diff, true);
+        assertEquals(diff, read);
+
+        Map<String, String> changes = Maps.newHashMap();
+        changes.put("/", "^\"child-0\":{}");
+        changes.put("/child-0", "");
+        LocalDiffCache.Diff localDiff = new LocalDiffCache.Diff(changes, 0);
+        LocalDiffCache.Diff readDiff = roundTrip(CacheType.LOCAL_DIFF, localDiff, true);
+        assertEquals(localDiff, readDiff);
+    }
+
+    @Test
+    public void readStringFormat() {
+        NodeDocument doc = store.find(NODES, Utils.getIdFromPath("/child-0"));
+        // written in the string format, read with binary format enabled
+        NodeDocument read = roundTrip(CacheType.DOCUMENT, doc, false);
+        assertEquals(doc.asString(), read.asString());
+    }
+
+    @Test
+    public void binaryIsSmaller() {
+        NodeDocument doc = store.find(NODES, Utils.getIdFromPath("/"));
+        int binary = write(CacheType.DOCUMENT, doc, true).limit();
+        int string = write(CacheType.DOCUMENT, doc, false).limit();
+        assertTrue("binary: " + binary + ", string: " + string, binary < string);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> V roundTrip(CacheType type, V value, boolean binary) {
+        ByteBuffer buff = write(type, value, binary);
+        ValueDataType dataType = new ValueDataType(ns, store, type, true);
+        V read = (V) dataType.read(buff);
+        assertEquals(0, buff.remaining());
+        return read;
+    }
+
+    private ByteBuffer write(CacheType type, Object value, boolean binary) {
+        ValueDataType dataType = new ValueDataType(ns, store, type, binary);
+        WriteBuffer buff = new WriteBuffer();
+        dataType.write(buff, value);
+        ByteBuffer bb = buff.getBuffer();
+        bb.flip();
+        return bb;
+    }
+
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.oak.plugins.index;
 
+import static java.util.Collections.synchronizedList;
 import static org.apache.jackrabbit.JcrConstants.JCR_SYSTEM;
 import static org.apache.jackrabbit.JcrConstants.NT_BASE;
 import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.ASYNC_PROPERTY_NAME;
@@ -33,13 +34,22 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 
+import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.blob.BlobStoreBlob;
+import org.apache.jackrabbit.oak.plugins.document.DocumentMK;
+import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore;
 import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexLookup;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
@@ -48,10 +58,15 @@ import org.apache.jackrabbit.oak.query.QueryEngineSettings;
 import org.apache.jackrabbit.oak.query.ast.SelectorImpl;
 import org.apache.jackrabbit.oak.query.index.FilterImpl;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
 import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.commit.VisibleEditor;
 import org.apache.jackrabbit.oak.spi.query.Filter;
 import org.apache.jackrabbit.oak.spi.query.PropertyValues;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.NodeStore;
@@ -183,6 +198,196 @@ public class IndexUpdateTest {
         assertEquals(ImmutableSet.of("testRoot"), find(lookup, "foo", "abc"));
     }
 
+    /**
+     * Parallel Reindex Test
+     * <ul>
+     * <li>Add some content</li>
+     * <li>Add two index definitions and reindex them in parallel</li>
+     * <li>Search & verify</li>
+     * </ul>
+     */
+    @Test
+    public void testParallelReindex() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            builder.child("testRoot").child("n" + i).setProperty("foo", "abc" + (i % 3));
+            builder.child("testRoot").child("n" + i).setProperty("bar", "xyz" + (i % 5));
+        }
+        NodeState before = builder.getNodeState();
+        createIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME),
+                "fooIndex", true, false, ImmutableSet.of("foo"), null);
+        createIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME),
+                "barIndex", true, false, ImmutableSet.of("bar"), null);
+        NodeState after = builder.getNodeState();
+
+        NodeBuilder indexed = after.builder();
+        IndexUpdate update = new IndexUpdate(new PropertyIndexEditorProvider(),
+                null, after, indexed, new IndexUpdateCallback() {
+                    @Override
+                    public void indexUpdate() {
+                    }
+                }).withParallelReindex(2);
+        CommitFailedException exception = EditorDiff.process(
+                VisibleEditor.wrap(update), before, after);
+        assertNull(exception);
+        assertTrue(update.getReindexedDefinitions().containsAll(
+                ImmutableSet.of("/oak:index/fooIndex", "/oak:index/barIndex")));
+
+        NodeState state = indexed.getNodeState();
+        for (String name : new String[] {"fooIndex", "barIndex"}) {
+            NodeState ns = checkPathExists(state, INDEX_DEFINITIONS_NAME, name);
+            checkPathExists(ns, INDEX_CONTENT_NODE_NAME);
+            assertFalse(ns.getBoolean(REINDEX_PROPERTY_NAME));
+            assertEquals(1, ns.getLong(IndexConstants.REINDEX_COUNT));
+        }
+        PropertyIndexLookup lookup = new PropertyIndexLookup(state);
+        assertEquals(34, find(lookup, "foo", "abc0").size());
+        assertEquals(20, find(lookup, "bar", "xyz4").size());
+        assertTrue(find(lookup, "bar", "xyz4").contains("testRoot/n4"));
+    }
+
+    @Test
+    public void testParallelReindexFailure() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            builder.child("testRoot").child("n" + i).setProperty("foo", "abc" + i);
+        }
+        NodeState before = builder.getNodeState();
+        createIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME),
+                "fooIndex", true, false, ImmutableSet.of("foo"), null);
+        builder.child(INDEX_DEFINITIONS_NAME).child("failingIndex")
+                .setProperty(IndexConstants.TYPE_PROPERTY_NAME, "failing");
+        NodeState after = builder.getNodeState();
+
+        IndexEditorProvider provider = new CompositeIndexEditorProvider(
+                new PropertyIndexEditorProvider(), new IndexEditorProvider() {
+            @Override
+            public Editor getIndexEditor(@Nonnull String type, @Nonnull NodeBuilder definition,
+                    @Nonnull NodeState root, @Nonnull final IndexUpdateCallback callback) {
+                if (!"failing".equals(type)) {
+                    return null;
+                }
+                return new DefaultEditor() {
+                    @Override
+                    public Editor childNodeAdded(String name, NodeState after)
+                            throws CommitFailedException {
+                        callback.indexUpdate();
+                        throw new CommitFailedException("Test", 42, "Failed to index " + name);
+                    }
+                };
+            }
+        });
+        IndexUpdate update = new IndexUpdate(provider, null, after, after.builder(),
+                new IndexUpdateCallback() {
+                    @Override
+                    public void indexUpdate() {
+                    }
+                }).withParallelReindex(2);
+        CommitFailedException exception = EditorDiff.process(
+                VisibleEditor.wrap(update), before, after);
+        assertNotNull(exception);
+        // the original failure, and not the aborted reindexing of fooIndex
+        assertEquals("Test", exception.getType());
+        assertEquals(42, exception.getCode());
+    }
+
+    @Test
+    public void testPartitionedReindex() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            builder.child("testRoot").child("n" + i).child("c");
+        }
+        NodeState before = builder.getNodeState();
+        builder.child(INDEX_DEFINITIONS_NAME).child("countIndex")
+                .setProperty(IndexConstants.TYPE_PROPERTY_NAME, "count")
+                .setProperty(REINDEX_PROPERTY_NAME, true);
+        NodeState after = builder.getNodeState();
+
+        IndexEditorProvider provider = new IndexEditorProvider() {
+            @Override
+            public Editor getIndexEditor(@Nonnull String type, @Nonnull NodeBuilder definition,
+                    @Nonnull NodeState root, @Nonnull IndexUpdateCallback callback) {
+                if ("count".equals(type)) {
+                    return new CountingEditor(definition);
+                }
+                return null;
+            }
+        };
+        NodeBuilder indexed = after.builder();
+        IndexUpdate update = new IndexUpdate(provider, null, after, indexed,
+                new IndexUpdateCallback() {
+                    @Override
+                    public void indexUpdate() {
+                    }
+                }).withParallelReindex(4);
+        assertNull(EditorDiff.process(VisibleEditor.wrap(update), before, after));
+
+        NodeState definition = checkPathExists(indexed.getNodeState(),
+                INDEX_DEFINITIONS_NAME, "countIndex");
+        assertFalse(definition.getBoolean(REINDEX_PROPERTY_NAME));
+        // a partition per child node of the root node
+        long children = after.getChildNodeCount(Long.MAX_VALUE);
+        assertEquals(children, definition.getLong("partitions"));
+        // all nodes counted once, including the root node
+        assertEquals(countNodes(after), definition.getLong("count"));
+    }
+
+    @Test
+    public void testParallelReindexBinaries() throws Exception {
+        DocumentNodeStore store = new DocumentMK.Builder().getNodeStore();
+        NodeBuilder builder = store.getRoot().builder();
+        builder.child("testRoot").child("a");
+        NodeState before = builder.getNodeState();
+        for (String name : new String[] {"index1", "index2"}) {
+            builder.child(INDEX_DEFINITIONS_NAME).child(name)
+                    .setProperty(IndexConstants.TYPE_PROPERTY_NAME, "blob")
+                    .setProperty(REINDEX_PROPERTY_NAME, true);
+        }
+        store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        NodeState after = store.getRoot();
+
+        final List<Blob> blobs = synchronizedList(new ArrayList<Blob>());
+        IndexEditorProvider provider = new IndexEditorProvider() {
+            @Override
+            public Editor getIndexEditor(@Nonnull String type, @Nonnull final NodeBuilder definition,
+                    @Nonnull NodeState root, @Nonnull IndexUpdateCallback callback) {
+                if (!"blob".equals(type)) {
+                    return null;
+                }
+                return new DefaultEditor() {
+                    @Override
+                    public void leave(NodeState before, NodeState after)
+                            throws CommitFailedException {
+                        try {
+                            Blob blob = definition.createBlob(
+                                    new ByteArrayInputStream(new byte[] {1, 2, 3}));
+                            blobs.add(blob);
+                            definition.setProperty("data", blob);
+                        } catch (IOException e) {
+                            throw new CommitFailedException("Test", 1, "Failed to create blob", e);
+                        }
+                    }
+                };
+            }
+        };
+        NodeBuilder indexed = after.builder();
+        IndexUpdate update = new IndexUpdate(provider, null, after, indexed,
+                new IndexUpdateCallback() {
+                    @Override
+                    public void indexUpdate() {
+                    }
+                }).withParallelReindex(2);
+        assertNull(EditorDiff.process(VisibleEditor.wrap(update), before, after));
+
+        // the binaries of the detached copies are written to the store,
+        // and not kept in memory until the copies are merged back
+        assertEquals(2, blobs.size());
+        for (Blob blob : blobs) {
+            assertTrue(blob instanceof BlobStoreBlob);
+        }
+        for (String name : new String[] {"index1", "index2"}) {
+            checkPathExists(indexed.getNodeState(), INDEX_DEFINITIONS_NAME, name);
+        }
+        store.dispose();
+    }
+
     /**
      * Auto Reindex Test
      * <ul>
@@ -418,6 +623,69 @@ public class IndexUpdateTest {
                 .getProperty(IndexConstants.REINDEX_COUNT).getValue(Type.LONG);
     }
 
+    private static long countNodes(NodeState state) {
+        long count = 1;
+        for (ChildNodeEntry entry : state.getChildNodeEntries()) {
+            count += countNodes(entry.getNodeState());
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of the content in a property of the index definition,
+     * using a partition per child node of the root node.
+     */
+    private static class CountingEditor extends DefaultEditor
+            implements PartitionedIndexEditor {
+
+        private final NodeBuilder definition;
+
+        private final AtomicInteger count;
+
+        private final AtomicInteger partitions;
+
+        CountingEditor(NodeBuilder definition) {
+            this(definition, new AtomicInteger(), new AtomicInteger());
+        }
+
+        private CountingEditor(NodeBuilder definition,
+                AtomicInteger count, AtomicInteger partitions) {
+            this.definition = definition;
+            this.count = count;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public Editor newPartition() {
+            partitions.incrementAndGet();
+            return new CountingEditor(null, count, partitions);
+        }
+
+        @Override
+        public void enter(NodeState before, NodeState after) {
+            if (definition != null) {
+                // only the child nodes are counted by the partitions
+                assertEquals(0, after.getChildNodeCount(1));
+                count.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void leave(NodeState before, NodeState after) {
+            if (definition != null) {
+                definition.setProperty("count", count.get());
+                definition.setProperty("partitions", partitions.get());
+            }
+        }
+
+        @Override
+        public Editor childNodeAdded(String name, NodeState after) {
+            count.incrementAndGet();
+            return new CountingEditor(null, count, partitions);
+        }
+
+    }
+
     private static IndexEditorProvider emptyProvider() {
         return new IndexEditorProvider() {
             @Override
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.observation;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Test;
+
+public class RecordedDiffTest {
+    private final NodeState before;
+    private final NodeState after;
+
+    {
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setChildNode("a").setChildNode("b").setProperty("p", 1);
+        builder.child("a").child("b").setChildNode("c").setProperty("q", 2);
+        builder.setChildNode("x").setProperty("p", 1);
+        builder.setChildNode("y");
+        for (int i = 0; i < 20; i++) {
+            builder.child("y").setChildNode("n" + i).setProperty("p", i);
+        }
+        before = builder.getNodeState();
+
+        builder = before.builder();
+        builder.child("a").child("b").setProperty("p", 2);
+        builder.child("a").child("b").child("c").remove();
+        builder.child("a").setChildNode("new").setChildNode("d").setProperty("r", 3);
+        builder.child("x").removeProperty("p");
+        builder.child("x").setProperty("s", "t");
+        for (int i = 0; i < 20; i += 3) {
+            builder.child("y").child("n" + i).remove();
+        }
+        after = builder.getNodeState();
+    }
+
+    @Test
+    public void replay() {
+        RecordedDiff diff = new RecordedDiff(before, after);
+        List<String> expected = newArrayList();
+        generate(new EventGenerator(before, after, new Handler(expected, "")));
+        assertFalse(expected.isEmpty());
+        // replay twice, as the diff is recorded in the first run
+        for (int i = 0; i < 2; i++) {
+            List<String> events = newArrayList();
+            EventGenerator generator = new EventGenerator();
+            generator.addHandler(diff, new Handler(events, ""));
+            generate(generator);
+            assertEquals(expected, events);
+        }
+    }
+
+    @Test
+    public void children() {
+        RecordedDiff diff = new RecordedDiff(before, after);
+        RecordedDiff a = diff.getChild("a");
+        assertNotNull(a);
+        assertSame(before.getChildNode("a"), a.getBefore());
+        assertSame(after.getChildNode("a"), a.getAfter());
+        assertNotNull(a.getChild("b"));
+        assertNotNull(a.getChild("b").getChild("c"));
+        assertFalse(a.getChild("b").getChild("c").getAfter().exists());
+        assertFalse(a.getChild("new").getBefore().exists());
+        assertNotNull(a.getChild("new").getChild("d"));
+        assertNull(diff.getChild("z"));
+        assertNull(diff.getChild("x").getChild("n1"));
+        assertFalse(diff.getChild("y").getChild("n3").getAfter().exists());
+    }
+
+    @Test
+    public void abort() {
+        RecordedDiff diff = new RecordedDiff(before, after);
+        final List<String> changes = newArrayList();
+        assertFalse(diff.getChild("y").compare(new DefaultNodeStateDiff() {
+            @Override
+            public boolean childNodeDeleted(String name, NodeState before) {
+                changes.add(name);
+                return changes.size() < 3;
+            }
+        }));
+        assertEquals(3, changes.size());
+    }
+
+    private static void generate(EventGenerator generator) {
+        while (!generator.isDone()) {
+            generator.generate();
+        }
+    }
+
+    private static class Handler extends DefaultEventHandler {
+        private final List<String> events;
+        private final String path;
+
+        Handler(List<String> events, String path) {
+            this.events = events;
+            this.path = path;
+        }
+
+        @Override
+        public EventHandler getChildHandler(String name, NodeState before, NodeState after) {
+            return new Handler(events, path + "/" + name);
+        }
+
+        @Override
+        public void propertyAdded(PropertyState after) {
+            events.add("+" + path + "/" + after.getName());
+        }
+
+        @Override
+        public void propertyChanged(PropertyState before, PropertyState after) {
+            events.add("^" + path + "/" + after.getName());
+        }
+
+        @Override
+        public void propertyDeleted(PropertyState before) {
+            events.add("-" + path + "/" + before.getName());
+        }
+
+        @Override
+        public void nodeAdded(String name, NodeState after) {
+            events.add("+" + path + "/" + name + "/");
+        }
+
+        @Override
+        public void nodeDeleted(String name, NodeState before) {
+            events.add("-" + path + "/" + name + "/");
+        }
+    }
+
+}
@@ -45,7 +45,9 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.base.Charsets;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -354,6 +356,111 @@ public class CompactionAndCleanupTest {
         }
     }
 
+    @Test
+    public void incrementalCompaction() throws Exception {
+        FileStore fileStore = new FileStore(directory, 1, false);
+        try {
+            final SegmentNodeStore nodeStore = new SegmentNodeStore(fileStore);
+            CompactionStrategy strategy = new CompactionStrategy(false, false, CLEAN_NONE, 0, (byte) 0) {
+                @Override
+                public boolean compacted(@Nonnull Callable<Boolean> setHead)
+                        throws Exception {
+                    return nodeStore.locked(setHead);
+                }
+            };
+            strategy.setIncremental(true);
+            fileStore.setCompactionStrategy(strategy);
+
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.setChildNode("a").setProperty("p", "a");
+            builder.setChildNode("b").setProperty("p", "b");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            fileStore.compact();
+            SegmentNodeState base = fileStore.getCompactedBase();
+            assertTrue(base != null);
+            assertEquals(fileStore.getHead(), base);
+
+            builder = nodeStore.getRoot().builder();
+            builder.getChildNode("b").setProperty("p", "c");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            fileStore.compact();
+            SegmentNodeState compacted = fileStore.getCompactedBase();
+            assertEquals(fileStore.getHead(), compacted);
+            assertEquals("c", compacted.getChildNode("root").getChildNode("b")
+                    .getProperty("p").getValue(STRING));
+
+            // the unchanged subtree was not rewritten
+            assertEquals(
+                    ((SegmentNodeState) base.getChildNode("root").getChildNode("a")).getRecordId(),
+                    ((SegmentNodeState) compacted.getChildNode("root").getChildNode("a")).getRecordId());
+        } finally {
+            fileStore.close();
+        }
+
+        // only the latest compacted head is kept
+        assertEquals(1, Files.readLines(
+                new File(directory, "compaction.log"), Charsets.UTF_8).size());
+
+        fileStore = new FileStore(directory, 1, false);
+        try {
+            SegmentNodeState base = fileStore.getCompactedBase();
+            assertTrue(base != null);
+            assertEquals(fileStore.getHead(), base);
+        } finally {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void fullCompactionInterval() throws Exception {
+        FileStore fileStore = new FileStore(directory, 1, false);
+        try {
+            final SegmentNodeStore nodeStore = new SegmentNodeStore(fileStore);
+            CompactionStrategy strategy = new CompactionStrategy(false, false, CLEAN_NONE, 0, (byte) 0) {
+                @Override
+                public boolean compacted(@Nonnull Callable<Boolean> setHead)
+                        throws Exception {
+                    return nodeStore.locked(setHead);
+                }
+            };
+            strategy.setIncremental(true);
+            strategy.setFullCompactionInterval(1);
+            fileStore.setCompactionStrategy(strategy);
+
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.setChildNode("a").setProperty("p", "a");
+            builder.setChildNode("b").setProperty("p", "b");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            fileStore.compact();
+            SegmentNodeState full = fileStore.getCompactedBase();
+
+            builder = nodeStore.getRoot().builder();
+            builder.getChildNode("b").setProperty("p", "c");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            fileStore.compact();
+            SegmentNodeState incremental = fileStore.getCompactedBase();
+            assertEquals(getRecordId(full, "a"), getRecordId(incremental, "a"));
+
+            builder = nodeStore.getRoot().builder();
+            builder.getChildNode("b").setProperty("p", "d");
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            fileStore.compact();
+            SegmentNodeState compacted = fileStore.getCompactedBase();
+            assertEquals(fileStore.getHead(), compacted);
+
+            // the interval was reached, so the unchanged subtree was rewritten
+            assertFalse(getRecordId(incremental, "a").equals(getRecordId(compacted, "a")));
+        } finally {
+            fileStore.close();
+        }
+    }
+
+    private static RecordId getRecordId(SegmentNodeState state, String name) {
+        return ((SegmentNodeState) state.getChildNode("root").getChildNode(name)).getRecordId();
+    }
+
     private static void addContent(NodeBuilder builder) {
         for (int k = 0; k < 10000; k++) {
             builder.setProperty(UUID.randomUUID().toString(), UUID.randomUUID().toString());
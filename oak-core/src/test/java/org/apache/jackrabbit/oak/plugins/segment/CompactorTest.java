@@ -16,10 +16,19 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment;
 
+import static com.google.common.collect.Sets.newHashSet;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.Set;
+
 import junit.framework.Assert;
 
 import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
@@ -56,6 +65,81 @@ public class CompactorTest {
 
     }
 
+    @Test
+    public void testParallelCompactor() throws Exception {
+        MemoryStore source = new MemoryStore();
+        try {
+            NodeStore store = new SegmentNodeStore(source);
+            init(store);
+            NodeBuilder builder = store.getRoot().builder();
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    builder.child("parent" + i).child("child" + j).setProperty("p", i * j);
+                }
+            }
+            store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            SegmentTracker tracker = source.getTracker();
+            Compactor compactor = new Compactor(
+                    new SegmentWriter(source, tracker, tracker.getWriter().getVersion()),
+                    null, false, 4);
+
+            SegmentNodeState before = (SegmentNodeState) store.getRoot();
+            SegmentNodeState after = compactor.compact(EMPTY_NODE, before);
+            Assert.assertEquals(before, after);
+
+            PartialCompactionMap map = compactor.getCompactionMap();
+            SegmentNodeState child = (SegmentNodeState) before
+                    .getChildNode("parent3").getChildNode("child5");
+            Assert.assertTrue(map.wasCompactedTo(child.getRecordId(),
+                    ((SegmentNodeState) after.getChildNode("parent3")
+                            .getChildNode("child5")).getRecordId()));
+
+            addTestContent(store, 10);
+            SegmentNodeState head = (SegmentNodeState) store.getRoot();
+            after = compactor.compact(before, head);
+            Assert.assertEquals(head, after);
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void testParallelCompactorDeduplicatesBinaries() throws Exception {
+        MemoryStore source = new MemoryStore();
+        try {
+            NodeStore store = new SegmentNodeStore(source);
+            byte[] data = new byte[2 * Segment.MEDIUM_LIMIT];
+            new Random().nextBytes(data);
+            NodeBuilder builder = store.getRoot().builder();
+            for (int i = 0; i < 10; i++) {
+                // separate copies of the same binary in different subtrees
+                Blob blob = store.createBlob(new ByteArrayInputStream(data));
+                builder.child("parent" + i).child("child").setProperty("b", blob);
+            }
+            store.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+            SegmentTracker tracker = source.getTracker();
+            Compactor compactor = new Compactor(
+                    new SegmentWriter(source, tracker, tracker.getWriter().getVersion()),
+                    null, false, 4);
+
+            SegmentNodeState before = (SegmentNodeState) store.getRoot();
+            SegmentNodeState after = compactor.compact(EMPTY_NODE, before);
+            Assert.assertEquals(before, after);
+
+            Set<RecordId> ids = newHashSet();
+            for (int i = 0; i < 10; i++) {
+                Blob blob = after.getChildNode("parent" + i).getChildNode("child")
+                        .getProperty("b").getValue(Type.BINARY);
+                ids.add(((SegmentBlob) blob).getRecordId());
+            }
+            Assert.assertEquals(1, ids.size());
+        } finally {
+            source.close();
+        }
+    }
+
     private static void init(NodeStore store) {
         new Oak(store).with(new OpenSecurityProvider())
                 .createContentRepository();
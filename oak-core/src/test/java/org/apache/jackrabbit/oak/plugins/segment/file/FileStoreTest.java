@@ -22,6 +22,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentVersion.V_11;
+import static org.apache.jackrabbit.oak.plugins.segment.file.FileStore.newFileStore;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -32,17 +33,30 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
 
 import com.google.common.base.Strings;
 import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.cache.CacheStats;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeBuilder;
 import org.apache.jackrabbit.oak.plugins.segment.Compactor;
 import org.apache.jackrabbit.oak.plugins.segment.RecordId;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentBlob;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeBuilder;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentTracker;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentWriter;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -93,6 +107,52 @@ public class FileStoreTest {
         store.close();
     }
 
+    @Test
+    public void reachableSegmentIds() throws IOException {
+        FileStore store = new FileStore(directory, 1, false);
+        store.close();
+
+        store = new FileStore(directory, 1, false);
+        SegmentNodeState base = store.getHead();
+        SegmentNodeBuilder builder = base.builder();
+        byte[] data = new byte[2 * 1024 * 1024];
+        new Random().nextBytes(data);
+        builder.setProperty("foo", builder.createBlob(new ByteArrayInputStream(data)));
+        store.setHead(base, builder.getNodeState());
+        store.flush();
+        store.close();
+
+        store = new FileStore(directory, 1, false);
+        assertTrue(containsBulkSegment(store.getReachableSegmentIds()));
+        // the binary becomes garbage
+        store.setHead(store.getHead(), base);
+        store.flush();
+        store.close();
+
+        store = new FileStore(directory, 1, false);
+        List<UUID> all = newArrayList();
+        for (Set<UUID> ids : store.getTarReaderIndex().values()) {
+            all.addAll(ids);
+        }
+        assertTrue(containsBulkSegment(all));
+        List<UUID> reachable = store.getReachableSegmentIds();
+        assertFalse(containsBulkSegment(reachable));
+        assertTrue(all.containsAll(reachable));
+        SegmentId head = store.getHead().getRecordId().getSegmentId();
+        assertTrue(reachable.contains(new UUID(
+                head.getMostSignificantBits(), head.getLeastSignificantBits())));
+        store.close();
+    }
+
+    private static boolean containsBulkSegment(List<UUID> ids) {
+        for (UUID id : ids) {
+            if (!SegmentId.isDataSegmentId(id.getLeastSignificantBits())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Test
     public void testCompaction() throws IOException {
         int largeBinarySize = 10 * 1024 * 1024;
@@ -256,4 +316,206 @@ public class FileStoreTest {
         }
     }
 
+    @Test
+    public void concurrentWriters() throws Exception {
+        final FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withConcurrentWriters(4)
+                .create();
+        final SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+        try {
+            assertEquals(4, store.getTracker().getWriterCount());
+
+            List<Thread> threads = newArrayList();
+            for (int i = 0; i < 8; i++) {
+                final String name = "t" + i;
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int k = 0; k < 50; k++) {
+                                NodeBuilder builder = nodeStore.getRoot().builder();
+                                builder.child(name).setProperty("p" + k, k);
+                                nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+                            }
+                        } catch (CommitFailedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        } finally {
+            store.close();
+        }
+
+        FileStore reopened = new FileStore(directory, 1, false);
+        try {
+            NodeState root = reopened.getHead().getChildNode("root");
+            for (int i = 0; i < 8; i++) {
+                assertEquals(50, root.getChildNode("t" + i).getPropertyCount());
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * A segment of one writer that references the not yet flushed segment
+     * of another writer ends up before the referenced segment in the tar
+     * file. Cleanup must not remove the referenced segment.
+     */
+    @Test
+    public void cleanupWithForwardReferenceOfConcurrentWriter() throws Exception {
+        // persist the initial head, so that it doesn't end up in the same
+        // segment as the garbage when both are written by the same writer
+        new FileStore(directory, 1, false).close();
+
+        FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withConcurrentWriters(2)
+                .create();
+        try {
+            SegmentWriter a = getWriterOfNewThread(store.getTracker());
+            SegmentWriter b = a;
+            while (b == a) {
+                b = getWriterOfNewThread(store.getTracker());
+            }
+
+            // garbage, so that cleanup creates a new generation of the file
+            byte[] data = new byte[1024 * 1024];
+            new Random().nextBytes(data);
+            a.writeStream(new ByteArrayInputStream(data));
+            a.flush();
+
+            NodeBuilder child = EmptyNodeState.EMPTY_NODE.builder();
+            child.setProperty("foo", "bar");
+            SegmentNodeState node = b.writeNode(child.getNodeState());
+
+            SegmentNodeState base = store.getHead();
+            NodeBuilder builder = new MemoryNodeBuilder(base);
+            builder.setChildNode("node", node);
+            SegmentNodeState head = a.writeNode(builder.getNodeState());
+
+            // the head segment is written before the segment it references
+            a.flush();
+            b.flush();
+            assertTrue(store.setHead(base, head));
+        } finally {
+            store.close();
+        }
+
+        store = new FileStore(directory, 1, false);
+        try {
+            long size = store.size();
+            store.cleanup();
+            assertTrue(store.size() < size);
+            assertEquals("bar", store.getHead().getChildNode("node")
+                    .getString("foo"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static SegmentWriter getWriterOfNewThread(
+            final SegmentTracker tracker) throws InterruptedException {
+        final SegmentWriter[] writer = new SegmentWriter[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writer[0] = tracker.getWriter();
+            }
+        });
+        thread.start();
+        thread.join();
+        return writer[0];
+    }
+
+    @Test
+    public void offHeapSegments() throws Exception {
+        FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withOffHeapCacheSize(16)
+                .create();
+        SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+        try {
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.setProperty("foo", Strings.repeat("bar", 1000));
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } finally {
+            store.close();
+        }
+
+        store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withMemoryMapping(false)
+                .withOffHeapCacheSize(16)
+                .create();
+        try {
+            assertTrue(store.getTracker().isOffHeap());
+            SegmentNodeState head = store.getHead();
+            assertEquals(3000, head.getChildNode("root")
+                    .getProperty("foo").getValue(Type.STRING).length());
+            Segment segment = head.getRecordId().getSegment();
+            assertTrue(segment.getOffHeapSize() > 0);
+            assertEquals(segment.size(), segment.getOffHeapSize());
+            assertTrue(store.getTracker().getOffHeapCacheStats()
+                    .estimateCurrentWeight() >= segment.getOffHeapSize());
+        } finally {
+            store.close();
+        }
+    }
+
+
+    @Test
+    public void offHeapCacheSizeIsBounded() throws Exception {
+        FileStore store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .create();
+        SegmentNodeStore nodeStore = new SegmentNodeStore(store);
+        Random random = new Random();
+        try {
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            for (int i = 0; i < 800; i++) {
+                builder.child("n" + i).setProperty(
+                        "foo", randomString(random, 10000));
+            }
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        } finally {
+            store.close();
+        }
+
+        store = newFileStore(directory)
+                .withMaxFileSize(1)
+                .withMemoryMapping(false)
+                .withOffHeapCacheSize(1)
+                .create();
+        try {
+            long limit = 1024 * 1024;
+            CacheStats stats = store.getTracker().getOffHeapCacheStats();
+            NodeState root = store.getHead().getChildNode("root");
+            for (int i = 0; i < 800; i++) {
+                assertEquals(10000, root.getChildNode("n" + i)
+                        .getString("foo").length());
+                assertTrue(stats.estimateCurrentWeight() <= limit);
+            }
+            assertTrue(stats.estimateCurrentWeight() > 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        return builder.toString();
+    }
+
 }
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.file;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TarLookupTableTest {
+
+    private final List<TarReader> readers = newArrayList();
+
+    @After
+    public void tearDown() throws IOException {
+        for (TarReader reader : readers) {
+            reader.close();
+            reader.getFile().delete();
+        }
+    }
+
+    @Test
+    public void lookup() throws IOException {
+        List<UUID> first = randomIds(100);
+        List<UUID> second = randomIds(3000);
+        TarReader a = createReader(first);
+        TarReader b = createReader(second);
+
+        TarLookupTable.Stats stats = new TarLookupTable.Stats();
+        TarLookupTable table = TarLookupTable.build(singletonList(a), stats);
+        assertEquals(100, table.size());
+        table = table.with(b);
+        assertEquals(3100, table.size());
+
+        for (UUID id : first) {
+            assertSame(a, table.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+        for (UUID id : second) {
+            assertSame(b, table.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+        UUID unknown = randomIds(1).get(0);
+        assertNull(table.get(unknown.getMostSignificantBits(), unknown.getLeastSignificantBits()));
+
+        assertEquals(3100, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+    }
+
+    @Test
+    public void newerReaderWins() throws IOException {
+        List<UUID> ids = randomIds(10);
+        TarReader older = createReader(ids);
+        TarReader newer = createReader(ids);
+
+        TarLookupTable.Stats stats = new TarLookupTable.Stats();
+        TarLookupTable table = TarLookupTable.build(singletonList(older), stats).with(newer);
+        assertEquals(10, table.size());
+        for (UUID id : ids) {
+            assertSame(newer, table.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+
+        List<TarReader> list = newArrayList(newer, older);
+        table = TarLookupTable.build(list, stats);
+        for (UUID id : ids) {
+            assertSame(newer, table.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+    }
+
+    @Test
+    public void statsMBean() throws Exception {
+        List<UUID> ids = randomIds(10);
+        TarLookupTable.Stats stats = new TarLookupTable.Stats();
+        TarLookupTable table = TarLookupTable.build(singletonList(createReader(ids)), stats);
+        UUID id = ids.get(0);
+        table.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(
+                "org.apache.jackrabbit.oak:type=" + SegmentLookupStatsMBean.TYPE
+                + ",name=TarLookupTableTest");
+        server.registerMBean(stats, name);
+        try {
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(0L, server.getAttribute(name, "MissCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static List<UUID> randomIds(int count) {
+        List<UUID> ids = newArrayList();
+        for (int i = 0; i < count; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(new UUID(
+                    id.getMostSignificantBits(),
+                    id.getLeastSignificantBits() & (-1L >>> 4))); // OAK-1672
+        }
+        return ids;
+    }
+
+    private TarReader createReader(List<UUID> ids) throws IOException {
+        File file = File.createTempFile("TarLookupTableTest", ".tar", new File("target"));
+        byte[] data = "Hello, World!".getBytes(UTF_8);
+        TarWriter writer = new TarWriter(file);
+        try {
+            for (UUID id : ids) {
+                writer.writeEntry(
+                        id.getMostSignificantBits(),
+                        id.getLeastSignificantBits(),
+                        data, 0, data.length);
+            }
+        } finally {
+            writer.close();
+        }
+        TarReader reader = TarReader.open(file, false);
+        readers.add(reader);
+        return reader;
+    }
+
+}
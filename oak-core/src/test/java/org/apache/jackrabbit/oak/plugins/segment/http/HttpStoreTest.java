@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.http;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.plugins.segment.Segment;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNotFoundException;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Strings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpStoreTest {
+
+    private static final int CHILDREN = 100;
+
+    /**
+     * Number of nodes in the content, including the super root and the root.
+     */
+    private static final int NODES = 2 + CHILDREN + CHILDREN * CHILDREN;
+
+    private static final String VALUE = Strings.repeat("x", 200);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MemoryStore store = new MemoryStore();
+
+    private final AtomicInteger segmentRequests = new AtomicInteger();
+
+    private final AtomicInteger batchRequests = new AtomicInteger();
+
+    /**
+     * Status of the batch responses, or 200 to return the segments.
+     */
+    private volatile int batchStatus = 200;
+
+    private HttpServer server;
+
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        // enough content for several data segments referencing each other
+        NodeBuilder builder = EMPTY_NODE.builder();
+        for (int i = 0; i < CHILDREN; i++) {
+            NodeBuilder child = builder.child("child" + i);
+            for (int j = 0; j < CHILDREN; j++) {
+                child.child("node" + j).setProperty("value", VALUE + i + "-" + j);
+            }
+        }
+        SegmentNodeState base = store.getHead();
+        NodeBuilder root = base.builder();
+        root.setChildNode("root", builder.getNodeState());
+        store.setHead(base, (SegmentNodeState) root.getNodeState());
+        store.getTracker().getWriter().flush();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Serves the head, single segments and batches of segments like the
+     * segment servlet of oak-http.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String query = exchange.getRequestURI().getQuery();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = 200;
+        if (path.equals("/")) {
+            body.write(store.getHead().getRecordId().toString().getBytes(UTF_8));
+        } else if (path.equals("/segments")) {
+            batchRequests.incrementAndGet();
+            status = batchStatus;
+            if (status == 200) {
+                DataOutputStream stream = new DataOutputStream(body);
+                for (String param : query.split("&")) {
+                    Segment segment = readSegment(param.substring("id=".length()));
+                    if (segment != null) {
+                        SegmentId id = segment.getSegmentId();
+                        stream.writeLong(id.getMostSignificantBits());
+                        stream.writeLong(id.getLeastSignificantBits());
+                        stream.writeInt(segment.size());
+                        segment.writeTo(stream);
+                    }
+                }
+                stream.flush();
+            }
+        } else {
+            segmentRequests.incrementAndGet();
+            Segment segment = readSegment(path.substring(1));
+            if (segment != null) {
+                segment.writeTo(body);
+            } else {
+                status = 404;
+            }
+        }
+        exchange.sendResponseHeaders(status, body.size() > 0 ? body.size() : -1);
+        OutputStream out = exchange.getResponseBody();
+        body.writeTo(out);
+        out.close();
+    }
+
+    private Segment readSegment(String info) {
+        UUID uuid = UUID.fromString(info);
+        try {
+            return store.getTracker().getSegmentId(
+                    uuid.getMostSignificantBits(),
+                    uuid.getLeastSignificantBits()).getSegment();
+        } catch (SegmentNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static int traverse(NodeState state) {
+        int count = 1;
+        for (PropertyState property : state.getProperties()) {
+            property.getValue(property.getType());
+        }
+        for (ChildNodeEntry entry : state.getChildNodeEntries()) {
+            count += traverse(entry.getNodeState());
+        }
+        return count;
+    }
+
+    private static long size(File directory) {
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    @Test
+    public void withoutCache() {
+        assertEquals(NODES, traverse(new HttpStore(url).getHead()));
+        assertTrue(segmentRequests.get() > 1);
+        assertEquals(0, batchRequests.get());
+    }
+
+    @Test
+    public void cacheAcrossRestarts() throws IOException {
+        File cache = folder.newFolder();
+        assertEquals(NODES, traverse(new HttpStore(url, cache).getHead()));
+        assertTrue(segmentRequests.get() + batchRequests.get() > 1);
+
+        segmentRequests.set(0);
+        batchRequests.set(0);
+        assertEquals(NODES, traverse(new HttpStore(url, cache).getHead()));
+        assertEquals(0, segmentRequests.get());
+        assertEquals(0, batchRequests.get());
+    }
+
+    @Test
+    public void prefetch() throws IOException {
+        assertEquals(NODES, traverse(new HttpStore(url).getHead()));
+        int segments = segmentRequests.getAndSet(0);
+
+        assertEquals(NODES, traverse(new HttpStore(url, folder.newFolder()).getHead()));
+        assertTrue(batchRequests.get() > 0);
+        assertTrue(segmentRequests.get() < segments);
+    }
+
+    @Test
+    public void batchNotSupported() throws IOException {
+        batchStatus = 404;
+        assertEquals(NODES, traverse(new HttpStore(url, folder.newFolder()).getHead()));
+        assertEquals(1, batchRequests.get());
+    }
+
+    @Test
+    public void batchFailure() throws IOException {
+        batchStatus = 500;
+        assertEquals(NODES, traverse(new HttpStore(url, folder.newFolder()).getHead()));
+        assertTrue(batchRequests.get() > 1);
+    }
+
+    @Test
+    public void cacheSizeLimit() throws IOException {
+        File cache = folder.newFolder();
+        assertEquals(NODES, traverse(new HttpStore(url, cache).getHead()));
+        long size = size(cache);
+
+        File limited = folder.newFolder();
+        assertEquals(NODES, traverse(new HttpStore(url, limited, size / 2).getHead()));
+        assertTrue(size(limited) > 0);
+        assertTrue(size(limited) <= size / 2);
+
+        // the limit also applies to the segments cached earlier
+        new HttpStore(url, cache, size / 2);
+        assertTrue(size(cache) <= size / 2);
+    }
+
+    @Test
+    public void cacheWriteFailure() throws IOException {
+        File cache = folder.newFolder();
+        HttpStore http = new HttpStore(url, cache);
+        FileUtils.deleteDirectory(cache);
+        assertFalse(cache.exists());
+
+        assertEquals(NODES, traverse(http.getHead()));
+    }
+
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -48,6 +49,22 @@ public class IteratorsTest {
         
     };
 
+    private static final FilterIterators.Serializer<Integer> INT_SERIALIZER = 
+            new FilterIterators.Serializer<Integer>() {
+
+        @Override
+        public String write(Integer entry) {
+            // negative values can not be serialized
+            return entry < 0 ? null : entry.toString();
+        }
+
+        @Override
+        public Integer read(String line) {
+            return Integer.parseInt(line);
+        }
+
+    };
+
     @Test
     public void distinct() {
         assertEquals("", toString(FilterIterators.newDistinct(it(), settings)));
@@ -56,6 +73,116 @@ public class IteratorsTest {
         assertEquals("1, 2, 3", toString(FilterIterators.newDistinct(it(1, 2, 1, 3, 3, 1), settings)));
     }
     
+    @Test
+    public void distinctSpill() {
+        settings.setSpillThreshold(2);
+        settings.setLimitInMemory(4);
+        assertEquals("3, 1, 2, 4, 5", toString(FilterIterators.newDistinct(
+                it(3, 1, 3, 5, 1, 2, 4, 5, 2), settings, INT_SERIALIZER)));
+        // entries that can not be serialized are kept in memory
+        assertEquals("3, 1, -1, -2, 2, 4, 5", toString(FilterIterators.newDistinct(
+                it(3, 1, 3, 5, -1, 1, 2, -2, 4, -1, 5, 2), settings, INT_SERIALIZER)));
+        try {
+            toString(FilterIterators.newDistinct(
+                    it(3, 1, -1, -2, -3), settings, INT_SERIALIZER));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        // without serializer
+        try {
+            toString(FilterIterators.newDistinct(
+                    it(1, 2, 3, 4, 5), settings));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sortSpill() {
+        settings.setSpillThreshold(3);
+        settings.setLimitInMemory(5);
+        assertEquals("1, 2, 3, 3, 4, 5, 6, 7, 8, 9", toString(FilterIterators.newSort(
+                it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, Integer.MAX_VALUE, settings, INT_SERIALIZER)));
+        assertEquals("1, 2, 3, 3", toString(FilterIterators.newSort(
+                it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, 4, settings, INT_SERIALIZER)));
+        // lists that can not be serialized are kept in memory
+        try {
+            toString(FilterIterators.newSort(
+                    it(9, 3, -7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, Integer.MAX_VALUE, settings, INT_SERIALIZER));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals("1, 3, 7, 9", toString(FilterIterators.newCombinedFilter(
+                it(9, 3, 7, 1, 3, 7, 1, 9, 9, 3), true, Long.MAX_VALUE, 0, INT_COMP, settings, INT_SERIALIZER)));
+        // without serializer
+        try {
+            toString(FilterIterators.newSort(
+                    it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, Integer.MAX_VALUE, settings));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void spillFilesAreDeleted() throws Exception {
+        settings.setSpillThreshold(3);
+        settings.setLimitInMemory(5);
+        int files = countTemporaryFiles();
+
+        // the merged runs are not read completely
+        assertEquals("1, 2", toString(FilterIterators.newSort(
+                it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, 2, settings, INT_SERIALIZER)));
+        assertEquals(files, countTemporaryFiles());
+
+        // limit
+        Iterator<Integer> it = FilterIterators.newCombinedFilter(
+                it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), false, 2, 1, INT_COMP, settings, INT_SERIALIZER);
+        assertEquals("2, 3", toString(it));
+        assertEquals(files, countTemporaryFiles());
+        it = FilterIterators.newCombinedFilter(
+                it(3, 1, 3, 5, 1, 2, 4, 5, 2), true, 2, 0, null, settings, INT_SERIALIZER);
+        assertEquals("3, 1", toString(it));
+        assertEquals(files, countTemporaryFiles());
+
+        // the caller stops reading
+        it = FilterIterators.newSort(
+                it(9, 3, 7, 1, 8, 3, 2, 6, 5, 4), INT_COMP, Integer.MAX_VALUE, settings, INT_SERIALIZER);
+        assertEquals(1, (int) it.next());
+        assertTrue(countTemporaryFiles() > files);
+        it = FilterIterators.newDistinct(
+                it(3, 1, 3, 5, 1, 2, 4, 5, 2), settings, INT_SERIALIZER);
+        for (int i = 0; i < 3; i++) {
+            it.next();
+        }
+        it = null;
+        for (int i = 0; i < 100 && FilterIterators.TemporaryFiles.getOpenCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            FilterIterators.TemporaryFiles.closeAbandoned();
+        }
+        assertEquals(0, FilterIterators.TemporaryFiles.getOpenCount());
+        assertEquals(files, countTemporaryFiles());
+    }
+
+    /**
+     * Count the temporary files of sort and distinct operations.
+     * 
+     * @return the number of files and directories
+     */
+    static int countTemporaryFiles() {
+        int count = 0;
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+            if (name.startsWith("oak-query-sort-") || name.startsWith("oak-sorter-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Test
     public void limit() {
         assertEquals("", toString(FilterIterators.newLimit(it(), 0)));
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests the hash join and batched lookup join strategies.
+ */
+public class JoinStrategyTest extends AbstractQueryTest {
+
+    private static final String EQUI_JOIN =
+            "select [c].[jcr:path], [p].[jcr:path] from [nt:base] as [c] " +
+            "inner join [nt:base] as [p] on [c].[p] = [p].[id] " +
+            "where isdescendantnode([c], [/test])";
+
+    private static final String CHILD_JOIN =
+            "select [p].[jcr:path], [c].[jcr:path] from [nt:base] as [p] " +
+            "inner join [nt:base] as [c] on ischildnode([c], [p]) " +
+            "where [p].[id] is not null";
+
+    private static final String HASH_JOIN =
+            "select [p].[jcr:path], [c].[jcr:path] from [nt:base] as [p] " +
+            "inner join [nt:base] as [c] on [c].[r] = [p].[id] " +
+            "where [p].[id] is not null and isdescendantnode([c], [/test])";
+
+    private static final String DESCENDANT_JOIN =
+            "select [a].[jcr:path], [b].[jcr:path] from [nt:base] as [a] " +
+            "inner join [nt:base] as [b] on isdescendantnode([b], [a]) " +
+            "where [b].[k] is not null";
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak()
+                .with(new InitialContent())
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Override
+    protected void createTestIndexNode() throws Exception {
+        Tree index = createTestIndexNode(root.getTree("/"), "property");
+        index.setProperty(PROPERTY_NAMES, ImmutableList.of("id", "p", "k"), Type.NAMES);
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 50; i++) {
+            Tree p = test.addChild("p" + i);
+            p.setProperty("id", "x" + i);
+            for (int j = 0; j < 3; j++) {
+                p.addChild("k" + j).setProperty("k", j);
+            }
+        }
+        // 420 of those reference one of the nodes above
+        for (int i = 0; i < 500; i++) {
+            Tree c = test.addChild("c" + i);
+            c.setProperty("p", "x" + (i % 60));
+            // not indexed
+            c.setProperty("r", "x" + (i % 60));
+        }
+        test.addChild("m").setProperty("p", ImmutableList.of("x3", "x4"), Type.STRINGS);
+        root.commit();
+    }
+
+    @Test
+    public void batchedLookup() throws Exception {
+        assertPlan(EQUI_JOIN, "/* batched lookup */");
+        List<String> result = executeQuery(EQUI_JOIN, SQL2);
+        assertEquals(422, result.size());
+        assertTrue(result.contains("/test/c61, /test/p1"));
+        assertTrue(result.contains("/test/m, /test/p3"));
+        assertTrue(result.contains("/test/m, /test/p4"));
+    }
+
+    @Test
+    public void hashJoin() throws Exception {
+        assertPlan(HASH_JOIN, "/* hash join */");
+        List<String> result = executeQuery(HASH_JOIN, SQL2);
+        assertEquals(420, result.size());
+        assertTrue(result.contains("/test/p1, /test/c61"));
+    }
+
+    @Test
+    public void indexedLookup() throws Exception {
+        // the child nodes are looked up by path, which is cheaper
+        // than reading all nodes for a hash join
+        String plan = executeQuery("explain " + CHILD_JOIN, SQL2).get(0);
+        assertFalse(plan, plan.contains("/* hash join */"));
+        List<String> result = executeQuery(CHILD_JOIN, SQL2);
+        assertEquals(150, result.size());
+        assertTrue(result.contains("/test/p7, /test/p7/k2"));
+    }
+
+    @Test
+    public void descendantJoin() throws Exception {
+        List<String> result = executeQuery(DESCENDANT_JOIN, SQL2);
+        // each of the 150 nodes has 3 ancestors
+        assertEquals(450, result.size());
+        assertTrue(result.contains("/, /test/p7/k2"));
+        assertTrue(result.contains("/test, /test/p7/k2"));
+        assertTrue(result.contains("/test/p7, /test/p7/k2"));
+    }
+
+    @Test
+    public void tooManyRows() throws Exception {
+        // nested loop joins don't support multi-valued properties
+        root.getTree("/test/m").remove();
+        root.commit();
+        // not all rows of a batch can be kept in memory,
+        // so the join is continued as a nested loop join
+        settings.setJoinLookupLimit(10);
+        assertPlan(EQUI_JOIN, "/* batched lookup */");
+        assertEquals(420, executeQuery(EQUI_JOIN, SQL2).size());
+        assertEquals(150, executeQuery(CHILD_JOIN, SQL2).size());
+        assertEquals(420, executeQuery(HASH_JOIN, SQL2).size());
+        assertEquals(450, executeQuery(DESCENDANT_JOIN, SQL2).size());
+    }
+
+    private void assertPlan(String query, String expected) {
+        String plan = executeQuery("explain " + query, SQL2).get(0);
+        assertTrue(plan, plan.contains(expected));
+    }
+
+}
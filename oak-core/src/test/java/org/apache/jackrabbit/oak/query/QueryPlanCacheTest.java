@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.PROPERTY_NAMES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexProvider;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests the {@link QueryPlanCache}.
+ */
+public class QueryPlanCacheTest extends AbstractQueryTest {
+
+    private static final String QUERY = "/jcr:root/test//*[@foo = 'bar']";
+
+    private final MemoryNodeStore store = new MemoryNodeStore();
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak(store)
+                .with(new InitialContent())
+                .with(new OpenSecurityProvider())
+                .with(new PropertyIndexProvider())
+                .with(new PropertyIndexEditorProvider())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Override
+    protected void createTestIndexNode() throws Exception {
+        Tree index = createTestIndexNode(root.getTree("/"), "property");
+        index.setProperty(PROPERTY_NAMES, ImmutableList.of("foo"), Type.NAMES);
+        root.getTree("/").addChild("test").addChild("a").setProperty("foo", "bar");
+        root.commit();
+    }
+
+    @Test
+    public void reuseConversionAndIndex() throws Exception {
+        QueryPlanCache cache = settings.getQueryPlanCache();
+        long hits = cache.getStats().getHitCount();
+
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        QueryPlanCache.Entry entry = cache.get(QUERY, XPATH);
+        assertNotNull(entry);
+        assertNotNull(entry.getConvertedStatement());
+        QueryPlanCache.IndexChoice choice = entry.getIndexChoice(getFingerprint());
+        assertNotNull(choice);
+        assertEquals("property", choice.getIndexName());
+
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        assertSame(entry, cache.get(QUERY, XPATH));
+        assertSame(choice, entry.getIndexChoice(getFingerprint()));
+        // two lookups of the test, and one of the second execution
+        assertEquals(hits + 3, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void indexedContentChange() throws Exception {
+        QueryPlanCache cache = settings.getQueryPlanCache();
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        long fingerprint = getFingerprint();
+        QueryPlanCache.IndexChoice choice = cache.get(QUERY, XPATH)
+                .getIndexChoice(fingerprint);
+        assertNotNull(choice);
+
+        // only the hidden index data changes
+        root.getTree("/test").addChild("b").setProperty("foo", "bar");
+        root.commit();
+
+        assertEquals(fingerprint, getFingerprint());
+        List<String> result = executeQuery(QUERY, XPATH);
+        assertEquals(2, result.size());
+        assertNotNull(cache.get(QUERY, XPATH).getIndexChoice(fingerprint));
+    }
+
+    @Test
+    public void indexDefinitionChange() throws Exception {
+        QueryPlanCache cache = settings.getQueryPlanCache();
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        long fingerprint = getFingerprint();
+        QueryPlanCache.Entry entry = cache.get(QUERY, XPATH);
+        assertNotNull(entry.getIndexChoice(fingerprint));
+
+        root.getTree("/" + INDEX_DEFINITIONS_NAME + "/" + TEST_INDEX_NAME)
+                .setProperty(PROPERTY_NAMES, ImmutableList.of("foo", "x"), Type.NAMES);
+        root.commit();
+
+        long newFingerprint = getFingerprint();
+        assertFalse(fingerprint == newFingerprint);
+        assertNull(entry.getIndexChoice(newFingerprint));
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        assertNotNull(entry.getIndexChoice(newFingerprint));
+    }
+
+    @Test
+    public void nestedIndexDefinitionChange() throws Exception {
+        QueryPlanCache cache = settings.getQueryPlanCache();
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        long fingerprint = getFingerprint();
+        QueryPlanCache.Entry entry = cache.get(QUERY, XPATH);
+        assertNotNull(entry.getIndexChoice(fingerprint));
+
+        Tree nested = createTestIndexNode(root.getTree("/test"), "property");
+        nested.setProperty(PROPERTY_NAMES, ImmutableList.of("foo"), Type.NAMES);
+        root.commit();
+
+        long newFingerprint = getFingerprint();
+        assertFalse(fingerprint == newFingerprint);
+        assertNull(entry.getIndexChoice(newFingerprint));
+        // a nested definition elsewhere doesn't apply to the query
+        assertEquals(QueryPlanCache.getFingerprint(store.getRoot(), "/"),
+                QueryPlanCache.getFingerprint(store.getRoot(), "/other"));
+        assertQuery(QUERY, XPATH, ImmutableList.of("/test/a"));
+        assertNotNull(entry.getIndexChoice(newFingerprint));
+    }
+
+    private long getFingerprint() {
+        return QueryPlanCache.getFingerprint(store.getRoot(), "/test");
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.query;
+
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_BINDINGS;
+import static org.apache.jackrabbit.oak.api.QueryEngine.NO_MAPPINGS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.Result;
+import org.apache.jackrabbit.oak.api.ResultRow;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests "order by" and "distinct" queries that write rows to temporary files.
+ */
+public class SpillTest extends AbstractQueryTest {
+
+    private final QueryEngineSettings settings = new QueryEngineSettings();
+
+    @Override
+    protected ContentRepository createRepository() {
+        return new Oak()
+                .with(new InitialContent())
+                .with(new OpenSecurityProvider())
+                .with(settings)
+                .createContentRepository();
+    }
+
+    @Override
+    protected void createTestIndexNode() throws Exception {
+        Tree test = root.getTree("/").addChild("test");
+        for (int i = 0; i < 100; i++) {
+            Tree t = test.addChild("n" + i);
+            t.setProperty("x", (i * 37) % 100);
+            t.setProperty("y", "v" + (i % 7));
+            t.setProperty("d", "2015-01-" + (10 + i % 20) + "T10:00:00.000Z", Type.DATE);
+            t.setProperty("m", ImmutableList.of("a\n" + i, "b\"" + i), Type.STRINGS);
+        }
+        root.commit();
+        settings.setSpillThreshold(10);
+        settings.setLimitInMemory(20);
+    }
+
+    @Test
+    public void orderBy() throws Exception {
+        List<String> result = executeQuery(
+                "select [jcr:path], [x] from [nt:base] " +
+                "where isdescendantnode('/test') order by [x] desc", SQL2);
+        assertEquals(100, result.size());
+        assertEquals("/test/n27, 99", result.get(0));
+        assertEquals("/test/n0, 0", result.get(99));
+
+        result = executeQuery(
+                "select [jcr:path], [x], [m] from [nt:base] " +
+                "where isdescendantnode('/test') order by [d], [x]", SQL2);
+        assertEquals(100, result.size());
+        assertTrue(result.get(0).startsWith("/test/n0, 0, "));
+        String row = result.get(1);
+        assertTrue(row, row.startsWith("/test/n60, 20, "));
+        assertTrue(row, row.contains("a\n60") && row.contains("b\"60"));
+    }
+
+    @Test
+    public void orderByWithLimit() throws Exception {
+        Result result = qe.executeQuery("select [jcr:path] from [nt:base] " +
+                "where isdescendantnode('/test') order by [x]", SQL2, 
+                15, 3, NO_BINDINGS, NO_MAPPINGS);
+        List<String> paths = Lists.newArrayList();
+        for (ResultRow row : result.getRows()) {
+            paths.add(row.getPath());
+        }
+        assertEquals(15, paths.size());
+        // x = 3
+        assertEquals("/test/n19", paths.get(0));
+    }
+
+    @Test
+    public void partiallyReadResult() throws Exception {
+        int files = IteratorsTest.countTemporaryFiles();
+        Result result = qe.executeQuery("select [jcr:path] from [nt:base] " +
+                "where isdescendantnode('/test') order by [x]", SQL2, 
+                5, 0, NO_BINDINGS, NO_MAPPINGS);
+        assertEquals(5, Iterables.size(result.getRows()));
+        assertEquals(files, IteratorsTest.countTemporaryFiles());
+
+        result = qe.executeQuery("select distinct [y], [x] from [nt:base] " +
+                "where isdescendantnode('/test')", SQL2, 
+                15, 0, NO_BINDINGS, NO_MAPPINGS);
+        assertEquals(15, Iterables.size(result.getRows()));
+        assertEquals(files, IteratorsTest.countTemporaryFiles());
+    }
+
+    @Test
+    public void distinct() throws Exception {
+        List<String> result = executeQuery(
+                "select distinct [y], [x] from [nt:base] " +
+                "where isdescendantnode('/test')", SQL2);
+        assertEquals(100, result.size());
+        assertTrue(result.contains("v3, 70"));
+        result = executeQuery(
+                "select [jcr:path], [y] from [nt:base] " +
+                "where isdescendantnode('/test') " +
+                "union select [jcr:path], [y] from [nt:base] " +
+                "where isdescendantnode('/test') and [x] < 50", SQL2);
+        assertEquals(100, result.size());
+        assertTrue(result.contains("/test/n10, v3"));
+        result = executeQuery(
+                "select [jcr:path], [x] from [nt:base] " +
+                "where isdescendantnode('/test') and [x] >= 40 " +
+                "union select [jcr:path], [x] from [nt:base] " +
+                "where isdescendantnode('/test') and [x] < 60 " +
+                "order by [x] desc", SQL2);
+        assertEquals(100, result.size());
+        assertEquals("/test/n27, 99", result.get(0));
+        assertEquals("/test/n0, 0", result.get(99));
+    }
+
+    @Test
+    public void union() throws Exception {
+        // converted to a union, which removes duplicate rows
+        List<String> result = executeQuery(
+                "/jcr:root/test/*[@x < 50 or @y = 'v1']", XPATH);
+        assertEquals(58, result.size());
+    }
+
+    @Test
+    public void inMemoryLimit() throws Exception {
+        settings.setSpillThreshold(20);
+        try {
+            executeQuery("select [jcr:path] from [nt:base] " +
+                    "where isdescendantnode('/test') order by [x]", SQL2);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.security.authorization.permission;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeBits;
+import org.apache.jackrabbit.oak.spi.security.privilege.PrivilegeConstants;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Test;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PermissionEntryCacheTest {
+
+    private static final String PRINCIPAL = "everyone";
+
+    @Test
+    public void sharedAcrossSessions() {
+        SharedPermissionEntryCache shared = new SharedPermissionEntryCache();
+        CountingPermissionStore store = new CountingPermissionStore();
+
+        PrincipalPermissionEntries ppe1 = new PermissionEntryCache(shared).getEntries(store, PRINCIPAL);
+        PrincipalPermissionEntries ppe2 = new PermissionEntryCache(shared).getEntries(store, PRINCIPAL);
+        assertEquals(1, store.numLoads);
+        assertSame(ppe1, ppe2);
+        assertEquals(1, ppe1.getEntries("/content").size());
+        try {
+            ppe1.getEntries().put("/foo", new TreeSet<PermissionEntry>());
+            fail("shared entries must be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // entries read at a path are served from the shared cache as well
+        Collection<PermissionEntry> entries = new TreeSet<PermissionEntry>();
+        new PermissionEntryCache(shared).load(store, entries, PRINCIPAL, "/content");
+        assertEquals(1, entries.size());
+        assertEquals(1, store.numLoads);
+        assertEquals(0, store.numPathLoads);
+    }
+
+    @Test
+    public void revisionAware() {
+        SharedPermissionEntryCache shared = new SharedPermissionEntryCache();
+        CountingPermissionStore store = new CountingPermissionStore();
+        PrincipalPermissionEntries ppe1 = new PermissionEntryCache(shared).getEntries(store, PRINCIPAL);
+
+        // a session reading a different revision of the permission store
+        CountingPermissionStore other = new CountingPermissionStore();
+        other.state = EMPTY_NODE.builder().setProperty("rev", 2L).getNodeState();
+        PrincipalPermissionEntries ppe2 = new PermissionEntryCache(shared).getEntries(other, PRINCIPAL);
+        assertEquals(1, other.numLoads);
+        assertNotSame(ppe1, ppe2);
+        assertSame(ppe2, new PermissionEntryCache(shared).getEntries(other, PRINCIPAL));
+    }
+
+    @Test
+    public void invalidate() {
+        SharedPermissionEntryCache shared = new SharedPermissionEntryCache();
+        CountingPermissionStore store = new CountingPermissionStore();
+        new PermissionEntryCache(shared).getEntries(store, PRINCIPAL);
+        assertEquals(1, shared.size());
+
+        shared.invalidate(ImmutableSet.of(PRINCIPAL));
+        assertEquals(0, shared.size());
+        new PermissionEntryCache(shared).getEntries(store, PRINCIPAL);
+        assertEquals(2, store.numLoads);
+    }
+
+    @Test
+    public void withoutSharedCache() {
+        CountingPermissionStore store = new CountingPermissionStore();
+        new PermissionEntryCache().getEntries(store, PRINCIPAL);
+        new PermissionEntryCache().getEntries(store, PRINCIPAL);
+        assertEquals(2, store.numLoads);
+    }
+
+    private static final class CountingPermissionStore implements PermissionStore {
+
+        NodeState state = EMPTY_NODE.builder().setProperty("rev", 1L).getNodeState();
+
+        int numLoads;
+
+        int numPathLoads;
+
+        @Override
+        public Collection<PermissionEntry> load(Collection<PermissionEntry> entries,
+                                                @Nonnull String principalName,
+                                                @Nonnull String path) {
+            numPathLoads++;
+            return null;
+        }
+
+        @Override
+        public void load(@Nonnull Map<String, Collection<PermissionEntry>> entries,
+                         @Nonnull String principalName) {
+            // ignore
+        }
+
+        @Nonnull
+        @Override
+        public PrincipalPermissionEntries load(@Nonnull String principalName) {
+            numLoads++;
+            PrincipalPermissionEntries ppe = new PrincipalPermissionEntries(principalName);
+            Collection<PermissionEntry> entries = new TreeSet<PermissionEntry>();
+            entries.add(new PermissionEntry("/content", true, 0,
+                    PrivilegeBits.BUILT_IN.get(PrivilegeConstants.JCR_READ),
+                    RestrictionPattern.EMPTY));
+            ppe.getEntries().put("/content", entries);
+            ppe.setFullyLoaded(true);
+            return ppe;
+        }
+
+        @Override
+        public long getNumEntries(@Nonnull String principalName, long max) {
+            return 1;
+        }
+
+        @Override
+        public NodeState getPrincipalRootState(@Nonnull String principalName) {
+            return state;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import com.google.common.collect.Sets;
 import junit.framework.Assert;
 
 import org.apache.jackrabbit.oak.spi.security.ConfigurationParameters;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -182,6 +183,11 @@ public class PermissionEntryProviderImplTest {
             return cnt;
         }
 
+        @Override
+        public NodeState getPrincipalRootState(@Nonnull String principalName) {
+            return null;
+        }
+
     }
 
     private class MockPermissionEntryCache extends PermissionEntryCache {
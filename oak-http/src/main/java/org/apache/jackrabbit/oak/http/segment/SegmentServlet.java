@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.oak.http.segment;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.UUID;
 
@@ -29,12 +30,29 @@ import org.apache.jackrabbit.oak.plugins.segment.RecordId;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNotFoundException;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 
 import com.google.common.io.ByteStreams;
 
 public abstract class SegmentServlet extends HttpServlet {
 
+    /**
+     * Path of the batch endpoint, which returns all segments given in
+     * the {@code id} request parameters in a single response.
+     */
+    public static final String SEGMENTS = "segments";
+
+    /**
+     * Maximum number of segments returned by a single batch request.
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Segments never change once written, so clients may cache them forever.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
     protected abstract SegmentStore getSegmentStore();
 
     private SegmentId getSegmentId(String info) {
@@ -66,8 +84,10 @@ public abstract class SegmentServlet extends HttpServlet {
             response.setContentType("text/plain; charset=UTF-8");
             SegmentNodeState head = getSegmentStore().getHead();
             response.getWriter().write(head.getRecordId().toString());
+        } else if (info.equals("/" + SEGMENTS)) {
+            doGetSegments(request, response);
         } else if (info.startsWith("/")) {
-            doGetSegment(info.substring(1, info.length()), response);
+            doGetSegment(info.substring(1, info.length()), request, response);
         } else {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
@@ -99,7 +119,8 @@ public abstract class SegmentServlet extends HttpServlet {
     }
 
     private void doGetSegment(
-            String info, HttpServletResponse response)
+            String info,
+            HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         SegmentId id = getSegmentId(info);
         if (id == null) {
@@ -107,16 +128,67 @@ public abstract class SegmentServlet extends HttpServlet {
             return;
         }
 
-        Segment segment = id.getSegment();
-        if (segment == null) {
+        // check that the segment still exists, also when the client
+        // already has it, as it may have been garbage collected
+        Segment segment;
+        try {
+            segment = id.getSegment();
+        } catch (SegmentNotFoundException e) {
             response.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
+        // the content of a segment is identified by its id
+        String etag = "\"" + id + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
         response.setContentType("application/octet-stream");
+        response.setContentLength(segment.size());
         segment.writeTo(response.getOutputStream());
     }
 
+    /**
+     * Writes the requested segments one after the other, each preceded by
+     * the most and least significant bits of its id and its length. Segments
+     * that are not found are left out of the response.
+     */
+    private void doGetSegments(
+            HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        String[] ids = request.getParameterValues("id");
+        if (ids == null || ids.length > MAX_BATCH_SIZE) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        response.setContentType("application/octet-stream");
+        // missing segments are left out, so the response may change later
+        response.setHeader("Cache-Control", "no-store");
+        DataOutputStream stream = new DataOutputStream(response.getOutputStream());
+        for (String info : ids) {
+            SegmentId id = getSegmentId(info);
+            if (id == null) {
+                continue;
+            }
+            Segment segment;
+            try {
+                segment = id.getSegment();
+            } catch (SegmentNotFoundException e) {
+                continue;
+            }
+            stream.writeLong(id.getMostSignificantBits());
+            stream.writeLong(id.getLeastSignificantBits());
+            stream.writeInt(segment.size());
+            segment.writeTo(stream);
+        }
+        stream.flush();
+    }
+
     private void doPutSegment(
             String info,
             HttpServletRequest request, HttpServletResponse response)
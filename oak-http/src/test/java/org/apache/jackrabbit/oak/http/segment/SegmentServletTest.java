@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.oak.http.segment;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentWriter;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentServletTest {
+
+    private final MemoryStore store = new MemoryStore();
+
+    private final SegmentServlet servlet = new SegmentServlet() {
+        @Override
+        protected SegmentStore getSegmentStore() {
+            return store;
+        }
+    };
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private HttpServletResponse response;
+
+    private SegmentId head;
+
+    private SegmentId other;
+
+    @Before
+    public void setUp() throws IOException {
+        head = store.getHead().getRecordId().getSegmentId();
+
+        NodeBuilder builder = EMPTY_NODE.builder();
+        builder.setProperty("foo", "bar");
+        SegmentWriter writer = store.getTracker().getWriter();
+        other = writer.writeNode(builder.getNodeState()).getRecordId().getSegmentId();
+        writer.flush();
+
+        response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+    }
+
+    @Test
+    public void getSegment() throws Exception {
+        servlet.doGet(request("/" + head), response);
+
+        verify(response).setHeader("ETag", "\"" + head + "\"");
+        verify(response).setHeader("Cache-Control", "public, max-age=31536000, immutable");
+        verify(response).setContentLength(head.getSegment().size());
+        assertArrayEquals(getBytes(head), output.toByteArray());
+    }
+
+    @Test
+    public void getSegmentNotModified() throws Exception {
+        HttpServletRequest request = request("/" + head);
+        when(request.getHeader("If-None-Match")).thenReturn("\"" + head + "\"");
+        servlet.doGet(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void getMissingSegmentNotModified() throws Exception {
+        SegmentId missing = newSegmentId();
+        HttpServletRequest request = request("/" + missing);
+        when(request.getHeader("If-None-Match")).thenReturn("\"" + missing + "\"");
+        servlet.doGet(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+        verify(response, never()).setStatus(anyInt());
+    }
+
+    @Test
+    public void getSegments() throws Exception {
+        SegmentId missing = newSegmentId();
+        HttpServletRequest request = request("/" + SegmentServlet.SEGMENTS);
+        when(request.getParameterValues("id")).thenReturn(new String[] {
+                head.toString(), missing.toString(), "invalid", other.toString() });
+        servlet.doGet(request, response);
+
+        // the response depends on which segments are missing
+        verify(response).setHeader("Cache-Control", "no-store");
+
+        // missing and invalid segments are left out
+        DataInputStream stream = new DataInputStream(
+                new ByteArrayInputStream(output.toByteArray()));
+        for (SegmentId id : new SegmentId[] { head, other }) {
+            assertEquals(
+                    new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits()),
+                    new UUID(stream.readLong(), stream.readLong()));
+            byte[] data = new byte[stream.readInt()];
+            stream.readFully(data);
+            assertArrayEquals(getBytes(id), data);
+        }
+        assertEquals(0, stream.available());
+    }
+
+    @Test
+    public void getTooManySegments() throws Exception {
+        String[] ids = new String[SegmentServlet.MAX_BATCH_SIZE + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = head.toString();
+        }
+        HttpServletRequest request = request("/" + SegmentServlet.SEGMENTS);
+        when(request.getParameterValues("id")).thenReturn(ids);
+        servlet.doGet(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+        assertEquals(0, output.size());
+    }
+
+    private static HttpServletRequest request(String info) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getPathInfo()).thenReturn(info);
+        return request;
+    }
+
+    private SegmentId newSegmentId() {
+        UUID uuid = UUID.randomUUID();
+        return store.getTracker().getSegmentId(
+                uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private static byte[] getBytes(SegmentId id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        id.getSegment().writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+}
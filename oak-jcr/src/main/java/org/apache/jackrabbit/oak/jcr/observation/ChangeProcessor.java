@@ -22,6 +22,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.OBSERVATION_EVENT_COUNTER;
 import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type.OBSERVATION_EVENT_DURATION;
 import static org.apache.jackrabbit.oak.plugins.observation.filter.VisibleFilter.VISIBLE_FILTER;
+import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.getService;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerMBean;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerObserver;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.scheduleWithFixedDelay;
@@ -46,6 +47,7 @@ import org.apache.jackrabbit.commons.observation.ListenerTracker;
 import org.apache.jackrabbit.oak.api.ContentSession;
 import org.apache.jackrabbit.oak.namepath.NamePathMapper;
 import org.apache.jackrabbit.oak.plugins.observation.CommitRateLimiter;
+import org.apache.jackrabbit.oak.plugins.observation.RecordedDiff;
 import org.apache.jackrabbit.oak.plugins.observation.filter.EventFilter;
 import org.apache.jackrabbit.oak.plugins.observation.filter.FilterConfigMBean;
 import org.apache.jackrabbit.oak.plugins.observation.filter.FilterProvider;
@@ -109,6 +111,7 @@ class ChangeProcessor implements Observer {
     private final CommitRateLimiter commitRateLimiter;
 
     private CompositeRegistration registration;
+    private volatile ObservationDispatcher dispatcher;
     private volatile NodeState previousRoot;
 
     public ChangeProcessor(
@@ -141,6 +144,11 @@ class ChangeProcessor implements Observer {
 
     /**
      * Start this change processor
+     * <p>
+     * If an {@link ObservationDispatcher} is available in the whiteboard, this
+     * change processor is registered with it, so that the content diff of each
+     * commit is shared with the other listeners.
+     *
      * @param whiteboard  the whiteboard instance to used for scheduling individual
      *                    runs of this change processor.
      * @throws IllegalStateException if started already
@@ -152,8 +160,11 @@ class ChangeProcessor implements Observer {
         final BackgroundObserver observer = createObserver(executor);
         Map<String, String> attrs = ImmutableMap.of(LISTENER_ID, String.valueOf(COUNTER.incrementAndGet()));
         String name = tracker.toString();
+        dispatcher = getService(whiteboard, ObservationDispatcher.class);
         registration = new CompositeRegistration(
-            registerObserver(whiteboard, observer),
+            dispatcher != null
+                ? dispatcher.addObserver(observer)
+                : registerObserver(whiteboard, observer),
             registerMBean(whiteboard, EventListenerMBean.class,
                     tracker.getListenerMBean(), "EventListener", name, attrs),
             registerMBean(whiteboard, BackgroundObserverMBean.class,
@@ -297,8 +308,16 @@ class ChangeProcessor implements Observer {
                 // FIXME don't rely on toString for session id
                 if (provider.includeCommit(contentSession.toString(), info)) {
                     EventFilter filter = provider.getFilter(previousRoot, root);
-                    EventIterator events = new EventQueue(namePathMapper, info, previousRoot, root,
-                            provider.getSubTrees(), Filters.all(filter, VISIBLE_FILTER));
+                    ObservationDispatcher d = dispatcher;
+                    RecordedDiff diff = d == null ? null : d.getDiff(previousRoot, root);
+                    EventIterator events;
+                    if (diff != null) {
+                        events = new EventQueue(namePathMapper, info, diff,
+                                provider.getSubTrees(), Filters.all(filter, VISIBLE_FILTER));
+                    } else {
+                        events = new EventQueue(namePathMapper, info, previousRoot, root,
+                                provider.getSubTrees(), Filters.all(filter, VISIBLE_FILTER));
+                    }
 
                     if (events.hasNext() && runningMonitor.enterIf(running)) {
                         try {
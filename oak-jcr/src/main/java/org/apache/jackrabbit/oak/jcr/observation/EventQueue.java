@@ -32,6 +32,7 @@ import org.apache.jackrabbit.oak.namepath.NamePathMapper;
 import org.apache.jackrabbit.oak.plugins.observation.EventGenerator;
 import org.apache.jackrabbit.oak.plugins.observation.EventHandler;
 import org.apache.jackrabbit.oak.plugins.observation.FilteredHandler;
+import org.apache.jackrabbit.oak.plugins.observation.RecordedDiff;
 import org.apache.jackrabbit.oak.plugins.observation.filter.EventFilter;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
@@ -60,6 +61,39 @@ class EventQueue implements EventIterator {
         }
     }
 
+    /**
+     * Create a queue of the events of a recorded diff. Only the recorded
+     * changes within the given base paths are replayed, so base paths
+     * without changes are skipped without reading any content.
+     */
+    public EventQueue(
+            @Nonnull NamePathMapper mapper, CommitInfo info, @Nonnull RecordedDiff diff,
+            @Nonnull Iterable<String> basePaths, @Nonnull EventFilter filter) {
+        this.generator = new EventGenerator();
+        EventFactory factory = new EventFactory(mapper, info);
+        EventHandler handler = new FilteredHandler(
+                filter, new QueueingHandler(this, factory, diff.getBefore(), diff.getAfter()));
+        for (String path : basePaths) {
+            addHandler(diff, path, handler, generator);
+        }
+    }
+
+    private static void addHandler(RecordedDiff diff, String path,
+            EventHandler handler, EventGenerator generator) {
+        for (String name : PathUtils.elements(path)) {
+            diff = diff.getChild(name);
+            if (diff == null) {
+                // no changes within this path
+                return;
+            }
+            handler = handler.getChildHandler(name, diff.getBefore(), diff.getAfter());
+            if (handler == null) {
+                return;
+            }
+        }
+        generator.addHandler(diff, handler);
+    }
+
     private static void addHandler(NodeState before, NodeState after, String path,
             EventHandler handler, EventGenerator generator) {
         for (String name : PathUtils.elements(path)) {
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.jcr.observation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.jackrabbit.oak.plugins.observation.RecordedDiff;
+import org.apache.jackrabbit.oak.spi.commit.CompositeObserver;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.whiteboard.Registration;
+
+/**
+ * Dispatches content changes to the {@link ChangeProcessor}s of all
+ * observation listeners of a repository, and shares the content diff of each
+ * commit between them. The diff is recorded when the first listener
+ * processes the commit, and the other listeners replay the recorded changes
+ * instead of comparing the node states again.
+ * <p>
+ * The dispatcher only needs to be registered once as an {@link Observer}.
+ * Each change processor still has its own queue, so that slow listeners
+ * don't delay the others. The diffs of the most recent commits are kept,
+ * as long as their estimated memory (which grows while listeners replay
+ * them) is within a limit. Listeners that lag behind further (or whose
+ * queue was compacted) compare the node states themselves.
+ */
+public class ObservationDispatcher implements Observer {
+
+    /**
+     * The maximum estimated memory of the recorded diffs, in bytes. The diff
+     * of the most recent commit is always kept.
+     */
+    static final long RECORDED_DIFF_MEMORY =
+            Long.getLong("oak.observation.recordedDiffMemory", 16 * 1024 * 1024);
+
+    private final CompositeObserver observers = new CompositeObserver();
+
+    private final long maxMemory;
+
+    /**
+     * The recorded diffs, the most recent commit first.
+     */
+    private final LinkedList<RecordedDiff> diffs = new LinkedList<RecordedDiff>();
+
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    private NodeState root;
+
+    public ObservationDispatcher() {
+        this(RECORDED_DIFF_MEMORY);
+    }
+
+    ObservationDispatcher(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Register an observer, which is first called with the current root (if
+     * available), and then for each change.
+     *
+     * @param observer the observer
+     * @return the registration, to remove the observer again
+     */
+    @Nonnull
+    public synchronized Registration addObserver(@Nonnull final Observer observer) {
+        if (root != null) {
+            observer.contentChanged(root, null);
+        }
+        observers.addObserver(observer);
+        return new Registration() {
+            @Override
+            public void unregister() {
+                observers.removeObserver(observer);
+            }
+        };
+    }
+
+    /**
+     * Get the shared diff between two root states.
+     *
+     * @param before the before state
+     * @param after the after state
+     * @return the diff, or {@code null} if there is no diff for exactly
+     *         these states
+     */
+    @CheckForNull
+    public RecordedDiff getDiff(
+            @Nonnull NodeState before, @Nonnull NodeState after) {
+        synchronized (diffs) {
+            for (RecordedDiff diff : diffs) {
+                // compare by identity, as comparing node states is expensive
+                if (diff.getAfter() == after && diff.getBefore() == before) {
+                    sharedCount.incrementAndGet();
+                    return diff;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of times a recorded diff was returned
+     */
+    long getSharedCount() {
+        return sharedCount.get();
+    }
+
+    /**
+     * @return the number of recorded diffs that are kept
+     */
+    int getRecordedCount() {
+        synchronized (diffs) {
+            return diffs.size();
+        }
+    }
+
+    /**
+     * Remove the oldest diffs while the estimated memory of all diffs is
+     * above the limit.
+     */
+    private void trim() {
+        long memory = 0;
+        int keep = 0;
+        for (RecordedDiff diff : diffs) {
+            memory += diff.getEstimatedMemory();
+            // always keep the most recent diff
+            if (keep > 0 && memory > maxMemory) {
+                break;
+            }
+            keep++;
+        }
+        while (diffs.size() > keep) {
+            diffs.removeLast();
+        }
+    }
+
+    @Override
+    public void contentChanged(@Nonnull NodeState root, @Nullable CommitInfo info) {
+        checkNotNull(root);
+        synchronized (this) {
+            if (this.root != null) {
+                // the changes are only computed when needed
+                synchronized (diffs) {
+                    diffs.addFirst(new RecordedDiff(this.root, root));
+                    trim();
+                }
+            }
+            this.root = root;
+            observers.contentChanged(root, info);
+        }
+    }
+
+}
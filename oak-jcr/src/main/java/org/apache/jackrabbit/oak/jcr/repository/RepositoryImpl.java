@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
 import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerMBean;
+import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.registerObserver;
 
 import java.io.Closeable;
 import java.util.Map;
@@ -51,6 +52,7 @@ import org.apache.jackrabbit.oak.api.ContentRepository;
 import org.apache.jackrabbit.oak.api.ContentSession;
 import org.apache.jackrabbit.oak.api.jmx.SessionMBean;
 import org.apache.jackrabbit.oak.jcr.delegate.SessionDelegate;
+import org.apache.jackrabbit.oak.jcr.observation.ObservationDispatcher;
 import org.apache.jackrabbit.oak.jcr.session.RefreshStrategy;
 import org.apache.jackrabbit.oak.jcr.session.RefreshStrategy.Composite;
 import org.apache.jackrabbit.oak.jcr.session.SessionContext;
@@ -59,6 +61,7 @@ import org.apache.jackrabbit.oak.plugins.observation.CommitRateLimiter;
 import org.apache.jackrabbit.oak.spi.gc.DelegatingGCMonitor;
 import org.apache.jackrabbit.oak.spi.gc.GCMonitor;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
+import org.apache.jackrabbit.oak.spi.whiteboard.CompositeRegistration;
 import org.apache.jackrabbit.oak.spi.whiteboard.Registration;
 import org.apache.jackrabbit.oak.spi.whiteboard.Whiteboard;
 import org.apache.jackrabbit.oak.stats.Clock;
@@ -101,6 +104,7 @@ public class RepositoryImpl implements JackrabbitRepository {
     private final Clock clock;
     private final DelegatingGCMonitor gcMonitor = new DelegatingGCMonitor();
     private final Registration gcMonitorRegistration;
+    private final Registration observationDispatcherRegistration;
 
     /**
      * {@link ThreadLocal} counter that keeps track of the save operations
@@ -134,6 +138,7 @@ public class RepositoryImpl implements JackrabbitRepository {
         this.statisticManager = new StatisticManager(whiteboard, scheduledExecutor);
         this.clock = new Clock.Fast(scheduledExecutor);
         this.gcMonitorRegistration = whiteboard.register(GCMonitor.class, gcMonitor, emptyMap());
+        this.observationDispatcherRegistration = registerObservationDispatcher(whiteboard);
     }
 
     //---------------------------------------------------------< Repository >---
@@ -302,6 +307,7 @@ public class RepositoryImpl implements JackrabbitRepository {
     public void shutdown() {
         statisticManager.dispose();
         gcMonitorRegistration.unregister();
+        observationDispatcherRegistration.unregister();
         scheduledExecutor.shutdown();
         if (contentRepository instanceof Closeable) {
             IOUtils.closeQuietly((Closeable) contentRepository);
@@ -310,6 +316,17 @@ public class RepositoryImpl implements JackrabbitRepository {
 
     //------------------------------------------------------------< internal >---
 
+    /**
+     * Registers the dispatcher that shares the content diff of each commit
+     * between all observation listeners of this repository.
+     */
+    private static Registration registerObservationDispatcher(Whiteboard whiteboard) {
+        ObservationDispatcher dispatcher = new ObservationDispatcher();
+        return new CompositeRegistration(
+                registerObserver(whiteboard, dispatcher),
+                whiteboard.register(ObservationDispatcher.class, dispatcher, emptyMap()));
+    }
+
     /**
      * Factory method for creating a {@link SessionContext} instance for
      * a new session. Called by {@link #login()}. Can be overridden by
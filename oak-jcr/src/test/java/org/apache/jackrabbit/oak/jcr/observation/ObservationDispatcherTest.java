@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.jcr.observation;
+
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_CHANGED;
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.apache.jackrabbit.oak.spi.whiteboard.WhiteboardUtils.getService;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.observation.RecordedDiff;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+/**
+ * Tests the {@link ObservationDispatcher}, and that the change processors of
+ * the listeners share the recorded diff of each commit.
+ */
+public class ObservationDispatcherTest {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private Oak oak;
+
+    private Repository repository;
+
+    private Session session;
+
+    @Before
+    public void setup() throws RepositoryException {
+        oak = new Oak(new MemoryNodeStore());
+        repository = new Jcr(oak).createRepository();
+        session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    @After
+    public void tearDown() {
+        session.logout();
+        ((JackrabbitRepository) repository).shutdown();
+    }
+
+    @Test
+    public void listenersShareDiff() throws Exception {
+        ObservationDispatcher dispatcher = getService(
+                oak.getWhiteboard(), ObservationDispatcher.class);
+        assertNotNull(dispatcher);
+
+        Node root = session.getRootNode();
+        root.addNode("a").setProperty("p", 1);
+        root.addNode("b");
+        root.addNode("c");
+        session.save();
+
+        ObservationManager om = session.getWorkspace().getObservationManager();
+        PathListener a = new PathListener();
+        PathListener b = new PathListener();
+        PathListener all = new PathListener();
+        om.addEventListener(a, NODE_ADDED | PROPERTY_CHANGED, "/a", true, null, null, false);
+        om.addEventListener(b, NODE_ADDED | PROPERTY_CHANGED, "/b", true, null, null, false);
+        om.addEventListener(all, NODE_ADDED, "/", true, null, null, false);
+        long shared = dispatcher.getSharedCount();
+
+        session.getNode("/a").addNode("x");
+        session.getNode("/a").setProperty("p", 2);
+        session.getNode("/b").addNode("y").addNode("z");
+        session.getNode("/c").addNode("w");
+        session.save();
+
+        assertTrue(a.await(ImmutableSet.of("/a/x", "/a/p")));
+        assertTrue(b.await(ImmutableSet.of("/b/y", "/b/y/z")));
+        assertTrue(all.await(ImmutableSet.of("/a/x", "/b/y", "/b/y/z", "/c/w")));
+        assertEquals(ImmutableSet.of("/a/x", "/a/p"), a.getPaths());
+        assertEquals(ImmutableSet.of("/b/y", "/b/y/z"), b.getPaths());
+        assertEquals(ImmutableSet.of("/a/x", "/b/y", "/b/y/z", "/c/w"), all.getPaths());
+
+        // each listener replayed the recorded diff of the commit
+        assertTrue(dispatcher.getSharedCount() >= shared + 3);
+
+        om.removeEventListener(a);
+        om.removeEventListener(b);
+        om.removeEventListener(all);
+    }
+
+    @Test
+    public void estimatedMemoryIsBounded() {
+        ObservationDispatcher dispatcher = new ObservationDispatcher(20000);
+        NodeState before = EMPTY_NODE;
+        dispatcher.contentChanged(before, null);
+        NodeState first = null;
+        for (int i = 0; i < 10; i++) {
+            NodeBuilder builder = before.builder();
+            for (int j = 0; j < 100; j++) {
+                builder.setProperty("p" + i + "-" + j, j);
+            }
+            NodeState after = builder.getNodeState();
+            dispatcher.contentChanged(after, null);
+            if (first == null) {
+                first = after;
+            }
+            RecordedDiff diff = dispatcher.getDiff(before, after);
+            assertNotNull(diff);
+            // record the changes
+            diff.compare(new DefaultNodeStateDiff());
+            assertTrue(diff.getEstimatedMemory() > 1000);
+            before = after;
+        }
+        int recorded = dispatcher.getRecordedCount();
+        assertTrue("recorded " + recorded, recorded > 1 && recorded < 10);
+        assertNull(dispatcher.getDiff(EMPTY_NODE, first));
+
+        // diffs that were not computed use little memory
+        for (int i = 0; i < 100; i++) {
+            NodeState after = before.builder().setProperty("x", i).getNodeState();
+            dispatcher.contentChanged(after, null);
+            before = after;
+        }
+        assertTrue(dispatcher.getRecordedCount() > 100);
+    }
+
+    private static class PathListener implements EventListener {
+
+        private final Set<String> paths = Sets.newHashSet();
+
+        @Override
+        public synchronized void onEvent(EventIterator events) {
+            while (events.hasNext()) {
+                Event event = events.nextEvent();
+                try {
+                    paths.add(event.getPath());
+                } catch (RepositoryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized boolean await(Set<String> expected)
+                throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (!paths.containsAll(expected)) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+
+        synchronized Set<String> getPaths() {
+            return ImmutableSet.copyOf(paths);
+        }
+
+    }
+
+}
@@ -0,0 +1,552 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.index.lucene;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.ExtractedText;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.PreExtractedTextProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Cache for the text extracted from binaries, keyed by the content identity
+ * of the binary, so that a binary referenced from multiple nodes (or indexed
+ * again during a reindex) is only parsed once. The text is kept in memory
+ * and optionally in a directory, using the same layout as the
+ * {@code DataStoreTextWriter}. Text provided by a
+ * {@link PreExtractedTextProvider} is used if available.
+ * <p>
+ * The text extraction itself is run in a bounded thread pool, and the
+ * indexing thread waits at most the configured timeout for the result. A
+ * binary for which the extraction failed is recorded as an error, and not
+ * parsed again. A binary for which the extraction timed out is not
+ * recorded, and parsed again the next time it is indexed.
+ */
+public class ExtractedTextCache implements ExtractedTextCacheMBean, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    /**
+     * The text indexed for binaries the text could not be extracted from.
+     */
+    static final String TEXT_EXTRACTION_ERROR = "TextExtractionError";
+
+    static final String ERROR_BLOB_FILE = "blobs_error.txt";
+
+    /**
+     * The maximum number of extractions waiting for a thread of the pool.
+     */
+    static final int MAX_QUEUED_EXTRACTIONS = 100;
+
+    /**
+     * Content identities that can safely be used as file names. Others (like
+     * the record ids of inlined segment binaries) are only cached in memory.
+     */
+    private static final Pattern FILE_NAME_SAFE = Pattern.compile("[0-9A-Za-z_\\-]{6,}");
+
+    private final Cache<String, String> cache;
+
+    private final File directory;
+
+    private final Set<String> errors;
+
+    private final int threads;
+
+    private final long timeout;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * The number of threads added to the pool for extractions that timed out.
+     */
+    private int abandonedCount;
+
+    private boolean closed;
+
+    private volatile PreExtractedTextProvider preExtractedTextProvider;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong preExtractedHitCount = new AtomicLong();
+    private final AtomicLong diskHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong extractionCount = new AtomicLong();
+    private final AtomicLong extractionTime = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicInteger activeExtractionCount = new AtomicInteger();
+
+    /**
+     * @param maxSize the maximum size of the memory cache in bytes
+     * @param directory the directory to store the extracted text in, or
+     *                  {@code null} to only keep it in memory
+     * @param threads the number of threads used for text extraction, or 0
+     *                to extract the text in the indexing thread (without
+     *                timeout)
+     * @param timeout the maximum time in milliseconds to wait for the text
+     *                extraction of a binary
+     */
+    public ExtractedTextCache(long maxSize, @Nullable File directory,
+                              int threads, long timeout) throws IOException {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher(new Weigher<String, String>() {
+                    @Override
+                    public int weigh(@Nonnull String key, @Nonnull String value) {
+                        // two bytes per char, plus the entry overhead
+                        return 2 * (key.length() + value.length()) + 64;
+                    }
+                })
+                .build();
+        this.directory = directory;
+        this.threads = threads;
+        this.timeout = timeout;
+        if (directory != null) {
+            FileUtils.forceMkdir(directory);
+            File errorFile = new File(directory, ERROR_BLOB_FILE);
+            Set<String> loaded = Sets.newHashSet();
+            if (errorFile.exists()) {
+                loaded.addAll(Files.readLines(errorFile, Charsets.UTF_8));
+            }
+            this.errors = Collections.synchronizedSet(loaded);
+            log.info("Storing extracted text in {}", directory.getAbsolutePath());
+        } else {
+            this.errors = Collections.emptySet();
+        }
+    }
+
+    public void setPreExtractedTextProvider(@Nullable PreExtractedTextProvider provider) {
+        this.preExtractedTextProvider = provider;
+    }
+
+    /**
+     * Get the text extracted from the given binary.
+     *
+     * @param propertyPath the path of the binary property
+     * @param blob the binary
+     * @return the text, or {@code null} if the text was not extracted yet
+     */
+    @CheckForNull
+    public String get(String propertyPath, Blob blob) {
+        String id = getId(blob);
+        if (id == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        String text = cache.getIfPresent(id);
+        if (text != null) {
+            hitCount.incrementAndGet();
+            return text;
+        }
+        text = getPreExtractedText(propertyPath, blob);
+        if (text != null) {
+            preExtractedHitCount.incrementAndGet();
+        } else {
+            text = read(id);
+            if (text != null) {
+                diskHitCount.incrementAndGet();
+            }
+        }
+        if (text == null) {
+            missCount.incrementAndGet();
+        } else {
+            cache.put(id, text);
+        }
+        return text;
+    }
+
+    /**
+     * Store the text extracted from the given binary.
+     *
+     * @param blob the binary
+     * @param text the text, or {@link #TEXT_EXTRACTION_ERROR}
+     */
+    public void put(Blob blob, String text) {
+        String id = getId(blob);
+        if (id == null) {
+            return;
+        }
+        cache.put(id, text);
+        if (TEXT_EXTRACTION_ERROR.equals(text)) {
+            errorCount.incrementAndGet();
+        }
+        if (directory != null && FILE_NAME_SAFE.matcher(id).matches()) {
+            try {
+                write(id, text);
+            } catch (IOException e) {
+                log.warn("Failed to store the extracted text of {} in {}", id, directory, e);
+            }
+        }
+    }
+
+    /**
+     * Run the given text extraction in the extraction thread pool, and wait
+     * for it at most the configured timeout once it is running. Waiting for
+     * a thread of the pool is bounded by the same timeout.
+     * <p>
+     * An extraction that timed out does not count against the size of the
+     * pool, as the parser might not react on the interrupt, up to as many
+     * extractions as the pool has threads.
+     *
+     * @param propertyPath the path of the binary property
+     * @param extraction the text extraction
+     * @return the text, or {@code null} if the extraction timed out or no
+     *         thread was available, in which case the result must not be
+     *         cached
+     */
+    @CheckForNull
+    public String extract(String propertyPath, Callable<String> extraction) {
+        long start = System.currentTimeMillis();
+        extractionCount.incrementAndGet();
+        try {
+            ThreadPoolExecutor executor = getExecutor();
+            if (executor == null) {
+                return extraction.call();
+            }
+            Extraction task = new Extraction(extraction);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                log.warn("Text extraction of {} skipped, too many extractions are waiting", propertyPath);
+                return null;
+            }
+            if (!awaitUninterruptibly(task.started, timeout, TimeUnit.MILLISECONDS)) {
+                task.cancel(false);
+                executor.remove(task);
+                rejectedCount.incrementAndGet();
+                log.warn("Text extraction of {} skipped, no thread available after {} ms",
+                        propertyPath, timeout);
+                return null;
+            }
+            long remaining = task.startTime + timeout - System.currentTimeMillis();
+            try {
+                return getUninterruptibly(task, Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                task.cancel(true);
+                if (task.abandon()) {
+                    abandoned(task);
+                }
+                timeoutCount.incrementAndGet();
+                log.warn("Text extraction of {} timed out after {} ms", propertyPath, timeout);
+                return null;
+            }
+        } catch (ExecutionException e) {
+            log.debug("Text extraction of {} failed", propertyPath, e.getCause());
+            return TEXT_EXTRACTION_ERROR;
+        } catch (Exception e) {
+            log.debug("Text extraction of {} failed", propertyPath, e);
+            return TEXT_EXTRACTION_ERROR;
+        } finally {
+            extractionTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        abandonedCount = 0;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    //~---------------------------------------------< ExtractedTextCacheMBean >
+
+    @Override
+    public long getCacheHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getPreExtractedHitCount() {
+        return preExtractedHitCount.get();
+    }
+
+    @Override
+    public long getDiskHitCount() {
+        return diskHitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getExtractionCount() {
+        return extractionCount.get();
+    }
+
+    @Override
+    public long getExtractionTime() {
+        return extractionTime.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public int getActiveExtractionCount() {
+        return activeExtractionCount.get();
+    }
+
+    @Override
+    public long getExtractionTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String getDirectory() {
+        return directory != null ? directory.getAbsolutePath() : null;
+    }
+
+    //~----------------------------------------------------------< internal >
+
+    @CheckForNull
+    private String getPreExtractedText(String propertyPath, Blob blob) {
+        PreExtractedTextProvider provider = preExtractedTextProvider;
+        if (provider == null) {
+            return null;
+        }
+        try {
+            ExtractedText text = provider.getText(propertyPath, blob);
+            if (text != null) {
+                switch (text.getExtractionResult()) {
+                    case SUCCESS:
+                        return text.getExtractedText().toString();
+                    case EMPTY:
+                        return "";
+                    case ERROR:
+                        return TEXT_EXTRACTION_ERROR;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Error getting the pre extracted text of {}", propertyPath, e);
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private String read(String id) {
+        if (directory == null || !FILE_NAME_SAFE.matcher(id).matches()) {
+            return null;
+        }
+        if (errors.contains(id)) {
+            return TEXT_EXTRACTION_ERROR;
+        }
+        File file = getFile(id);
+        if (file.exists()) {
+            try {
+                return Files.toString(file, Charsets.UTF_8);
+            } catch (IOException e) {
+                log.warn("Failed to read the extracted text from {}", file, e);
+            }
+        }
+        return null;
+    }
+
+    private void write(String id, String text) throws IOException {
+        if (TEXT_EXTRACTION_ERROR.equals(text)) {
+            if (errors.add(id)) {
+                Files.append(id + "\n", new File(directory, ERROR_BLOB_FILE), Charsets.UTF_8);
+            }
+            return;
+        }
+        File file = getFile(id);
+        FileUtils.forceMkdir(file.getParentFile());
+        // write to a temporary file first, so that concurrent readers
+        // never see a partially written file
+        File tmp = new File(file.getParentFile(), id + ".tmp");
+        Files.write(text, tmp, Charsets.UTF_8);
+        if (!tmp.renameTo(file)) {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Get the file for the given id, using the same layout as the data
+     * store to avoid too many files in a single directory.
+     */
+    private File getFile(String id) {
+        File file = directory;
+        file = new File(file, id.substring(0, 2));
+        file = new File(file, id.substring(2, 4));
+        file = new File(file, id.substring(4, 6));
+        return new File(file, id);
+    }
+
+    /**
+     * The id of the given binary, without the length which is part of the
+     * content identity of data store binaries.
+     */
+    @CheckForNull
+    private static String getId(Blob blob) {
+        String id = blob.getContentIdentity();
+        if (id != null) {
+            int index = id.lastIndexOf('#');
+            if (index > 0) {
+                id = id.substring(0, index);
+            }
+        }
+        return id;
+    }
+
+    @CheckForNull
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null && threads > 0 && !closed) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUED_EXTRACTIONS), new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread thread = new Thread(r, "oak-lucene-text-extraction-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    // Tika looks up parsers via the context class loader
+                    thread.setContextClassLoader(ExtractedTextCache.class.getClassLoader());
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Add a thread to the pool for an extraction that timed out, unless as
+     * many threads were added as the pool has.
+     */
+    private synchronized void abandoned(Extraction task) {
+        if (executor != null && abandonedCount < threads) {
+            abandonedCount++;
+            task.replaced = true;
+            executor.setMaximumPoolSize(threads + abandonedCount);
+            executor.setCorePoolSize(threads + abandonedCount);
+        }
+    }
+
+    /**
+     * Remove the thread added for an extraction that timed out, once the
+     * extraction is done.
+     */
+    private synchronized void released(Extraction task) {
+        if (executor != null && task.replaced) {
+            abandonedCount--;
+            executor.setCorePoolSize(threads + abandonedCount);
+            executor.setMaximumPoolSize(threads + abandonedCount);
+        }
+    }
+
+    /**
+     * A text extraction, which records when it starts running in the pool.
+     */
+    private class Extraction extends FutureTask<String> {
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        /**
+         * Set once the extraction is done, or abandoned after a timeout.
+         */
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        volatile long startTime;
+
+        /**
+         * Whether a thread was added to the pool for this extraction.
+         */
+        boolean replaced;
+
+        Extraction(Callable<String> extraction) {
+            super(extraction);
+        }
+
+        @Override
+        public void run() {
+            startTime = System.currentTimeMillis();
+            started.countDown();
+            activeExtractionCount.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                activeExtractionCount.decrementAndGet();
+                if (!finished.compareAndSet(false, true)) {
+                    released(this);
+                }
+            }
+        }
+
+        boolean abandon() {
+            return finished.compareAndSet(false, true);
+        }
+
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.index.lucene;
+
+import aQute.bnd.annotation.ProviderType;
+
+@SuppressWarnings("UnusedDeclaration")
+@ProviderType
+public interface ExtractedTextCacheMBean {
+    String TYPE = "ExtractedTextCacheStats";
+
+    long getCacheHitCount();
+
+    long getPreExtractedHitCount();
+
+    long getDiskHitCount();
+
+    long getMissCount();
+
+    long getCacheSize();
+
+    long getExtractionCount();
+
+    long getExtractionTime();
+
+    long getTimeoutCount();
+
+    long getRejectedCount();
+
+    long getErrorCount();
+
+    int getActiveExtractionCount();
+
+    long getExtractionTimeout();
+
+    String getDirectory();
+}
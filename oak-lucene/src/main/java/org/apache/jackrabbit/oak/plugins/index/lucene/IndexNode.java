@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.oak.plugins.index.lucene;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Sets.newHashSet;
 import static org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexConstants.INDEX_DATA_CHILD_NAME;
 import static org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexConstants.PERSISTENCE_FILE;
 import static org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexConstants.PERSISTENCE_NAME;
@@ -24,42 +25,51 @@ import static org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexConstant
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 
 import org.apache.jackrabbit.oak.commons.PathUtils;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.oak.spi.state.ReadOnlyBuilder;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
 
 class IndexNode {
 
+    /**
+     * Whether the new segments of an incrementally reopened index are read
+     * once before the index node is used for queries.
+     */
+    static final boolean WARM_UP = Boolean.getBoolean("oak.lucene.warmUp");
+
     static IndexNode open(String indexPath, NodeState root, NodeState defnNodeState,@Nullable IndexCopier cloner)
             throws IOException {
-        Directory directory = null;
         IndexDefinition definition = new IndexDefinition(root, defnNodeState, indexPath);
-        NodeState data = defnNodeState.getChildNode(INDEX_DATA_CHILD_NAME);
-        if (data.exists()) {
-            directory = new OakDirectory(new ReadOnlyBuilder(data), definition, true);
-            if (cloner != null){
-                directory = cloner.wrapForRead(indexPath, definition, directory);
-            }
-        } else if (PERSISTENCE_FILE.equalsIgnoreCase(defnNodeState.getString(PERSISTENCE_NAME))) {
-            String path = defnNodeState.getString(PERSISTENCE_PATH);
-            if (path != null && new File(path).exists()) {
-                directory = FSDirectory.open(new File(path));
-            }
-        }
-
+        Directory directory = openDirectory(indexPath, definition, defnNodeState, cloner);
         if (directory != null) {
             try {
-                IndexNode index = new IndexNode(PathUtils.getName(indexPath), definition, directory);
+                NodeState data = defnNodeState.getChildNode(INDEX_DATA_CHILD_NAME);
+                IndexNode index = new IndexNode(PathUtils.getName(indexPath), definition,
+                        directory, data.exists() ? data : null);
                 directory = null; // closed in Index.close()
                 return index;
             } finally {
@@ -72,13 +82,45 @@ class IndexNode {
         return null;
     }
 
+    @CheckForNull
+    private static Directory openDirectory(String indexPath, IndexDefinition definition,
+            NodeState defnNodeState, @Nullable IndexCopier cloner) throws IOException {
+        Directory directory = null;
+        NodeState data = defnNodeState.getChildNode(INDEX_DATA_CHILD_NAME);
+        if (data.exists()) {
+            directory = new OakDirectory(new ReadOnlyBuilder(data), definition, true);
+            if (cloner != null){
+                directory = cloner.wrapForRead(indexPath, definition, directory);
+            }
+        } else if (PERSISTENCE_FILE.equalsIgnoreCase(defnNodeState.getString(PERSISTENCE_NAME))) {
+            String path = defnNodeState.getString(PERSISTENCE_PATH);
+            if (path != null && new File(path).exists()) {
+                directory = FSDirectory.open(new File(path));
+            }
+        }
+        return directory;
+    }
+
     private final String name;
 
     private final IndexDefinition definition;
 
     private final Directory directory;
 
-    private final IndexReader reader;
+    /**
+     * The index data, or {@code null} if the index is not stored in the
+     * repository.
+     */
+    private final NodeState data;
+
+    /**
+     * The directory the reader was opened with. Its target is switched to
+     * the directory of the latest revision when the index is reopened, so
+     * that the reader can be refreshed incrementally.
+     */
+    private final ReaderDirectory readerDirectory;
+
+    private final DirectoryReader reader;
 
     private final IndexSearcher searcher;
 
@@ -88,13 +130,129 @@ class IndexNode {
 
     IndexNode(String name, IndexDefinition definition, Directory directory)
             throws IOException {
+        this(name, definition, directory, null);
+    }
+
+    private IndexNode(String name, IndexDefinition definition, Directory directory,
+            @Nullable NodeState data) throws IOException {
         this.name = name;
         this.definition = definition;
         this.directory = directory;
-        this.reader = DirectoryReader.open(directory);
+        this.data = data;
+        this.readerDirectory = new ReaderDirectory(directory);
+        this.reader = DirectoryReader.open(readerDirectory);
         this.searcher = new IndexSearcher(reader);
     }
 
+    private IndexNode(String name, IndexDefinition definition, Directory directory,
+            NodeState data, ReaderDirectory readerDirectory, DirectoryReader reader) {
+        this.name = name;
+        this.definition = definition;
+        this.directory = directory;
+        this.data = data;
+        this.readerDirectory = readerDirectory;
+        this.reader = reader;
+        this.searcher = new IndexSearcher(reader);
+    }
+
+    /**
+     * Open the given revision of this index, reusing the readers of all
+     * Lucene segments that did not change. The index files are immutable
+     * (apart from the segments file), so the segment readers opened for
+     * this revision can also be used for the new one, as long as the
+     * files with the same name did not change.
+     * <p>
+     * This index node stays usable and needs to be closed as usual.
+     *
+     * @return the new index node, or {@code null} if the index can not be
+     *         reopened incrementally (for example after a reindex)
+     */
+    @CheckForNull
+    IndexNode reopen(String indexPath, NodeState root, NodeState defnNodeState,
+            @Nullable IndexCopier cloner) throws IOException {
+        IndexDefinition newDefinition = new IndexDefinition(root, defnNodeState, indexPath);
+        NodeState newData = defnNodeState.getChildNode(INDEX_DATA_CHILD_NAME);
+        if (data == null || !newData.exists()
+                || newDefinition.getReindexCount() != definition.getReindexCount()
+                || !isAppendOnly(data, newData)) {
+            return null;
+        }
+
+        Directory newDirectory = openDirectory(indexPath, newDefinition, defnNodeState, cloner);
+        if (newDirectory == null) {
+            return null;
+        }
+        Directory previous = readerDirectory.switchTo(newDirectory);
+        try {
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+            if (newReader == null) {
+                // same segments, only the definition changed
+                reader.incRef();
+                newReader = reader;
+            } else if (WARM_UP) {
+                warmUp(newReader, reader);
+            }
+            IndexNode index = new IndexNode(
+                    name, newDefinition, newDirectory, newData, readerDirectory, newReader);
+            newDirectory = null; // closed in Index.close()
+            return index;
+        } finally {
+            if (newDirectory != null) {
+                readerDirectory.switchTo(previous);
+                newDirectory.close();
+            }
+        }
+    }
+
+    /**
+     * Check whether all index files that exist in both revisions of the
+     * index data are unchanged. This is not the case if the index was
+     * rebuilt from scratch, in which case the segment names are reused.
+     */
+    private static boolean isAppendOnly(NodeState before, NodeState after) {
+        if (before == after) {
+            return true;
+        }
+        for (ChildNodeEntry entry : before.getChildNodeEntries()) {
+            String name = entry.getName();
+            NodeState file = after.getChildNode(name);
+            if (file.exists() && !IndexFileNames.SEGMENTS_GEN.equals(name)
+                    && !file.equals(entry.getNodeState())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the first entry of each field of all segments of the new reader
+     * that are not part of the old reader, so that the index files are
+     * loaded before the first query needs them.
+     */
+    static void warmUp(DirectoryReader newReader, DirectoryReader oldReader)
+            throws IOException {
+        Set<Object> old = newHashSet();
+        for (AtomicReaderContext context : oldReader.leaves()) {
+            old.add(context.reader().getCoreCacheKey());
+        }
+        for (AtomicReaderContext context : newReader.leaves()) {
+            AtomicReader leaf = context.reader();
+            Fields fields = leaf.fields();
+            if (old.contains(leaf.getCoreCacheKey()) || fields == null) {
+                continue;
+            }
+            for (String field : fields) {
+                Terms terms = fields.terms(field);
+                if (terms != null) {
+                    TermsEnum te = terms.iterator(null);
+                    if (te.next() != null) {
+                        te.docs(leaf.getLiveDocs(), null).nextDoc();
+                    }
+                }
+            }
+        }
+    }
+
     String getName() {
         return name;
     }
@@ -131,10 +289,104 @@ class IndexNode {
         }
 
         try {
-            reader.close();
+            // the reader might be shared with the next revision
+            reader.decRef();
         } finally {
             directory.close();
         }
     }
 
+    /**
+     * A directory that delegates to the directory of the latest opened
+     * revision of the index. Closing it has no effect, as each index node
+     * closes its own directory.
+     */
+    private static class ReaderDirectory extends Directory {
+
+        private volatile Directory delegate;
+
+        ReaderDirectory(Directory delegate) {
+            this.delegate = delegate;
+        }
+
+        Directory switchTo(Directory directory) {
+            Directory previous = delegate;
+            delegate = directory;
+            return previous;
+        }
+
+        @Override
+        public String[] listAll() throws IOException {
+            return delegate.listAll();
+        }
+
+        @Override
+        public boolean fileExists(String name) throws IOException {
+            return delegate.fileExists(name);
+        }
+
+        @Override
+        public void deleteFile(String name) throws IOException {
+            delegate.deleteFile(name);
+        }
+
+        @Override
+        public long fileLength(String name) throws IOException {
+            return delegate.fileLength(name);
+        }
+
+        @Override
+        public IndexOutput createOutput(String name, IOContext context)
+                throws IOException {
+            return delegate.createOutput(name, context);
+        }
+
+        @Override
+        public void sync(Collection<String> names) throws IOException {
+            delegate.sync(names);
+        }
+
+        @Override
+        public IndexInput openInput(String name, IOContext context)
+                throws IOException {
+            return delegate.openInput(name, context);
+        }
+
+        @Override
+        public Lock makeLock(String name) {
+            return delegate.makeLock(name);
+        }
+
+        @Override
+        public void clearLock(String name) throws IOException {
+            delegate.clearLock(name);
+        }
+
+        @Override
+        public void setLockFactory(LockFactory lockFactory) throws IOException {
+            delegate.setLockFactory(lockFactory);
+        }
+
+        @Override
+        public LockFactory getLockFactory() {
+            return delegate.getLockFactory();
+        }
+
+        @Override
+        public String getLockID() {
+            return delegate.getLockID();
+        }
+
+        @Override
+        public void close() {
+            // the delegates are closed by the index nodes
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+
+    }
+
 }
@@ -89,13 +89,14 @@ class IndexTracker {
         List<Editor> editors = newArrayListWithCapacity(original.size());
         for (Map.Entry<String, IndexNode> entry : original.entrySet()) {
             final String path = entry.getKey();
+            final IndexNode current = entry.getValue();
 
             editors.add(new SubtreeEditor(new DefaultEditor() {
                 @Override
                 public void leave(NodeState before, NodeState after) {
                     try {
                         long start = PERF_LOGGER.start();
-                        IndexNode index = IndexNode.open(path, root, after, cloner);
+                        IndexNode index = reopen(current, path, root, after);
                         PERF_LOGGER.end(start, -1, "[{}] Index found to be updated. Reopening the IndexNode", path);
                         updates.put(path, index); // index can be null
                     } catch (IOException e) {
@@ -129,6 +130,26 @@ class IndexTracker {
         }
     }
 
+    /**
+     * Open the updated index, if possible reusing the segment readers of
+     * the current index node.
+     */
+    private IndexNode reopen(IndexNode current, String path, NodeState root, NodeState after)
+            throws IOException {
+        if (isLuceneIndexNode(after)) {
+            try {
+                IndexNode index = current.reopen(path, root, after, cloner);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                log.warn("Failed to reopen the Lucene index at " + path
+                        + " incrementally, opening it again", e);
+            }
+        }
+        return IndexNode.open(path, root, after, cloner);
+    }
+
     IndexNode acquireIndexNode(String path) {
         IndexNode index = indices.get(path);
         if (index != null && index.acquire()) {
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.oak.plugins.index.lucene;
 
+import static com.google.common.base.Preconditions.checkState;
 import static org.apache.jackrabbit.JcrConstants.JCR_DATA;
 import static org.apache.jackrabbit.oak.commons.PathUtils.concat;
 import static org.apache.jackrabbit.oak.commons.PathUtils.getName;
@@ -32,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
@@ -51,6 +53,7 @@ import org.apache.jackrabbit.oak.commons.PathUtils;
 import org.apache.jackrabbit.oak.commons.io.LazyInputStream;
 import org.apache.jackrabbit.oak.plugins.index.IndexEditor;
 import org.apache.jackrabbit.oak.plugins.index.IndexUpdateCallback;
+import org.apache.jackrabbit.oak.plugins.index.PartitionedIndexEditor;
 import org.apache.jackrabbit.oak.plugins.index.PathFilter;
 import org.apache.jackrabbit.oak.plugins.index.lucene.Aggregate.Matcher;
 import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
@@ -82,7 +85,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @see LuceneIndex
  */
-public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
+public class LuceneIndexEditor implements PartitionedIndexEditor, Aggregate.AggregateRoot {
 
     private static final Logger log =
             LoggerFactory.getLogger(LuceneIndexEditor.class);
@@ -122,12 +125,17 @@ public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
     private final PathFilter.Result pathFilterResult;
 
     LuceneIndexEditor(NodeState root, NodeBuilder definition,
-        IndexUpdateCallback updateCallback,@Nullable IndexCopier indexCopier) throws CommitFailedException {
+        IndexUpdateCallback updateCallback,@Nullable IndexCopier indexCopier,
+        @Nullable ExtractedTextCache extractedTextCache) throws CommitFailedException {
+        this(root, new LuceneIndexEditorContext(root, definition,
+                updateCallback, indexCopier, extractedTextCache));
+    }
+
+    private LuceneIndexEditor(NodeState root, LuceneIndexEditorContext context) {
         this.parent = null;
         this.name = null;
         this.path = "/";
-        this.context = new LuceneIndexEditorContext(root, definition,
-                updateCallback, indexCopier);
+        this.context = context;
         this.root = root;
         this.isDeleted = false;
         this.matcherState = MatcherState.NONE;
@@ -156,6 +164,21 @@ public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
         return path;
     }
 
+    /**
+     * Creates an editor that reindexes a partition into a separate index,
+     * which is added to this index when the writer is closed. Not supported
+     * if the index is stored in the file system.
+     */
+    @Override
+    public Editor newPartition() {
+        checkState(parent == null, "Only supported for the root editor");
+        LuceneIndexEditorContext partition = context.newPartition(root);
+        if (partition == null) {
+            return null;
+        }
+        return new LuceneIndexEditor(root, partition);
+    }
+
     @Override
     public void enter(NodeState before, NodeState after)
             throws CommitFailedException {
@@ -188,7 +211,9 @@ public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
     @Override
     public void leave(NodeState before, NodeState after)
             throws CommitFailedException {
-        if (propertiesChanged || !before.exists()) {
+        // the root node of a partition is indexed by the root editor
+        boolean partitionRoot = parent == null && context.isPartition();
+        if (!partitionRoot && (propertiesChanged || !before.exists())) {
             String path = getPath();
             if (addOrUpdate(path, after, before.exists())) {
                 long indexed = context.incIndexedNodes();
@@ -832,7 +857,30 @@ public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
         return context.isSupportedMediaType(type);
     }
 
-    private String parseStringValue(Blob v, Metadata metadata, String path) {
+    private String parseStringValue(final Blob v, final Metadata metadata, final String path) {
+        ExtractedTextCache cache = context.getExtractedTextCache();
+        if (cache == null) {
+            return extractText(v, metadata, path);
+        }
+        String text = cache.get(path, v);
+        if (text == null) {
+            text = cache.extract(path, new Callable<String>() {
+                @Override
+                public String call() {
+                    return extractText(v, metadata, path);
+                }
+            });
+            if (text == null) {
+                // timed out, which is not cached so that the binary is
+                // parsed again the next time it is indexed
+                return ExtractedTextCache.TEXT_EXTRACTION_ERROR;
+            }
+            cache.put(v, text);
+        }
+        return text;
+    }
+
+    private String extractText(Blob v, Metadata metadata, String path) {
         WriteOutContentHandler handler = new WriteOutContentHandler(context.getDefinition().getMaxExtractLength());
         long start = System.currentTimeMillis();
         long size = 0;
@@ -859,7 +907,7 @@ public class LuceneIndexEditor implements IndexEditor, Aggregate.AggregateRoot {
                         + " worry about. The stack trace is included to"
                         + " help improve the text extraction feature.",
                         getIndexName(), path, t);
-                return "TextExtractionError";
+                return ExtractedTextCache.TEXT_EXTRACTION_ERROR;
             }
         }
         String result = handler.toString();
@@ -27,11 +27,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
@@ -126,20 +130,52 @@ public class LuceneIndexEditorContext {
     @Nullable
     private final IndexCopier indexCopier;
 
+    @Nullable
+    private final ExtractedTextCache extractedTextCache;
+
 
     private Directory directory;
 
     private final TextExtractionStats textExtractionStats = new TextExtractionStats();
 
+    /**
+     * Whether this context reindexes a partition of the content, which is
+     * added to the index of another context.
+     */
+    private final boolean partition;
+
+    /**
+     * The local directory a partition is written to, or {@code null} if not
+     * yet created. Writing to the repository would keep the index files of
+     * the detached definition in memory.
+     */
+    private File partitionDir;
+
+    /**
+     * The partitions to add to this index when the writer is closed.
+     */
+    private final List<LuceneIndexEditorContext> partitions = Lists.newArrayList();
+
     /**
      * The media types supported by the parser used.
      */
     private Set<MediaType> supportedMediaTypes;
 
     LuceneIndexEditorContext(NodeState root, NodeBuilder definition, IndexUpdateCallback updateCallback,
-                             @Nullable IndexCopier indexCopier) {
+                             @Nullable IndexCopier indexCopier,
+                             @Nullable ExtractedTextCache extractedTextCache) {
+        this(root, definition, updateCallback, indexCopier, extractedTextCache, false);
+    }
+
+    private LuceneIndexEditorContext(NodeState root, NodeBuilder definition,
+                                     IndexUpdateCallback updateCallback,
+                                     @Nullable IndexCopier indexCopier,
+                                     @Nullable ExtractedTextCache extractedTextCache,
+                                     boolean partition) {
         this.definitionBuilder = definition;
+        this.partition = partition;
         this.indexCopier = indexCopier;
+        this.extractedTextCache = extractedTextCache;
         this.definition = new IndexDefinition(root, definition);
         this.indexedNodes = 0;
         this.updateCallback = updateCallback;
@@ -148,6 +184,11 @@ public class LuceneIndexEditorContext {
         }
     }
 
+    @Nullable
+    ExtractedTextCache getExtractedTextCache() {
+        return extractedTextCache;
+    }
+
     Parser getParser() {
         if (parser == null){
             parser = initializeTikaParser(definition);
@@ -158,12 +199,17 @@ public class LuceneIndexEditorContext {
     IndexWriter getWriter() throws IOException {
         if (writer == null) {
             final long start = PERF_LOGGER.start();
-            directory = newIndexDirectory(definition, definitionBuilder);
             IndexWriterConfig config;
-            if (indexCopier != null){
+            if (partition) {
+                partitionDir = Files.createTempDir();
+                directory = FSDirectory.open(partitionDir, getNoLockFactory());
+                config = getIndexWriterConfig(definition, false);
+            } else if (indexCopier != null){
+                directory = newIndexDirectory(definition, definitionBuilder);
                 directory = indexCopier.wrapForWrite(definition, directory, reindex);
                 config = getIndexWriterConfig(definition, false);
             } else {
+                directory = newIndexDirectory(definition, definitionBuilder);
                 config = getIndexWriterConfig(definition, true);
             }
             writer = new IndexWriter(directory, config);
@@ -172,10 +218,45 @@ public class LuceneIndexEditorContext {
         return writer;
     }
 
+    /**
+     * Returns a context for reindexing a partition of the content in a
+     * separate index in a temporary local directory, on a copy of the index
+     * definition. The partition is added to this index when the writer of
+     * this context is closed.
+     *
+     * @return the context, or {@code null} if the index is stored in the
+     *         file system
+     */
+    @Nullable
+    LuceneIndexEditorContext newPartition(NodeState root) {
+        if (definitionBuilder.hasProperty(PERSISTENCE_PATH)) {
+            return null;
+        }
+        LuceneIndexEditorContext context = new LuceneIndexEditorContext(root,
+                definitionBuilder.getNodeState().builder(), updateCallback,
+                null, extractedTextCache, true);
+        partitions.add(context);
+        return context;
+    }
+
+    boolean isPartition() {
+        return partition;
+    }
+
     /**
      * close writer if it's not null
      */
     void closeWriter() throws IOException {
+        if (partition) {
+            // the index is added to the index of the root context
+            if (writer != null) {
+                writer.close();
+                directory.close();
+            }
+            textExtractionStats.log(reindex);
+            return;
+        }
+
         //If reindex or fresh index and write is null on close
         //it indicates that the index is empty. In such a case trigger
         //creation of write such that an empty Lucene index state is persisted
@@ -186,6 +267,7 @@ public class LuceneIndexEditorContext {
 
         if (writer != null) {
             final long start = PERF_LOGGER.start();
+            addPartitions();
             updateSuggester();
 
             writer.close();
@@ -204,6 +286,34 @@ public class LuceneIndexEditorContext {
         }
     }
 
+    /**
+     * Add the partitions that were reindexed in other threads to this index.
+     */
+    private void addPartitions() throws IOException {
+        List<Directory> directories = Lists.newArrayList();
+        try {
+            for (LuceneIndexEditorContext p : partitions) {
+                if (p.partitionDir != null) {
+                    directories.add(FSDirectory.open(p.partitionDir, getNoLockFactory()));
+                }
+                indexedNodes += p.indexedNodes;
+            }
+            if (!directories.isEmpty()) {
+                writer.addIndexes(directories.toArray(new Directory[directories.size()]));
+            }
+        } finally {
+            for (Directory d : directories) {
+                d.close();
+            }
+            for (LuceneIndexEditorContext p : partitions) {
+                if (p.partitionDir != null) {
+                    FileUtils.deleteQuietly(p.partitionDir);
+                }
+            }
+            partitions.clear();
+        }
+    }
+
     /**
      * eventually update suggest dictionary
      * @throws IOException if suggest dictionary update fails
@@ -333,7 +443,7 @@ public class LuceneIndexEditorContext {
         private long totalSize;
         private long totalTime;
 
-        public void addStats(long timeInMillis, long size) {
+        public synchronized void addStats(long timeInMillis, long size) {
             count++;
             totalSize += size;
             totalTime += timeInMillis;
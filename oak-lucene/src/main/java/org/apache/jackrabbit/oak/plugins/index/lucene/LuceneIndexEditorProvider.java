@@ -39,12 +39,20 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
 public class LuceneIndexEditorProvider implements IndexEditorProvider {
     private final IndexCopier indexCopier;
 
+    private final ExtractedTextCache extractedTextCache;
+
     public LuceneIndexEditorProvider() {
         this(null);
     }
 
     public LuceneIndexEditorProvider(@Nullable IndexCopier indexCopier) {
+        this(indexCopier, null);
+    }
+
+    public LuceneIndexEditorProvider(@Nullable IndexCopier indexCopier,
+                                     @Nullable ExtractedTextCache extractedTextCache) {
         this.indexCopier = indexCopier;
+        this.extractedTextCache = extractedTextCache;
     }
 
     @Override
@@ -53,7 +61,7 @@ public class LuceneIndexEditorProvider implements IndexEditorProvider {
             @Nonnull IndexUpdateCallback callback)
             throws CommitFailedException {
         if (TYPE_LUCENE.equals(type)) {
-            return new LuceneIndexEditor(root, definition, callback, indexCopier);
+            return new LuceneIndexEditor(root, definition, callback, indexCopier, extractedTextCache);
         }
         return null;
     }
@@ -61,4 +69,8 @@ public class LuceneIndexEditorProvider implements IndexEditorProvider {
     IndexCopier getIndexCopier() {
         return indexCopier;
     }
+
+    ExtractedTextCache getExtractedTextCache() {
+        return extractedTextCache;
+    }
 }
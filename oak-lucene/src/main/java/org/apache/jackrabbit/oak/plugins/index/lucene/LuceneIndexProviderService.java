@@ -35,6 +35,7 @@ import javax.management.NotCompliantMBeanException;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -48,6 +49,7 @@ import org.apache.jackrabbit.oak.commons.PropertiesUtil;
 import org.apache.jackrabbit.oak.osgi.OsgiWhiteboard;
 import org.apache.jackrabbit.oak.plugins.index.IndexEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.aggregate.NodeAggregator;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.PreExtractedTextProvider;
 import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
 import org.apache.jackrabbit.oak.plugins.index.lucene.score.ScorerProviderFactory;
 import org.apache.jackrabbit.oak.spi.commit.BackgroundObserverMBean;
@@ -137,6 +139,41 @@ public class LuceneIndexProviderService {
     )
     private static final String PROP_PREFETCH_INDEX_FILES = "prefetchIndexFiles";
 
+    private static final int PROP_EXTRACTED_TEXT_CACHE_SIZE_DEFAULT = 20;
+    @Property(
+            intValue = PROP_EXTRACTED_TEXT_CACHE_SIZE_DEFAULT,
+            label = "Extracted text cache size (in MB)",
+            description = "Size of the in memory cache for text extracted from binaries, so that binaries " +
+                    "which are indexed multiple times are only parsed once"
+    )
+    private static final String PROP_EXTRACTED_TEXT_CACHE_SIZE = "extractedTextCacheSizeInMB";
+
+    @Property(
+            label = "Extracted text directory",
+            description = "Local file system path where the text extracted from binaries is stored, " +
+                    "using the same layout as the text pre extraction. If not specified the extracted " +
+                    "text is only cached in memory"
+    )
+    private static final String PROP_EXTRACTED_TEXT_DIR = "extractedTextDir";
+
+    private static final int PROP_EXTRACTION_THREADS_DEFAULT = 2;
+    @Property(
+            intValue = PROP_EXTRACTION_THREADS_DEFAULT,
+            label = "Text extraction threads",
+            description = "Number of threads used to extract text from binaries. If set to 0 the text " +
+                    "is extracted in the indexing thread, without timeout"
+    )
+    private static final String PROP_EXTRACTION_THREADS = "extractionThreads";
+
+    private static final int PROP_EXTRACTION_TIMEOUT_DEFAULT = 60;
+    @Property(
+            intValue = PROP_EXTRACTION_TIMEOUT_DEFAULT,
+            label = "Text extraction timeout (in secs)",
+            description = "Maximum time to wait for the text extraction of a binary. Binaries which " +
+                    "time out are indexed as extraction error"
+    )
+    private static final String PROP_EXTRACTION_TIMEOUT = "extractionTimeoutInSecs";
+
     private Whiteboard whiteboard;
 
     private BackgroundObserver backgroundObserver;
@@ -144,6 +181,14 @@ public class LuceneIndexProviderService {
     @Reference
     ScorerProviderFactory scorerFactory;
 
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            policyOption = ReferencePolicyOption.GREEDY,
+            policy = ReferencePolicy.DYNAMIC
+    )
+    private volatile PreExtractedTextProvider extractedTextProvider;
+
+    private ExtractedTextCache extractedTextCache;
+
     private IndexCopier indexCopier;
 
     private File indexDir;
@@ -193,6 +238,11 @@ public class LuceneIndexProviderService {
             indexProvider = null;
         }
 
+        if (extractedTextCache != null) {
+            extractedTextCache.close();
+            extractedTextCache = null;
+        }
+
         if (executorService != null){
             executorService.shutdown();
             executorService.awaitTermination(1, TimeUnit.MINUTES);
@@ -205,6 +255,10 @@ public class LuceneIndexProviderService {
         return indexCopier;
     }
 
+    ExtractedTextCache getExtractedTextCache() {
+        return extractedTextCache;
+    }
+
     private void initialize(){
         if(indexProvider == null){
             return;
@@ -228,17 +282,40 @@ public class LuceneIndexProviderService {
 
     private void registerIndexEditor(BundleContext bundleContext, Map<String, ?> config) throws IOException {
         boolean enableCopyOnWrite = PropertiesUtil.toBoolean(config.get(PROP_COPY_ON_WRITE), false);
+        initializeExtractedTextCache(config);
         LuceneIndexEditorProvider editorProvider;
         if (enableCopyOnWrite){
             initializeIndexCopier(bundleContext, config);
-            editorProvider = new LuceneIndexEditorProvider(indexCopier);
+            editorProvider = new LuceneIndexEditorProvider(indexCopier, extractedTextCache);
             log.info("Enabling CopyOnWrite support. Index files would be copied under {}", indexDir.getAbsolutePath());
         } else {
-            editorProvider = new LuceneIndexEditorProvider();
+            editorProvider = new LuceneIndexEditorProvider(null, extractedTextCache);
         }
         regs.add(bundleContext.registerService(IndexEditorProvider.class.getName(), editorProvider, null));
     }
 
+    private void initializeExtractedTextCache(Map<String, ?> config) throws IOException {
+        int cacheSizeInMB = PropertiesUtil.toInteger(config.get(PROP_EXTRACTED_TEXT_CACHE_SIZE),
+                PROP_EXTRACTED_TEXT_CACHE_SIZE_DEFAULT);
+        String dir = PropertiesUtil.toString(config.get(PROP_EXTRACTED_TEXT_DIR), null);
+        int threads = PropertiesUtil.toInteger(config.get(PROP_EXTRACTION_THREADS),
+                PROP_EXTRACTION_THREADS_DEFAULT);
+        int timeoutInSecs = PropertiesUtil.toInteger(config.get(PROP_EXTRACTION_TIMEOUT),
+                PROP_EXTRACTION_TIMEOUT_DEFAULT);
+
+        extractedTextCache = new ExtractedTextCache(
+                cacheSizeInMB * FileUtils.ONE_MB,
+                Strings.isNullOrEmpty(dir) ? null : new File(dir),
+                threads, TimeUnit.SECONDS.toMillis(timeoutInSecs));
+        extractedTextCache.setPreExtractedTextProvider(extractedTextProvider);
+
+        oakRegs.add(registerMBean(whiteboard,
+                ExtractedTextCacheMBean.class,
+                extractedTextCache,
+                ExtractedTextCacheMBean.TYPE,
+                "Extracted text cache statistics"));
+    }
+
     private IndexTracker createTracker(BundleContext bundleContext, Map<String, ?> config) throws IOException {
         boolean enableCopyOnRead = PropertiesUtil.toBoolean(config.get(PROP_COPY_ON_READ), true);
         if (enableCopyOnRead){
@@ -333,6 +410,25 @@ public class LuceneIndexProviderService {
         regs.add(bundleContext.registerService(Observer.class.getName(), observer, null));
     }
 
+    protected void bindExtractedTextProvider(PreExtractedTextProvider provider) {
+        this.extractedTextProvider = provider;
+        ExtractedTextCache cache = extractedTextCache;
+        if (cache != null) {
+            cache.setPreExtractedTextProvider(provider);
+        }
+        log.info("Using pre extracted text provider {}", provider);
+    }
+
+    protected void unbindExtractedTextProvider(PreExtractedTextProvider provider) {
+        if (extractedTextProvider == provider) {
+            extractedTextProvider = null;
+            ExtractedTextCache cache = extractedTextCache;
+            if (cache != null) {
+                cache.setPreExtractedTextProvider(null);
+            }
+        }
+    }
+
     private void initializeFactoryClassLoaders(ClassLoader classLoader) {
         ClassLoader originalClassLoader = Thread.currentThread()
                 .getContextClassLoader();
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.jackrabbit.oak.plugins.index.lucene;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.blob.datastore.DataStoreTextWriter;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.ExtractedText;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.ExtractedText.ExtractionResult;
+import org.apache.jackrabbit.oak.plugins.index.IndexUpdateProvider;
+import org.apache.jackrabbit.oak.plugins.index.fulltext.PreExtractedTextProvider;
+import org.apache.jackrabbit.oak.plugins.memory.ArrayBasedBlob;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.collect.ImmutableSet.of;
+import static javax.jcr.PropertyType.TYPENAME_BINARY;
+import static javax.jcr.PropertyType.TYPENAME_STRING;
+import static org.apache.jackrabbit.JcrConstants.JCR_DATA;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIMETYPE;
+import static org.apache.jackrabbit.oak.plugins.index.IndexConstants.INDEX_DEFINITIONS_NAME;
+import static org.apache.jackrabbit.oak.plugins.index.lucene.ExtractedTextCache.TEXT_EXTRACTION_ERROR;
+import static org.apache.jackrabbit.oak.plugins.index.lucene.TestUtil.newLuceneIndexDefinitionV2;
+import static org.apache.jackrabbit.oak.plugins.nodetype.write.InitialContent.INITIAL_CONTENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ExtractedTextCacheTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void memoryCache() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(1000, null, 1, 1000);
+        Blob b = new IdBlob("hello", "a1b2c3d4");
+        assertNull(cache.get("/a", b));
+        assertEquals(1, cache.getMissCount());
+
+        cache.put(b, "hello");
+        assertEquals("hello", cache.get("/b", new IdBlob("hello", "a1b2c3d4#5")));
+        assertEquals(1, cache.getCacheHitCount());
+
+        // binaries without content identity are not cached
+        Blob noId = new ArrayBasedBlob("hello".getBytes());
+        cache.put(noId, "hello");
+        assertNull(cache.get("/c", noId));
+        cache.close();
+    }
+
+    @Test
+    public void diskCache() throws Exception {
+        File dir = temporaryFolder.newFolder();
+        ExtractedTextCache cache = new ExtractedTextCache(1000, dir, 1, 1000);
+        cache.put(new IdBlob("hello", "a1b2c3d4#5"), "hello");
+        cache.put(new IdBlob("world", "e5f6a7b8"), TEXT_EXTRACTION_ERROR);
+        cache.put(new IdBlob("inlined", "0123-4567:89"), "inlined");
+        cache.close();
+
+        cache = new ExtractedTextCache(1000, dir, 1, 1000);
+        assertEquals("hello", cache.get("/a", new IdBlob("hello", "a1b2c3d4#5")));
+        assertEquals(TEXT_EXTRACTION_ERROR, cache.get("/b", new IdBlob("world", "e5f6a7b8")));
+        assertNull(cache.get("/c", new IdBlob("inlined", "0123-4567:89")));
+        assertEquals(2, cache.getDiskHitCount());
+        cache.close();
+
+        // the same layout as used by the text pre extraction
+        DataStoreTextWriter reader = new DataStoreTextWriter(dir, true);
+        ExtractedText text = reader.getText("/a", new IdBlob("hello", "a1b2c3d4#5"));
+        assertEquals(ExtractionResult.SUCCESS, text.getExtractionResult());
+        assertEquals("hello", text.getExtractedText());
+        assertEquals(ExtractionResult.ERROR,
+                reader.getText("/b", new IdBlob("world", "e5f6a7b8")).getExtractionResult());
+    }
+
+    @Test
+    public void preExtractedText() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(1000, null, 1, 1000);
+        cache.setPreExtractedTextProvider(new PreExtractedTextProvider() {
+            @Override
+            public ExtractedText getText(String propertyPath, Blob blob) {
+                if (propertyPath.equals("/a")) {
+                    return new ExtractedText(ExtractionResult.SUCCESS, "pre extracted");
+                }
+                return null;
+            }
+        });
+        assertEquals("pre extracted", cache.get("/a", new IdBlob("hello", "a1b2c3d4")));
+        assertNull(cache.get("/b", new IdBlob("world", "e5f6a7b8")));
+        assertEquals(1, cache.getPreExtractedHitCount());
+        cache.close();
+    }
+
+    @Test
+    public void extractionTimeout() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(1000, null, 1, 100);
+        final CountDownLatch latch = new CountDownLatch(1);
+        String text = cache.extract("/a", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                latch.await();
+                return "too late";
+            }
+        });
+        // a timeout is not an extraction error
+        assertNull(text);
+        assertEquals(1, cache.getTimeoutCount());
+        assertEquals(0, cache.getErrorCount());
+        latch.countDown();
+
+        assertEquals("hello", cache.extract("/b", text("hello", 0)));
+        assertEquals(2, cache.getExtractionCount());
+        cache.close();
+    }
+
+    @Test
+    public void timeoutExcludesQueueTime() throws Exception {
+        final ExtractedTextCache cache = new ExtractedTextCache(1000, null, 1, 1000);
+        ExecutorService indexers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<String>> results = Lists.newArrayList();
+            for (int i = 0; i < 2; i++) {
+                final String value = "text" + i;
+                results.add(indexers.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return cache.extract("/" + value, text(value, 600));
+                    }
+                }));
+            }
+            // the indexing thread of the second extraction waits 1200 ms
+            for (int i = 0; i < 2; i++) {
+                assertEquals("text" + i, results.get(i).get());
+            }
+            assertEquals(0, cache.getTimeoutCount());
+        } finally {
+            indexers.shutdown();
+            cache.close();
+        }
+    }
+
+    @Test
+    public void hungExtractionDoesNotBlockPool() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(1000, null, 1, 100);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            assertNull(cache.extract("/a", hung(latch)));
+            // a thread is added for the hung extraction
+            assertEquals("hello", cache.extract("/b", text("hello", 0)));
+
+            // but only as many as the pool has threads
+            assertNull(cache.extract("/c", hung(latch)));
+            assertNull(cache.extract("/d", text("hello", 0)));
+            assertEquals(2, cache.getTimeoutCount());
+            assertEquals(1, cache.getRejectedCount());
+
+            // the threads are released once the extractions are done
+            latch.countDown();
+            assertEquals("hello", cache.extract("/e", text("hello", 0)));
+            assertEquals(0, cache.getErrorCount());
+        } finally {
+            latch.countDown();
+            cache.close();
+        }
+    }
+
+    @Test
+    public void timeoutNotPersisted() throws Exception {
+        File dir = temporaryFolder.newFolder();
+        ExtractedTextCache cache = new ExtractedTextCache(1000, dir, 1, 100);
+        EditorHook hook = new EditorHook(new IndexUpdateProvider(
+                new LuceneIndexEditorProvider(null, cache)));
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            NodeBuilder builder = INITIAL_CONTENT.builder();
+            newLuceneIndexDefinitionV2(builder.child(INDEX_DEFINITIONS_NAME), "lucene",
+                    of(TYPENAME_STRING, TYPENAME_BINARY));
+            NodeState before = builder.getNodeState();
+            Blob blob = new HungBlob("hello", "a1b2c3d4", latch);
+            builder.child("test").setProperty(JCR_MIMETYPE, "text/plain")
+                    .setProperty(JCR_DATA, blob);
+            hook.processCommit(before, builder.getNodeState(), CommitInfo.EMPTY);
+
+            assertEquals(1, cache.getTimeoutCount());
+            assertNull(cache.get("/test/jcr:data", blob));
+            assertFalse(new File(dir, ExtractedTextCache.ERROR_BLOB_FILE).exists());
+        } finally {
+            latch.countDown();
+            cache.close();
+        }
+    }
+
+    private static Callable<String> text(final String text, final long millis) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(millis);
+                return text;
+            }
+        };
+    }
+
+    /**
+     * An extraction that does not react on the interrupt, like a hung parser.
+     */
+    private static Callable<String> hung(final CountDownLatch latch) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                Uninterruptibles.awaitUninterruptibly(latch);
+                return "too late";
+            }
+        };
+    }
+
+    /**
+     * A binary that can not be read until the latch is released.
+     */
+    private static class HungBlob extends IdBlob {
+        private final CountDownLatch latch;
+
+        HungBlob(String value, String id, CountDownLatch latch) {
+            super(value, id);
+            this.latch = latch;
+        }
+
+        @Nonnull
+        @Override
+        public InputStream getNewStream() {
+            Uninterruptibles.awaitUninterruptibly(latch);
+            return super.getNewStream();
+        }
+    }
+
+    private static class IdBlob extends ArrayBasedBlob {
+        final String id;
+
+        public IdBlob(String value, String id) {
+            super(value.getBytes());
+            this.id = id;
+        }
+
+        @Override
+        public String getContentIdentity() {
+            return id;
+        }
+    }
+}
@@ -29,10 +29,12 @@ import java.util.concurrent.Executors;
 import javax.annotation.Nonnull;
 
 import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.plugins.index.CompositeIndexEditorProvider;
 import org.apache.jackrabbit.oak.plugins.index.IndexConstants;
 import org.apache.jackrabbit.oak.plugins.index.IndexEditor;
 import org.apache.jackrabbit.oak.plugins.index.IndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.IndexUpdate;
 import org.apache.jackrabbit.oak.plugins.index.IndexUpdateCallback;
 import org.apache.jackrabbit.oak.plugins.index.IndexUpdateProvider;
 import org.apache.jackrabbit.oak.plugins.index.IndexUtils;
@@ -40,7 +42,9 @@ import org.apache.jackrabbit.oak.plugins.index.property.PropertyIndexEditorProvi
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
 import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorDiff;
 import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.commit.VisibleEditor;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.jackrabbit.test.ISO8601;
@@ -178,6 +182,41 @@ public class LuceneIndexEditorTest {
         assertEquals(2, getSearcher().getIndexReader().numDocs());
     }
 
+    @Test
+    public void partitionedReindex() throws Exception{
+        builder.setProperty("foo", "root");
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 50; j++) {
+                builder.child("test" + i).child("n" + j).setProperty("foo", "v" + i + "-" + j);
+            }
+        }
+        NodeState before = builder.getNodeState();
+        NodeBuilder index = builder.child(INDEX_DEFINITIONS_NAME);
+        NodeBuilder nb = newLuceneIndexDefinitionV2(index, "lucene",
+                of(TYPENAME_STRING));
+        nb.setProperty(LuceneIndexConstants.FULL_TEXT_ENABLED, false);
+        nb.setProperty(createProperty(INCLUDE_PROPERTY_NAMES, of("foo"), STRINGS));
+        NodeState after = builder.getNodeState();
+
+        NodeBuilder indexed = after.builder();
+        IndexUpdate update = new IndexUpdate(new LuceneIndexEditorProvider(),
+                null, after, indexed, new IndexUpdateCallback() {
+                    @Override
+                    public void indexUpdate() {
+                    }
+                }).withParallelReindex(4);
+        assertNull(EditorDiff.process(VisibleEditor.wrap(update), before, after));
+        tracker.update(indexed.getNodeState());
+
+        // the partitions of all child nodes of the root node are merged
+        assertEquals(501, getSearcher().getIndexReader().numDocs());
+        assertEquals("/", getPath(new TermQuery(new Term("foo", "root"))));
+        assertEquals("/test0/n0", getPath(new TermQuery(new Term("foo", "v0-0"))));
+        assertEquals("/test9/n49", getPath(new TermQuery(new Term("foo", "v9-49"))));
+        assertEquals(501, indexed.getChildNode(INDEX_DEFINITIONS_NAME).getChildNode("lucene")
+                .getChildNode(":status").getProperty("indexedNodes").getValue(Type.LONG).longValue());
+    }
+
     @Test
     public void saveDirectoryListing() throws Exception{
         NodeBuilder index = builder.child(INDEX_DEFINITIONS_NAME);
@@ -72,6 +72,9 @@ public class LuceneIndexProviderServiceTest {
 
         assertNotNull("CopyOnRead should be enabled by default", context.getService(CopyOnReadStatsMBean.class));
 
+        assertNotNull(editorProvider.getExtractedTextCache());
+        assertNotNull(context.getService(ExtractedTextCacheMBean.class));
+
         assertTrue(context.getService(Observer.class) instanceof BackgroundObserver);
         assertEquals(InfoStream.NO_OUTPUT, InfoStream.getDefault());
 
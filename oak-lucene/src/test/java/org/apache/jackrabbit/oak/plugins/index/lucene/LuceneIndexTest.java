@@ -755,6 +755,60 @@ public class LuceneIndexTest {
         assertEquals(1, copier.getIndexDir("/oak:index/lucene").listFiles().length);
     }
 
+    @Test
+    public void reopenReusesSegmentReaders() throws Exception{
+        NodeBuilder index = builder.child(INDEX_DEFINITIONS_NAME);
+        newLucenePropertyIndexDefinition(index, "lucene", ImmutableSet.of("foo", "foo2"), null);
+
+        NodeState before = builder.getNodeState();
+        builder.setProperty("foo", "bar");
+        NodeState indexed = HOOK.processCommit(before, builder.getNodeState(), CommitInfo.EMPTY);
+
+        IndexCopier copier = new IndexCopier(sameThreadExecutor(), new File(getIndexDir()));
+        IndexTracker tracker = new IndexTracker(copier);
+        tracker.update(indexed);
+        IndexNode node = tracker.acquireIndexNode("/oak:index/lucene");
+        IndexReader reader = node.getSearcher().getIndexReader();
+        // keep the old reader open
+        reader.incRef();
+        node.release();
+
+        builder = indexed.builder();
+        builder.child("a").setProperty("foo2", "bar2");
+        indexed = HOOK.processCommit(indexed, builder.getNodeState(), CommitInfo.EMPTY);
+        tracker.update(indexed);
+
+        node = tracker.acquireIndexNode("/oak:index/lucene");
+        IndexReader newReader = node.getSearcher().getIndexReader();
+        IndexNode.warmUp((DirectoryReader) newReader, (DirectoryReader) reader);
+        node.release();
+        assertEquals(2, newReader.numDocs());
+        assertEquals(2, newReader.leaves().size());
+        // the unchanged segment is shared
+        assertTrue(reader.leaves().get(0).reader() == newReader.leaves().get(0).reader());
+        reader.decRef();
+        assertQuery(tracker, indexed, "foo", "bar");
+        List<AtomicReaderContext> leaves = newReader.leaves();
+
+        //Reindex opens a new reader
+        builder = indexed.builder();
+        builder.child(INDEX_DEFINITIONS_NAME).child("lucene").setProperty(REINDEX_PROPERTY_NAME, true);
+        indexed = HOOK.processCommit(indexed, builder.getNodeState(), CommitInfo.EMPTY);
+        tracker.update(indexed);
+
+        node = tracker.acquireIndexNode("/oak:index/lucene");
+        IndexReader reindexed = node.getSearcher().getIndexReader();
+        node.release();
+        assertEquals(2, reindexed.numDocs());
+        for (AtomicReaderContext context : reindexed.leaves()) {
+            for (AtomicReaderContext old : leaves) {
+                assertFalse(context.reader() == old.reader());
+            }
+        }
+        assertQuery(tracker, indexed, "foo", "bar");
+        tracker.close();
+    }
+
     @Test
     public void multiValuesForOrderedIndexShouldNotThrow() {
         NodeBuilder index = newLuceneIndexDefinition(builder.child(INDEX_DEFINITIONS_NAME), "lucene", null);
@@ -50,6 +50,10 @@ public interface RemoteTree {
      * the consumer of this interface must assume that there is another subtree
      * rooted under the corresponding key, but it is not returned to fulfill the
      * filtering options provided when this tree was read.
+     * <p/>
+     * The returned {@code Map} may be a view that reads the children lazily
+     * while it is iterated, so consumers should iterate it instead of
+     * performing lookups by key.
      *
      * @return The children associated to the root of this remote tree.
      */
@@ -20,6 +20,8 @@ package org.apache.jackrabbit.oak.remote.content;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
@@ -32,9 +34,13 @@ import org.apache.jackrabbit.oak.remote.filter.Filters;
 import org.apache.jackrabbit.util.ISO8601;
 
 import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 class ContentRemoteTree implements RemoteTree {
 
@@ -269,19 +275,49 @@ class ContentRemoteTree implements RemoteTree {
         });
     }
 
+    /**
+     * Return a view of the children of this tree. The children are read
+     * lazily from the underlying tree every time the view is iterated, and
+     * are iterated in the order of the underlying tree. This allows a consumer
+     * to walk a big tree without materializing it in memory.
+     */
     @Override
     public Map<String, RemoteTree> getChildren() {
-        Map<String, RemoteTree> children = new HashMap<String, RemoteTree>();
+        return new AbstractMap<String, RemoteTree>() {
 
-        for (Tree child : getFilteredChildren()) {
-            if (depth < filters.getDepth()) {
-                children.put(child.getName(), new ContentRemoteTree(child, depth + 1, filters, contentRemoteBinaries));
-            } else {
-                children.put(child.getName(), null);
+            @Override
+            public Set<Entry<String, RemoteTree>> entrySet() {
+                return new AbstractSet<Entry<String, RemoteTree>>() {
+
+                    @Override
+                    public Iterator<Entry<String, RemoteTree>> iterator() {
+                        return Iterators.transform(getFilteredChildren().iterator(), new Function<Tree, Entry<String, RemoteTree>>() {
+
+                            @Override
+                            public Entry<String, RemoteTree> apply(Tree child) {
+                                return Maps.immutableEntry(child.getName(), getChild(child));
+                            }
+
+                        });
+                    }
+
+                    @Override
+                    public int size() {
+                        return Iterables.size(getFilteredChildren());
+                    }
+
+                };
             }
+
+        };
+    }
+
+    private RemoteTree getChild(Tree child) {
+        if (depth < filters.getDepth()) {
+            return new ContentRemoteTree(child, depth + 1, filters, contentRemoteBinaries);
         }
 
-        return children;
+        return null;
     }
 
     private Iterable<Tree> getFilteredChildren() {
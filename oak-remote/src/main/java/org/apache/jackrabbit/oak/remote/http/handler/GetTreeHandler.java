@@ -42,6 +42,13 @@ import static org.apache.jackrabbit.oak.remote.http.handler.ResponseUtils.sendNo
 
 abstract class GetTreeHandler implements Handler {
 
+    /**
+     * Maximum number of children returned for each node. Clients are expected
+     * to page through bigger sets of children using the {@code childrenStart}
+     * and {@code childrenCount} parameters.
+     */
+    static int MAX_CHILDREN_COUNT = Integer.getInteger("oak.remote.maxChildrenCount", 1000);
+
     protected abstract String readPath(HttpServletRequest request);
 
     protected abstract RemoteRevision readRevision(HttpServletRequest request, RemoteSession session);
@@ -73,11 +80,29 @@ abstract class GetTreeHandler implements Handler {
         response.setHeader("Oak-Revision", revision.asString());
         response.setContentType("application/json");
 
+        // The body is streamed while the tree is read, and sent in chunks as
+        // the buffers fill up. The response is committed only then, so that
+        // an error reading the first part of the tree can still be reported.
+
         ServletOutputStream stream = response.getOutputStream();
 
         JsonGenerator generator = new JsonFactory().createJsonGenerator(stream, JsonEncoding.UTF8);
-        renderResponse(generator, tree);
-        generator.flush();
+
+        try {
+            renderResponse(generator, tree);
+            generator.flush();
+        } catch (RuntimeException e) {
+            if (response.isCommitted()) {
+                // The status is already sent. Failing the request aborts
+                // the response, so the client doesn't get a truncated body
+                // that looks complete.
+                throw e;
+            }
+
+            response.reset();
+            sendInternalServerError(response, "unable to read the tree");
+            return;
+        }
 
         stream.close();
     }
@@ -181,8 +206,8 @@ abstract class GetTreeHandler implements Handler {
             public int getChildrenCount() {
                 Integer childrenCount = readChildrenCount(request);
 
-                if (childrenCount == null) {
-                    return super.getChildrenCount();
+                if (childrenCount == null || childrenCount < 0 || childrenCount > MAX_CHILDREN_COUNT) {
+                    return MAX_CHILDREN_COUNT;
                 }
 
                 return childrenCount;
@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Sets.newHashSet;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -45,6 +46,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 public class ContentRemoteTreeTest {
 
@@ -641,6 +644,23 @@ public class ContentRemoteTreeTest {
         assertNotNull(children.get("child"));
     }
 
+    @Test
+    public void testGetChildrenIsLazy() {
+        Tree foo = mock(Tree.class);
+        doReturn("foo").when(foo).getName();
+
+        Tree bar = mock(Tree.class);
+        doReturn("bar").when(bar).getName();
+
+        Tree tree = mock(Tree.class);
+        doReturn(asList(foo, bar)).when(tree).getChildren();
+
+        Map<String, RemoteTree> children = createTree(tree).getChildren();
+
+        verify(tree, never()).getChildren();
+        assertEquals(asList("foo", "bar"), newArrayList(children.keySet()));
+    }
+
     @Test
     public void testGetChildrenWithStart() {
         Tree foo = mock(Tree.class);
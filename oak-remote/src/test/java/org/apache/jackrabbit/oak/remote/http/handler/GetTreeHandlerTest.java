@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jackrabbit.oak.remote.http.handler;
+
+import org.apache.jackrabbit.oak.remote.RemoteRevision;
+import org.apache.jackrabbit.oak.remote.RemoteSession;
+import org.apache.jackrabbit.oak.remote.RemoteTree;
+import org.apache.jackrabbit.oak.remote.RemoteTreeFilters;
+import org.apache.jackrabbit.oak.remote.RemoteValue;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class GetTreeHandlerTest {
+
+    private static class Output extends ServletOutputStream {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public String toString() {
+            return bytes.toString();
+        }
+
+    }
+
+    private HttpServletRequest createRequest(RemoteTree tree) {
+        RemoteRevision revision = mock(RemoteRevision.class);
+        doReturn("revision").when(revision).asString();
+
+        RemoteSession session = mock(RemoteSession.class);
+        doReturn(revision).when(session).readLastRevision();
+        doReturn(tree).when(session).readTree(any(RemoteRevision.class), anyString(), any(RemoteTreeFilters.class));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        doReturn(session).when(request).getAttribute("session");
+        doReturn("/revisions/last/tree/node").when(request).getPathInfo();
+
+        return request;
+    }
+
+    @Test
+    public void testReadTree() throws Exception {
+        RemoteTree tree = mock(RemoteTree.class);
+        doReturn(Collections.<String, RemoteValue>emptyMap()).when(tree).getProperties();
+        doReturn(Collections.<String, RemoteTree>emptyMap()).when(tree).getChildren();
+
+        Output output = new Output();
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        doReturn(output).when(response).getOutputStream();
+
+        new GetLastTreeHandler().handle(createRequest(tree), response);
+
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response, never()).flushBuffer();
+        assertEquals("{\"properties\":{},\"children\":{},\"hasMoreChildren\":false}", output.toString());
+    }
+
+    @Test
+    public void testErrorBeforeCommit() throws Exception {
+        RemoteTree tree = mock(RemoteTree.class);
+        doReturn(Collections.<String, RemoteValue>emptyMap()).when(tree).getProperties();
+        doThrow(new IllegalStateException("unreadable")).when(tree).getChildren();
+
+        Output output = new Output();
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        doReturn(output).when(response).getOutputStream();
+        doReturn(false).when(response).isCommitted();
+
+        new GetLastTreeHandler().handle(createRequest(tree), response);
+
+        verify(response).reset();
+        verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+
+    @Test
+    public void testErrorAfterCommit() throws Exception {
+        RemoteTree tree = mock(RemoteTree.class);
+        doReturn(Collections.<String, RemoteValue>emptyMap()).when(tree).getProperties();
+        doThrow(new IllegalStateException("unreadable")).when(tree).getChildren();
+
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        doReturn(new Output()).when(response).getOutputStream();
+        doReturn(true).when(response).isCommitted();
+
+        try {
+            new GetLastTreeHandler().handle(createRequest(tree), response);
+            fail("the error should abort the response");
+        } catch (IllegalStateException e) {
+            assertEquals("unreadable", e.getMessage());
+        }
+
+        verify(response, never()).reset();
+    }
+
+}
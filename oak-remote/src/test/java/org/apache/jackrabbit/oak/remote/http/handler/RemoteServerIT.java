@@ -235,6 +235,38 @@ public class RemoteServerIT extends OakBaseTest {
         assertTrue(body.getJSONObject("children").isNull("child"));
     }
 
+    @Test
+    public void testReadLastRevisionTreeMaxChildrenCount() throws Exception {
+        Root root = contentSession.getLatestRoot();
+
+        Tree node = root.getTree("/").addChild("node");
+        node.setProperty("jcr:primaryType", "nt:unstructured", Type.NAME);
+
+        Tree foo = node.addChild("foo");
+        foo.setProperty("jcr:primaryType", "nt:unstructured", Type.NAME);
+
+        Tree bar = node.addChild("bar");
+        bar.setProperty("jcr:primaryType", "nt:unstructured", Type.NAME);
+
+        root.commit();
+
+        int maxChildrenCount = GetTreeHandler.MAX_CHILDREN_COUNT;
+
+        try {
+            GetTreeHandler.MAX_CHILDREN_COUNT = 1;
+
+            JSONObject body = get(resource("/revisions/last/tree/node")).basicAuth("admin", "admin").queryString("childrenCount", 2).asJson().getBody().getObject();
+            assertEquals(1, body.getJSONObject("children").length());
+            assertTrue(body.getBoolean("hasMoreChildren"));
+
+            body = get(resource("/revisions/last/tree/node")).basicAuth("admin", "admin").queryString("childrenStart", 1).asJson().getBody().getObject();
+            assertEquals(1, body.getJSONObject("children").length());
+            assertFalse(body.getBoolean("hasMoreChildren"));
+        } finally {
+            GetTreeHandler.MAX_CHILDREN_COUNT = maxChildrenCount;
+        }
+    }
+
     @Test
     public void testReadLastRevisionTreeStringProperty() throws Exception {
         Root root = contentSession.getLatestRoot();
@@ -216,6 +216,7 @@ public class BenchmarkRunner {
             new ManyNodes(),
             new ObservationTest(),
             new RevisionGCTest(),
+            new ParallelCompactionTest(),
             new ContinuousRevisionGCTest(),
             new XmlImportTest(),
             new FlatTreeWithAceForSamePrincipalTest(),
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.benchmark;
+
+import static org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState.EMPTY_NODE;
+import static org.apache.jackrabbit.oak.plugins.segment.file.FileStore.newFileStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.oak.fixture.RepositoryFixture;
+import org.apache.jackrabbit.oak.plugins.segment.Compactor;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentWriter;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+
+/**
+ * A benchmark comparing the wall clock time of serial and parallel
+ * compaction of the same TarMK content. The benchmark works directly on a
+ * {@link FileStore} in a temporary directory and ignores the repository
+ * fixtures. The store is reopened before each compaction, so that both
+ * start with an empty segment cache.
+ */
+public class ParallelCompactionTest extends Benchmark {
+
+    protected static final int SCALE = AbstractTest.getScale(100);
+
+    protected static final int THREADS = Integer.getInteger(
+            "compactionThreads", Runtime.getRuntime().availableProcessors());
+
+    @Override
+    public void run(Iterable<RepositoryFixture> fixtures) {
+        System.out.format("Parallel compaction benchmark (scale=%d, threads=%d)%n",
+                SCALE, THREADS);
+        File directory = Files.createTempDir();
+        try {
+            FileStore store = newFileStore(directory).withMemoryMapping(true).create();
+            try {
+                createContent(new SegmentNodeStore(store));
+            } finally {
+                store.close();
+            }
+            System.out.format("Serial compaction:   %s%n", compact(directory, 1));
+            System.out.format("Parallel compaction: %s%n", compact(directory, THREADS));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private static void createContent(SegmentNodeStore nodeStore) throws Exception {
+        Random random = new Random(42);
+        System.out.print("Creating content ");
+        for (int i = 0; i < SCALE; i++) {
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            NodeBuilder parent = builder.child("node-" + (i % 10)).child("node-" + i);
+            for (int j = 0; j < 1000; j++) {
+                NodeBuilder child = parent.child("child-" + j);
+                child.setProperty("value", random.nextLong());
+                child.setProperty("text", "text-" + random.nextInt());
+            }
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+            System.out.print(".");
+        }
+        System.out.println();
+    }
+
+    private static Stopwatch compact(File directory, int threads) throws IOException {
+        FileStore store = newFileStore(directory).withMemoryMapping(true).create();
+        try {
+            SegmentNodeState head = store.getHead();
+            SegmentWriter writer = new SegmentWriter(store, store.getTracker(), store.getVersion());
+            Compactor compactor = new Compactor(writer, null, false, threads);
+            Stopwatch watch = Stopwatch.createStarted();
+            SegmentNodeState compacted = compactor.compact(EMPTY_NODE, head);
+            watch.stop();
+            if (!compacted.equals(head)) {
+                throw new IllegalStateException("Compacted state differs from the original");
+            }
+            return watch;
+        } finally {
+            store.close();
+        }
+    }
+
+}
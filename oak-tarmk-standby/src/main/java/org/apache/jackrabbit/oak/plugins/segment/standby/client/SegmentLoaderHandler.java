@@ -20,11 +20,21 @@ package org.apache.jackrabbit.oak.plugins.segment.standby.client;
 
 import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
 import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetBlobReq;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.GET_TAR_INDEX;
 import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetSegmentReq;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetTarIndexReq;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.util.concurrent.EventExecutorGroup;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -37,8 +47,11 @@ import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeBuilder;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNotFoundException;
 import org.apache.jackrabbit.oak.plugins.segment.standby.codec.SegmentReply;
+import org.apache.jackrabbit.oak.plugins.segment.standby.codec.TarIndex;
 import org.apache.jackrabbit.oak.plugins.segment.standby.store.RemoteSegmentLoader;
 import org.apache.jackrabbit.oak.plugins.segment.standby.store.StandbyStore;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +61,12 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
     private static final Logger log = LoggerFactory
             .getLogger(SegmentLoaderHandler.class);
 
+    /**
+     * The maximum number of segments requested from the primary ahead of
+     * time, i.e. without waiting for the reply of a previous request.
+     */
+    static final int FETCH_WINDOW = Integer.getInteger("standby.fetchWindow", 32);
+
     private final StandbyStore store;
     private final String clientID;
     private final RecordId head;
@@ -60,6 +79,25 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
 
     final BlockingQueue<SegmentReply> segment = new LinkedBlockingQueue<SegmentReply>();
 
+    /**
+     * Ids of the segments requested from the primary whose reply was not yet
+     * received. Only accessed by the sync thread.
+     */
+    private final Set<String> requested = new HashSet<String>();
+
+    /**
+     * Segments received while waiting for another reply, which were not yet
+     * read. Prefetched segments that end up not being read are dropped, oldest
+     * first, once there are more than {@link #FETCH_WINDOW} of them. Only
+     * accessed by the sync thread.
+     */
+    private final Map<String, Segment> received = new LinkedHashMap<String, Segment>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Segment> eldest) {
+            return size() > FETCH_WINDOW;
+        }
+    };
+
     public SegmentLoaderHandler(final StandbyStore store, RecordId head,
             EventExecutorGroup loaderExecutor,
             String clientID, AtomicBoolean running, int readTimeoutMs, boolean autoClean) {
@@ -97,6 +135,9 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
         try {
             store.preSync(this);
             SegmentNodeState before = store.getHead();
+            if (isEmpty(before)) {
+                bootstrap();
+            }
             SegmentNodeBuilder builder = before.builder();
 
             SegmentNodeState current = new SegmentNodeState(head);
@@ -135,17 +176,109 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
                 }
             }
         } finally {
+            requested.clear();
+            received.clear();
             store.postSync();
             close();
         }
     }
 
+    /**
+     * A new store only contains the empty {@code root} node, which is
+     * written by the file store on initialization.
+     */
+    private static boolean isEmpty(NodeState state) {
+        if (state.getPropertyCount() > 0) {
+            return false;
+        }
+        for (ChildNodeEntry e : state.getChildNodeEntries()) {
+            if (!isEmpty(e.getNodeState())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Transfers the reachable segments of the immutable tar files of the
+     * primary, without following segment references. This is used to
+     * bootstrap a new standby instance, the subsequent incremental sync then
+     * finds most segments already in place. The segments are persisted as
+     * they arrive: the store does not require a segment to be written after
+     * the segments it references.
+     */
+    private void bootstrap() {
+        long t = System.currentTimeMillis();
+        ctx.writeAndFlush(newGetTarIndexReq(this.clientID));
+        // leave time for the incremental sync in case the primary does not
+        // support the request and the read timeout closes the channel
+        TarIndex index = getReply(GET_TAR_INDEX, SegmentReply.TAR_INDEX,
+                readTimeoutMs / 2).getTarIndex();
+        if (index == null) {
+            log.info("primary did not provide a tar index, skipping bootstrap");
+            return;
+        }
+        // the local store is empty, so all segments of the index are missing
+        List<String> ids = new ArrayList<String>();
+        for (UUID uuid : index.getSegmentIds()) {
+            ids.add(uuid.toString());
+        }
+        log.info("bootstrapping standby with {} segments", ids.size());
+        long bytes = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            prefetchSegments(ids.subList(i, ids.size()));
+            Segment s = readSegment(ids.get(i));
+            if (s == null) {
+                log.warn("can't read segment {} from primary, continuing with incremental sync",
+                        ids.get(i));
+                return;
+            }
+            store.persist(s.getSegmentId(), s);
+            bytes += s.size();
+        }
+        log.info("bootstrapped standby with {} segments ({}) in {}ms", ids.size(),
+                humanReadableByteCount(bytes), System.currentTimeMillis() - t);
+    }
+
     @Override
     public Segment readSegment(final String id) {
-        ctx.writeAndFlush(newGetSegmentReq(this.clientID, id));
+        Segment s = received.remove(id);
+        if (s != null) {
+            return s;
+        }
+        if (requested.add(id)) {
+            ctx.writeAndFlush(newGetSegmentReq(this.clientID, id));
+        }
         return getSegment(id);
     }
 
+    @Override
+    public void prefetchSegments(Iterable<String> ids) {
+        // the primary replies to the requests in order, so they can be sent
+        // without waiting for the reply of the previous request
+        boolean sent = false;
+        Iterator<String> it = ids.iterator();
+        while (requested.size() < FETCH_WINDOW && it.hasNext()) {
+            String id = it.next();
+            if (received.containsKey(id) || !requested.add(id)) {
+                continue;
+            }
+            ctx.write(newGetSegmentReq(this.clientID, id));
+            sent = true;
+        }
+        if (sent) {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * Sets the context the requests are sent to, without starting a sync
+     * (used for testing).
+     */
+    void setContext(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
     @Override
     public Blob readBlob(String blobId) {
         ctx.writeAndFlush(newGetBlobReq(this.clientID, blobId));
@@ -168,30 +301,47 @@ public class SegmentLoaderHandler extends ChannelInboundHandlerAdapter
     }
 
     private SegmentReply getReply(final String id, int type) {
+        return getReply(id, type, readTimeoutMs);
+    }
+
+    private SegmentReply getReply(final String id, int type, int timeoutMs) {
         boolean interrupted = false;
         try {
             for (;;) {
                 try {
-                    SegmentReply r = segment.poll(readTimeoutMs,
+                    SegmentReply r = segment.poll(timeoutMs,
                             TimeUnit.MILLISECONDS);
                     if (r == null) {
                         log.warn("timeout waiting for {}", id);
+                        // replies of outstanding requests may have been lost,
+                        // request them again when they are read
+                        requested.clear();
                         return SegmentReply.empty();
                     }
-                    if (r.getType() == type) {
-                        switch (r.getType()) {
-                        case SegmentReply.SEGMENT:
-                            if (r.getSegment().getSegmentId().toString()
-                                    .equals(id)) {
-                                return r;
-                            }
-                            break;
-                        case SegmentReply.BLOB:
-                            if (r.getBlob().getBlobId().equals(id)) {
-                                return r;
-                            }
+                    switch (r.getType()) {
+                    case SegmentReply.SEGMENT:
+                        String sid = r.getSegment().getSegmentId().toString();
+                        if (!requested.remove(sid)) {
+                            // late reply of a request considered lost
                             break;
                         }
+                        if (type == SegmentReply.SEGMENT && sid.equals(id)) {
+                            return r;
+                        }
+                        // prefetched segment, keep it until it is read
+                        received.put(sid, r.getSegment());
+                        break;
+                    case SegmentReply.BLOB:
+                        if (type == SegmentReply.BLOB
+                                && r.getBlob().getBlobId().equals(id)) {
+                            return r;
+                        }
+                        break;
+                    case SegmentReply.TAR_INDEX:
+                        if (type == SegmentReply.TAR_INDEX) {
+                            return r;
+                        }
+                        break;
                     }
                 } catch (InterruptedException ignore) {
                     interrupted = true;
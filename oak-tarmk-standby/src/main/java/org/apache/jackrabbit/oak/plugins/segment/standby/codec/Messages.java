@@ -23,10 +23,12 @@ public class Messages {
     public static final byte HEADER_RECORD = 0x00;
     public static final byte HEADER_SEGMENT = 0x01;
     public static final byte HEADER_BLOB = 0x02;
+    public static final byte HEADER_TAR_INDEX = 0x03;
 
     public static final String GET_HEAD = "h";
     public static final String GET_SEGMENT = "s.";
     public static final String GET_BLOB = "b.";
+    public static final String GET_TAR_INDEX = "t";
 
     private static final String MAGIC = "Standby-CMD@";
     private static final String SEPARATOR = ":";
@@ -47,6 +49,10 @@ public class Messages {
         return newRequest(clientID, GET_BLOB + blobId);
     }
 
+    public static String newGetTarIndexReq(String clientID) {
+        return newRequest(clientID, GET_TAR_INDEX);
+    }
+
     public static String extractMessageFrom(String payload) {
         if (payload.startsWith(MAGIC) && payload.length() > MAGIC.length()) {
             int i = payload.indexOf(SEPARATOR);
@@ -25,6 +25,7 @@ import io.netty.handler.codec.ReplayingDecoder;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -41,7 +42,7 @@ import com.google.common.hash.Hashing;
 public class ReplyDecoder extends ReplayingDecoder<DecodingState> {
 
     public enum DecodingState {
-        HEADER, SEGMENT, BLOB
+        HEADER, SEGMENT, BLOB, TAR_INDEX
     }
 
     private static final Logger log = LoggerFactory
@@ -78,6 +79,9 @@ public class ReplyDecoder extends ReplayingDecoder<DecodingState> {
             case Messages.HEADER_BLOB:
                 checkpoint(DecodingState.BLOB);
                 break;
+            case Messages.HEADER_TAR_INDEX:
+                checkpoint(DecodingState.TAR_INDEX);
+                break;
             default:
                 throw new Exception("Unknown type: " + type);
             }
@@ -104,6 +108,16 @@ public class ReplyDecoder extends ReplayingDecoder<DecodingState> {
             return;
         }
 
+        case TAR_INDEX: {
+            TarIndex index = decodeTarIndex(in, length);
+            if (index != null) {
+                out.add(SegmentReply.empty());
+                ctx.fireUserEventTriggered(new SegmentReply(index));
+            }
+            reset();
+            return;
+        }
+
         default:
             throw new Exception("Unknown decoding state: " + state());
         }
@@ -138,6 +152,29 @@ public class ReplyDecoder extends ReplayingDecoder<DecodingState> {
         return null;
     }
 
+    private TarIndex decodeTarIndex(ByteBuf in, int len) {
+        // #readBytes throws a 'REPLAY' exception if there are not enough bytes
+        // available for reading
+        ByteBuf data = in.readBytes(len - 1);
+        int count = data.readInt();
+        List<UUID> ids = new ArrayList<UUID>(count);
+        Hasher hasher = Hashing.murmur3_32().newHasher();
+        for (int i = 0; i < count; i++) {
+            long msb = data.readLong();
+            long lsb = data.readLong();
+            hasher.putLong(msb);
+            hasher.putLong(lsb);
+            ids.add(new UUID(msb, lsb));
+        }
+        long hash = data.readLong();
+        if (hash == hasher.hash().padToLong()) {
+            log.debug("received tar index with {} segments", count);
+            return new TarIndex(ids);
+        }
+        log.debug("received corrupted tar index, ignoring");
+        return null;
+    }
+
     private IdArrayBasedBlob decodeBlob(ByteBuf in, int length, byte type) {
         int inIdLen = in.readInt();
         byte[] bid = new byte[inIdLen];
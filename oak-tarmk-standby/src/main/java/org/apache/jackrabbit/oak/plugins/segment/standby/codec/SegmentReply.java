@@ -22,6 +22,7 @@ public class SegmentReply {
 
     public static final int SEGMENT = 0;
     public static final int BLOB = 1;
+    public static final int TAR_INDEX = 2;
 
     public static SegmentReply empty() {
         return new SegmentReply();
@@ -33,22 +34,34 @@ public class SegmentReply {
 
     private final IdArrayBasedBlob blob;
 
+    private final TarIndex tarIndex;
+
     public SegmentReply(Segment segment) {
         this.type = SEGMENT;
         this.segment = segment;
         this.blob = null;
+        this.tarIndex = null;
     }
 
     public SegmentReply(IdArrayBasedBlob blob) {
         this.type = BLOB;
         this.segment = null;
         this.blob = blob;
+        this.tarIndex = null;
+    }
+
+    public SegmentReply(TarIndex tarIndex) {
+        this.type = TAR_INDEX;
+        this.segment = null;
+        this.blob = null;
+        this.tarIndex = tarIndex;
     }
 
     private SegmentReply() {
         this.type = -1;
         this.segment = null;
         this.blob = null;
+        this.tarIndex = null;
     }
 
     public Segment getSegment() {
@@ -59,6 +72,10 @@ public class SegmentReply {
         return blob;
     }
 
+    public TarIndex getTarIndex() {
+        return tarIndex;
+    }
+
     public int getType() {
         return type;
     }
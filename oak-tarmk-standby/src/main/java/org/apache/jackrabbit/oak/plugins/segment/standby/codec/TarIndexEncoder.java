@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.standby.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+public class TarIndexEncoder extends MessageToByteEncoder<TarIndex> {
+
+    /**
+     * A tar index message is composed of:
+     * 
+     * <pre>
+     *  - (4 bytes) the message length
+     *  - (1 byte ) the message type
+     *  - (4 bytes) the number of segment ids
+     *  - (16 bytes) for each segment id its most and least significant bits
+     *  - (8 bytes) checksum hash of the segment ids
+     * </pre>
+     */
+    @Override
+    protected void encode(ChannelHandlerContext ctx, TarIndex index,
+            ByteBuf out) throws Exception {
+        List<UUID> ids = index.getSegmentIds();
+        Hasher hasher = Hashing.murmur3_32().newHasher();
+        out.writeInt(1 + 4 + ids.size() * 16 + 8);
+        out.writeByte(Messages.HEADER_TAR_INDEX);
+        out.writeInt(ids.size());
+        for (UUID id : ids) {
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+            hasher.putLong(id.getMostSignificantBits());
+            hasher.putLong(id.getLeastSignificantBits());
+        }
+        out.writeLong(hasher.hash().padToLong());
+    }
+}
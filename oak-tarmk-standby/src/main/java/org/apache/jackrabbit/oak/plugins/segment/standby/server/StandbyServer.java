@@ -45,6 +45,7 @@ import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
 import org.apache.jackrabbit.oak.plugins.segment.standby.codec.BlobEncoder;
 import org.apache.jackrabbit.oak.plugins.segment.standby.codec.RecordIdEncoder;
 import org.apache.jackrabbit.oak.plugins.segment.standby.codec.SegmentEncoder;
+import org.apache.jackrabbit.oak.plugins.segment.standby.codec.TarIndexEncoder;
 import org.apache.jackrabbit.oak.plugins.segment.standby.jmx.StandbyStatusMBean;
 import org.apache.jackrabbit.oak.plugins.segment.standby.store.CommunicationObserver;
 import org.slf4j.Logger;
@@ -132,6 +133,7 @@ public class StandbyServer implements StandbyStatusMBean, Closeable {
                 p.addLast(new RecordIdEncoder());
                 p.addLast(new SegmentEncoder());
                 p.addLast(new BlobEncoder());
+                p.addLast(new TarIndexEncoder());
                 p.addLast(handler);
             }
         });
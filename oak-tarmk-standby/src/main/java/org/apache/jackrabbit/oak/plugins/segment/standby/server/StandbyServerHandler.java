@@ -18,6 +18,7 @@
  */
 package org.apache.jackrabbit.oak.plugins.segment.standby.server;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
@@ -34,7 +35,9 @@ import org.apache.jackrabbit.oak.plugins.segment.RecordId;
 import org.apache.jackrabbit.oak.plugins.segment.Segment;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages;
+import org.apache.jackrabbit.oak.plugins.segment.standby.codec.TarIndex;
 import org.apache.jackrabbit.oak.plugins.segment.standby.store.CommunicationObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +66,23 @@ public class StandbyServerHandler extends SimpleChannelInboundHandler<String> {
         return null;
     }
 
+    /**
+     * Returns the ids of the segments in the immutable tar files of the store
+     * that are reachable from the head state, or {@code null} if the store
+     * does not keep its segments in tar files or they can't be read.
+     */
+    private TarIndex tarIndex() {
+        if (!(store instanceof FileStore)) {
+            return null;
+        }
+        try {
+            return new TarIndex(((FileStore) store).getReachableSegmentIds());
+        } catch (IOException e) {
+            log.warn("Error while collecting the reachable segments", e);
+            return null;
+        }
+    }
+
     private static long ipToLong(InetAddress ip) {
         byte[] octets = ip.getAddress();
         long result = 0;
@@ -144,6 +164,14 @@ public class StandbyServerHandler extends SimpleChannelInboundHandler<String> {
                     ctx.writeAndFlush(r);
                     return;
                 }
+            } else if (Messages.GET_TAR_INDEX.equalsIgnoreCase(request)) {
+                TarIndex index = tarIndex();
+                if (index != null) {
+                    log.debug("sending tar index with {} segments to {}",
+                            index.getSegmentIds().size(), client);
+                    ctx.writeAndFlush(index);
+                    return;
+                }
             } else if (request.startsWith(Messages.GET_SEGMENT)) {
                 String sid = request.substring(Messages.GET_SEGMENT.length());
                 log.debug("request segment id {}", sid);
@@ -23,6 +23,15 @@ public interface RemoteSegmentLoader {
 
     Segment readSegment(String id);
 
+    /**
+     * Hints the loader that the segments with the given ids are going to be
+     * read soon. The loader may request them ahead of time, so that reading
+     * a batch of segments does not cost a network round trip per segment.
+     *
+     * @param ids the ids of the segments, in the order they are going to be read.
+     */
+    void prefetchSegments(Iterable<String> ids);
+
     Blob readBlob(String blobId);
 
     void close();
@@ -21,6 +21,7 @@ import static org.apache.jackrabbit.oak.commons.IOUtils.humanReadableByteCount;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +40,10 @@ import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Functions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
 public class StandbyStore implements SegmentStore {
 
     private static final Logger log = LoggerFactory.getLogger(StandbyStore.class);
@@ -100,6 +105,7 @@ public class StandbyStore implements SegmentStore {
                     logRefs = false;
                 } else {
                     log.debug("transferring segment {}", id);
+                    loader.prefetchSegments(pendingIds(id, ids, persisted, cache));
                     s = loader.readSegment(id.toString());
                 }
 
@@ -174,6 +180,25 @@ public class StandbyStore implements SegmentStore {
         return delegate.readSegment(sid);
     }
 
+    /**
+     * Returns the ids of the segments that still need to be transferred,
+     * starting with the given {@code id} followed by the not yet available
+     * segments in the processing queue.
+     */
+    private Iterable<String> pendingIds(SegmentId id, Iterable<SegmentId> ids,
+            final Set<SegmentId> persisted, final Map<SegmentId, Segment> cache) {
+        Iterable<SegmentId> pending = Iterables.filter(ids, new Predicate<SegmentId>() {
+            @Override
+            public boolean apply(SegmentId input) {
+                return !persisted.contains(input) && !cache.containsKey(input)
+                        && !delegate.containsSegment(input);
+            }
+        });
+        return Iterables.transform(
+                Iterables.concat(Collections.singleton(id), pending),
+                Functions.toStringFunction());
+    }
+
     public void persist(SegmentId in, Segment s) {
         SegmentId id = delegate.getTracker().getSegmentId(
                 in.getMostSignificantBits(), in.getLeastSignificantBits());
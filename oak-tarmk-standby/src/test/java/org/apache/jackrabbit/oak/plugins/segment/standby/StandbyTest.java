@@ -21,22 +21,31 @@ package org.apache.jackrabbit.oak.plugins.segment.standby;
 import static org.apache.jackrabbit.oak.plugins.segment.SegmentTestUtils.createTmpTargetDir;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Random;
+import java.util.UUID;
 
 import org.apache.jackrabbit.oak.api.Blob;
 import org.apache.jackrabbit.oak.api.CommitFailedException;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.segment.Segment;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentId;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeState;
 import org.apache.jackrabbit.oak.plugins.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentStore;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentTracker;
 import org.apache.jackrabbit.oak.plugins.segment.file.FileStore;
 import org.apache.jackrabbit.oak.plugins.segment.standby.client.StandbyClient;
 import org.apache.jackrabbit.oak.plugins.segment.standby.server.StandbyServer;
+import org.apache.jackrabbit.oak.spi.blob.BlobStore;
 import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
 import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
 import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
@@ -98,6 +107,144 @@ public class StandbyTest extends TestBase {
 
     }
 
+    @Test
+    public void testBootstrap() throws Exception {
+        final int blobSize = 5 * 1024 * 1024;
+        FileStore primary = getPrimary();
+        FileStore secondary = getSecondary();
+
+        NodeStore store = new SegmentNodeStore(primary);
+        final StandbyServer server = new StandbyServer(getPort(), primary);
+        server.start();
+        // a bulk segment, which is not reachable from the head
+        Random r = new Random();
+        UUID garbage = new UUID(
+                (r.nextLong() & ~(0xfL << 12)) | (0x4L << 12),
+                (r.nextLong() & ~(0xfL << 60)) | (0xBL << 60));
+        byte[] bytes = new byte[4096];
+        r.nextBytes(bytes);
+        primary.writeSegment(primary.getTracker().getSegmentId(
+                garbage.getMostSignificantBits(), garbage.getLeastSignificantBits()),
+                bytes, 0, bytes.length);
+        addTestContent(store, "server", blobSize, 150);
+        primary.flush();
+
+        assertTrue(primary.getTarReaderIndex().size() > 1);
+        List<UUID> index = primary.getReachableSegmentIds();
+        assertFalse(index.isEmpty());
+        assertFalse(index.contains(garbage));
+
+        StandbyClient cl = new StandbyClient("127.0.0.1", getPort(), secondary);
+        cl.run();
+
+        try {
+            assertEquals(primary.getHead(), secondary.getHead());
+        } finally {
+            server.close();
+            cl.close();
+        }
+
+        // a new standby gets the reachable segments of the immutable tar
+        // files, but not the garbage
+        for (UUID id : index) {
+            assertTrue(secondary.containsSegment(new SegmentId(primary.getTracker(),
+                    id.getMostSignificantBits(), id.getLeastSignificantBits())));
+        }
+        assertFalse(secondary.containsSegment(new SegmentId(primary.getTracker(),
+                garbage.getMostSignificantBits(), garbage.getLeastSignificantBits())));
+    }
+
+    @Test
+    public void testBootstrapNotSupported() throws Exception {
+        final int readTimeoutMs = 4000;
+        FileStore primary = getPrimary();
+        FileStore secondary = getSecondary();
+
+        NodeStore store = new SegmentNodeStore(primary);
+        // not a FileStore, so the primary does not reply to the tar index
+        // request, like a primary that does not know the request
+        final StandbyServer server = new StandbyServer(getPort(),
+                new DelegatingSegmentStore(primary));
+        server.start();
+        addTestContent(store, "server", 1024 * 1024, 150);
+        primary.flush();
+
+        StandbyClient cl = new StandbyClient("127.0.0.1", getPort(), secondary,
+                false, readTimeoutMs);
+        long t = System.currentTimeMillis();
+        cl.run();
+
+        try {
+            // the bootstrap is skipped after half the read timeout, which
+            // leaves time for the incremental sync
+            assertTrue(System.currentTimeMillis() - t >= readTimeoutMs / 2);
+            assertEquals(primary.getHead(), secondary.getHead());
+        } finally {
+            server.close();
+            cl.close();
+        }
+    }
+
+    private static class DelegatingSegmentStore implements SegmentStore {
+
+        private final SegmentStore store;
+
+        DelegatingSegmentStore(SegmentStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public SegmentTracker getTracker() {
+            return store.getTracker();
+        }
+
+        @Override
+        public SegmentNodeState getHead() {
+            return store.getHead();
+        }
+
+        @Override
+        public boolean setHead(SegmentNodeState base, SegmentNodeState head) {
+            return store.setHead(base, head);
+        }
+
+        @Override
+        public boolean containsSegment(SegmentId id) {
+            return store.containsSegment(id);
+        }
+
+        @Override
+        public Segment readSegment(SegmentId segmentId) {
+            return store.readSegment(segmentId);
+        }
+
+        @Override
+        public void writeSegment(SegmentId id, byte[] bytes, int offset, int length) {
+            store.writeSegment(id, bytes, offset, length);
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+
+        @Override
+        public Blob readBlob(String reference) {
+            return store.readBlob(reference);
+        }
+
+        @Override
+        public BlobStore getBlobStore() {
+            return store.getBlobStore();
+        }
+
+        @Override
+        public void gc() {
+            store.gc();
+        }
+
+    }
+
     private static byte[] addTestContent(NodeStore store, String child, int size, int dataNodes)
             throws CommitFailedException, IOException {
         NodeBuilder builder = store.getRoot().builder();
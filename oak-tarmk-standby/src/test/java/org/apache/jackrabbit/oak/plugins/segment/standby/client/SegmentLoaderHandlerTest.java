@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.jackrabbit.oak.plugins.segment.standby.client;
+
+import static java.util.Arrays.asList;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.client.SegmentLoaderHandler.FETCH_WINDOW;
+import static org.apache.jackrabbit.oak.plugins.segment.standby.codec.Messages.newGetSegmentReq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jackrabbit.oak.plugins.segment.Segment;
+import org.apache.jackrabbit.oak.plugins.segment.SegmentTracker;
+import org.apache.jackrabbit.oak.plugins.segment.memory.MemoryStore;
+import org.apache.jackrabbit.oak.plugins.segment.standby.codec.SegmentReply;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentLoaderHandlerTest {
+
+    private static final String CLIENT_ID = "client";
+
+    private static final int READ_TIMEOUT_MS = 200;
+
+    private final Random random = new Random();
+
+    private final SegmentTracker tracker = new MemoryStore().getTracker();
+
+    private final SegmentLoaderHandler handler = new SegmentLoaderHandler(
+            null, null, null, CLIENT_ID, new AtomicBoolean(true),
+            READ_TIMEOUT_MS, false);
+
+    private EmbeddedChannel channel;
+
+    private ChannelHandlerContext ctx;
+
+    @Before
+    public void setUp() {
+        // the requests end up in the outbound messages of the channel
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void handlerAdded(ChannelHandlerContext ctx) {
+                SegmentLoaderHandlerTest.this.ctx = ctx;
+            }
+        });
+        handler.setContext(ctx);
+    }
+
+    @After
+    public void tearDown() {
+        channel.finish();
+    }
+
+    @Test
+    public void outOfOrderReplies() throws Exception {
+        Segment a = newSegment();
+        Segment b = newSegment();
+        Segment c = newSegment();
+        handler.prefetchSegments(asList(id(a), id(b), id(c)));
+        assertEquals(asList(request(a), request(b), request(c)), requests());
+
+        reply(c);
+        reply(a);
+        reply(b);
+        assertSame(b, handler.readSegment(id(b)));
+
+        // the other replies are kept until they are read
+        assertSame(a, handler.readSegment(id(a)));
+        assertSame(c, handler.readSegment(id(c)));
+        assertEquals(0, requests().size());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        Segment a = newSegment();
+        Segment b = newSegment();
+        handler.prefetchSegments(asList(id(a), id(b)));
+        assertEquals(asList(request(a), request(b)), requests());
+
+        assertNull(handler.readSegment(id(a)));
+
+        // late replies of the requests considered lost are dropped, the
+        // segments are requested again when they are read
+        reply(a);
+        reply(b);
+        assertSame(b, handler.readSegment(id(b)));
+        assertEquals(asList(request(b)), requests());
+
+        assertNull(handler.readSegment(id(a)));
+        assertEquals(asList(request(a)), requests());
+    }
+
+    @Test
+    public void unreadSegmentsDontShrinkWindow() throws Exception {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < FETCH_WINDOW; i++) {
+            Segment s = newSegment();
+            ids.add(id(s));
+            reply(s);
+        }
+        handler.prefetchSegments(ids);
+        assertEquals(FETCH_WINDOW, requests().size());
+        // all but the last segment are received, but never read
+        handler.readSegment(ids.get(FETCH_WINDOW - 1));
+
+        ids.clear();
+        for (int i = 0; i < FETCH_WINDOW; i++) {
+            ids.add(id(newSegment()));
+        }
+        handler.prefetchSegments(ids);
+        assertEquals(FETCH_WINDOW, requests().size());
+    }
+
+    private Segment newSegment() {
+        // a bulk segment, which can have any content
+        long msb = (random.nextLong() & ~(0xfL << 12)) | (0x4L << 12);
+        long lsb = (random.nextLong() & ~(0xfL << 60)) | (0xBL << 60);
+        byte[] data = new byte[16];
+        random.nextBytes(data);
+        return new Segment(tracker, tracker.getSegmentId(msb, lsb), ByteBuffer.wrap(data));
+    }
+
+    private static String id(Segment segment) {
+        return segment.getSegmentId().toString();
+    }
+
+    private static String request(Segment segment) {
+        return newGetSegmentReq(CLIENT_ID, id(segment));
+    }
+
+    private void reply(Segment segment) throws Exception {
+        handler.userEventTriggered(ctx, new SegmentReply(segment));
+    }
+
+    /**
+     * @return the requests sent since the previous call
+     */
+    private List<Object> requests() {
+        List<Object> requests = new ArrayList<Object>();
+        for (Object msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+            requests.add(msg);
+        }
+        return requests;
+    }
+
+}